@@ -19,7 +19,8 @@ public enum ContainerHostOperationType {
     VERSION("Host.Container.Version"),
     PING("Host.Container.Ping"),
     LIST_CONTAINERS("Host.Container.ListContainers"),
-    STATS("Host.Container.Stats");
+    STATS("Host.Container.Stats"),
+    CONTAINERS_STATS("Host.Container.ContainersStats");
 
     ContainerHostOperationType(String id) {
         this.id = id;
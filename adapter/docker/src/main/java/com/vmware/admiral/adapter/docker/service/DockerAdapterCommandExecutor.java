@@ -140,6 +140,10 @@ public interface DockerAdapterCommandExecutor {
     String SINCE = "since";
     int DEFAULT_VALUE_TAIL = 1000;
 
+    // Fetch events query param
+    String UNTIL = "until";
+    String FILTERS = "filters";
+
     // Management operations:
     void stop();
 
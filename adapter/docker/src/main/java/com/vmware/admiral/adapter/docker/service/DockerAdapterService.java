@@ -446,7 +446,7 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
                 String.format("*://%s", image.getHost()), RegistryState.FIELD_NAME_ADDRESS));
 
         List<String> registryLinks = new ArrayList<>();
-        new ServiceDocumentQuery<ContainerState>(getHost(), ContainerState.class).query(
+        new ServiceDocumentQuery<ContainerState>(getHost(), ContainerState.class).queryCached(
                 registryQuery, (r) -> {
                     if (r.hasException()) {
                         fail(context.request, r.getException());
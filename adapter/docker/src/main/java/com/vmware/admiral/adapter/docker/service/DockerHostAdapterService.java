@@ -20,9 +20,13 @@ import static com.vmware.admiral.compute.ContainerHostService.SSL_TRUST_CERT_PRO
 
 import java.net.HttpURLConnection;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -32,9 +36,12 @@ import com.vmware.admiral.common.ManagementUriParts;
 import com.vmware.admiral.common.SshUntrustedServerException;
 import com.vmware.admiral.common.UntrustedServerException;
 import com.vmware.admiral.compute.ContainerHostService;
+import com.vmware.admiral.compute.ContainerHostUtil;
 import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
 import com.vmware.admiral.compute.container.HostContainerListDataCollection.ContainerListCallback;
 import com.vmware.admiral.compute.container.ShellContainerExecutorService;
+import com.vmware.admiral.compute.container.maintenance.ContainerStats;
+import com.vmware.admiral.compute.container.maintenance.ContainerStatsEvaluator;
 import com.vmware.photon.controller.model.resources.ComputeService;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.xenon.common.Operation;
@@ -55,6 +62,9 @@ public class DockerHostAdapterService extends AbstractDockerAdapterService {
     private static final String COMMAND_CPU_USAGE = "awk -v a=\"$(awk '/cpu /{print $2+$4,$2+$4+$5}' /proc/stat; sleep 1)\" '/cpu /{split(a,b,\" \"); print 100*($2+$4-b[1])/($2+$4+$5-b[2])}'  /proc/stat";
     private static final String HIDDEN_CUSTOM_PROPERTY_PREFIX = "__";
 
+    private static final int CONTAINERS_STATS_CONCURRENCY = Integer.getInteger(
+            "com.vmware.admiral.adapter.docker.host.containers.stats.concurrency", 4);
+
     @Override
     public void handlePatch(Operation op) {
         ContainerHostRequest request = op.getBody(ContainerHostRequest.class);
@@ -98,6 +108,9 @@ public class DockerHostAdapterService extends AbstractDockerAdapterService {
         case STATS:
             doStats(request, computeState);
             break;
+        case CONTAINERS_STATS:
+            doContainersStats(request, computeState, commandInput);
+            break;
         default:
         }
     }
@@ -146,6 +159,70 @@ public class DockerHostAdapterService extends AbstractDockerAdapterService {
         }));
     }
 
+    /**
+     * Fetches the stats of the containers given in the request custom properties as container
+     * links mapped to container ids, with no more than {@link #CONTAINERS_STATS_CONCURRENCY}
+     * concurrent requests to the host, and patches them to the containers.
+     */
+    private void doContainersStats(ContainerHostRequest request, ComputeState computeState,
+            CommandInput commandInput) {
+        // currently VIC does not support container stats
+        if (request.customProperties == null || request.customProperties.isEmpty()
+                || ContainerHostUtil.isVicHost(computeState)) {
+            patchTaskStage(request, TaskStage.FINISHED, null);
+            return;
+        }
+
+        DockerAdapterCommandExecutor executor = getCommandExecutor(computeState);
+        Iterator<Entry<String, String>> containers = new ArrayList<>(
+                request.customProperties.entrySet()).iterator();
+        AtomicInteger remaining = new AtomicInteger(request.customProperties.size());
+        int concurrency = Math.min(CONTAINERS_STATS_CONCURRENCY, remaining.get());
+        for (int i = 0; i < concurrency; i++) {
+            fetchNextContainerStats(request, executor, commandInput, containers, remaining);
+        }
+    }
+
+    private void fetchNextContainerStats(ContainerHostRequest request,
+            DockerAdapterCommandExecutor executor, CommandInput commandInput,
+            Iterator<Entry<String, String>> containers, AtomicInteger remaining) {
+        Entry<String, String> container;
+        synchronized (containers) {
+            if (!containers.hasNext()) {
+                return;
+            }
+            container = containers.next();
+        }
+
+        CommandInput statsCommandInput = new CommandInput(commandInput).withProperty(
+                DOCKER_CONTAINER_ID_PROP_NAME, container.getValue());
+        executor.fetchContainerStats(statsCommandInput, (o, ex) -> {
+            // the host is free for the next container while these stats are applied
+            fetchNextContainerStats(request, executor, commandInput, containers, remaining);
+
+            String stats = null;
+            if (ex != null) {
+                logFine("Failed to fetch stats of container %s: %s", container.getKey(),
+                        Utils.toString(ex));
+            } else {
+                stats = o.getBody(String.class);
+            }
+            ContainerStats containerStats = ContainerStatsEvaluator.calculateStatsValues(stats);
+            containerStats.healthCheckSuccess = ex == null;
+            sendRequest(Operation.createPatch(this, container.getKey())
+                    .setBody(containerStats)
+                    .setCompletion((po, pex) -> {
+                        if (pex != null) {
+                            logWarning("Failed to update stats of container %s: %s",
+                                    container.getKey(), Utils.toString(pex));
+                        }
+                        if (remaining.decrementAndGet() == 0) {
+                            patchTaskStage(request, TaskStage.FINISHED, null);
+                        }
+                    }));
+        });
+    }
+
     private Map<String, Object> parseStatsOutput(String commandOutput, String hostLink) {
         Map<String, Object> properties = new HashMap<>();
 
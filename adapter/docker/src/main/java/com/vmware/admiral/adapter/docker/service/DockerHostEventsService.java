@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.FILTERS;
+import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.SINCE;
+import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.UNTIL;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonStreamParser;
+
+import com.vmware.admiral.adapter.common.AdapterRequest;
+import com.vmware.admiral.common.DeploymentProfileConfig;
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.common.util.QueryUtil;
+import com.vmware.admiral.common.util.ServiceDocumentQuery;
+import com.vmware.admiral.compute.ComputeConstants;
+import com.vmware.admiral.compute.ContainerHostService;
+import com.vmware.admiral.compute.ContainerHostService.DockerAdapterType;
+import com.vmware.admiral.compute.ContainerHostUtil;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
+import com.vmware.admiral.compute.container.HostContainerListDataCollection.ContainerListCallback;
+import com.vmware.admiral.compute.container.HostContainerListDataCollection.HostContainerListDataCollectionFactoryService;
+import com.vmware.admiral.compute.container.maintenance.ContainerStats;
+import com.vmware.admiral.service.common.ServiceTaskCallback;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.xenon.common.NodeSelectorService.SelectOwnerResponse;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification;
+
+/**
+ * Follows the container events of the docker hosts and applies the state changes they report
+ * (start, stop, die, pause, health status, etc.) to the matching containers right away, instead
+ * of waiting for the next periodic inspection of every container. Created and destroyed
+ * containers trigger the container list data collection of their host.
+ *
+ * Each host is followed by the node owning its link, the owner is selected again every minute
+ * by default. The events are fetched in consecutive <code>[since, until]</code> windows, starting
+ * from the time the host is first seen, so no connection is held open per host and an event is
+ * not missed between two windows.
+ *
+ * The hosts whose events are followed are marked with the
+ * {@link ContainerHostService#DOCKER_HOST_EVENTS_TIME_PROP_NAME} property, refreshed every
+ * {@link ContainerHostUtil#EVENTS_REFRESH_INTERVAL_MICROS}, so their containers are inspected less
+ * often. The mark is cleared when fetching the events fails, and the SSH and VIC hosts, which
+ * can't report their events, are not followed at all, so their containers keep being inspected
+ * at the usual intervals.
+ */
+public class DockerHostEventsService extends AbstractDockerAdapterService {
+    public static final String SELF_LINK = ManagementUriParts.ADAPTER_DOCKER_EVENTS;
+
+    public static final boolean ENABLED = Boolean.getBoolean(
+            "com.vmware.admiral.adapter.docker.events");
+    private static final long POLL_INTERVAL_MICROS = Long.getLong(
+            "com.vmware.admiral.adapter.docker.events.poll.interval.micros",
+            TimeUnit.SECONDS.toMicros(2));
+    private static final long OWNER_REFRESH_INTERVAL_MICROS = Long.getLong(
+            "com.vmware.admiral.adapter.docker.events.owner.refresh.interval.micros",
+            TimeUnit.MINUTES.toMicros(1));
+
+    private static final String CONTAINER_EVENTS_FILTER = "{\"type\":[\"container\"]}";
+    private static final String EVENT_ACTION = "Action";
+    private static final String EVENT_STATUS = "status";
+    private static final String EVENT_ID = "id";
+    private static final String EVENT_ACTOR = "Actor";
+    private static final String EVENT_ACTOR_ID = "ID";
+    private static final String EVENT_HEALTH_STATUS = "health_status";
+    private static final String HEALTH_STATUS_HEALTHY = "healthy";
+
+    /** The start of the next events window per host, in seconds since the epoch */
+    private final Map<String, Long> sinceByHostLink = new ConcurrentHashMap<>();
+    private final Set<String> fetchingHostLinks = ConcurrentHashMap.newKeySet();
+    /** The time the host was last marked as followed, per host */
+    private final Map<String, Long> markedTimeByHostLink = new ConcurrentHashMap<>();
+    /** Whether this node owns the host, per host */
+    private final Map<String, OwnerSelection> ownerByHostLink = new ConcurrentHashMap<>();
+
+    private static class OwnerSelection {
+        final boolean localOwner;
+        final long selectedTimeMicros;
+
+        OwnerSelection(boolean localOwner, long selectedTimeMicros) {
+            this.localOwner = localOwner;
+            this.selectedTimeMicros = selectedTimeMicros;
+        }
+    }
+
+    public DockerHostEventsService() {
+        super();
+        super.setMaintenanceIntervalMicros(POLL_INTERVAL_MICROS);
+    }
+
+    @Override
+    public void handleMaintenance(Operation post) {
+        if (getProcessingStage() != ProcessingStage.AVAILABLE) {
+            logFine("Skipping maintenance since service is not available: %s ", getUri());
+            post.complete();
+            return;
+        }
+
+        if (!ENABLED || DeploymentProfileConfig.getInstance().isTest()) {
+            post.complete();
+            return;
+        }
+
+        post.complete();
+        pollEvents();
+    }
+
+    /**
+     * Fetches the next events window of the hosts followed by this node. The hosts which can't
+     * report their events and the hosts owned by other nodes are skipped before any request to
+     * them.
+     */
+    void pollEvents() {
+        QueryTask q = QueryUtil.buildPropertyQuery(ComputeState.class,
+                QuerySpecification.buildCompositeFieldName(
+                        ComputeState.FIELD_NAME_CUSTOM_PROPERTIES,
+                        ComputeConstants.COMPUTE_CONTAINER_HOST_PROP_NAME), "true");
+        QueryUtil.addExpandOption(q);
+
+        long nowMicrosUtc = Utils.getNowMicrosUtc();
+        Set<String> hostLinks = new HashSet<>();
+        new ServiceDocumentQuery<>(getHost(), ComputeState.class).query(q, (r) -> {
+            if (r.hasException()) {
+                logWarning("Exception while retrieving docker hosts. Error: %s",
+                        Utils.toString(r.getException()));
+            } else if (r.hasResult()) {
+                ComputeState computeState = r.getResult();
+                if (!canFollowEvents(computeState)) {
+                    // VIC hosts do not report container events and the SSH executor can't
+                    // fetch them
+                    forgetHost(computeState.documentSelfLink);
+                    return;
+                }
+                hostLinks.add(computeState.documentSelfLink);
+                followEventsIfOwner(computeState, nowMicrosUtc);
+            } else {
+                // the hosts removed meanwhile
+                ownerByHostLink.keySet().retainAll(hostLinks);
+                sinceByHostLink.keySet().retainAll(hostLinks);
+                markedTimeByHostLink.keySet().retainAll(hostLinks);
+            }
+        });
+    }
+
+    private void followEventsIfOwner(ComputeState computeState, long nowMicrosUtc) {
+        String hostLink = computeState.documentSelfLink;
+        OwnerSelection owner = ownerByHostLink.get(hostLink);
+        if (owner != null
+                && nowMicrosUtc - owner.selectedTimeMicros < OWNER_REFRESH_INTERVAL_MICROS) {
+            followEvents(computeState, owner.localOwner);
+            return;
+        }
+
+        getHost().selectOwner(null, hostLink, Operation.createPost(null)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        logWarning("Failed to select owner of %s: %s", hostLink,
+                                Utils.toString(e));
+                        return;
+                    }
+                    boolean localOwner = o.getBody(SelectOwnerResponse.class).isLocalHostOwner;
+                    ownerByHostLink.put(hostLink, new OwnerSelection(localOwner, nowMicrosUtc));
+                    followEvents(computeState, localOwner);
+                }));
+    }
+
+    private void followEvents(ComputeState computeState, boolean localOwner) {
+        String hostLink = computeState.documentSelfLink;
+        if (!localOwner) {
+            // another node follows the host now
+            sinceByHostLink.remove(hostLink);
+            markedTimeByHostLink.remove(hostLink);
+            return;
+        }
+        if (fetchingHostLinks.add(hostLink)) {
+            fetchEvents(computeState);
+        }
+    }
+
+    private void fetchEvents(ComputeState computeState) {
+        String hostLink = computeState.documentSelfLink;
+        long untilSeconds = TimeUnit.MICROSECONDS.toSeconds(Utils.getNowMicrosUtc());
+        Long sinceSeconds = sinceByHostLink.putIfAbsent(hostLink, untilSeconds);
+        if (sinceSeconds == null || sinceSeconds >= untilSeconds) {
+            fetchingHostLinks.remove(hostLink);
+            return;
+        }
+
+        AdapterRequest request = new AdapterRequest();
+        request.resourceReference = UriUtils.buildUri(getHost(), hostLink);
+        request.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+
+        Operation op = Operation.createGet(null).setCompletion((o, e) -> {
+            if (e != null) {
+                logFine("Failed to fetch events of %s: %s", hostLink, Utils.toString(e));
+                fetchingHostLinks.remove(hostLink);
+                unmarkFollowed(hostLink);
+            }
+        });
+
+        // the queried host is used as is instead of being retrieved again
+        createHostConnection(request, op, computeState, (hostState, commandInput) -> {
+            commandInput.withProperty(SINCE, sinceSeconds)
+                    .withProperty(UNTIL, untilSeconds)
+                    .withProperty(FILTERS, CONTAINER_EVENTS_FILTER);
+            getEventsCommandExecutor().fetchEvents(commandInput, (o, ex) -> {
+                fetchingHostLinks.remove(hostLink);
+                if (ex != null) {
+                    // the window is fetched again next time, until then the containers are
+                    // inspected at the usual intervals
+                    logWarning("Failed to fetch events of %s: %s", hostLink,
+                            Utils.toString(ex));
+                    unmarkFollowed(hostLink);
+                    return;
+                }
+                // the windows are inclusive so the events at the boundary could be processed
+                // twice, which is harmless as they are applied as is
+                sinceByHostLink.put(hostLink, untilSeconds);
+                markFollowed(hostLink);
+                processEvents(hostLink, o.getBody(String.class));
+            });
+        });
+    }
+
+    /**
+     * Only the hosts managed through the remote API are followed, the events are fetched with its
+     * executor whatever the adapter type of the host.
+     */
+    protected RemoteApiDockerAdapterCommandExecutorImpl getEventsCommandExecutor() {
+        return (RemoteApiDockerAdapterCommandExecutorImpl) getApiCommandExecutor();
+    }
+
+    static boolean canFollowEvents(ComputeState computeState) {
+        if (ContainerHostUtil.isVicHost(computeState)) {
+            return false;
+        }
+        String adapterType = computeState.customProperties != null
+                ? computeState.customProperties
+                        .get(ContainerHostService.HOST_DOCKER_ADAPTER_TYPE_PROP_NAME)
+                : null;
+        return adapterType == null || DockerAdapterType.API.name().equals(adapterType);
+    }
+
+    private void forgetHost(String hostLink) {
+        ownerByHostLink.remove(hostLink);
+        sinceByHostLink.remove(hostLink);
+        unmarkFollowed(hostLink);
+    }
+
+    private void markFollowed(String hostLink) {
+        long nowMicrosUtc = Utils.getNowMicrosUtc();
+        Long markedTimeMicros = markedTimeByHostLink.get(hostLink);
+        if (markedTimeMicros != null && nowMicrosUtc - markedTimeMicros
+                < ContainerHostUtil.EVENTS_REFRESH_INTERVAL_MICROS) {
+            return;
+        }
+        markedTimeByHostLink.put(hostLink, nowMicrosUtc);
+        patchEventsTime(hostLink, nowMicrosUtc);
+    }
+
+    private void unmarkFollowed(String hostLink) {
+        if (markedTimeByHostLink.remove(hostLink) != null) {
+            patchEventsTime(hostLink, 0);
+        }
+    }
+
+    private void patchEventsTime(String hostLink, long eventsTimeMicros) {
+        ComputeState patch = new ComputeState();
+        patch.customProperties = new HashMap<>();
+        patch.customProperties.put(ContainerHostService.DOCKER_HOST_EVENTS_TIME_PROP_NAME,
+                String.valueOf(eventsTimeMicros));
+        sendRequest(Operation.createPatch(this, hostLink)
+                .setBody(patch)
+                .setCompletion((o, ex) -> {
+                    if (ex != null) {
+                        logWarning("Failed to update events time of %s: %s", hostLink,
+                                Utils.toString(ex));
+                    }
+                }));
+    }
+
+    private void processEvents(String hostLink, String events) {
+        if (events == null || events.isEmpty()) {
+            return;
+        }
+
+        // the last power and health events of a container win
+        Map<String, String> actionsByContainerId = new HashMap<>();
+        Map<String, String> healthActionsByContainerId = new HashMap<>();
+        boolean containersListChanged = false;
+        try {
+            JsonStreamParser parser = new JsonStreamParser(events);
+            while (parser.hasNext()) {
+                JsonElement element = parser.next();
+                if (!element.isJsonObject()) {
+                    continue;
+                }
+                JsonObject event = element.getAsJsonObject();
+                String action = getString(event, EVENT_ACTION);
+                if (action == null) {
+                    action = getString(event, EVENT_STATUS);
+                }
+                String id = getString(event, EVENT_ID);
+                if (id == null && event.has(EVENT_ACTOR)
+                        && event.get(EVENT_ACTOR).isJsonObject()) {
+                    id = getString(event.getAsJsonObject(EVENT_ACTOR), EVENT_ACTOR_ID);
+                }
+                if (action == null || id == null) {
+                    continue;
+                }
+
+                if ("create".equals(action) || "destroy".equals(action)) {
+                    containersListChanged = true;
+                } else if (action.startsWith(EVENT_HEALTH_STATUS)) {
+                    healthActionsByContainerId.put(id, action);
+                } else if (getPowerState(action) != null) {
+                    actionsByContainerId.put(id, action);
+                }
+            }
+        } catch (JsonParseException e) {
+            logWarning("Failed to parse events of %s: %s", hostLink, Utils.toString(e));
+        }
+
+        if (containersListChanged) {
+            updateContainersList(hostLink);
+        }
+        if (!actionsByContainerId.isEmpty() || !healthActionsByContainerId.isEmpty()) {
+            updateContainers(hostLink, actionsByContainerId, healthActionsByContainerId);
+        }
+    }
+
+    private static String getString(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+    }
+
+    private void updateContainersList(String hostLink) {
+        ContainerListCallback body = new ContainerListCallback();
+        body.containerHostLink = hostLink;
+        sendRequest(Operation
+                .createPatch(this,
+                        HostContainerListDataCollectionFactoryService.DEFAULT_HOST_CONAINER_LIST_DATA_COLLECTION_LINK)
+                .setBody(body)
+                .setCompletion((o, ex) -> {
+                    if (ex != null) {
+                        logWarning(Utils.toString(ex));
+                    }
+                }));
+    }
+
+    private void updateContainers(String hostLink, Map<String, String> actionsByContainerId,
+            Map<String, String> healthActionsByContainerId) {
+        Set<String> containerIds = new HashSet<>(actionsByContainerId.keySet());
+        containerIds.addAll(healthActionsByContainerId.keySet());
+        QueryTask q = QueryUtil.buildPropertyQuery(ContainerState.class,
+                ContainerState.FIELD_NAME_PARENT_LINK, hostLink);
+        QueryUtil.addListValueClause(q, ContainerState.FIELD_NAME_ID, containerIds);
+        QueryUtil.addExpandOption(q);
+
+        new ServiceDocumentQuery<>(getHost(), ContainerState.class).query(q, (r) -> {
+            if (r.hasException()) {
+                logWarning("Exception while retrieving containers of %s. Error: %s", hostLink,
+                        Utils.toString(r.getException()));
+            } else if (r.hasResult()) {
+                ContainerState containerState = r.getResult();
+                updateContainer(containerState, actionsByContainerId.get(containerState.id));
+                updateContainer(containerState,
+                        healthActionsByContainerId.get(containerState.id));
+            }
+        });
+    }
+
+    private void updateContainer(ContainerState containerState, String action) {
+        if (action == null) {
+            return;
+        }
+
+        Object patch;
+        if (action.startsWith(EVENT_HEALTH_STATUS)) {
+            ContainerStats stats = new ContainerStats();
+            stats.healthCheckSuccess = action.endsWith(": " + HEALTH_STATUS_HEALTHY);
+            patch = stats;
+        } else {
+            PowerState powerState = getPowerState(action);
+            if (powerState == null || powerState == containerState.powerState) {
+                return;
+            }
+            ContainerState patchState = new ContainerState();
+            patchState.powerState = powerState;
+            patch = patchState;
+        }
+
+        logFine("Updating container %s on event %s", containerState.documentSelfLink, action);
+        sendRequest(Operation.createPatch(this, containerState.documentSelfLink)
+                .setBody(patch)
+                .setCompletion((o, ex) -> {
+                    if (ex != null) {
+                        logWarning("Failed to update container %s on event %s: %s",
+                                containerState.documentSelfLink, action, Utils.toString(ex));
+                    }
+                }));
+    }
+
+    static PowerState getPowerState(String action) {
+        switch (action) {
+        case "start":
+        case "restart":
+        case "unpause":
+            return PowerState.RUNNING;
+        case "die":
+        case "stop":
+            return PowerState.STOPPED;
+        case "pause":
+            return PowerState.PAUSED;
+        default:
+            return null;
+        }
+    }
+}
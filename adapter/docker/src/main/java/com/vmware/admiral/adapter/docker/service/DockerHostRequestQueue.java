@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.vmware.admiral.common.util.HostPermitQueue;
+import com.vmware.admiral.common.util.HostPermitQueue.HostQueueStats;
+import com.vmware.admiral.common.util.HostPermitQueue.ItemHandler;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceClient;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Queue of the requests to the Docker daemons, limiting the number of requests in flight, and so
+ * the number of connections, per daemon.
+ *
+ * The requests are queued per daemon (host:port) with a {@link HostPermitQueue}, so a burst of
+ * requests against one daemon waits for the connections of that daemon only. A request expired
+ * while queued fails with a {@link TimeoutException} instead of being sent.
+ */
+public class DockerHostRequestQueue {
+
+    /** Max number of requests in flight at the same time per Docker daemon */
+    private static final int MAX_CONNECTIONS_PER_HOST = Integer.getInteger(
+            "adapter.docker.api.client.max.connections.per.host", 16);
+
+    /** Time after which the queue of a Docker daemon without requests is removed */
+    private static final long IDLE_HOST_TIMEOUT_MICROS = Long.getLong(
+            "adapter.docker.api.client.idle.host.timeout.micros", TimeUnit.MINUTES.toMicros(5));
+
+    private final ServiceClient serviceClient;
+
+    private final HostPermitQueue<String, Operation> hostQueues;
+
+    public DockerHostRequestQueue(ServiceClient serviceClient) {
+        this.serviceClient = serviceClient;
+        this.hostQueues = new HostPermitQueue<>(MAX_CONNECTIONS_PER_HOST,
+                new ItemHandler<String, Operation>() {
+                    @Override
+                    public void start(String target, Operation op) {
+                        send(target, op);
+                    }
+
+                    @Override
+                    public boolean isExpired(Operation op) {
+                        return op.getExpirationMicrosUtc() != 0
+                                && op.getExpirationMicrosUtc() < Utils.getNowMicrosUtc();
+                    }
+
+                    @Override
+                    public void expired(String target, Operation op) {
+                        op.fail(new TimeoutException(String.format(
+                                "Request to %s expired while waiting for a connection",
+                                op.getUri())));
+                    }
+                });
+    }
+
+    public void send(Operation op) {
+        URI uri = op.getUri();
+        hostQueues.submit(uri.getHost() + ":" + uri.getPort(), op);
+    }
+
+    /**
+     * Fail the requests expired while queued, without waiting for a connection to the daemon, and
+     * remove the queues of the daemons idle for a while
+     */
+    public void handleMaintenance() {
+        hostQueues.expire();
+        hostQueues.removeIdleHosts(IDLE_HOST_TIMEOUT_MICROS);
+    }
+
+    /**
+     * Returns a snapshot of the queues per Docker daemon (host:port)
+     */
+    public Map<String, HostQueueStats> getHostQueueStats() {
+        return hostQueues.getHostQueueStats();
+    }
+
+    private void send(String target, Operation op) {
+        op.nestCompletion((o, e) -> {
+            try {
+                if (e != null) {
+                    op.fail(e);
+                } else {
+                    op.complete();
+                }
+            } finally {
+                // hand off the connection to the next request for the daemon
+                hostQueues.release(target);
+            }
+        });
+        serviceClient.send(op);
+    }
+}
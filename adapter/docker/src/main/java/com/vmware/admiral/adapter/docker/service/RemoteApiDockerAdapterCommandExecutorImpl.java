@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -62,9 +63,11 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
 
     private static final Pattern ERROR_PATTERN = Pattern.compile("\"error\":\"(.*)\"");
     private final ServiceHost host;
+    // Shared with the other users of the same trust/key material, the commands like exec start
+    // use connections of their own with the attach connection tag
     private final ServiceClient serviceClient;
-    // Used for commands like exec start
-    private final ServiceClient attachServiceClient;
+    // Limits the requests in flight per Docker daemon sent with the default client
+    private final DockerHostRequestQueue requestQueue;
     // Used for commands like load image from tar
     private final ServiceClient largeDataClient;
     private final DelegatingX509KeyManager keyManager = new DelegatingX509KeyManager();
@@ -79,6 +82,8 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
     private final int DOCKER_IMAGE_REQUEST_TIMEOUT_SECONDS = Integer.getInteger(
             "adapter.docker.api.client.image_request_timeout_seconds", 60 * 10);
 
+    private static final String ATTACH_CONNECTION_TAG = "docker-attach";
+
     private enum ClientMode {
         DEFAULT,
         ATTACH,
@@ -88,10 +93,11 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
     protected RemoteApiDockerAdapterCommandExecutorImpl(ServiceHost host,
             final TrustManager trustManager) {
         this.host = host;
-        this.serviceClient = ServiceClientFactory.createServiceClient(trustManager, keyManager);
-        this.attachServiceClient = ServiceClientFactory.createServiceClient(trustManager,
-                keyManager);
-        this.largeDataClient = ServiceClientFactory.createServiceClient(
+        this.serviceClient = ServiceClientFactory.getServiceClient(trustManager, keyManager);
+        this.serviceClient.setConnectionLimitPerTag(ATTACH_CONNECTION_TAG,
+                this.serviceClient.getConnectionLimitPerHost());
+        this.requestQueue = new DockerHostRequestQueue(this.serviceClient);
+        this.largeDataClient = ServiceClientFactory.getServiceClient(
                 trustManager, keyManager, DOCKER_REQUEST_PAYLOAD_SIZE_LIMIT);
 
         if (trustManager instanceof ServerX509TrustManager) {
@@ -289,6 +295,23 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
         sendGet(uri, null, completionHandler);
     }
 
+    /**
+     * https://docs.docker.com/engine/reference/api/docker_remote_api_v1.24/#monitor-docker-s-events
+     * The {@link DockerAdapterCommandExecutor#UNTIL} property is expected, so the request returns
+     * the events in the given window as newline delimited JSON instead of streaming. Not part of
+     * {@link DockerAdapterCommandExecutor}, the SSH hosts can't report their events.
+     */
+    public void fetchEvents(CommandInput input, CompletionHandler completionHandler) {
+        createOrUpdateTargetSsl(input);
+        Map<String, Object> properties = input.getProperties();
+        URI uri = UriUtils.extendUri(input.getDockerUri(), "/events");
+        uri = UriUtils.extendUriWithQuery(uri,
+                SINCE, String.valueOf(properties.get(SINCE)),
+                UNTIL, String.valueOf(properties.get(UNTIL)),
+                FILTERS, String.valueOf(properties.get(FILTERS)));
+        sendGet(uri, null, completionHandler);
+    }
+
     /**
      * https://docs.docker.com/engine/reference/api/docker_remote_api_v1.24/#create-a-network
      * Mandatory properties for <code>input</code>:
@@ -322,9 +345,6 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
 
     @Override
     public void stop() {
-        if (attachServiceClient != null) {
-            attachServiceClient.stop();
-        }
         if (this.serviceClient != null) {
             this.serviceClient.stop();
         }
@@ -335,8 +355,12 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
 
     @Override
     public void handleMaintenance(Operation post) {
-        if (attachServiceClient != null) {
-            attachServiceClient.handleMaintenance(post);
+        requestQueue.handleMaintenance();
+        if (logger.isLoggable(Level.FINE)) {
+            ServiceClientFactory.getServiceClientStats().forEach((target, stats) -> logger
+                    .fine(String.format("Service client stats for %s: %s", target, stats)));
+            requestQueue.getHostQueueStats().forEach((target, stats) -> logger
+                    .fine(String.format("Docker request queue stats for %s: %s", target, stats)));
         }
         if (serviceClient != null) {
             serviceClient.handleMaintenance(post);
@@ -545,9 +569,10 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
         if (ClientMode.LARGE_DATA.equals(mode)) {
             largeDataClient.send(op);
         } else if (ClientMode.ATTACH.equals(mode)) {
-            attachServiceClient.send(op);
-        } else {
+            op.setConnectionTag(ATTACH_CONNECTION_TAG);
             serviceClient.send(op);
+        } else {
+            requestQueue.send(op);
         }
     }
 
@@ -106,12 +106,18 @@ public class SshDockerAdapterCommandExecutorImpl implements DockerAdapterCommand
          */
         scheduler = (r, delayMillis) -> host.schedule(r, delayMillis, TimeUnit.MILLISECONDS);
         sessionPool = new CachingJschSessionPoolImpl(scheduler);
-        sshQueueExecutor = new SshQueueExecutor(scheduler, sessionPool);
+        sshQueueExecutor = new SshQueueExecutor(sessionPool, scheduler);
     }
 
     @Override
     public void handleMaintenance(Operation post) {
-        // add periodic maintenance logic here
+        sshQueueExecutor.handleMaintenance();
+        if (logger.isLoggable(Level.FINE)) {
+            sshQueueExecutor.getHostQueueStats().forEach((sessionParams, stats) -> {
+                logger.fine(String.format("SSH queue of %s:%d: %s", sessionParams.getHost(),
+                        sessionParams.getPort(), stats));
+            });
+        }
     }
 
     /**
@@ -216,6 +222,11 @@ public class SshDockerAdapterCommandExecutorImpl implements DockerAdapterCommand
                 ByteArrayOutputStream err = new ByteArrayOutputStream();
 
                 exec(commandInput, command, in, out, err, (task) -> {
+                    if (task.getFailure() != null) {
+                        completionHandler.handle(null, task.getFailure());
+                        return;
+                    }
+
                     int exitStatus = task.getExitStatus();
                     if (logger.isLoggable(Level.FINE)) {
                         Utils.log(logger, null, getClass().getName(), Level.FINE,
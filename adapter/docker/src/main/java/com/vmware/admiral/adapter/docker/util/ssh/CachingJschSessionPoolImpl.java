@@ -11,8 +11,10 @@
 
 package com.vmware.admiral.adapter.docker.util.ssh;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -24,15 +26,16 @@ import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
 
-import com.vmware.admiral.common.util.ConcurrentUtil;
 import com.vmware.xenon.common.Utils;
 
 /**
  * A JschSessionPool implementation that keeps sessions open for a limited time after a task is
  * complete
  *
- * This implementation only allows one active Session instance per SessionParams (host, port, user,
- * etc.)
+ * This implementation keeps up to a number of active Session instances per SessionParams (host,
+ * port, user, etc.) and gives the least loaded one, opening a new session only when all the open
+ * ones have reached the max number of channels. Each host has its own lock, so opening a session to
+ * a slow host doesn't hold back the others.
  */
 public class CachingJschSessionPoolImpl extends JSchSessionPoolImpl {
     private static final Logger logger = Logger.getLogger(CachingJschSessionPoolImpl.class
@@ -45,12 +48,6 @@ public class CachingJschSessionPoolImpl extends JSchSessionPoolImpl {
     private static final long KEEP_SESSION_MILLIS = Long.getLong(
             "adapter.docker.ssh.grace.millis", 30000);
 
-    /**
-     * Time between session expiration check for a command to complete
-     */
-    private static final long POLL_INTERVAL_MILLIS = Long.getLong(
-            "adapter.docker.ssh.session.expiration.poll.millis", 200);
-
     /**
      * Command to execute on session to test their validity
      */
@@ -66,48 +63,67 @@ public class CachingJschSessionPoolImpl extends JSchSessionPoolImpl {
     private static final int MAX_CHANNELS_PER_SESSION = Integer.getInteger(
             "adapter.docker.ssh.channels.per.session", 8);
 
+    /**
+     * Maximum number of sessions open at the same time per SessionParams
+     */
+    private static final int MAX_SESSIONS_PER_HOST = Integer.getInteger(
+            "adapter.docker.ssh.sessions.per.host", 4);
+
     private static class SessionInfo {
+        private final Session session;
+
+        private final SessionParams sessionParams;
+
         /**
-         * Number of tasks using the Session
+         * Number of tasks using the Session, guarded by the lock of the host
          */
-        private final AtomicInteger refCount;
+        private final AtomicInteger refCount = new AtomicInteger();
 
         /**
-         * Cleanup code that is already scheduled, held so it can be cancelled in case the grace
-         * period needs to be extended, for example
+         * Cleanup code that is already scheduled, held so it can be cancelled on shutdown
          */
         private Future<?> scheduledCloser = null;
 
-        private final SessionParams sessionParams;
         private long lastUsedTimeMicros;
 
-        public SessionInfo(SessionParams sessionParams, AtomicInteger refCount) {
+        public SessionInfo(Session session, SessionParams sessionParams) {
+            this.session = session;
             this.sessionParams = sessionParams;
-            this.refCount = refCount;
             this.lastUsedTimeMicros = Utils.getNowMicrosUtc();
         }
     }
 
     /**
-     * used for scheduling the delayed close of sessions after a grace period
+     * The cached sessions of a host
      */
-    private final BiFunction<Runnable, Long, Future<?>> scheduler;
+    private static class HostSessions {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final List<SessionInfo> sessions = new ArrayList<>();
+
+        /**
+         * Number of sessions being opened in advance
+         */
+        private int warmingUp;
+    }
 
     /**
-     * Mapping from SessionParams to an existing SessionInfo
+     * used for scheduling the delayed close of sessions after a grace period and opening sessions
+     * in advance
      */
-    private final Map<SessionParams, Session> cachedSessions = new HashMap<>();
+    private final BiFunction<Runnable, Long, Future<?>> scheduler;
 
     /**
-     * Session information for cached sessions
+     * Mapping from SessionParams to the cached sessions of the host
      */
-    private final Map<Session, SessionInfo> sessionInfoMap = new HashMap<>();
+    private final Map<SessionParams, HostSessions> cachedSessions = new ConcurrentHashMap<>();
 
     /**
-     * Coarse lock for all operations on the pool due to the use of multiple data structures that
-     * need to be kept in sync
+     * Session information for cached sessions
      */
-    private final ReentrantLock mainLock = new ReentrantLock();
+    private final Map<Session, SessionInfo> sessionInfoMap = new ConcurrentHashMap<>();
+
+    private volatile boolean shutdown;
 
     /**
      *
@@ -118,164 +134,293 @@ public class CachingJschSessionPoolImpl extends JSchSessionPoolImpl {
         this.scheduler = scheduler;
     }
 
-    public int getActiveChannelsPerSession(SessionParams sessionParams) {
+    public int getActiveChannels(SessionParams sessionParams) {
+        HostSessions hostSessions = cachedSessions.get(sessionParams);
+        if (hostSessions == null) {
+            return 0;
+        }
+
+        try {
+            hostSessions.lock.lock();
+            return hostSessions.sessions.stream().mapToInt((s) -> s.refCount.get()).sum();
+        } finally {
+            hostSessions.lock.unlock();
+        }
+    }
+
+    @Override
+    public Session getSession(SessionParams sessionParams) {
+        if (shutdown) {
+            throw new IllegalStateException("Pool was shut down");
+        }
+
+        HostSessions hostSessions = cachedSessions.computeIfAbsent(sessionParams,
+                (k) -> new HostSessions());
         try {
-            mainLock.lock();
-            Session cachedSession = cachedSessions.get(sessionParams);
-            if (cachedSession == null) {
-                return 0;
+            hostSessions.lock.lock();
+
+            logger.finest("Cached sessions count: " + hostSessions.sessions.size());
+
+            // check if a cached session is available, the least loaded one
+            SessionInfo sessionInfo;
+            while ((sessionInfo = getLeastLoaded(hostSessions)) != null) {
+                if (validateCachedSession(sessionInfo.session)) {
+                    // try to avoid "no more sessions" error but this is not guaranteed since the
+                    // server may have other sessions opened
+                    int refCount = sessionInfo.refCount.incrementAndGet();
+                    logger.fine(String.format("Reusing cached session (refcount=%d): %s",
+                            refCount - 1, sessionInfo.session));
+                    sessionInfo.lastUsedTimeMicros = Utils.getNowMicrosUtc();
+                    return sessionInfo.session;
+                }
+                closeSessionImpl(hostSessions, sessionInfo);
+            }
+
+            if (hostSessions.sessions.size() >= MAX_SESSIONS_PER_HOST) {
+                logger.warning("Maximum number of channels per session exceeded");
+                throw new MaximumNumberOfChannelsPerSessionException();
             }
-            SessionInfo sessionInfo = sessionInfoMap.get(cachedSession);
-            if (sessionInfo == null) {
-                return 0;
+
+            // no cached session with available channels found - create a new one
+            Session newSession;
+            try {
+                newSession = super.getSession(sessionParams);
+            } catch (IllegalStateException e) {
+                if (hostSessions.sessions.isEmpty()) {
+                    throw e;
+                }
+                // no more sessions allowed, wait for channels of the open ones
+                logger.warning("Maximum number of channels per session exceeded: "
+                        + e.getMessage());
+                throw new MaximumNumberOfChannelsPerSessionException();
             }
 
-            return sessionInfo.refCount.get();
+            sessionInfo = addSession(hostSessions, newSession, sessionParams);
+            sessionInfo.refCount.incrementAndGet();
+            return newSession;
+
         } finally {
-            mainLock.unlock();
+            hostSessions.lock.unlock();
         }
     }
 
+    /**
+     * Open sessions in advance for the given number of channels, if the cached sessions don't have
+     * enough available channels, so the tasks queued for the host don't wait for the sessions to be
+     * opened one by one
+     */
     @Override
-    public Session getSession(SessionParams sessionParams) {
+    public void prewarm(SessionParams sessionParams, int channels) {
+        if (shutdown) {
+            return;
+        }
+
+        HostSessions hostSessions = cachedSessions.computeIfAbsent(sessionParams,
+                (k) -> new HostSessions());
+        if (!hostSessions.lock.tryLock()) {
+            // a session is being opened or validated for the host, try with the next tasks
+            return;
+        }
+
+        int sessionsToOpen;
         try {
-            mainLock.lock();
+            int availableChannels = hostSessions.warmingUp * MAX_CHANNELS_PER_SESSION;
+            for (SessionInfo sessionInfo : hostSessions.sessions) {
+                availableChannels += MAX_CHANNELS_PER_SESSION - sessionInfo.refCount.get();
+            }
+            int missingChannels = channels - availableChannels;
+            if (missingChannels <= 0) {
+                return;
+            }
 
-            logger.finest("Cached sessions count: " + cachedSessions.size());
+            sessionsToOpen = Math.min(
+                    (missingChannels + MAX_CHANNELS_PER_SESSION - 1) / MAX_CHANNELS_PER_SESSION,
+                    MAX_SESSIONS_PER_HOST - hostSessions.sessions.size()
+                            - hostSessions.warmingUp);
+            if (sessionsToOpen <= 0) {
+                return;
+            }
+            hostSessions.warmingUp += sessionsToOpen;
 
-            // check if a cached session is available
-            Session cachedSession = cachedSessions.get(sessionParams);
-            if (validateCachedSession(cachedSession)) {
-                SessionInfo sessionInfo = sessionInfoMap.get(cachedSession);
+        } finally {
+            hostSessions.lock.unlock();
+        }
 
-                // increase the ref count for the session
-                // try to avoid "no more sessions" error but this is not guaranteed since the server
-                // may have other sessions opened
-                boolean success = ConcurrentUtil.incrementIfLessThan(sessionInfo.refCount,
-                        MAX_CHANNELS_PER_SESSION);
+        logger.fine(String.format("Opening %d sessions in advance for %s", sessionsToOpen,
+                sessionParams.getHost()));
+        for (int i = 0; i < sessionsToOpen; i++) {
+            scheduler.apply(() -> warmUp(hostSessions, sessionParams), 0L);
+        }
+    }
 
-                if (!success) {
-                    logger.warning("Maximum number of channels per session exceeded");
-                    throw new MaximumNumberOfChannelsPerSessionException();
-                }
+    private void warmUp(HostSessions hostSessions, SessionParams sessionParams) {
+        // opened without holding the lock, so the host sessions could be used meanwhile
+        Session newSession = null;
+        try {
+            newSession = super.getSession(sessionParams);
+        } catch (RuntimeException e) {
+            logger.fine("Could not open a session in advance: " + e.getMessage());
+        }
 
-                logger.fine(String.format("Reusing cached session (refcount=%d): %s",
-                        sessionInfo.refCount.get() - 1, cachedSession));
-                sessionInfo.lastUsedTimeMicros = Utils.getNowMicrosUtc();
-                return cachedSession;
+        try {
+            hostSessions.lock.lock();
+            hostSessions.warmingUp--;
+            if (newSession == null) {
+                return;
             }
 
-            // no cached session found - create a new one
-            Session newSession = super.getSession(sessionParams);
-
-            SessionInfo sessionInfo = new SessionInfo(sessionParams, new AtomicInteger(1));
-            sessionInfoMap.put(newSession, sessionInfo);
-            cachedSessions.put(sessionParams, newSession);
+            if (shutdown || hostSessions.sessions.size() >= MAX_SESSIONS_PER_HOST) {
+                super.closeSession(newSession);
+                return;
+            }
 
-            return newSession;
+            SessionInfo sessionInfo = addSession(hostSessions, newSession, sessionParams);
+            scheduleCloser(hostSessions, sessionInfo);
 
         } finally {
-            mainLock.unlock();
+            hostSessions.lock.unlock();
         }
     }
 
     @Override
     public void closeSession(Session finishedSession) {
         // delay the actual disconnect for a while in case another task needs the same session
+        SessionInfo sessionInfo = sessionInfoMap.get(finishedSession);
+        if (sessionInfo == null) {
+            logger.fine("Session already closed: " + finishedSession);
+            super.closeSession(finishedSession);
+            return;
+        }
+
+        HostSessions hostSessions = cachedSessions.get(sessionInfo.sessionParams);
         try {
-            mainLock.lock();
+            hostSessions.lock.lock();
 
-            SessionInfo sessionInfo = sessionInfoMap.get(finishedSession);
             sessionInfo.lastUsedTimeMicros = Utils.getNowMicrosUtc();
+            int current = sessionInfo.refCount.decrementAndGet();
 
-            // if a previous closer was already scheduled, cancel it since it's going to be
-            // rescheduled (if we can unschedule the previous closer we can decrement the refcount
-            // immediately, otherwise we must not decrement to prevent premature closure)
-            Future<?> existingScheduleCloser = sessionInfo.scheduledCloser;
-            if (existingScheduleCloser != null && existingScheduleCloser.cancel(false)) {
-                int current = sessionInfo.refCount.decrementAndGet();
-                logger.finest(String.format("Canceled session closer (refcount=%d): %s",
-                        current, finishedSession));
-            }
-
-            if (!finishedSession.isConnected()) {
+            if (!isConnected(finishedSession)) {
                 // the session is already disconnected so run the cleanup immediately
                 logger.fine("Session already disconnected: " + finishedSession);
-                closeSessionImpl(finishedSession);
-            } else {
-                closeIfSessionExpired(sessionInfo, finishedSession);
+                closeSessionImpl(hostSessions, sessionInfo);
+            } else if (current <= 0) {
+                scheduleCloser(hostSessions, sessionInfo);
             }
 
         } finally {
-            mainLock.unlock();
+            hostSessions.lock.unlock();
         }
     }
 
-    private void closeIfSessionExpired(SessionInfo sessionInfo, Session finishedSession) {
-        if (!finishedSession.isConnected()
-                || Utils.getNowMicrosUtc() > sessionInfo.lastUsedTimeMicros
-                        + TimeUnit.MILLISECONDS.toMicros(KEEP_SESSION_MILLIS)) {
-            closeSessionImpl(finishedSession);
+    /**
+     * Close the session once it is not used for the grace period, the lock of the host must be
+     * held
+     */
+    private void scheduleCloser(HostSessions hostSessions, SessionInfo sessionInfo) {
+        if (sessionInfo.scheduledCloser != null) {
+            // already scheduled, will check the last use time
             return;
         }
 
+        long expirationMicros = sessionInfo.lastUsedTimeMicros
+                + TimeUnit.MILLISECONDS.toMicros(KEEP_SESSION_MILLIS);
+        long delayMillis = TimeUnit.MICROSECONDS.toMillis(
+                Math.max(0, expirationMicros - Utils.getNowMicrosUtc())) + 1;
         sessionInfo.scheduledCloser = scheduler.apply(
-                () -> closeIfSessionExpired(sessionInfo, finishedSession),
-                POLL_INTERVAL_MILLIS);
+                () -> closeIfSessionExpired(hostSessions, sessionInfo), delayMillis);
     }
 
-    @Override
-    public void shutdown() {
+    private void closeIfSessionExpired(HostSessions hostSessions, SessionInfo sessionInfo) {
         try {
-            mainLock.lock();
+            hostSessions.lock.lock();
+            sessionInfo.scheduledCloser = null;
 
-            for (SessionInfo sessionInfo : sessionInfoMap.values()) {
-                if (sessionInfo.scheduledCloser != null) {
-                    sessionInfo.scheduledCloser.cancel(true);
-                }
+            if (sessionInfo.refCount.get() > 0) {
+                // in use, scheduled again once not used anymore
+                return;
             }
 
-            super.shutdown();
+            if (!isConnected(sessionInfo.session)
+                    || Utils.getNowMicrosUtc() > sessionInfo.lastUsedTimeMicros
+                            + TimeUnit.MILLISECONDS.toMicros(KEEP_SESSION_MILLIS)) {
+                closeSessionImpl(hostSessions, sessionInfo);
+                return;
+            }
 
-            cachedSessions.clear();
-            sessionInfoMap.clear();
+            scheduleCloser(hostSessions, sessionInfo);
 
         } finally {
-            mainLock.unlock();
+            hostSessions.lock.unlock();
         }
-        super.shutdown();
     }
 
-    /**
-     * close the session
-     *
-     * @param session
-     */
-    private void closeSessionImpl(Session session) {
-        try {
-            mainLock.lock();
-            SessionInfo sessionInfo = sessionInfoMap.get(session);
-            if (sessionInfo != null) {
-                int current = sessionInfo.refCount.get();
-                if (current <= 0) {
+    @Override
+    public void shutdown() {
+        shutdown = true;
+
+        for (HostSessions hostSessions : cachedSessions.values()) {
+            try {
+                hostSessions.lock.lock();
+
+                for (SessionInfo sessionInfo : hostSessions.sessions) {
                     if (sessionInfo.scheduledCloser != null) {
-                        sessionInfo.scheduledCloser.cancel(false);
+                        sessionInfo.scheduledCloser.cancel(true);
                     }
+                    sessionInfoMap.remove(sessionInfo.session);
+                }
+                hostSessions.sessions.clear();
 
-                    sessionInfoMap.remove(session);
-                    cachedSessions.remove(sessionInfo.sessionParams);
+            } finally {
+                hostSessions.lock.unlock();
+            }
+        }
+        cachedSessions.clear();
 
-                    super.closeSession(session);
+        super.shutdown();
+    }
 
-                } else {
-                    logger.finest(String.format(
-                            "Session is still in use (refcount=%d), so not closing it: %s",
-                            current, session));
-                }
+    /**
+     * Returns the cached session with the least channels in use, if it has available channels
+     */
+    private SessionInfo getLeastLoaded(HostSessions hostSessions) {
+        SessionInfo leastLoaded = null;
+        for (SessionInfo sessionInfo : hostSessions.sessions) {
+            int refCount = sessionInfo.refCount.get();
+            if (refCount < MAX_CHANNELS_PER_SESSION
+                    && (leastLoaded == null || refCount < leastLoaded.refCount.get())) {
+                leastLoaded = sessionInfo;
             }
+        }
+        return leastLoaded;
+    }
 
-        } finally {
-            mainLock.unlock();
+    private SessionInfo addSession(HostSessions hostSessions, Session session,
+            SessionParams sessionParams) {
+        SessionInfo sessionInfo = new SessionInfo(session, sessionParams);
+        hostSessions.sessions.add(sessionInfo);
+        sessionInfoMap.put(session, sessionInfo);
+        return sessionInfo;
+    }
+
+    /**
+     * close the session, the lock of the host must be held
+     *
+     * The tasks still using the session are left to complete, it is not given to new ones
+     */
+    private void closeSessionImpl(HostSessions hostSessions, SessionInfo sessionInfo) {
+        if (sessionInfo.scheduledCloser != null) {
+            sessionInfo.scheduledCloser.cancel(false);
+            sessionInfo.scheduledCloser = null;
+        }
+
+        hostSessions.sessions.remove(sessionInfo);
+        if (sessionInfo.refCount.get() <= 0) {
+            sessionInfoMap.remove(sessionInfo.session);
+            super.closeSession(sessionInfo.session);
+        } else {
+            logger.finest(String.format(
+                    "Session is still in use (refcount=%d), closed when not used anymore: %s",
+                    sessionInfo.refCount.get(), sessionInfo.session));
         }
     }
 
@@ -284,29 +429,32 @@ public class CachingJschSessionPoolImpl extends JSchSessionPoolImpl {
      *
      * @return true if the session is valid, false otherwise
      */
-    private boolean validateCachedSession(Session cachedSession) {
-        if (cachedSession != null) {
-            if (cachedSession.isConnected()) {
-                try {
-                    if (SESSION_TEST_COMMAND != null) {
-                        logger.finest("Executing session test command: " + cachedSession);
-                        ChannelExec testChannel = (ChannelExec) cachedSession.openChannel("exec");
-                        testChannel.setCommand(SESSION_TEST_COMMAND);
-                        testChannel.connect();
-                        testChannel.disconnect();
-                    }
-                    return true;
-
-                } catch (JSchException x) {
-                    logger.info("Failure running the session validation command: " + x.getMessage());
+    protected boolean validateCachedSession(Session cachedSession) {
+        if (isConnected(cachedSession)) {
+            try {
+                if (SESSION_TEST_COMMAND != null) {
+                    logger.finest("Executing session test command: " + cachedSession);
+                    ChannelExec testChannel = (ChannelExec) cachedSession.openChannel("exec");
+                    testChannel.setCommand(SESSION_TEST_COMMAND);
+                    testChannel.connect();
+                    testChannel.disconnect();
                 }
-            }
+                return true;
 
-            closeSessionImpl(cachedSession);
+            } catch (JSchException x) {
+                logger.info("Failure running the session validation command: " + x.getMessage());
+            }
         }
         return false;
     }
 
+    /**
+     * Check that a session is still connected, the disconnected sessions are evicted
+     */
+    protected boolean isConnected(Session session) {
+        return session.isConnected();
+    }
+
     public static class MaximumNumberOfChannelsPerSessionException extends RuntimeException {
         private static final long serialVersionUID = 1L;
 
@@ -32,6 +32,13 @@ public interface JSchSessionPool {
      */
     public void closeSession(Session finishedSession);
 
+    /**
+     * Hint that the given number of channels are about to be needed for the session params, so
+     * sessions could be opened in advance
+     */
+    public default void prewarm(SessionParams sessionParams, int channels) {
+    }
+
     /**
      * Close all active session and reject new requests
      */
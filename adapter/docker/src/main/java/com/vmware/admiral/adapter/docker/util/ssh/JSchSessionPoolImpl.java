@@ -28,7 +28,7 @@ public class JSchSessionPoolImpl extends AbstractJSchSessionPool {
     private static final Logger logger = Logger.getLogger(JSchSessionPoolImpl.class.getName());
 
     private static final int MAX_CONCURRENT_SESSIONS = Integer.getInteger(
-            "adapter.docker.ssh.sessions", 8);
+            "adapter.docker.ssh.sessions", 32);
 
     private final Queue<Session> activeSessions = new ConcurrentLinkedQueue<>();
 
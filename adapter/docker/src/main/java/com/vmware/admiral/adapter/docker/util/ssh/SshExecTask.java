@@ -12,9 +12,12 @@
 package com.vmware.admiral.adapter.docker.util.ssh;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -28,16 +31,27 @@ import com.vmware.admiral.common.util.AssertUtil;
 
 /**
  * Contains context for a single command executed using JSch ChannelExec
+ *
+ * The completion of the command is checked right after the channel reaches end of output, which
+ * JSch signals by closing the output stream. As a fallback, e.g. for commands without output, the
+ * completion is polled starting with a short interval that doubles up to the max poll interval, so
+ * fast commands complete in milliseconds and long running ones are not polled too often.
  */
 public class SshExecTask {
     private static Logger logger = Logger.getLogger(SshExecTask.class.getName());
 
     /**
-     * Time between checks for a command to complete
+     * Max time between checks for a command to complete
      */
     private static final long POLL_INTERVAL_MILLIS = Long.getLong(
             "adapter.docker.ssh.poll.millis", 500);
 
+    /**
+     * Time before the first check for a command to complete, and after its end of output
+     */
+    private static final long MIN_POLL_INTERVAL_MILLIS = Long.getLong(
+            "adapter.docker.ssh.poll.min.millis", 10);
+
     private InputStream in;
     private OutputStream out;
     private OutputStream err;
@@ -45,13 +59,16 @@ public class SshExecTask {
     private final BiFunction<Runnable, Long, Future<?>> pollingScheduler;
     private Consumer<SshExecTask> completionHandler;
     private ChannelExec channel;
-    private boolean cancelled = false;
+    private volatile boolean cancelled = false;
+    private volatile Throwable failure;
+    private final AtomicBoolean completed = new AtomicBoolean();
     final AtomicInteger errorCount;
 
     /**
-     * hold the last scheduled poll in case it needs to be cancelled
+     * hold the last scheduled poll in case it needs to be cancelled or rescheduled
      */
     private Future<?> lastScheduledPoll = null;
+    private long pollIntervalMillis = MIN_POLL_INTERVAL_MILLIS;
 
     public SshExecTask(BiFunction<Runnable, Long, Future<?>> pollingScheduler) {
         AssertUtil.assertNotNull(pollingScheduler, "pollingScheduler");
@@ -102,11 +119,11 @@ public class SshExecTask {
         this.completionHandler = sessionCloser.andThen(handler);
 
         try {
-            channel = (ChannelExec) session.openChannel("exec");
+            channel = openChannel(session);
             channel.setCommand(command);
             channel.setInputStream(in);
             channel.setErrStream(err);
-            channel.setOutputStream(out);
+            channel.setOutputStream(out != null ? new EndOfOutputStream(out) : null);
             channel.connect();
 
             pollCompletion();
@@ -123,18 +140,41 @@ public class SshExecTask {
         }
     }
 
+    protected ChannelExec openChannel(Session session) throws JSchException {
+        return (ChannelExec) session.openChannel("exec");
+    }
+
     public void cancel() {
         logger.warning("Canceling task: " + command);
         cancelled = true;
 
         // attempt to cancel schedule poll although it will be ignored anyway if fired
-        if (lastScheduledPoll != null) {
-            lastScheduledPoll.cancel(false);
+        synchronized (this) {
+            if (lastScheduledPoll != null) {
+                lastScheduledPoll.cancel(false);
+            }
         }
 
         finished();
     }
 
+    /**
+     * Complete the task without running the command, e.g. when a session could not be opened
+     */
+    public void fail(Throwable failure) {
+        logger.warning("Failed to run command: " + command + ": " + failure.getMessage());
+        this.failure = failure;
+
+        finished();
+    }
+
+    /**
+     * The failure to run the command, <code>null</code> if the command was run
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
     public int getExitStatus() {
         return channel.getExitStatus();
     }
@@ -156,12 +196,44 @@ public class SshExecTask {
 
         } else {
             logger.finest("Command is running: " + command);
-            lastScheduledPoll = pollingScheduler
-                    .apply(() -> pollCompletion(), POLL_INTERVAL_MILLIS);
+            schedulePoll(false);
+        }
+    }
+
+    /**
+     * Schedule the next check for the command to complete, replacing the one already scheduled if
+     * any, so there is a single check scheduled per command
+     *
+     * @param endOfOutput
+     *            whether the channel just reached end of output, so the command is about to
+     *            complete
+     */
+    private synchronized void schedulePoll(boolean endOfOutput) {
+        if (cancelled || completed.get()) {
+            return;
+        }
+
+        long delayMillis;
+        if (endOfOutput) {
+            pollIntervalMillis = MIN_POLL_INTERVAL_MILLIS;
+            delayMillis = 0;
+        } else {
+            delayMillis = pollIntervalMillis;
+            pollIntervalMillis = Math.min(pollIntervalMillis * 2, POLL_INTERVAL_MILLIS);
         }
+
+        if (lastScheduledPoll != null) {
+            lastScheduledPoll.cancel(false);
+        }
+        lastScheduledPoll = pollingScheduler.apply(() -> pollCompletion(), delayMillis);
     }
 
     private void finished() {
+        if (!completed.compareAndSet(false, true)) {
+            // already completed by a concurrent poll or cancel
+            return;
+        }
+
         safeDisconnect(channel);
 
         if (completionHandler != null) {
@@ -186,4 +258,28 @@ public class SshExecTask {
         }
     }
 
+    /**
+     * Output stream closed by JSch when the channel reaches end of output, which triggers a check
+     * for the command to complete
+     */
+    private class EndOfOutputStream extends FilterOutputStream {
+        EndOfOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                schedulePoll(true);
+            }
+        }
+    }
+
 }
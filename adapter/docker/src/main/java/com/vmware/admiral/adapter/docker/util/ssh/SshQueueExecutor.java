@@ -12,126 +12,111 @@
 package com.vmware.admiral.adapter.docker.util.ssh;
 
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 import com.vmware.admiral.adapter.docker.util.ssh.CachingJschSessionPoolImpl.MaximumNumberOfChannelsPerSessionException;
+import com.vmware.admiral.common.util.HostPermitQueue;
+import com.vmware.admiral.common.util.HostPermitQueue.HostQueueStats;
 
 /**
  * SSH queue task executor to limit the number of active task per host in order to keep the open
  * session and channels under control.
+ *
+ * The tasks are queued per host with a {@link HostPermitQueue}, so a slow host doesn't hold back
+ * the tasks for the other hosts. A task finding all the channels of the host in use is queued
+ * again after a delay, growing with each attempt, instead of right away.
  */
 public class SshQueueExecutor {
     private static final Logger logger = Logger.getLogger(SshQueueExecutor.class.getName());
-    /**  Time between checks for a command to complete  */
-    private static final long POLL_INTERVAL_MILLIS = Long.getLong(
-            "cmp.adapter.docker.ssh.poll.millis", 500);
 
-    /**  Time between checks for a command to complete  */
+    /**
+     * Max number of tasks executing at the same time per host, by default the channels of the
+     * sessions the pool keeps per host (4 sessions of 8 channels)
+     */
     private static final int MAX_NUMBER_OF_ACTIVE_TASK_PER_HOST = Integer.getInteger(
-            "cmp.adapter.docker.ssh.max.tasks.per.host", 8);
+            "cmp.adapter.docker.ssh.max.tasks.per.host", 32);
 
-    private final BiFunction<Runnable, Long, Future<?>> pollingScheduler;
-    private final JSchSessionPool sessionPool;
+    /**
+     * Delay before queuing again a task that found all the channels in use, multiplied by the
+     * number of attempts
+     */
+    private static final long REQUEUE_DELAY_MILLIS = Long.getLong(
+            "cmp.adapter.docker.ssh.requeue.delay.millis", 100);
+
+    private static final int MAX_REQUEUE_COUNT = 3;
 
-    private final Map<SessionParams, AtomicInteger> activeTaskCountPerHost = new ConcurrentHashMap<>();
-    private final Map<SessionParams, Queue<SshExecTask>> taskQueuePerHost = new ConcurrentHashMap<>();
-    private final Map<SessionParams, AtomicBoolean> pollingTaskPerHost = new ConcurrentHashMap<>();
+    /** Time after which the queue of a host without tasks is removed */
+    private static final long IDLE_HOST_TIMEOUT_MICROS = Long.getLong(
+            "cmp.adapter.docker.ssh.idle.host.timeout.micros", TimeUnit.MINUTES.toMicros(5));
+
+    private final JSchSessionPool sessionPool;
+    private final BiFunction<Runnable, Long, Future<?>> scheduler;
+    private final HostPermitQueue<SessionParams, SshExecTask> hostQueues;
 
-    public SshQueueExecutor(BiFunction<Runnable, Long, Future<?>> pollingScheduler,
-            JSchSessionPool sessionPool) {
-        this.pollingScheduler = pollingScheduler;
+    public SshQueueExecutor(JSchSessionPool sessionPool,
+            BiFunction<Runnable, Long, Future<?>> scheduler) {
         this.sessionPool = sessionPool;
+        this.scheduler = scheduler;
+        this.hostQueues = new HostPermitQueue<>(MAX_NUMBER_OF_ACTIVE_TASK_PER_HOST, this::run);
     }
 
-    public synchronized void submit(SshExecTask task, SessionParams sessionParams) {
-        if (!activeTaskCountPerHost.containsKey(sessionParams)) {
-            activeTaskCountPerHost.put(sessionParams, new AtomicInteger());
-        }
-        if (!taskQueuePerHost.containsKey(sessionParams)) {
-            taskQueuePerHost.put(sessionParams, new LinkedBlockingQueue<>());
-        }
-        if (!pollingTaskPerHost.containsKey(sessionParams)) {
-            pollingTaskPerHost.put(sessionParams, new AtomicBoolean());
-        }
+    public void submit(SshExecTask task, SessionParams sessionParams) {
+        hostQueues.submit(sessionParams, task);
 
-        taskQueuePerHost.get(sessionParams).add(task);
-        if (!pollingTaskPerHost.get(sessionParams).get()) {
-            poll(sessionParams);
+        int demand = hostQueues.getDemand(sessionParams);
+        if (demand > 1) {
+            // let the pool open the sessions for a burst of tasks in parallel
+            sessionPool.prewarm(sessionParams, demand);
         }
     }
 
-    private synchronized void poll(SessionParams sessionParams) {
-        AtomicInteger count = activeTaskCountPerHost.get(sessionParams);
-        AtomicBoolean scheduled = pollingTaskPerHost.get(sessionParams);
-        if (count != null && count.get() > MAX_NUMBER_OF_ACTIVE_TASK_PER_HOST) {
-            if (scheduled != null && scheduled.compareAndSet(false, true)) {
-                logger.fine("scheduling when max number per hosts");
-                pollingScheduler.apply(() -> {
-                    if (scheduled != null) {
-                        scheduled.set(false);
-                    }
-                    poll(sessionParams);
-                }, POLL_INTERVAL_MILLIS);
-            }
-            return;
-        }
-
-        Queue<SshExecTask> queue = taskQueuePerHost.get(sessionParams);
-
-        if (queue != null && !queue.isEmpty()) {
-            SshExecTask task = queue.poll();
-            Consumer<SshExecTask> completionHandler = task.getCompletionHandler();
-            if (count != null) {
-                count.incrementAndGet();
-            }
+    /**
+     * Remove the queues of the hosts idle for a while
+     */
+    public void handleMaintenance() {
+        hostQueues.removeIdleHosts(IDLE_HOST_TIMEOUT_MICROS);
+    }
 
-            Consumer<SshExecTask> counterDecrement = (t) -> {
-                if (count != null) {
-                    count.decrementAndGet();
-                }
-            };
+    /**
+     * Returns a snapshot of the queues per host
+     */
+    public Map<SessionParams, HostQueueStats> getHostQueueStats() {
+        return hostQueues.getHostQueueStats();
+    }
 
-            task.withCompletionHandler(counterDecrement.andThen(completionHandler));
+    private void run(SessionParams sessionParams, SshExecTask task) {
+        Consumer<SshExecTask> completionHandler = task.getCompletionHandler();
+        task.withCompletionHandler((t) -> {
             try {
-                task.run(sessionParams, sessionPool);
-            } catch (MaximumNumberOfChannelsPerSessionException e) {
-                task.withCompletionHandler(completionHandler);
-                if (count != null) {
-                    count.decrementAndGet();
-                }
-                if (task.errorCount.incrementAndGet() <= 3) {
-                    submit(task, sessionParams);
-                    return;
-                } else {
-                    throw e;
-                }
-            } catch (RuntimeException e) {
-                if (count != null) {
-                    count.decrementAndGet();
-                }
-                throw e;
+                completionHandler.accept(t);
+            } finally {
+                // hand off the permit to the next task for the host
+                hostQueues.release(sessionParams);
             }
-        }
-
-        if ((queue == null || queue.isEmpty())
-                && (count == null || count.get() <= 0)
-                && (scheduled == null || !scheduled.get())) {
-            taskQueuePerHost.remove(sessionParams);
-            activeTaskCountPerHost.remove(sessionParams);
-            pollingTaskPerHost.remove(sessionParams);
-        }
-
-        //get the other tasks from the queue until empty or hit max concurrent executions
-        if (queue != null && !queue.isEmpty()) {
-            poll(sessionParams);
+        });
+
+        try {
+            task.run(sessionParams, sessionPool);
+        } catch (MaximumNumberOfChannelsPerSessionException e) {
+            task.withCompletionHandler(completionHandler);
+            hostQueues.release(sessionParams);
+            int requeueCount = task.errorCount.incrementAndGet();
+            if (requeueCount <= MAX_REQUEUE_COUNT) {
+                logger.fine("Requeuing task when max number of channels per session");
+                // the channels are released by the running tasks, wait for them to complete
+                scheduler.apply(() -> hostQueues.requeue(sessionParams, task),
+                        REQUEUE_DELAY_MILLIS * requeueCount);
+            } else {
+                task.fail(e);
+            }
+        } catch (RuntimeException e) {
+            task.withCompletionHandler(completionHandler);
+            hostQueues.release(sessionParams);
+            task.fail(e);
         }
     }
 }
@@ -16,6 +16,7 @@ import java.util.logging.Level;
 
 import com.vmware.admiral.adapter.docker.service.DockerAdapterService;
 import com.vmware.admiral.adapter.docker.service.DockerHostAdapterService;
+import com.vmware.admiral.adapter.docker.service.DockerHostEventsService;
 import com.vmware.admiral.adapter.docker.service.DockerNetworkAdapterService;
 import com.vmware.admiral.adapter.docker.service.DockerOperationTypesService;
 import com.vmware.admiral.adapter.docker.service.DockerVolumeAdapterService;
@@ -62,6 +63,9 @@ public class HostInitAdapterServiceConfig {
             host.startService(
                     Operation.createPost(UriUtils.buildUri(host, DockerHostAdapterService.class)),
                     new DockerHostAdapterService());
+            host.startService(
+                    Operation.createPost(UriUtils.buildUri(host, DockerHostEventsService.class)),
+                    new DockerHostEventsService());
             host.startService(
                     Operation.createPost(UriUtils.buildUri(host, DockerNetworkAdapterService.class)),
                     new DockerNetworkAdapterService());
@@ -12,6 +12,7 @@
 package com.vmware.admiral.adapter.docker.service;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -39,6 +40,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.vmware.admiral.adapter.common.ContainerHostOperationType;
 import com.vmware.admiral.adapter.common.ContainerOperationType;
 import com.vmware.admiral.adapter.common.service.mock.MockTaskFactoryService;
 import com.vmware.admiral.adapter.common.service.mock.MockTaskService.MockTaskState;
@@ -566,6 +568,65 @@ public class DockerAdapterServiceTest extends BaseMockDockerTestCase {
         assertNotNull("cpu_stats is missing", containerStats.cpuUsage > 0);
     }
 
+    @Test
+    public void testFetchContainersStatsOfHost() throws Throwable {
+        // a second container on the same host, not existing on the docker host
+        ContainerState missingContainerState = new ContainerState();
+        missingContainerState.parentLink = parentComputeStateLink;
+        missingContainerState.descriptionLink = containerDescriptionLink;
+        missingContainerState.id = "missing-container-id";
+        missingContainerState = doPost(missingContainerState, ContainerFactoryService.SELF_LINK);
+        URI missingContainerStateReference = UriUtils.extendUri(host.getUri(),
+                missingContainerState.documentSelfLink);
+
+        URI dockerHostAdapterServiceUri = UriUtils.buildUri(host, DockerHostAdapterService.class);
+        host.startService(Operation.createPost(dockerHostAdapterServiceUri),
+                new DockerHostAdapterService() {
+                    @Override
+                    protected DockerAdapterCommandExecutor getApiCommandExecutor() {
+                        return getTestCommandExecutor();
+                    }
+                });
+        waitForServiceAvailability(DockerHostAdapterService.SELF_LINK);
+
+        createProvisioningTask();
+        ContainerHostRequest request = new ContainerHostRequest();
+        request.resourceReference = UriUtils.buildUri(host, parentComputeStateLink);
+        request.operationTypeId = ContainerHostOperationType.CONTAINERS_STATS.id;
+        request.serviceTaskCallback = ServiceTaskCallback.create(provisioningTaskLink);
+        request.customProperties = new HashMap<>();
+        request.customProperties.put(containerStateReference.getPath(), containerId);
+        request.customProperties.put(missingContainerState.documentSelfLink,
+                missingContainerState.id);
+
+        host.testStart(1);
+        host.send(Operation.createPatch(dockerHostAdapterServiceUri)
+                .setReferer(URI.create("/")).setBody(request)
+                .setCompletion((o, ex) -> {
+                    if (ex != null) {
+                        host.failIteration(ex);
+                        return;
+                    }
+                    host.completeIteration();
+                }));
+        host.testWait();
+
+        // the task is finished once the stats of all the containers are patched
+        waitForPropertyValue(provisioningTaskLink, MockTaskState.class, "taskInfo.stage",
+                TaskState.TaskStage.FINISHED);
+
+        ContainerStats stats = getContainerStats(containerStateReference);
+        assertTrue(stats.healthCheckSuccess);
+        assertTrue("mem_limit is missing", stats.memLimit > 0);
+
+        ContainerStats missingContainerStats = getContainerStats(missingContainerStateReference);
+        assertFalse(missingContainerStats.healthCheckSuccess);
+        assertEquals(1, missingContainerStats.healthFailureCount);
+        assertEquals(0, missingContainerStats.memLimit);
+
+        doDelete(missingContainerStateReference, false);
+    }
+
     @Test
     public void testStatsDisabledWhenContainerStopped() throws Throwable {
         sendFetchContainerStatsRequest();
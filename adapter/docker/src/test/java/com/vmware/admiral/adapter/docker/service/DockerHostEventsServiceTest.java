@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.SINCE;
+import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.UNTIL;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.adapter.docker.mock.BaseMockDockerTestCase;
+import com.vmware.admiral.common.DeploymentProfileConfig;
+import com.vmware.admiral.common.test.HostInitTestDcpServicesConfig;
+import com.vmware.admiral.compute.ContainerHostService;
+import com.vmware.admiral.compute.ContainerHostService.DockerAdapterType;
+import com.vmware.admiral.compute.ContainerHostUtil;
+import com.vmware.admiral.compute.container.ContainerFactoryService;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
+import com.vmware.admiral.compute.container.maintenance.ContainerStats;
+import com.vmware.admiral.host.HostInitCommonServiceConfig;
+import com.vmware.admiral.host.HostInitComputeServicesConfig;
+import com.vmware.admiral.host.HostInitPhotonModelServiceConfig;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
+import com.vmware.photon.controller.model.resources.ComputeService;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Operation.CompletionHandler;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.ServiceStats;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+
+public class DockerHostEventsServiceTest extends BaseMockDockerTestCase {
+    private final List<long[]> windows = new ArrayList<>();
+    private volatile String events = "";
+    private volatile boolean failEvents;
+
+    private DockerHostEventsService eventsService;
+    private String hostLink;
+
+    @Before
+    public void setUp() throws Throwable {
+        HostInitTestDcpServicesConfig.startServices(host);
+        HostInitPhotonModelServiceConfig.startServices(host);
+        HostInitCommonServiceConfig.startServices(host);
+        HostInitComputeServicesConfig.startServices(host);
+        DeploymentProfileConfig.getInstance().setTest(true);
+
+        DockerAdapterCommandExecutor commandExecutor = new RemoteApiDockerAdapterCommandExecutorImpl(
+                host, null) {
+            @Override
+            public void fetchEvents(CommandInput input, CompletionHandler completionHandler) {
+                synchronized (windows) {
+                    windows.add(new long[] { (long) input.getProperties().get(SINCE),
+                            (long) input.getProperties().get(UNTIL) });
+                }
+                if (failEvents) {
+                    completionHandler.handle(null, new IllegalStateException("test failure"));
+                } else {
+                    completionHandler.handle(Operation.createGet(null).setBody(events), null);
+                }
+            }
+        };
+        eventsService = new DockerHostEventsService() {
+            @Override
+            protected DockerAdapterCommandExecutor getApiCommandExecutor() {
+                return commandExecutor;
+            }
+        };
+        host.startServiceAndWait(eventsService, DockerHostEventsService.SELF_LINK, null);
+
+        waitForServiceAvailability(ComputeService.FACTORY_LINK);
+        waitForServiceAvailability(ContainerFactoryService.SELF_LINK);
+        ComputeDescription computeDescription = new ComputeDescription();
+        computeDescription.id = UUID.randomUUID().toString();
+        ComputeState computeState = new ComputeState();
+        computeState.id = "test-events-host";
+        computeState.descriptionLink = doPost(computeDescription,
+                ComputeDescriptionService.FACTORY_LINK).documentSelfLink;
+        computeState.address = dockerUri.toString();
+        computeState.customProperties = new HashMap<>();
+        computeState.customProperties.put(ContainerHostService.HOST_DOCKER_ADAPTER_TYPE_PROP_NAME,
+                DockerAdapterType.API.name());
+        hostLink = doPost(computeState, ComputeService.FACTORY_LINK).documentSelfLink;
+    }
+
+    @Test
+    public void testPowerStateOfEvent() {
+        assertEquals(PowerState.RUNNING, DockerHostEventsService.getPowerState("start"));
+        assertEquals(PowerState.RUNNING, DockerHostEventsService.getPowerState("restart"));
+        assertEquals(PowerState.RUNNING, DockerHostEventsService.getPowerState("unpause"));
+        assertEquals(PowerState.STOPPED, DockerHostEventsService.getPowerState("die"));
+        assertEquals(PowerState.STOPPED, DockerHostEventsService.getPowerState("stop"));
+        assertEquals(PowerState.PAUSED, DockerHostEventsService.getPowerState("pause"));
+        assertNull(DockerHostEventsService.getPowerState("attach"));
+    }
+
+    @Test
+    public void testHostsFollowed() {
+        ComputeState computeState = new ComputeState();
+        assertTrue(DockerHostEventsService.canFollowEvents(computeState));
+
+        computeState.customProperties = new HashMap<>();
+        computeState.customProperties.put(ContainerHostService.HOST_DOCKER_ADAPTER_TYPE_PROP_NAME,
+                DockerAdapterType.API.name());
+        assertTrue(DockerHostEventsService.canFollowEvents(computeState));
+
+        // the VIC hosts do not report their events and the SSH hosts can't fetch them
+        computeState.customProperties.put("__Driver", "vmware");
+        assertFalse(DockerHostEventsService.canFollowEvents(computeState));
+        computeState.customProperties.remove("__Driver");
+        computeState.customProperties.put(ContainerHostService.HOST_DOCKER_ADAPTER_TYPE_PROP_NAME,
+                DockerAdapterType.SSH.name());
+        assertFalse(DockerHostEventsService.canFollowEvents(computeState));
+    }
+
+    @Test
+    public void testEventsAppliedToContainers() throws Throwable {
+        String runningContainerLink = createContainerState("running-id", PowerState.RUNNING);
+        String stoppedContainerLink = createContainerState("stopped-id", PowerState.STOPPED);
+        // the old API event format, the new one with the action and the actor and a health event
+        events = "{\"status\":\"die\",\"id\":\"running-id\",\"time\":1}\n"
+                + "{\"Action\":\"start\",\"Actor\":{\"ID\":\"stopped-id\"},\"time\":1}\n"
+                + "{\"Action\":\"health_status: unhealthy\",\"Actor\":{\"ID\":\"running-id\"}}\n";
+
+        fetchWindow();
+        events = "";
+
+        waitFor(() -> getDocument(ContainerState.class, runningContainerLink).powerState
+                == PowerState.STOPPED);
+        waitFor(() -> getDocument(ContainerState.class, stoppedContainerLink).powerState
+                == PowerState.RUNNING);
+        waitFor(() -> Boolean.FALSE.equals(getContainerStats(runningContainerLink)
+                .healthCheckSuccess));
+    }
+
+    @Test
+    public void testContiguousWindows() throws Throwable {
+        long[] window = fetchWindow();
+        assertTrue(window[0] < window[1]);
+        long[] nextWindow = fetchWindow();
+        assertEquals(window[1], nextWindow[0]);
+        assertTrue(nextWindow[0] < nextWindow[1]);
+
+        waitFor(() -> ContainerHostUtil.isFollowingEvents(
+                getDocument(ComputeState.class, hostLink), Utils.getNowMicrosUtc()));
+    }
+
+    @Test
+    public void testFallbackOnFailure() throws Throwable {
+        long[] window = fetchWindow();
+        waitFor(() -> ContainerHostUtil.isFollowingEvents(
+                getDocument(ComputeState.class, hostLink), Utils.getNowMicrosUtc()));
+
+        // the containers of the host are inspected as usual while the events fail
+        failEvents = true;
+        long[] failedWindow = fetchWindow();
+        assertEquals(window[1], failedWindow[0]);
+        waitFor(() -> !ContainerHostUtil.isFollowingEvents(
+                getDocument(ComputeState.class, hostLink), Utils.getNowMicrosUtc()));
+
+        // and the failed window is fetched again afterwards
+        failEvents = false;
+        long[] nextWindow = fetchWindow();
+        assertEquals(failedWindow[0], nextWindow[0]);
+        waitFor(() -> ContainerHostUtil.isFollowingEvents(
+                getDocument(ComputeState.class, hostLink), Utils.getNowMicrosUtc()));
+    }
+
+    @Test
+    public void testSshHostNotFollowed() throws Throwable {
+        ComputeState patch = new ComputeState();
+        patch.customProperties = new HashMap<>();
+        patch.customProperties.put(ContainerHostService.HOST_DOCKER_ADAPTER_TYPE_PROP_NAME,
+                DockerAdapterType.SSH.name());
+        doPatch(patch, hostLink);
+
+        long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+        waitFor(() -> {
+            eventsService.pollEvents();
+            return System.nanoTime() > deadlineNanos;
+        });
+        assertTrue(windows.isEmpty());
+        assertFalse(ContainerHostUtil.isFollowingEvents(
+                getDocument(ComputeState.class, hostLink), Utils.getNowMicrosUtc()));
+    }
+
+    /**
+     * Follows the events of the host until the next window is fetched, the windows are at least a
+     * second long
+     */
+    private long[] fetchWindow() throws Throwable {
+        int count;
+        synchronized (windows) {
+            count = windows.size();
+        }
+        waitFor(() -> {
+            eventsService.pollEvents();
+            synchronized (windows) {
+                return windows.size() > count;
+            }
+        });
+        synchronized (windows) {
+            return windows.get(count);
+        }
+    }
+
+    private String createContainerState(String id, PowerState powerState) throws Throwable {
+        ContainerState containerState = new ContainerState();
+        containerState.id = id;
+        containerState.parentLink = hostLink;
+        containerState.powerState = powerState;
+        return doPost(containerState, ContainerFactoryService.SELF_LINK).documentSelfLink;
+    }
+
+    private ContainerStats getContainerStats(String containerLink) throws Throwable {
+        ServiceStats serviceStats = getDocument(ServiceStats.class,
+                UriUtils.buildUriPath(containerLink, ServiceHost.SERVICE_URI_SUFFIX_STATS));
+        return ContainerStats.transform(serviceStats);
+    }
+}
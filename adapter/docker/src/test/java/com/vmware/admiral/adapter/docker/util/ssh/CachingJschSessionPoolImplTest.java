@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.util.ssh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.adapter.docker.util.ssh.CachingJschSessionPoolImpl.MaximumNumberOfChannelsPerSessionException;
+
+public class CachingJschSessionPoolImplTest {
+    private static final int MAX_SESSIONS_PER_HOST = 4;
+    private static final int MAX_CHANNELS_PER_SESSION = 8;
+
+    private final SessionParams sessionParams = new SessionParams().withHost("test-host")
+            .withPort(22).withUser("test");
+    private final List<Session> createdSessions = new CopyOnWriteArrayList<>();
+    private final List<Session> disconnectedSessions = new CopyOnWriteArrayList<>();
+    private final Set<Session> deadSessions = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService scheduler;
+    private CachingJschSessionPoolImpl sessionPool;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        sessionPool = new CachingJschSessionPoolImpl(
+                (r, delayMillis) -> scheduler.schedule(r, delayMillis, TimeUnit.MILLISECONDS)) {
+            /**
+             * Sessions not connected to any host, alive until the test kills them
+             */
+            @Override
+            protected Session createNewSession(SessionParams sessionParams) {
+                try {
+                    Session session = new JSch().getSession(sessionParams.getUser(),
+                            sessionParams.getHost(), sessionParams.getPort());
+                    createdSessions.add(session);
+                    return session;
+                } catch (JSchException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            protected boolean validateCachedSession(Session cachedSession) {
+                return isConnected(cachedSession);
+            }
+
+            @Override
+            protected boolean isConnected(Session session) {
+                return !deadSessions.contains(session);
+            }
+
+            @Override
+            protected void safeDisconnect(Session session) {
+                disconnectedSessions.add(session);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        sessionPool.shutdown();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testSessionsUpToCap() {
+        // a new session is opened only once the open ones have all their channels in use
+        List<Session> sessions = getSessions(MAX_SESSIONS_PER_HOST * MAX_CHANNELS_PER_SESSION);
+        assertEquals(MAX_SESSIONS_PER_HOST, createdSessions.size());
+        for (Session session : createdSessions) {
+            assertEquals(MAX_CHANNELS_PER_SESSION, count(sessions, session));
+        }
+        assertEquals(MAX_SESSIONS_PER_HOST * MAX_CHANNELS_PER_SESSION,
+                sessionPool.getActiveChannels(sessionParams));
+
+        // and no more sessions are opened over the cap
+        try {
+            sessionPool.getSession(sessionParams);
+            fail("expected the channels to be exhausted");
+        } catch (MaximumNumberOfChannelsPerSessionException e) {
+            assertEquals(MAX_SESSIONS_PER_HOST, createdSessions.size());
+        }
+
+        // until a channel is released
+        sessionPool.closeSession(sessions.get(0));
+        assertSame(sessions.get(0), sessionPool.getSession(sessionParams));
+        assertEquals(MAX_SESSIONS_PER_HOST, createdSessions.size());
+        assertTrue(disconnectedSessions.isEmpty());
+    }
+
+    @Test
+    public void testLeastLoadedSession() {
+        List<Session> sessions = getSessions(MAX_CHANNELS_PER_SESSION + 1);
+        assertEquals(2, createdSessions.size());
+        Session first = createdSessions.get(0);
+        Session second = createdSessions.get(1);
+
+        // the channels are given from the session with the least in use
+        for (int i = 0; i < 4; i++) {
+            sessionPool.closeSession(first);
+        }
+        assertSame(second, sessionPool.getSession(sessionParams));
+        assertSame(second, sessionPool.getSession(sessionParams));
+        assertSame(second, sessionPool.getSession(sessionParams));
+
+        // and from the first one opened when they have as many in use
+        assertSame(first, sessionPool.getSession(sessionParams));
+        assertEquals(2, createdSessions.size());
+        assertEquals(sessions.size(), sessionPool.getActiveChannels(sessionParams));
+    }
+
+    @Test
+    public void testDeadSessionEvicted() {
+        List<Session> sessions = getSessions(2);
+        Session dead = sessions.get(0);
+        deadSessions.add(dead);
+
+        // the dead session is not given to new tasks, a new one is opened instead
+        Session session = sessionPool.getSession(sessionParams);
+        assertNotSame(dead, session);
+        assertEquals(2, createdSessions.size());
+
+        // and it is closed once the tasks still using it complete
+        sessionPool.closeSession(dead);
+        assertFalse(disconnectedSessions.contains(dead));
+        sessionPool.closeSession(dead);
+        assertEquals(1, count(disconnectedSessions, dead));
+        assertEquals(1, sessionPool.getActiveChannels(sessionParams));
+
+        // a session dying while used by a single task is closed as soon as the task completes
+        deadSessions.add(session);
+        sessionPool.closeSession(session);
+        assertEquals(1, count(disconnectedSessions, session));
+        assertEquals(0, sessionPool.getActiveChannels(sessionParams));
+
+        // and the evicted sessions don't count for the cap
+        getSessions(MAX_SESSIONS_PER_HOST * MAX_CHANNELS_PER_SESSION);
+        assertEquals(2 + MAX_SESSIONS_PER_HOST, createdSessions.size());
+    }
+
+    private List<Session> getSessions(int count) {
+        List<Session> sessions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            sessions.add(sessionPool.getSession(sessionParams));
+        }
+        return sessions;
+    }
+
+    private static int count(List<Session> sessions, Session session) {
+        int count = 0;
+        for (Session s : sessions) {
+            if (s == session) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.util.ssh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SshExecTaskTest {
+    private static final int EXIT_STATUS = 3;
+
+    private ScheduledExecutorService scheduler;
+    private TestChannel channel;
+    private final AtomicInteger closedSessions = new AtomicInteger();
+
+    /**
+     * Channel of a command completed by the test, not connected to any host
+     */
+    private static class TestChannel extends ChannelExec {
+        private volatile OutputStream out;
+        private volatile boolean closed;
+        private volatile boolean connected;
+
+        @Override
+        public void setOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void connect() {
+            connected = true;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public void disconnect() {
+            connected = false;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public int getExitStatus() {
+            return closed ? EXIT_STATUS : -1;
+        }
+
+        void endOfOutput() throws Exception {
+            out.write("output".getBytes());
+            out.close();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        channel = new TestChannel();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testEndOfOutputBeforeClosed() throws Throwable {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AtomicInteger exitStatus = new AtomicInteger();
+        CountDownLatch completed = new CountDownLatch(1);
+        SshExecTask task = createTask(out, exitStatus, completed);
+        task.run(new SessionParams(), createSessionPool());
+
+        // the completion is checked at the end of output, but the command is still running
+        channel.endOfOutput();
+        assertFalse(completed.await(100, TimeUnit.MILLISECONDS));
+
+        // and is polled until the channel is closed
+        channel.closed = true;
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+        assertEquals("output", out.toString());
+        assertEquals(EXIT_STATUS, exitStatus.get());
+        assertNull(task.getFailure());
+        assertFalse(channel.isConnected());
+        assertEquals(1, closedSessions.get());
+    }
+
+    @Test
+    public void testEndOfOutputAfterClosed() throws Throwable {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AtomicInteger exitStatus = new AtomicInteger();
+        CountDownLatch completed = new CountDownLatch(1);
+        SshExecTask task = createTask(out, exitStatus, completed);
+        task.run(new SessionParams(), createSessionPool());
+
+        // the channel is closed before the end of output reaches the task, found by the poll
+        channel.closed = true;
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+        assertEquals(EXIT_STATUS, exitStatus.get());
+
+        // and the late end of output doesn't complete the task again
+        channel.endOfOutput();
+        assertEquals(1, closedSessions.get());
+        assertNull(task.getFailure());
+    }
+
+    @Test
+    public void testEndOfOutputWithClosed() throws Throwable {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AtomicInteger exitStatus = new AtomicInteger();
+        CountDownLatch completed = new CountDownLatch(1);
+        createTask(out, exitStatus, completed).run(new SessionParams(), createSessionPool());
+
+        // the command completes right after its end of output, as usual
+        channel.closed = true;
+        channel.endOfOutput();
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+        assertEquals(EXIT_STATUS, exitStatus.get());
+        assertEquals(1, closedSessions.get());
+    }
+
+    private SshExecTask createTask(OutputStream out, AtomicInteger exitStatus,
+            CountDownLatch completed) {
+        return new SshExecTask((r, delayMillis) -> scheduler.schedule(r, delayMillis,
+                TimeUnit.MILLISECONDS)) {
+            @Override
+            protected ChannelExec openChannel(Session session) {
+                return channel;
+            }
+        }.withCommand("test").withOutput(out).withCompletionHandler((t) -> {
+            // the exit status is read once the command is complete
+            exitStatus.set(t.getExitStatus());
+            completed.countDown();
+        });
+    }
+
+    private JSchSessionPool createSessionPool() {
+        return new JSchSessionPool() {
+            @Override
+            public Session getSession(SessionParams sessionParams) {
+                return null;
+            }
+
+            @Override
+            public void closeSession(Session finishedSession) {
+                closedSessions.incrementAndGet();
+            }
+
+            @Override
+            public void shutdown() {
+            }
+        };
+    }
+}
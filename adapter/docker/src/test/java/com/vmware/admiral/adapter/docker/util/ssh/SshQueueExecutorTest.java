@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.util.ssh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jcraft.jsch.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.adapter.docker.util.ssh.CachingJschSessionPoolImpl.MaximumNumberOfChannelsPerSessionException;
+import com.vmware.admiral.common.util.HostPermitQueue.HostQueueStats;
+
+public class SshQueueExecutorTest {
+    private static final int MAX_ACTIVE_TASKS = 32;
+
+    private final SessionParams sessionParams = new SessionParams().withHost("test-host")
+            .withPort(22);
+    private final List<SshExecTask> startedTasks = new CopyOnWriteArrayList<>();
+    private final List<SshExecTask> completedTasks = new CopyOnWriteArrayList<>();
+    private final AtomicInteger channelsInUseFailures = new AtomicInteger();
+    private volatile RuntimeException sessionFailure;
+
+    private ScheduledExecutorService scheduler;
+    private SshQueueExecutor executor;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        executor = new SshQueueExecutor(new JSchSessionPool() {
+            @Override
+            public Session getSession(SessionParams sessionParams) {
+                if (channelsInUseFailures.getAndDecrement() > 0) {
+                    throw new MaximumNumberOfChannelsPerSessionException();
+                }
+                if (sessionFailure != null) {
+                    throw sessionFailure;
+                }
+                return null;
+            }
+
+            @Override
+            public void closeSession(Session finishedSession) {
+            }
+
+            @Override
+            public void shutdown() {
+            }
+        }, (r, delayMillis) -> scheduler.schedule(r, delayMillis, TimeUnit.MILLISECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testPermitAccounting() throws Throwable {
+        for (int i = 0; i < MAX_ACTIVE_TASKS + 2; i++) {
+            executor.submit(createTask(), sessionParams);
+        }
+
+        // the tasks over the limit wait in the queue
+        assertEquals(MAX_ACTIVE_TASKS, startedTasks.size());
+        assertStats(MAX_ACTIVE_TASKS, 2);
+
+        // and the permit of a completed task is handed off to the first one queued
+        SshExecTask nextTask = startedTasks.get(0);
+        nextTask.cancel();
+        assertEquals(MAX_ACTIVE_TASKS + 1, startedTasks.size());
+        assertStats(MAX_ACTIVE_TASKS, 1);
+
+        // the queued tasks are started as the others complete
+        for (int i = 1; i < startedTasks.size(); i++) {
+            startedTasks.get(i).cancel();
+        }
+        assertEquals(MAX_ACTIVE_TASKS + 2, startedTasks.size());
+        assertEquals(MAX_ACTIVE_TASKS + 2, completedTasks.size());
+        assertStats(0, 0);
+        assertEquals(MAX_ACTIVE_TASKS + 2,
+                executor.getHostQueueStats().get(sessionParams).submitted);
+    }
+
+    @Test
+    public void testRequeueWhenChannelsInUse() throws Throwable {
+        channelsInUseFailures.set(2);
+        CountDownLatch started = new CountDownLatch(1);
+        SshExecTask task = createTask(started);
+        executor.submit(task, sessionParams);
+
+        // the task is not failed nor retried right away, its permit is released meanwhile
+        assertTrue(startedTasks.isEmpty());
+        assertStats(0, 0);
+
+        // but queued again after a delay until a channel is available
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertStats(1, 0);
+        assertTrue(completedTasks.isEmpty());
+
+        task.cancel();
+        assertNull(task.getFailure());
+        assertStats(0, 0);
+    }
+
+    @Test
+    public void testRequeueLimit() throws Throwable {
+        channelsInUseFailures.set(Integer.MAX_VALUE);
+        CountDownLatch completed = new CountDownLatch(1);
+        SshExecTask task = createTask().withCompletionHandler((t) -> {
+            completedTasks.add(t);
+            completed.countDown();
+        });
+        executor.submit(task, sessionParams);
+
+        // the task fails after being queued again a few times
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        assertTrue(task.getFailure() instanceof MaximumNumberOfChannelsPerSessionException);
+        assertTrue(startedTasks.isEmpty());
+        assertStats(0, 0);
+    }
+
+    @Test
+    public void testFailureReleasesPermit() throws Throwable {
+        sessionFailure = new IllegalStateException("test failure");
+        for (int i = 0; i < MAX_ACTIVE_TASKS + 1; i++) {
+            executor.submit(createTask(), sessionParams);
+        }
+
+        // the tasks failing to get a session complete and release their permit
+        assertEquals(MAX_ACTIVE_TASKS + 1, completedTasks.size());
+        for (SshExecTask task : completedTasks) {
+            assertSame(sessionFailure, task.getFailure());
+        }
+        assertStats(0, 0);
+
+        // so the next tasks are still started
+        sessionFailure = null;
+        SshExecTask task = createTask();
+        executor.submit(task, sessionParams);
+        assertEquals(1, startedTasks.size());
+        assertFalse(completedTasks.contains(task));
+        assertStats(1, 0);
+    }
+
+    private SshExecTask createTask() {
+        return createTask(new CountDownLatch(1));
+    }
+
+    /**
+     * Task started without running a command, completed by the test with cancel
+     */
+    private SshExecTask createTask(CountDownLatch started) {
+        return new SshExecTask((r, delayMillis) -> scheduler.schedule(r, delayMillis,
+                TimeUnit.MILLISECONDS)) {
+            @Override
+            public void run(SessionParams sessionParams, JSchSessionPool sessionPool) {
+                sessionPool.getSession(sessionParams);
+                startedTasks.add(this);
+                started.countDown();
+            }
+        }.withCommand("test").withCompletionHandler(completedTasks::add);
+    }
+
+    private void assertStats(int activeTasks, int queueDepth) {
+        HostQueueStats stats = executor.getHostQueueStats().get(sessionParams);
+        assertEquals(activeTasks, stats.active);
+        assertEquals(queueDepth, stats.queueDepth);
+    }
+}
@@ -93,7 +93,7 @@ public class RegistryAdapterService extends StatelessService {
     @Override
     public void handleStart(Operation post) {
         this.trustManager = ServerX509TrustManager.create(getHost());
-        this.serviceClient = ServiceClientFactory.createServiceClient(
+        this.serviceClient = ServiceClientFactory.getServiceClient(
                 trustManager, null);
 
         super.handleStart(post);
@@ -37,6 +37,7 @@ public interface ManagementUriParts {
     String DEPLOYMENT_POLICIES = RESOURCES + "/deployment-policies";
 
     String CONTAINERS = RESOURCES + "/containers";
+    String CONTAINERS_BATCH = RESOURCES + "/containers-batch";
     String CONTAINER_LOGS = RESOURCES + "/container-logs";
     String CONTAINER_SHELL = RESOURCES + "/container-shell";
     String CONTAINER_DESC = RESOURCES + "/container" + DESCRIPTION_SUFFIX;
@@ -52,6 +53,7 @@ public interface ManagementUriParts {
     String CONTAINER_NETWORK_RECONFIGURE = RESOURCES + "/container-network-reconfigure";
     String CONTAINER_EXPOSED_SERVICES = RESOURCES + "/exposed-services";
     String HOST_CONTAINER_LIST_DATA_COLLECTION = RESOURCES + "/host-container-list-data-collection";
+    String CONTAINER_STATS_SWEEP = RESOURCES + "/container-stats-sweeps";
 
     String EVENT_LOG = RESOURCES + "/event-logs";
     String NOTIFICATIONS = RESOURCES + "/notifications";
@@ -115,6 +117,7 @@ public interface ManagementUriParts {
     String ADAPTER_DOCKER = ADAPTERS + "/docker-service";
     String ADAPTER_DOCKER_HOST = ADAPTERS + "/host-docker-service";
     String ADAPTER_DOCKER_OPERATIONS = ADAPTER_DOCKER + "/operations";
+    String ADAPTER_DOCKER_EVENTS = ADAPTERS + "/events-docker-service";
     String ADAPTER_REGISTRY = ADAPTERS + "/registry-service";
     String ADAPTER_DOCKER_VOLUME = ADAPTERS + "/volume-docker-service";
     String ADAPTER_DOCKER_NETWORK = ADAPTERS + "/network-docker-service";
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Queue of items (tasks, requests, etc.) per host, limiting the number of items active at the same
+ * time per host.
+ *
+ * Each host has its own queue and permits, acquired without locking, so a burst of items for one
+ * host waits for the permits of that host only, while the items for the other hosts are started
+ * right away. The queued items are started in the order they are queued and the permit released by
+ * an item is handed off to the next item queued for the same host right away. The queues of the
+ * hosts idle for a while are removed with {@link #removeIdleHosts(long)}.
+ *
+ * @param <K>
+ *            the host the items are for, e.g. host:port
+ * @param <T>
+ *            the items
+ */
+public class HostPermitQueue<K, T> {
+
+    /**
+     * Starts the items given a permit, the permit is held until {@link HostPermitQueue#release} is
+     * called for the host of the item
+     */
+    @FunctionalInterface
+    public interface ItemHandler<K, T> {
+        void start(K host, T item);
+
+        /**
+         * Whether the item expired while queued, the expired items are not started
+         */
+        default boolean isExpired(T item) {
+            return false;
+        }
+
+        /**
+         * Completes an item that expired while queued, e.g. with a failure
+         */
+        default void expired(K host, T item) {
+        }
+    }
+
+    /**
+     * Snapshot of the queue of a host
+     */
+    public static class HostQueueStats {
+        /** Number of items waiting for a permit */
+        public int queueDepth;
+
+        /** Number of items holding a permit */
+        public int active;
+
+        /** Number of items submitted so far */
+        public long submitted;
+
+        /** Number of items expired while queued */
+        public long expired;
+
+        /** Average time the started items waited in the queue */
+        public long averageWaitTimeMicros;
+
+        /** Max time a started item waited in the queue */
+        public long maxWaitTimeMicros;
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "queueDepth=%d, active=%d, submitted=%d, expired=%d,"
+                            + " averageWaitTimeMicros=%d, maxWaitTimeMicros=%d",
+                    queueDepth, active, submitted, expired, averageWaitTimeMicros,
+                    maxWaitTimeMicros);
+        }
+    }
+
+    private static class QueuedItem<T> {
+        private final T item;
+        private final long queuedTimeMicros;
+
+        private QueuedItem(T item) {
+            this.item = item;
+            this.queuedTimeMicros = Utils.getNowMicrosUtc();
+        }
+    }
+
+    private static class HostQueue<T> {
+        private final Queue<QueuedItem<T>> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger queueDepth = new AtomicInteger();
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong started = new AtomicLong();
+        private final AtomicLong expired = new AtomicLong();
+        private final AtomicLong totalWaitTimeMicros = new AtomicLong();
+        private final AtomicLong maxWaitTimeMicros = new AtomicLong();
+        private volatile long lastUsedTimeMicros = Utils.getNowMicrosUtc();
+
+        private void started(QueuedItem<T> queuedItem) {
+            started.incrementAndGet();
+            long waitTimeMicros = Utils.getNowMicrosUtc() - queuedItem.queuedTimeMicros;
+            totalWaitTimeMicros.addAndGet(waitTimeMicros);
+            maxWaitTimeMicros.accumulateAndGet(waitTimeMicros, Math::max);
+        }
+
+        private boolean isIdle(long idleSinceMicros) {
+            return active.get() == 0 && queue.isEmpty() && lastUsedTimeMicros <= idleSinceMicros;
+        }
+    }
+
+    private final int maxActivePerHost;
+
+    private final ItemHandler<K, T> handler;
+
+    private final Map<K, HostQueue<T>> hostQueues = new ConcurrentHashMap<>();
+
+    /** The hosts to dispatch by the dispatch already running on the current thread, if any */
+    private final ThreadLocal<Map<K, HostQueue<T>>> pendingDispatches = new ThreadLocal<>();
+
+    /**
+     * @param maxActivePerHost
+     *            max number of items holding a permit at the same time per host
+     * @param handler
+     *            starts the items once given a permit
+     */
+    public HostPermitQueue(int maxActivePerHost, ItemHandler<K, T> handler) {
+        AssertUtil.assertNotNull(handler, "handler");
+        this.maxActivePerHost = maxActivePerHost;
+        this.handler = handler;
+    }
+
+    /**
+     * Queue the item and start it right away if a permit is available for its host
+     */
+    public void submit(K host, T item) {
+        HostQueue<T> hostQueue = enqueue(host, item);
+        hostQueue.submitted.incrementAndGet();
+        dispatch(host, hostQueue);
+    }
+
+    /**
+     * Queue again an item that could not be started, after its permit was released
+     */
+    public void requeue(K host, T item) {
+        dispatch(host, enqueue(host, item));
+    }
+
+    /**
+     * Release the permit of a completed item, handed off to the next item queued for the host
+     */
+    public void release(K host) {
+        HostQueue<T> hostQueue = hostQueues.get(host);
+        if (hostQueue == null) {
+            return;
+        }
+        hostQueue.lastUsedTimeMicros = Utils.getNowMicrosUtc();
+        hostQueue.active.decrementAndGet();
+        dispatch(host, hostQueue);
+    }
+
+    /**
+     * Complete the items expired while queued, instead of once their turn comes
+     */
+    public void expire() {
+        hostQueues.forEach((host, hostQueue) -> {
+            for (QueuedItem<T> queuedItem : hostQueue.queue) {
+                if (handler.isExpired(queuedItem.item) && hostQueue.queue.remove(queuedItem)) {
+                    hostQueue.queueDepth.decrementAndGet();
+                    hostQueue.expired.incrementAndGet();
+                    handler.expired(host, queuedItem.item);
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove the queues of the hosts without items active or queued for longer than the given time
+     */
+    public void removeIdleHosts(long idleTimeMicros) {
+        long idleSinceMicros = Utils.getNowMicrosUtc() - idleTimeMicros;
+        for (K host : hostQueues.keySet()) {
+            // items are queued within compute too, so an item is never queued to a removed queue
+            hostQueues.computeIfPresent(host,
+                    (k, hostQueue) -> hostQueue.isIdle(idleSinceMicros) ? null : hostQueue);
+        }
+    }
+
+    /**
+     * Returns the number of items active or queued for the host
+     */
+    public int getDemand(K host) {
+        HostQueue<T> hostQueue = hostQueues.get(host);
+        return hostQueue == null ? 0 : hostQueue.active.get() + hostQueue.queueDepth.get();
+    }
+
+    /**
+     * Returns a snapshot of the queues per host
+     */
+    public Map<K, HostQueueStats> getHostQueueStats() {
+        Map<K, HostQueueStats> stats = new HashMap<>();
+        hostQueues.forEach((host, hostQueue) -> {
+            HostQueueStats hostStats = new HostQueueStats();
+            hostStats.queueDepth = hostQueue.queueDepth.get();
+            hostStats.active = hostQueue.active.get();
+            hostStats.submitted = hostQueue.submitted.get();
+            hostStats.expired = hostQueue.expired.get();
+            long started = hostQueue.started.get();
+            hostStats.averageWaitTimeMicros = started == 0 ? 0
+                    : hostQueue.totalWaitTimeMicros.get() / started;
+            hostStats.maxWaitTimeMicros = hostQueue.maxWaitTimeMicros.get();
+            stats.put(host, hostStats);
+        });
+        return stats;
+    }
+
+    private HostQueue<T> enqueue(K host, T item) {
+        return hostQueues.compute(host, (k, hostQueue) -> {
+            if (hostQueue == null) {
+                hostQueue = new HostQueue<>();
+            }
+            hostQueue.lastUsedTimeMicros = Utils.getNowMicrosUtc();
+            hostQueue.queueDepth.incrementAndGet();
+            hostQueue.queue.add(new QueuedItem<>(item));
+            return hostQueue;
+        });
+    }
+
+    /**
+     * Start the queued items of the host, and of the hosts released meanwhile by the items started
+     * on the same thread. The items releasing their permit right away, e.g. failing to start, make
+     * the running dispatch loop again instead of recursing once per queued item.
+     */
+    private void dispatch(K host, HostQueue<T> hostQueue) {
+        Map<K, HostQueue<T>> pending = pendingDispatches.get();
+        if (pending != null) {
+            pending.put(host, hostQueue);
+            return;
+        }
+
+        pending = new LinkedHashMap<>();
+        pending.put(host, hostQueue);
+        pendingDispatches.set(pending);
+        try {
+            while (!pending.isEmpty()) {
+                Iterator<Map.Entry<K, HostQueue<T>>> it = pending.entrySet().iterator();
+                Map.Entry<K, HostQueue<T>> next = it.next();
+                it.remove();
+                startQueued(next.getKey(), next.getValue());
+            }
+        } finally {
+            pendingDispatches.remove();
+        }
+    }
+
+    /**
+     * Start the queued items while there are permits available. An item is always queued before
+     * trying to get a permit and a permit is always released before checking the queue, so a
+     * queued item is never left behind without an active one to start it.
+     */
+    private void startQueued(K host, HostQueue<T> hostQueue) {
+        while (!hostQueue.queue.isEmpty()
+                && ConcurrentUtil.incrementIfLessThan(hostQueue.active, maxActivePerHost)) {
+            QueuedItem<T> queuedItem = hostQueue.queue.poll();
+            if (queuedItem == null) {
+                // taken by a concurrent dispatch
+                hostQueue.active.decrementAndGet();
+                continue;
+            }
+            hostQueue.queueDepth.decrementAndGet();
+
+            if (handler.isExpired(queuedItem.item)) {
+                hostQueue.active.decrementAndGet();
+                hostQueue.expired.incrementAndGet();
+                handler.expired(host, queuedItem.item);
+                continue;
+            }
+
+            hostQueue.started(queuedItem);
+            handler.start(host, queuedItem.item);
+        }
+    }
+}
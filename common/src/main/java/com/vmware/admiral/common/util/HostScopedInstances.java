@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Host local instances (caches, indexes, aggregators, etc.), one per host and type, kept until the
+ * host stops.
+ *
+ * A stateless service is started on the host together with its first instance and releases all the
+ * instances of the host once stopped with it, so neither the instances nor the host they reference
+ * outlive the host.
+ */
+public class HostScopedInstances {
+    public static final String SELF_LINK = UriUtils.buildUriPath(ManagementUriParts.CONFIG,
+            "host-scoped-instances");
+
+    private static final Map<ServiceHost, Map<Class<?>, Object>> INSTANCES =
+            new ConcurrentHashMap<>();
+
+    private HostScopedInstances() {
+    }
+
+    /**
+     * Returns the instance of the given type for the host, created with the factory on the first
+     * call. The factory may get other instances of the same host.
+     */
+    public static <T> T getInstance(ServiceHost host, Class<T> type,
+            Function<ServiceHost, T> factory) {
+        AssertUtil.assertNotNull(host, "host");
+        AssertUtil.assertNotNull(type, "type");
+        if (host.isStopping()) {
+            // not kept, the host will not release it
+            return factory.apply(host);
+        }
+
+        Map<Class<?>, Object> instances = INSTANCES.get(host);
+        if (instances == null) {
+            synchronized (INSTANCES) {
+                instances = INSTANCES.get(host);
+                if (instances == null) {
+                    instances = new HashMap<>();
+                    INSTANCES.put(host, instances);
+                    startReleaseService(host);
+                }
+            }
+        }
+
+        synchronized (instances) {
+            Object instance = instances.get(type);
+            if (instance == null) {
+                instance = factory.apply(host);
+                instances.put(type, instance);
+            }
+            return type.cast(instance);
+        }
+    }
+
+    static boolean hasInstances(ServiceHost host) {
+        return INSTANCES.containsKey(host);
+    }
+
+    private static void startReleaseService(ServiceHost host) {
+        Operation post = Operation.createPost(UriUtils.buildUri(host, SELF_LINK))
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        // the instances would never be released otherwise
+                        INSTANCES.remove(host);
+                        host.log(Level.WARNING,
+                                "Failed to start %s: %s", SELF_LINK, Utils.toString(e));
+                    }
+                });
+        host.startService(post, new ReleaseService(host));
+    }
+
+    private static class ReleaseService extends StatelessService {
+        private final ServiceHost releasedHost;
+
+        ReleaseService(ServiceHost host) {
+            this.releasedHost = host;
+        }
+
+        @Override
+        public void handleStop(Operation delete) {
+            INSTANCES.remove(releasedHost);
+            super.handleStop(delete);
+        }
+    }
+}
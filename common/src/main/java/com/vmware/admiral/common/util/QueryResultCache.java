@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import com.vmware.admiral.common.util.ServiceDocumentQuery.ServiceDocumentQueryElementResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+/**
+ * Host local, size bounded cache of query results. The results are cached per document kind and
+ * all results for a kind are invalidated as soon as any document of that kind is created, updated
+ * or deleted. The changes are tracked with a continuous query per kind, started on the first
+ * lookup for it, and results are not cached until the subscription for the kind is in place.
+ * Entries also expire after a fixed time, in case a notification is missed.
+ *
+ * The cache is meant for hot lookups of rarely changing documents (compute descriptions,
+ * registries, etc.) and is used through {@link ServiceDocumentQuery#queryCached}.
+ */
+public class QueryResultCache {
+    public static final int MAX_ENTRIES = Integer.getInteger(
+            "com.vmware.admiral.common.util.query.cache.max.entries", 256);
+    public static final int MAX_RESULTS_PER_ENTRY = Integer.getInteger(
+            "com.vmware.admiral.common.util.query.cache.max.results", 1000);
+    public static final long ENTRY_EXPIRATION_MICROS = Long.getLong(
+            "com.vmware.admiral.common.util.query.cache.expiration.micros",
+            TimeUnit.MINUTES.toMicros(5));
+
+    private static final long CONTINUOUS_QUERY_EXPIRATION_MICROS = TimeUnit.DAYS.toMicros(365);
+
+    private final ServiceHost host;
+    private final Map<String, Entry> entries;
+    private final Map<String, KindState> kinds = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Snapshot of the cache statistics.
+     */
+    public static class Stats {
+        public long hits;
+        public long misses;
+        public long evictions;
+        public long invalidations;
+        public int size;
+
+        @Override
+        public String toString() {
+            return String.format("hits: %d, misses: %d, evictions: %d, invalidations: %d,"
+                    + " size: %d", hits, misses, evictions, invalidations, size);
+        }
+    }
+
+    static class Entry {
+        final String kind;
+        final List<ServiceDocumentQueryElementResult<?>> results;
+        final long expirationMicros;
+
+        Entry(String kind, List<ServiceDocumentQueryElementResult<?>> results) {
+            this.kind = kind;
+            this.results = results;
+            this.expirationMicros = Utils.getNowMicrosUtc() + ENTRY_EXPIRATION_MICROS;
+        }
+    }
+
+    private static class KindState {
+        volatile boolean subscribed;
+        final AtomicLong generation = new AtomicLong();
+    }
+
+    @SuppressWarnings("serial")
+    private QueryResultCache(ServiceHost host) {
+        this.host = host;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > MAX_ENTRIES) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static QueryResultCache getInstance(ServiceHost host) {
+        return HostScopedInstances.getInstance(host, QueryResultCache.class,
+                QueryResultCache::new);
+    }
+
+    public Stats getStats() {
+        Stats stats = new Stats();
+        stats.hits = hits.get();
+        stats.misses = misses.get();
+        stats.evictions = evictions.get();
+        stats.invalidations = invalidations.get();
+        synchronized (entries) {
+            stats.size = entries.size();
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the document kind the query is restricted to or <code>null</code> if the query is
+     * not restricted to a single kind and so could not be cached.
+     */
+    public static String getKind(QueryTask q) {
+        if (q.querySpec == null || q.querySpec.query == null) {
+            return null;
+        }
+        String kind = getKindTerm(q.querySpec.query);
+        if (kind == null && q.querySpec.query.booleanClauses != null) {
+            for (Query clause : q.querySpec.query.booleanClauses) {
+                if (clause.occurance == Query.Occurance.MUST_OCCUR) {
+                    kind = getKindTerm(clause);
+                    if (kind != null) {
+                        break;
+                    }
+                }
+            }
+        }
+        return kind;
+    }
+
+    private static String getKindTerm(Query query) {
+        if (query.term != null
+                && ServiceDocument.FIELD_NAME_KIND.equals(query.term.propertyName)
+                && (query.term.matchType == null
+                        || query.term.matchType == QueryTask.QueryTerm.MatchType.TERM)
+                && query.occurance == Query.Occurance.MUST_OCCUR) {
+            return query.term.matchValue;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the cached results for the given key or <code>null</code> if not cached.
+     */
+    List<ServiceDocumentQueryElementResult<?>> get(String key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expirationMicros < Utils.getNowMicrosUtc()) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.results;
+    }
+
+    /**
+     * Returns the current generation of the given kind to be passed to
+     * {@link #put(String, String, long, List)} once the query completes, so results of queries
+     * racing with a change of the kind are not cached. Returns <code>-1</code> if changes of the
+     * kind are not tracked yet, in which case the results should not be cached.
+     */
+    long watch(String kind) {
+        KindState state = kinds.get(kind);
+        if (state == null) {
+            KindState newState = new KindState();
+            state = kinds.putIfAbsent(kind, newState);
+            if (state == null) {
+                subscribe(kind, newState);
+                return -1;
+            }
+        }
+        return state.subscribed ? state.generation.get() : -1;
+    }
+
+    void put(String key, String kind, long generation,
+            List<ServiceDocumentQueryElementResult<?>> results) {
+        KindState state = kinds.get(kind);
+        if (generation < 0 || state == null || results.size() > MAX_RESULTS_PER_ENTRY) {
+            return;
+        }
+        // checked under the lock, so an invalidation either is seen here or removes the entry
+        synchronized (entries) {
+            if (state.generation.get() == generation) {
+                entries.put(key, new Entry(kind, results));
+            }
+        }
+    }
+
+    void invalidate(String kind) {
+        KindState state = kinds.get(kind);
+        if (state != null) {
+            state.generation.incrementAndGet();
+        }
+        invalidations.incrementAndGet();
+        synchronized (entries) {
+            entries.values().removeIf((e) -> e.kind.equals(kind));
+        }
+    }
+
+    private void subscribe(String kind, KindState state) {
+        QueryTask q = QueryUtil.buildQuery(kind, false);
+        q.querySpec.options = EnumSet.of(QueryOption.CONTINUOUS);
+        q.documentExpirationTimeMicros = Utils.getNowMicrosUtc()
+                + CONTINUOUS_QUERY_EXPIRATION_MICROS;
+
+        host.sendRequest(Operation
+                .createPost(UriUtils.buildUri(host, ServiceUriPaths.CORE_LOCAL_QUERY_TASKS))
+                .setBody(q)
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        host.log(Level.WARNING, "Failed to start continuous query for %s: %s",
+                                kind, Utils.toString(e));
+                        kinds.remove(kind, state);
+                        return;
+                    }
+                    QueryTask task = o.getBody(QueryTask.class);
+                    Operation subscribe = Operation
+                            .createPost(UriUtils.buildUri(host, task.documentSelfLink))
+                            .setReferer(host.getUri())
+                            .setCompletion((so, se) -> {
+                                if (se != null) {
+                                    host.log(Level.WARNING,
+                                            "Failed to subscribe for changes of %s: %s",
+                                            kind, Utils.toString(se));
+                                    kinds.remove(kind, state);
+                                    return;
+                                }
+                                state.subscribed = true;
+                            });
+                    host.startSubscriptionService(subscribe, (notification) -> {
+                        notification.complete();
+                        invalidate(kind);
+                    });
+                }));
+    }
+}
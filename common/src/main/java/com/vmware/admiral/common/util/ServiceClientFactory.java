@@ -11,23 +11,91 @@
 
 package com.vmware.admiral.common.util;
 
+import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 
+import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceClient;
 import com.vmware.xenon.common.http.netty.NettyHttpServiceClient;
 
 /**
  * Factory for ServiceClient instances with support for providing custom SSLContext
  *
- * TODO cache SSLContext/client for a given sslTrust instead of recreating for every request
+ * The clients share the same executors and the last used SSLContexts are cached by trust/key
+ * material. The clients given by {@link #getServiceClient(TrustManager, KeyManager)} are also
+ * shared between the callers with the same trust/key material, so they share the Netty event loops
+ * and connections, and count the requests in flight per target host, see
+ * {@link #getServiceClientStats()}.
  */
 public class ServiceClientFactory {
 
+    /**
+     * Max number of SSLContexts cached, the least recently used ones are evicted
+     */
+    private static final int MAX_SSL_CONTEXTS = Integer.getInteger(
+            "com.vmware.admiral.service.client.ssl.contexts", 64);
+
+    /**
+     * Executor shared by the clients, the event loops of each client (http, https and http2) pin
+     * one of its threads while the client is started so it is not bounded, the threads of the
+     * stopped clients are reclaimed once idle
+     */
+    private static ExecutorService sharedExecutor;
+
+    private static ScheduledExecutorService sharedScheduledExecutor;
+
+    @SuppressWarnings("serial")
+    private static final Map<MaterialKey, SSLContext> sslContexts = new LinkedHashMap<MaterialKey,
+            SSLContext>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<MaterialKey, SSLContext> eldest) {
+            return size() > MAX_SSL_CONTEXTS;
+        }
+    };
+
+    private static final Map<MaterialKey, SharedServiceClient> sharedClients = new HashMap<>();
+
+    /**
+     * Snapshot of the requests sent by the shared clients to a target host
+     */
+    public static class HostStats {
+        /** Number of requests sent and not completed yet */
+        public int inFlight;
+
+        /** Max number of requests in flight at the same time */
+        public int maxInFlight;
+
+        /** Number of requests sent so far */
+        public long requests;
+
+        /** Number of requests completed with a failure */
+        public long failures;
+
+        /** Max number of connections to the host, per client */
+        public int connectionLimit;
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "inFlight=%d, maxInFlight=%d, requests=%d, failures=%d, connectionLimit=%d",
+                    inFlight, maxInFlight, requests, failures, connectionLimit);
+        }
+    }
+
     /**
      * Create a ServiceClient instance using the given TrustManager and KeyManager
      *
@@ -38,8 +106,7 @@ public class ServiceClientFactory {
     public static ServiceClient createServiceClient(TrustManager trustManager,
             KeyManager keyManager) {
 
-        return createServiceClient(CertificateUtil.createSSLContext(
-                trustManager, keyManager));
+        return createServiceClient(getSSLContext(trustManager, keyManager));
     }
 
     /**
@@ -53,8 +120,8 @@ public class ServiceClientFactory {
     public static ServiceClient createServiceClient(TrustManager trustManager,
             KeyManager keyManager, int requestPayloadSizeLimit) {
 
-        return createServiceClient(CertificateUtil.createSSLContext(
-                trustManager, keyManager), requestPayloadSizeLimit);
+        return createServiceClient(getSSLContext(trustManager, keyManager),
+                requestPayloadSizeLimit);
     }
 
     /**
@@ -80,8 +147,8 @@ public class ServiceClientFactory {
         try {
             serviceClient = NettyHttpServiceClient.create(
                     ServiceClientFactory.class.getCanonicalName(),
-                    Executors.newFixedThreadPool(4),
-                    Executors.newScheduledThreadPool(1));
+                    getSharedExecutor(),
+                    getSharedScheduledExecutor());
 
             if (requestPayloadSizeLimit > 0) {
                 serviceClient.setRequestPayloadSizeLimit(requestPayloadSizeLimit);
@@ -95,4 +162,258 @@ public class ServiceClientFactory {
             throw new RuntimeException("Failed to create ServiceClient", e);
         }
     }
+
+    /**
+     * Get the ServiceClient shared by the callers with the same TrustManager and KeyManager
+     * instances
+     *
+     * Stopping the returned client releases it, the client is actually stopped when released by
+     * all the callers.
+     *
+     * @param trustManager
+     * @param keyManager
+     * @return
+     */
+    public static ServiceClient getServiceClient(TrustManager trustManager,
+            KeyManager keyManager) {
+        return getServiceClient(trustManager, keyManager, 0);
+    }
+
+    /**
+     * Get the ServiceClient shared by the callers with the same TrustManager and KeyManager
+     * instances and requestPayloadSizeLimit
+     *
+     * Stopping the returned client releases it, the client is actually stopped when released by
+     * all the callers.
+     *
+     * @param trustManager
+     * @param keyManager
+     * @param requestPayloadSizeLimit
+     * @return
+     */
+    public static ServiceClient getServiceClient(TrustManager trustManager,
+            KeyManager keyManager, int requestPayloadSizeLimit) {
+        MaterialKey key = new MaterialKey(trustManager, keyManager, requestPayloadSizeLimit);
+        synchronized (sharedClients) {
+            SharedServiceClient serviceClient = sharedClients.get(key);
+            if (serviceClient == null) {
+                serviceClient = new SharedServiceClient(key, createServiceClient(
+                        getSSLContext(trustManager, keyManager), requestPayloadSizeLimit));
+                sharedClients.put(key, serviceClient);
+            }
+            serviceClient.references++;
+            return serviceClient;
+        }
+    }
+
+    /**
+     * Returns a snapshot of the requests sent by the shared clients per target host (host:port)
+     */
+    public static Map<String, HostStats> getServiceClientStats() {
+        Map<String, HostStats> stats = new HashMap<>();
+        synchronized (sharedClients) {
+            for (SharedServiceClient serviceClient : sharedClients.values()) {
+                int connectionLimit = serviceClient.getConnectionLimitPerHost();
+                serviceClient.hostCounters.forEach((host, counters) -> {
+                    HostStats hostStats = stats.computeIfAbsent(host, (k) -> new HostStats());
+                    hostStats.inFlight += counters.inFlight.get();
+                    hostStats.maxInFlight = Math.max(hostStats.maxInFlight,
+                            counters.maxInFlight.get());
+                    hostStats.requests += counters.requests.get();
+                    hostStats.failures += counters.failures.get();
+                    hostStats.connectionLimit = Math.max(hostStats.connectionLimit,
+                            connectionLimit);
+                });
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Get the SSLContext for the given TrustManager and KeyManager instances, created once while
+     * used
+     */
+    public static SSLContext getSSLContext(TrustManager trustManager, KeyManager keyManager) {
+        synchronized (sslContexts) {
+            return sslContexts.computeIfAbsent(new MaterialKey(trustManager, keyManager, 0),
+                    (k) -> CertificateUtil.createSSLContext(trustManager, keyManager));
+        }
+    }
+
+    private static synchronized ExecutorService getSharedExecutor() {
+        if (sharedExecutor == null) {
+            sharedExecutor = Executors.newCachedThreadPool(daemonThreadFactory("service-client"));
+        }
+        return sharedExecutor;
+    }
+
+    private static synchronized ScheduledExecutorService getSharedScheduledExecutor() {
+        if (sharedScheduledExecutor == null) {
+            sharedScheduledExecutor = Executors.newScheduledThreadPool(1,
+                    daemonThreadFactory("service-client-scheduled"));
+        }
+        return sharedScheduledExecutor;
+    }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return (r) -> {
+            Thread thread = new Thread(r, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static void release(SharedServiceClient serviceClient) {
+        synchronized (sharedClients) {
+            if (--serviceClient.references > 0) {
+                return;
+            }
+            sharedClients.remove(serviceClient.key);
+        }
+        serviceClient.delegate.stop();
+    }
+
+    /**
+     * Key by the identity of the trust/key material
+     */
+    private static final class MaterialKey {
+        private final TrustManager trustManager;
+        private final KeyManager keyManager;
+        private final int requestPayloadSizeLimit;
+
+        private MaterialKey(TrustManager trustManager, KeyManager keyManager,
+                int requestPayloadSizeLimit) {
+            this.trustManager = trustManager;
+            this.keyManager = keyManager;
+            this.requestPayloadSizeLimit = requestPayloadSizeLimit;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof MaterialKey)) {
+                return false;
+            }
+            MaterialKey other = (MaterialKey) obj;
+            return trustManager == other.trustManager && keyManager == other.keyManager
+                    && requestPayloadSizeLimit == other.requestPayloadSizeLimit;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(trustManager)
+                    + System.identityHashCode(keyManager)) + requestPayloadSizeLimit;
+        }
+    }
+
+    private static class HostCounters {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+    }
+
+    /**
+     * ServiceClient shared by reference count, counting the requests per target host
+     */
+    private static class SharedServiceClient implements ServiceClient {
+        private final MaterialKey key;
+        private final ServiceClient delegate;
+        private final Map<String, HostCounters> hostCounters = new ConcurrentHashMap<>();
+
+        /**
+         * Number of callers using the client, guarded by sharedClients
+         */
+        private int references;
+
+        private SharedServiceClient(MaterialKey key, ServiceClient delegate) {
+            this.key = key;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void send(Operation op) {
+            URI uri = op.getUri();
+            HostCounters counters = hostCounters.computeIfAbsent(
+                    uri.getHost() + ":" + uri.getPort(), (k) -> new HostCounters());
+            counters.requests.incrementAndGet();
+            counters.maxInFlight.accumulateAndGet(counters.inFlight.incrementAndGet(),
+                    Math::max);
+
+            op.nestCompletion((o, e) -> {
+                counters.inFlight.decrementAndGet();
+                if (e != null) {
+                    counters.failures.incrementAndGet();
+                    op.fail(e);
+                    return;
+                }
+                op.complete();
+            });
+            delegate.send(op);
+        }
+
+        @Override
+        public void sendRequest(Operation op) {
+            send(op);
+        }
+
+        @Override
+        public void start() {
+            delegate.start();
+        }
+
+        @Override
+        public void stop() {
+            release(this);
+        }
+
+        @Override
+        public void handleMaintenance(Operation op) {
+            delegate.handleMaintenance(op);
+        }
+
+        @Override
+        public ServiceClient setSSLContext(SSLContext context) {
+            delegate.setSSLContext(context);
+            return this;
+        }
+
+        @Override
+        public SSLContext getSSLContext() {
+            return delegate.getSSLContext();
+        }
+
+        @Override
+        public ServiceClient setConnectionLimitPerHost(int limit) {
+            delegate.setConnectionLimitPerHost(limit);
+            return this;
+        }
+
+        @Override
+        public int getConnectionLimitPerHost() {
+            return delegate.getConnectionLimitPerHost();
+        }
+
+        @Override
+        public ServiceClient setConnectionLimitPerTag(String tag, int limit) {
+            delegate.setConnectionLimitPerTag(tag, limit);
+            return this;
+        }
+
+        @Override
+        public int getConnectionLimitPerTag(String tag) {
+            return delegate.getConnectionLimitPerTag(tag);
+        }
+
+        @Override
+        public ServiceClient setRequestPayloadSizeLimit(int limit) {
+            delegate.setRequestPayloadSizeLimit(limit);
+            return this;
+        }
+
+        @Override
+        public int getRequestPayloadSizeLimit() {
+            return delegate.getRequestPayloadSizeLimit();
+        }
+    }
 }
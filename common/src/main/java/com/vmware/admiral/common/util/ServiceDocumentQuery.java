@@ -11,13 +11,25 @@
 
 package com.vmware.admiral.common.util;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceHost;
@@ -28,6 +40,7 @@ import com.vmware.xenon.services.common.QueryTask;
 import com.vmware.xenon.services.common.QueryTask.NumericRange;
 import com.vmware.xenon.services.common.QueryTask.Query;
 import com.vmware.xenon.services.common.QueryTask.Query.Occurance;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification;
 import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
 import com.vmware.xenon.services.common.QueryTask.QueryTerm.MatchType;
 import com.vmware.xenon.services.common.ServiceUriPaths;
@@ -45,12 +58,41 @@ public class ServiceDocumentQuery<T extends ServiceDocument> {
 
     private final Class<T> type;
     private final ServiceHost host;
+    private final List<String> selectedFields;
 
     public ServiceDocumentQuery(ServiceHost host, Class<T> type) {
+        this(host, type, null);
+    }
+
+    private ServiceDocumentQuery(ServiceHost host, Class<T> type, List<String> selectedFields) {
         AssertUtil.assertNotNull(host, "host");
         AssertUtil.assertNotNull(type, "type");
         this.host = host;
         this.type = type;
+        this.selectedFields = selectedFields;
+    }
+
+    /**
+     * Creates a query which keeps only the selected fields of the expanded documents before mapping
+     * them to the result type, so large properties the caller doesn't need (attributes, custom
+     * properties, etc.) are never deserialized. The result type could be the document type itself
+     * or a lightweight type declaring just the selected fields. Entries of map properties are
+     * selected with a composite field name, e.g. <code>customProperties.key</code>. The
+     * {@link ServiceDocument#documentSelfLink} is always selected.
+     *
+     * @param host
+     *            The host to send the queries to.
+     * @param type
+     *            The type the selected fields are mapped to.
+     * @param fieldNames
+     *            The names of the fields to be selected.
+     */
+    public static <S extends ServiceDocument> ServiceDocumentQuery<S> projection(ServiceHost host,
+            Class<S> type, String... fieldNames) {
+        AssertUtil.assertNotEmpty(fieldNames, "fieldNames");
+        List<String> selectedFields = new ArrayList<>(Arrays.asList(fieldNames));
+        selectedFields.add(ServiceDocument.FIELD_NAME_SELF_LINK);
+        return new ServiceDocumentQuery<>(host, type, selectedFields);
     }
 
     public static long getDefaultQueryExpiration() {
@@ -195,16 +237,131 @@ public class ServiceDocumentQuery<T extends ServiceDocument> {
                 }));
     }
 
+    /**
+     * Same as {@link #query(QueryTask, Consumer)} but the results are served from the host local
+     * {@link QueryResultCache} when the same query was already executed and no document of the
+     * queried kind has changed since. Meant for hot lookups of rarely changing documents. Queries
+     * not restricted to a single document kind are not cached.
+     */
+    public void queryCached(QueryTask q,
+            Consumer<ServiceDocumentQueryElementResult<T>> completionHandler) {
+        String kind = QueryResultCache.getKind(q);
+        if (kind == null) {
+            query(q, completionHandler);
+            return;
+        }
+
+        QueryResultCache cache = QueryResultCache.getInstance(host);
+        String key = type.getName() + selectedFields + Utils.toJson(q.querySpec);
+        List<ServiceDocumentQueryElementResult<?>> cached = cache.get(key);
+        if (cached != null) {
+            for (ServiceDocumentQueryElementResult<?> r : cached) {
+                completionHandler.accept(copy(r));
+            }
+            completionHandler.accept(noResult());
+            return;
+        }
+
+        long generation = cache.watch(kind);
+        List<ServiceDocumentQueryElementResult<?>> results = new ArrayList<>();
+        query(q, (r) -> {
+            if (r.hasException()) {
+                completionHandler.accept(r);
+                return;
+            }
+            if (r.hasResult()) {
+                results.add(copy(r));
+            } else {
+                cache.put(key, kind, generation, results);
+            }
+            completionHandler.accept(r);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private ServiceDocumentQueryElementResult<T> copy(ServiceDocumentQueryElementResult<?> r) {
+        ServiceDocumentQueryElementResult<T> copy = new ServiceDocumentQueryElementResult<>();
+        copy.result = r.result != null ? Utils.clone((T) r.result) : null;
+        copy.documentSelfLink = r.documentSelfLink;
+        copy.count = r.count;
+        return copy;
+    }
+
+    /**
+     * Page oriented query helper method. Unlike {@link #query(QueryTask, Consumer)}, the results
+     * are delivered a whole page at a time and the next page is delivered only after the current
+     * one is released with {@link ServiceDocumentQueryPage#next()}. The page following the one
+     * being processed is prefetched in the meantime, so at most one page is kept in memory ahead
+     * of the handler.
+     *
+     * @param q
+     *            Fully defined {@link QueryTask}. The default result limit is used as page size if
+     *            not set.
+     * @param pageHandler
+     *            The handler to be called for every page, including the last one which might be
+     *            empty, or once with an exception in case of errors.
+     */
+    public void queryPages(QueryTask q, PageHandler<T> pageHandler) {
+        int pageSize = q.querySpec.resultLimit != null ? q.querySpec.resultLimit
+                : DEFAULT_QUERY_RESULT_LIMIT;
+        queryPages(q, pageSize, pageHandler);
+    }
+
+    /**
+     * Same as {@link #queryPages(QueryTask, PageHandler)} with a page size specific to the caller.
+     */
+    public void queryPages(QueryTask q, int pageSize, PageHandler<T> pageHandler) {
+        AssertUtil.assertNotNull(pageHandler, "pageHandler");
+        AssertUtil.assertTrue(pageSize > 0, "'pageSize' must be positive.");
+        AssertUtil.assertTrue(!isCountQuery(q), "Count queries are not paged.");
+
+        if (q.documentExpirationTimeMicros == 0) {
+            q.documentExpirationTimeMicros = getDefaultQueryExpiration();
+        }
+        q.querySpec.resultLimit = pageSize;
+
+        host.sendRequest(Operation
+                .createPost(UriUtils.buildUri(host, ServiceUriPaths.CORE_QUERY_TASKS))
+                .setBody(q)
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        pageHandler.handle(errorPage(e));
+                        return;
+                    }
+                    waitForQuery(o.getBody(QueryTask.class), (rsp, ex) -> {
+                        if (ex != null) {
+                            pageHandler.handle(errorPage(ex));
+                        } else if (rsp.querySpec.options != null
+                                && rsp.querySpec.options.contains(QueryOption.TOP_RESULTS)) {
+                            // top results are not paginated
+                            pageHandler.handle(page(rsp, null));
+                        } else {
+                            new PagedQuery(pageHandler).start(rsp.results.nextPageLink);
+                        }
+                    });
+                }));
+    }
+
     private void processQuery(QueryTask q,
             Consumer<ServiceDocumentQueryElementResult<T>> handler) {
+        waitForQuery(q, (rsp, e) -> {
+            if (e != null) {
+                handler.accept(error(e));
+                return;
+            }
+            processQueryResult(rsp, handler);
+        });
+    }
+
+    private void waitForQuery(QueryTask q, BiConsumer<QueryTask, Throwable> handler) {
         if (TaskState.isFailed(q.taskInfo)) {
-            handler.accept(error(new IllegalStateException(
-                    q.taskInfo.failure.message)));
+            handler.accept(null, new IllegalStateException(q.taskInfo.failure.message));
             return;
         }
 
         if (q.taskInfo.isDirect || TaskState.isFinished(q.taskInfo)) {
-            processQueryResult(q, handler);
+            handler.accept(q, null);
             return;
         }
 
@@ -213,7 +370,7 @@ public class ServiceDocumentQuery<T extends ServiceDocument> {
                 .setReferer(host.getUri())
                 .setCompletion((o, e) -> {
                     if (e != null) {
-                        handler.accept(error(e));
+                        handler.accept(null, e);
                         return;
                     }
 
@@ -223,12 +380,12 @@ public class ServiceDocumentQuery<T extends ServiceDocument> {
                         host.log(Level.FINE,
                                 "Resource query not complete yet, retrying...");
                         host.schedule(() -> {
-                            processQuery(rsp, handler);
+                            waitForQuery(rsp, handler);
                         }, QueryUtil.QUERY_RETRY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
                         return;
                     }
 
-                    processQueryResult(rsp, handler);
+                    handler.accept(rsp, null);
                 }));
     }
 
@@ -317,6 +474,107 @@ public class ServiceDocumentQuery<T extends ServiceDocument> {
         }
     }
 
+    /**
+     * Follows the <code>nextPageLink</code>s of a paginated query, fetching the next page while the
+     * current one is processed by the handler.
+     */
+    private class PagedQuery {
+        private final PageHandler<T> pageHandler;
+        // the prefetched page, waiting for the handler to release the current one
+        private ServiceDocumentQueryPage<T> prefetchedPage;
+        // the first page is delivered as soon as it is fetched
+        private boolean nextPageRequested = true;
+
+        PagedQuery(PageHandler<T> pageHandler) {
+            this.pageHandler = pageHandler;
+        }
+
+        void start(String pageLink) {
+            if (pageLink == null) {
+                pageHandler.handle(emptyPage());
+                return;
+            }
+            fetch(pageLink);
+        }
+
+        private void fetch(String pageLink) {
+            host.sendRequest(Operation
+                    .createGet(UriUtils.buildUri(host, pageLink))
+                    .setReferer(host.getUri())
+                    .setCompletion((o, e) -> {
+                        ServiceDocumentQueryPage<T> page;
+                        if (e != null) {
+                            page = errorPage(e);
+                        } else {
+                            try {
+                                page = page(o.getBody(QueryTask.class), this::next);
+                            } catch (Throwable ex) {
+                                page = errorPage(ex);
+                            }
+                        }
+                        onPageFetched(page);
+                    }));
+        }
+
+        private void onPageFetched(ServiceDocumentQueryPage<T> page) {
+            synchronized (this) {
+                if (!nextPageRequested) {
+                    prefetchedPage = page;
+                    return;
+                }
+                nextPageRequested = false;
+            }
+            deliver(page);
+        }
+
+        private void next() {
+            ServiceDocumentQueryPage<T> page;
+            synchronized (this) {
+                if (prefetchedPage == null) {
+                    nextPageRequested = true;
+                    return;
+                }
+                page = prefetchedPage;
+                prefetchedPage = null;
+            }
+            deliver(page);
+        }
+
+        private void deliver(ServiceDocumentQueryPage<T> page) {
+            if (page.nextPageLink != null) {
+                fetch(page.nextPageLink);
+            }
+            pageHandler.handle(page);
+        }
+    }
+
+    private ServiceDocumentQueryPage<T> page(QueryTask rsp, Runnable next) {
+        ServiceDocumentQueryPage<T> page = new ServiceDocumentQueryPage<>();
+        List<String> links = rsp.results.documentLinks;
+        if (links != null) {
+            page.documentLinks = links;
+            if (isExpandQuery(rsp) && rsp.results.documents != null) {
+                page.documents = new ArrayList<>(links.size());
+                for (String documentLink : links) {
+                    page.documents.add(toDocument(rsp.results.documents.get(documentLink)));
+                }
+            }
+        }
+        page.nextPageLink = next != null ? rsp.results.nextPageLink : null;
+        page.next = next;
+        return page;
+    }
+
+    private ServiceDocumentQueryPage<T> emptyPage() {
+        return new ServiceDocumentQueryPage<>();
+    }
+
+    private ServiceDocumentQueryPage<T> errorPage(Throwable exception) {
+        ServiceDocumentQueryPage<T> page = new ServiceDocumentQueryPage<>();
+        page.exception = exception;
+        return page;
+    }
+
     private boolean isExpandQuery(QueryTask q) {
         return q.querySpec.options != null
                 && q.querySpec.options.contains(QueryOption.EXPAND_CONTENT);
@@ -348,9 +606,99 @@ public class ServiceDocumentQuery<T extends ServiceDocument> {
         return r;
     }
 
+    private T toDocument(Object json) {
+        if (selectedFields != null) {
+            if (json instanceof String) {
+                json = selectFields((String) json);
+            } else if (json instanceof JsonObject) {
+                json = selectFields((JsonObject) json);
+            }
+        }
+        return Utils.fromJson(json, type);
+    }
+
+    /**
+     * Reads only the selected fields of a serialized document, skipping the rest of it without
+     * building any intermediate objects.
+     */
+    private JsonObject selectFields(String document) {
+        JsonObject selected = new JsonObject();
+        JsonParser parser = new JsonParser();
+        try (JsonReader reader = new JsonReader(new StringReader(document))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (selectedFields.contains(name)) {
+                    selected.add(name, parser.parse(reader));
+                } else if (isSelectedParent(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    JsonObject selectedParent = new JsonObject();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String childName = reader.nextName();
+                        if (selectedFields.contains(QuerySpecification.buildCompositeFieldName(
+                                name, childName))) {
+                            selectedParent.add(childName, parser.parse(reader));
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    selected.add(name, selectedParent);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid document: " + e.getMessage(), e);
+        }
+        return selected;
+    }
+
+    private JsonObject selectFields(JsonObject document) {
+        JsonObject selected = new JsonObject();
+        for (String fieldName : selectedFields) {
+            int idx = fieldName.indexOf(QuerySpecification.FIELD_NAME_CHARACTER);
+            if (idx == -1) {
+                JsonElement value = document.get(fieldName);
+                if (value != null) {
+                    selected.add(fieldName, value);
+                }
+                continue;
+            }
+
+            String parentName = fieldName.substring(0, idx);
+            JsonElement parent = document.get(parentName);
+            if (parent == null || !parent.isJsonObject()) {
+                continue;
+            }
+            JsonObject selectedParent = selected.getAsJsonObject(parentName);
+            if (selectedParent == null) {
+                selectedParent = new JsonObject();
+                selected.add(parentName, selectedParent);
+            }
+            String name = fieldName.substring(idx + 1);
+            JsonElement value = parent.getAsJsonObject().get(name);
+            if (value != null) {
+                selectedParent.add(name, value);
+            }
+        }
+        return selected;
+    }
+
+    private boolean isSelectedParent(String name) {
+        String prefix = name + QuerySpecification.FIELD_NAME_CHARACTER;
+        for (String fieldName : selectedFields) {
+            if (fieldName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public ServiceDocumentQueryElementResult<T> result(Object json, long count) {
         ServiceDocumentQueryElementResult<T> r = new ServiceDocumentQueryElementResult<>();
-        r.result = Utils.fromJson(json, type);
+        r.result = toDocument(json);
         r.documentSelfLink = r.result.documentSelfLink;
         r.count = count;
         return r;
@@ -385,6 +733,56 @@ public class ServiceDocumentQuery<T extends ServiceDocument> {
         return new ServiceDocumentQueryElementResult<>();
     }
 
+    /**
+     * Handler of the pages of a query. The handler must call
+     * {@link ServiceDocumentQueryPage#next()} when ready for the next page, otherwise the query
+     * stops with the current page.
+     */
+    @FunctionalInterface
+    public interface PageHandler<T extends ServiceDocument> {
+        void handle(ServiceDocumentQueryPage<T> page);
+    }
+
+    public static class ServiceDocumentQueryPage<T extends ServiceDocument> {
+        private Throwable exception;
+        private List<T> documents = Collections.emptyList();
+        private List<String> documentLinks = Collections.emptyList();
+        private String nextPageLink;
+        private Runnable next;
+
+        public boolean hasException() {
+            return exception != null;
+        }
+
+        public Throwable getException() {
+            return exception;
+        }
+
+        /**
+         * The documents of the page. Empty if the query is not expanded.
+         */
+        public List<T> getDocuments() {
+            return documents;
+        }
+
+        public List<String> getDocumentLinks() {
+            return documentLinks;
+        }
+
+        public boolean isLast() {
+            return nextPageLink == null;
+        }
+
+        /**
+         * Releases this page and requests the next one. Has no effect on the last page.
+         */
+        public void next() {
+            if (!isLast()) {
+                next.run();
+            }
+        }
+    }
+
     public static class ServiceDocumentQueryElementResult<T extends ServiceDocument> {
         private Throwable exception;
         private T result;
@@ -248,7 +248,11 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
     }
 
     protected void updateRequestTracker(T state, int retryCount) {
-        if (state != null && state.requestTrackerLink != null) {
+        if (state != null && state.requestTrackerLink != null
+                && RequestTrackerAggregator.ENABLED) {
+            RequestTrackerAggregator.getInstance(getHost()).update(state.requestTrackerLink,
+                    fromTask(state), retryCount);
+        } else if (state != null && state.requestTrackerLink != null) {
             sendRequest(Operation
                     .createPatch(this, state.requestTrackerLink)
                     .setBody(fromTask(state))
@@ -444,6 +448,14 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
         } else {
             response = taskCallback.getFailedResponse(ex);
         }
+
+        if (CounterSubTaskAggregator.isAggregated(taskCallback)) {
+            CounterSubTaskAggregator.getInstance(getHost()).complete(
+                    taskCallback.serviceSelfLink, response,
+                    (e) -> failTask("Notifying counting task failed: %s", e));
+            return;
+        }
+
         URI uri;
         if (taskCallback.isExternal()) {
             uri = URI.create(taskCallback.serviceSelfLink);
@@ -589,6 +601,11 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
 
         if (state.serviceTaskCallback.isExternal()) {
             sendRequestStateToExternalUrl(state.serviceTaskCallback.serviceSelfLink, state);
+        } else if (CounterSubTaskAggregator.isAggregated(state.serviceTaskCallback)) {
+            CounterSubTaskAggregator.getInstance(getHost()).complete(
+                    state.serviceTaskCallback.serviceSelfLink, callbackResponse,
+                    (e) -> logWarning("Notifying parent task %s failed: %s",
+                            state.serviceTaskCallback.serviceSelfLink, Utils.toString(e)));
         } else {
             sendRequest(Operation.createPatch(this, state.serviceTaskCallback.serviceSelfLink)
                     .setBody(callbackResponse)
@@ -636,7 +653,7 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
         if (serviceClient == null) {
             synchronized (AbstractTaskStatefulService.class) {
                 if (serviceClient == null) {
-                    serviceClient = ServiceClientFactory.createServiceClient(
+                    serviceClient = ServiceClientFactory.getServiceClient(
                             ServerX509TrustManager.create(getHost()), null);
                 }
             }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import static com.vmware.admiral.common.util.PropertyUtils.mergeCustomProperties;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import com.vmware.admiral.common.util.AssertUtil;
+import com.vmware.admiral.common.util.HostScopedInstances;
+import com.vmware.admiral.service.common.CounterSubTaskService.CounterSubTaskState;
+import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallbackResponse;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceErrorResponse;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.TaskState.TaskStage;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Host local, in-memory aggregation of the completions reported to the
+ * {@link CounterSubTaskService} tasks. Instead of a PATCH per completed sub task, the completions
+ * for a counter are collected for a short interval and sent in a single PATCH with the number of
+ * the finished and failed ones, so the counter is persisted and replicated only on these
+ * checkpoints and not on every completion. Once enough completions are collected they are sent
+ * right away, without waiting for the interval to pass.
+ *
+ * The counter applies the aggregated completions as if they were sent one by one, so the error
+ * threshold is handled the same way. Only the completions of the services on the same host go
+ * through the aggregator, the external callbacks still complete the counter directly.
+ */
+public class CounterSubTaskAggregator {
+    public static final boolean ENABLED = Boolean.getBoolean(
+            "com.vmware.admiral.service.counter.aggregation");
+    public static final long FLUSH_INTERVAL_MILLIS = Long.getLong(
+            "com.vmware.admiral.service.counter.aggregation.interval.millis", 200);
+    public static final long CHECKPOINT_COMPLETIONS = Long.getLong(
+            "com.vmware.admiral.service.counter.aggregation.checkpoint", 100);
+
+    private final ServiceHost host;
+    private final Map<String, Completions> pending = new ConcurrentHashMap<>();
+
+    /**
+     * The completions collected for a counter since the last checkpoint.
+     */
+    static class Completions {
+        long finished;
+        long failed;
+        TaskStage lastStage;
+        ServiceErrorResponse lastFailure;
+        Map<String, String> customProperties;
+        final List<Consumer<Throwable>> failureCallbacks = new ArrayList<>();
+        boolean flushed;
+
+        void add(ServiceTaskCallbackResponse response) {
+            switch (response.taskInfo.stage) {
+            case FINISHED:
+                finished++;
+                // copied, the responses of the callers are not to be changed
+                customProperties = mergeCustomProperties(
+                        customProperties != null ? customProperties : new HashMap<>(),
+                        response.customProperties);
+                break;
+            case FAILED:
+            case CANCELLED:
+                failed++;
+                lastFailure = response.taskInfo.failure;
+                break;
+            default:
+                return;
+            }
+            lastStage = response.taskInfo.stage;
+        }
+
+        long count() {
+            return finished + failed;
+        }
+
+        CounterSubTaskState toPatch() {
+            CounterSubTaskState patch = new CounterSubTaskState();
+            patch.taskInfo = new TaskState();
+            patch.taskInfo.stage = lastStage;
+            patch.taskInfo.failure = lastFailure;
+            patch.finishedCompletions = finished;
+            patch.failedCompletions = failed;
+            patch.customProperties = customProperties;
+            return patch;
+        }
+    }
+
+    private CounterSubTaskAggregator(ServiceHost host) {
+        this.host = host;
+    }
+
+    public static CounterSubTaskAggregator getInstance(ServiceHost host) {
+        return HostScopedInstances.getInstance(host, CounterSubTaskAggregator.class,
+                CounterSubTaskAggregator::new);
+    }
+
+    /**
+     * Returns whether the completions for the given callback should go through the aggregator,
+     * i.e. the aggregation is enabled and the callback is a counter on the same host.
+     */
+    public static boolean isAggregated(ServiceTaskCallback taskCallback) {
+        return ENABLED && !taskCallback.isEmpty() && !taskCallback.isExternal()
+                && taskCallback.serviceSelfLink.startsWith(
+                        CounterSubTaskService.FACTORY_LINK + UriUtils.URI_PATH_CHAR);
+    }
+
+    /**
+     * Adds a completion for the given counter, reported with the next checkpoint.
+     *
+     * @param failureCallback
+     *            - called if the checkpoint with the completion fails to be sent
+     */
+    public void complete(String counterLink, ServiceTaskCallbackResponse response,
+            Consumer<Throwable> failureCallback) {
+        AssertUtil.assertNotNull(response.taskInfo, "taskInfo");
+        AssertUtil.assertNotNull(response.taskInfo.stage, "taskInfo.stage");
+
+        while (true) {
+            boolean[] created = new boolean[1];
+            Completions completions = pending.computeIfAbsent(counterLink, (k) -> {
+                created[0] = true;
+                return new Completions();
+            });
+
+            boolean checkpoint;
+            synchronized (completions) {
+                if (completions.flushed) {
+                    // being sent, start a new checkpoint
+                    continue;
+                }
+                completions.add(response);
+                completions.failureCallbacks.add(failureCallback);
+                checkpoint = completions.count() >= CHECKPOINT_COMPLETIONS;
+            }
+
+            if (checkpoint) {
+                flush(counterLink, completions);
+            } else if (created[0]) {
+                host.schedule(() -> flush(counterLink, completions), FLUSH_INTERVAL_MILLIS,
+                        TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+    }
+
+    private void flush(String counterLink, Completions completions) {
+        CounterSubTaskState patch;
+        List<Consumer<Throwable>> failureCallbacks;
+        synchronized (completions) {
+            if (completions.flushed) {
+                return;
+            }
+            completions.flushed = true;
+            pending.remove(counterLink, completions);
+            if (completions.count() == 0) {
+                return;
+            }
+            patch = completions.toPatch();
+            failureCallbacks = completions.failureCallbacks;
+        }
+
+        host.sendRequest(Operation.createPatch(UriUtils.buildUri(host, counterLink))
+                .setBody(patch)
+                .setReferer(host.getUri())
+                .addPragmaDirective(Operation.PRAGMA_DIRECTIVE_QUEUE_FOR_SERVICE_AVAILABILITY)
+                .setCompletion((o, e) -> {
+                    if (e == null) {
+                        return;
+                    }
+                    host.log(Level.WARNING, "Failure completing %d sub tasks of %s: %s",
+                            patch.finishedCompletions + patch.failedCompletions, counterLink,
+                            Utils.toString(e));
+                    for (Consumer<Throwable> failureCallback : failureCallbacks) {
+                        failureCallback.accept(e);
+                    }
+                }));
+    }
+}
@@ -52,6 +52,13 @@ public class CounterSubTaskService extends StatefulService {
         /** (Optional) Custom properties */
         public volatile Map<String, String> customProperties;
 
+        /**
+         * Set only in the patches of the {@link CounterSubTaskAggregator}, with the number of
+         * finished and failed completions they report at once.
+         */
+        public long finishedCompletions;
+        public long failedCompletions;
+
         protected ServiceTaskCallbackResponse getFinishedResponse() {
             return serviceTaskCallback.getFinishedResponse();
         }
@@ -128,19 +135,43 @@ public class CounterSubTaskService extends StatefulService {
             return;
         }
 
+        long finished = 0;
+        long failed = 0;
         switch (patchBody.taskInfo.stage) {
         case STARTED:
             // don't decrement completions remaining.
             break;
         case FINISHED:
-            currentState.completionsRemaining--;
-            currentState.finishedCount++;
-            currentState.merge(patchBody);
+            finished = 1;
             break;
         case FAILED:
         case CANCELLED:
-            currentState.completionsRemaining--;
-            currentState.failCount++;
+            failed = 1;
+            break;
+        default:
+            logInfo("ignoring patch from %s", patch.getReferer());
+            patch.complete();
+            return;
+        }
+
+        if (patchBody.finishedCompletions > 0 || patchBody.failedCompletions > 0) {
+            // completions aggregated by the CounterSubTaskAggregator, with the stage of the last
+            finished = patchBody.finishedCompletions;
+            failed = patchBody.failedCompletions;
+        }
+
+        currentState.completionsRemaining = Math.max(0,
+                currentState.completionsRemaining - finished - failed);
+        currentState.finishedCount += finished;
+        currentState.failCount += failed;
+        if (finished > 0) {
+            currentState.merge(patchBody);
+        }
+
+        boolean failedOverThreshold = false;
+        if (failed > 0) {
+            // the total count doesn't change, so the ratio is the same whether the completions
+            // are applied one by one or at once
             double failedRatio = (double) currentState.failCount / (double) (currentState
                     .finishedCount
                     + currentState.failCount + currentState.completionsRemaining);
@@ -151,12 +182,8 @@ public class CounterSubTaskService extends StatefulService {
                         patchBody.taskInfo.stage, patchBody.taskInfo.failure == null ? "n.a."
                                 : patchBody.taskInfo.failure.message);
                 currentState.completionsRemaining = 0;
+                failedOverThreshold = true;
             }
-            break;
-        default:
-            logInfo("ignoring patch from %s", patch.getReferer());
-            patch.complete();
-            return;
         }
 
         // any operation on state before a operation is completed,
@@ -165,12 +192,12 @@ public class CounterSubTaskService extends StatefulService {
         patch.complete();
 
         if (!isFinished) {
-            logInfo("Remaining %d", currentState.completionsRemaining);
+            logFine("Remaining %d", currentState.completionsRemaining);
             return;
         }
 
         ServiceTaskCallbackResponse responseBody;
-        if (TaskStage.FINISHED == patchBody.taskInfo.stage) {
+        if (!failedOverThreshold && TaskStage.FINISHED == patchBody.taskInfo.stage) {
             responseBody = currentState.getFinishedResponse();
         } else {
             responseBody = currentState.getFailedResponse(patchBody.taskInfo.failure);
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import com.vmware.admiral.common.util.AssertUtil;
+import com.vmware.admiral.common.util.HostScopedInstances;
+import com.vmware.admiral.common.util.QueryUtil;
+import com.vmware.admiral.service.common.AbstractTaskStatefulService.TaskStatusState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Host local, in-memory aggregation of the task status updates sent to the request trackers.
+ * Instead of a PATCH on every sub stage transition of every task, the updates for a request
+ * tracker are collected for a short interval, only the latest one per task is kept, and they are
+ * sent in a single PATCH. The updates of tasks reaching a final stage are sent right away, with
+ * the updates collected so far, and retried on failure.
+ */
+public class RequestTrackerAggregator {
+    public static final boolean ENABLED = Boolean.getBoolean(
+            "com.vmware.admiral.service.request.tracker.aggregation");
+    public static final long FLUSH_INTERVAL_MILLIS = Long.getLong(
+            "com.vmware.admiral.service.request.tracker.aggregation.interval.millis", 500);
+
+    private final ServiceHost host;
+    private final Map<String, Updates> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Request tracker patch body with the status updates of several tasks of the request.
+     */
+    public static class TaskStatusUpdates {
+        public static final String FIELD_NAME_TASK_STATUS_UPDATES = "taskStatusUpdates";
+
+        /** The latest status per task, in the order of the updates. */
+        public List<TaskStatusState> taskStatusUpdates;
+    }
+
+    /**
+     * The status updates collected for a request tracker since the last flush.
+     */
+    static class Updates {
+        final Map<String, TaskStatusState> byTask = new LinkedHashMap<>();
+        boolean flushed;
+
+        void add(TaskStatusState status) {
+            TaskStatusState previous = byTask.remove(status.documentSelfLink);
+            if (previous != null) {
+                merge(previous, status);
+            }
+            // re-added so the latest update of all is the last one
+            byTask.put(status.documentSelfLink, status);
+        }
+
+        /**
+         * Keeps in the latest status what the request tracker would keep from the previous one
+         * if they were sent one by one.
+         */
+        static void merge(TaskStatusState previous, TaskStatusState status) {
+            if (previous.progress != null
+                    && (status.progress == null || status.progress < previous.progress)) {
+                status.progress = previous.progress;
+            }
+            if (status.eventLogLink == null) {
+                status.eventLogLink = previous.eventLogLink;
+            }
+            if (previous.name != null) {
+                status.name = previous.name;
+            }
+            if (previous.resourceLinks != null && !previous.resourceLinks.isEmpty()) {
+                status.resourceLinks = previous.resourceLinks;
+            }
+        }
+    }
+
+    private RequestTrackerAggregator(ServiceHost host) {
+        this.host = host;
+    }
+
+    public static RequestTrackerAggregator getInstance(ServiceHost host) {
+        return HostScopedInstances.getInstance(host, RequestTrackerAggregator.class,
+                RequestTrackerAggregator::new);
+    }
+
+    /**
+     * Adds a task status update for the given request tracker, sent with the next flush.
+     *
+     * @param retryCount
+     *            - the number of times to retry sending the updates if the task reached a final
+     *            stage
+     */
+    public void update(String requestTrackerLink, TaskStatusState status, int retryCount) {
+        AssertUtil.assertNotNull(status.documentSelfLink, "documentSelfLink");
+
+        boolean terminal = isFinalStage(status.taskInfo);
+        while (true) {
+            boolean[] created = new boolean[1];
+            Updates updates = pending.computeIfAbsent(requestTrackerLink, (k) -> {
+                created[0] = true;
+                return new Updates();
+            });
+
+            synchronized (updates) {
+                if (updates.flushed) {
+                    // being sent, start collecting new updates
+                    continue;
+                }
+                updates.add(status);
+            }
+
+            if (terminal) {
+                flush(requestTrackerLink, updates, retryCount);
+            } else if (created[0]) {
+                host.schedule(() -> flush(requestTrackerLink, updates, retryCount),
+                        FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+    }
+
+    private void flush(String requestTrackerLink, Updates updates, int retryCount) {
+        TaskStatusUpdates body = new TaskStatusUpdates();
+        synchronized (updates) {
+            if (updates.flushed) {
+                return;
+            }
+            updates.flushed = true;
+            pending.remove(requestTrackerLink, updates);
+            body.taskStatusUpdates = new ArrayList<>(updates.byTask.values());
+        }
+
+        send(requestTrackerLink, body, retryCount);
+    }
+
+    private void send(String requestTrackerLink, TaskStatusUpdates body, int retryCount) {
+        host.sendRequest(Operation.createPatch(UriUtils.buildUri(host, requestTrackerLink))
+                .setBody(body)
+                .setReferer(host.getUri())
+                .setCompletion((o, ex) -> {
+                    if (ex == null) {
+                        return;
+                    }
+                    // log but don't fail the tasks
+                    if (ex instanceof CancellationException) {
+                        host.log(Level.FINE, "CancellationException: Failed to update request"
+                                + " tracker: %s", requestTrackerLink);
+                        // retry only the finished and failed updates. The others are not so
+                        // important
+                    } else if (retryCount > 0 && body.taskStatusUpdates.stream()
+                            .anyMatch((s) -> isFinalStage(s.taskInfo))) {
+                        host.schedule(() -> send(requestTrackerLink, body, retryCount - 1),
+                                QueryUtil.QUERY_RETRY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    } else {
+                        host.log(Level.WARNING, "Failed to update request tracker: %s. Error: %s",
+                                requestTrackerLink, Utils.toString(ex));
+                    }
+                }));
+    }
+
+    private static boolean isFinalStage(TaskState taskInfo) {
+        return taskInfo != null && (TaskState.isFinished(taskInfo) || TaskState.isFailed(taskInfo)
+                || TaskState.isCancelled(taskInfo));
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.vmware.admiral.common.util.HostPermitQueue.HostQueueStats;
+import com.vmware.admiral.common.util.HostPermitQueue.ItemHandler;
+
+public class HostPermitQueueTest {
+    private static final String HOST_1 = "host-1:2376";
+    private static final String HOST_2 = "host-2:2376";
+    private static final int MAX_ACTIVE = 2;
+
+    private final List<String> started = new ArrayList<>();
+    private final List<String> expired = new ArrayList<>();
+    private final List<String> expiredItems = new ArrayList<>();
+
+    private final HostPermitQueue<String, String> queue = new HostPermitQueue<>(MAX_ACTIVE,
+            new ItemHandler<String, String>() {
+                @Override
+                public void start(String host, String item) {
+                    started.add(item);
+                }
+
+                @Override
+                public boolean isExpired(String item) {
+                    return expiredItems.contains(item);
+                }
+
+                @Override
+                public void expired(String host, String item) {
+                    expired.add(item);
+                }
+            });
+
+    @Test
+    public void testLimitPerHost() {
+        queue.submit(HOST_1, "1-a");
+        queue.submit(HOST_1, "1-b");
+        queue.submit(HOST_1, "1-c");
+
+        // the items over the limit wait in the queue of their host only
+        queue.submit(HOST_2, "2-a");
+        assertEquals(Arrays.asList("1-a", "1-b", "2-a"), started);
+        assertStats(HOST_1, MAX_ACTIVE, 1);
+        assertStats(HOST_2, 1, 0);
+        assertEquals(3, queue.getDemand(HOST_1));
+
+        // until a permit of the host is released
+        queue.release(HOST_2);
+        assertEquals(3, started.size());
+        queue.release(HOST_1);
+        assertEquals(Arrays.asList("1-a", "1-b", "2-a", "1-c"), started);
+        assertStats(HOST_1, MAX_ACTIVE, 0);
+        assertStats(HOST_2, 0, 0);
+
+        queue.release(HOST_1);
+        queue.release(HOST_1);
+        assertStats(HOST_1, 0, 0);
+        assertEquals(3, queue.getHostQueueStats().get(HOST_1).submitted);
+    }
+
+    @Test
+    public void testFifoOrder() {
+        for (int i = 0; i < 10; i++) {
+            queue.submit(HOST_1, "item-" + i);
+        }
+        // the items queued again are started after the ones already queued
+        queue.release(HOST_1);
+        queue.requeue(HOST_1, "item-0");
+
+        while (queue.getDemand(HOST_1) > 0) {
+            queue.release(HOST_1);
+        }
+        assertEquals(Arrays.asList("item-0", "item-1", "item-2", "item-3", "item-4", "item-5",
+                "item-6", "item-7", "item-8", "item-9", "item-0"), started);
+        assertEquals(10, queue.getHostQueueStats().get(HOST_1).submitted);
+    }
+
+    @Test
+    public void testExpiredWhileQueued() {
+        queue.submit(HOST_1, "active-1");
+        queue.submit(HOST_1, "active-2");
+        queue.submit(HOST_1, "expired-1");
+        queue.submit(HOST_1, "queued");
+        queue.submit(HOST_1, "expired-2");
+
+        // the items expired are not started once their turn comes
+        expiredItems.add("expired-1");
+        queue.release(HOST_1);
+        assertEquals(Arrays.asList("active-1", "active-2", "queued"), started);
+        assertEquals(Arrays.asList("expired-1"), expired);
+        assertStats(HOST_1, MAX_ACTIVE, 1);
+
+        // and are completed without waiting for their turn on expire
+        expiredItems.add("expired-2");
+        queue.expire();
+        assertEquals(Arrays.asList("expired-1", "expired-2"), expired);
+        assertStats(HOST_1, MAX_ACTIVE, 0);
+        assertEquals(2, queue.getHostQueueStats().get(HOST_1).expired);
+
+        queue.release(HOST_1);
+        queue.release(HOST_1);
+        assertStats(HOST_1, 0, 0);
+        assertEquals(3, started.size());
+    }
+
+    @Test
+    public void testItemsReleasingRightAway() {
+        int count = 100000;
+        List<HostPermitQueue<String, String>> holder = new ArrayList<>();
+        HostPermitQueue<String, String> failingQueue = new HostPermitQueue<>(MAX_ACTIVE,
+                (host, item) -> {
+                    started.add(item);
+                    if (item.startsWith("failing")) {
+                        // e.g. failing to start, the permit is released before start returns
+                        holder.get(0).release(host);
+                    }
+                });
+        holder.add(failingQueue);
+
+        failingQueue.submit(HOST_1, "active-1");
+        failingQueue.submit(HOST_1, "active-2");
+        for (int i = 0; i < count; i++) {
+            failingQueue.submit(HOST_1, "failing-" + i);
+        }
+
+        // the queued items are started one after the other, without recursing once per item
+        failingQueue.release(HOST_1);
+        assertEquals(count + 2, started.size());
+        HostQueueStats stats = failingQueue.getHostQueueStats().get(HOST_1);
+        assertEquals(1, stats.active);
+        assertEquals(0, stats.queueDepth);
+    }
+
+    @Test
+    public void testRemoveIdleHosts() {
+        queue.submit(HOST_1, "1-a");
+        queue.submit(HOST_2, "2-a");
+        queue.release(HOST_2);
+
+        // only the hosts without items active or queued are removed
+        queue.removeIdleHosts(0);
+        assertTrue(queue.getHostQueueStats().containsKey(HOST_1));
+        assertFalse(queue.getHostQueueStats().containsKey(HOST_2));
+
+        // once idle for longer than the given time
+        queue.release(HOST_1);
+        queue.removeIdleHosts(TimeUnit.MINUTES.toMicros(1));
+        assertTrue(queue.getHostQueueStats().containsKey(HOST_1));
+        queue.removeIdleHosts(0);
+        assertTrue(queue.getHostQueueStats().isEmpty());
+
+        // and the items submitted later for them are started as usual
+        queue.submit(HOST_2, "2-b");
+        assertEquals(Arrays.asList("1-a", "2-a", "2-b"), started);
+        assertStats(HOST_2, 1, 0);
+        assertEquals(1, queue.getHostQueueStats().get(HOST_2).submitted);
+    }
+
+    private void assertStats(String host, int active, int queueDepth) {
+        HostQueueStats stats = queue.getHostQueueStats().get(host);
+        assertEquals(active, stats.active);
+        assertEquals(queueDepth, stats.queueDepth);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.test.VerificationHost;
+
+public class HostScopedInstancesTest {
+
+    private static class Instance {
+        final ServiceHost host;
+
+        Instance(ServiceHost host) {
+            this.host = host;
+        }
+    }
+
+    private static class OtherInstance {
+        final Instance instance;
+
+        OtherInstance(ServiceHost host) {
+            // instances may depend on other instances of the same host
+            this.instance = HostScopedInstances.getInstance(host, Instance.class, Instance::new);
+        }
+    }
+
+    @Test
+    public void testInstancesReleasedOnHostStop() throws Throwable {
+        List<VerificationHost> hosts = new ArrayList<>();
+        try {
+            for (int i = 0; i < 2; i++) {
+                VerificationHost host = VerificationHost.create(0);
+                host.start();
+                hosts.add(host);
+            }
+            VerificationHost host = hosts.get(0);
+
+            // one instance per host and type
+            OtherInstance other = HostScopedInstances.getInstance(host, OtherInstance.class,
+                    OtherInstance::new);
+            Instance instance = HostScopedInstances.getInstance(host, Instance.class,
+                    Instance::new);
+            assertSame(instance, other.instance);
+            assertSame(host, instance.host);
+            assertSame(other, HostScopedInstances.getInstance(host, OtherInstance.class,
+                    OtherInstance::new));
+            Instance otherHostInstance = HostScopedInstances.getInstance(hosts.get(1),
+                    Instance.class, Instance::new);
+            assertNotSame(instance, otherHostInstance);
+            host.waitForServiceAvailable(HostScopedInstances.SELF_LINK);
+
+            // released once the host stops, without touching the other hosts
+            assertTrue(HostScopedInstances.hasInstances(host));
+            host.tearDown();
+            assertFalse(HostScopedInstances.hasInstances(host));
+            assertTrue(HostScopedInstances.hasInstances(hosts.get(1)));
+            assertSame(otherHostInstance, HostScopedInstances.getInstance(hosts.get(1),
+                    Instance.class, Instance::new));
+
+            // and not kept anymore for the stopped host
+            assertNotSame(instance, HostScopedInstances.getInstance(host, Instance.class,
+                    Instance::new));
+            assertFalse(HostScopedInstances.hasInstances(host));
+        } finally {
+            hosts.forEach(VerificationHost::tearDown);
+        }
+    }
+}
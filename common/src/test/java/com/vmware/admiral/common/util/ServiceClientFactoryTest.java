@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.junit.Test;
+
+import com.vmware.admiral.common.util.ServiceClientFactory.HostStats;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceClient;
+import com.vmware.xenon.common.test.VerificationHost;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+public class ServiceClientFactoryTest {
+
+    @Test
+    public void testSharedServiceClient() {
+        TrustManager trustManager = new TestTrustManager();
+
+        ServiceClient serviceClient = ServiceClientFactory.getServiceClient(trustManager, null);
+        assertSame(serviceClient, ServiceClientFactory.getServiceClient(trustManager, null));
+        assertNotSame(serviceClient,
+                ServiceClientFactory.getServiceClient(new TestTrustManager(), null));
+        assertNotSame(serviceClient,
+                ServiceClientFactory.getServiceClient(trustManager, null, 1024));
+        assertSame(ServiceClientFactory.getSSLContext(trustManager, null),
+                serviceClient.getSSLContext());
+
+        // still used by the second caller
+        serviceClient.stop();
+        assertSame(serviceClient, ServiceClientFactory.getServiceClient(trustManager, null));
+
+        serviceClient.stop();
+        serviceClient.stop();
+        assertNotSame(serviceClient, ServiceClientFactory.getServiceClient(trustManager, null));
+    }
+
+    @Test
+    public void testServiceClientStats() throws Throwable {
+        ServiceClient serviceClient = ServiceClientFactory.getServiceClient(
+                new TestTrustManager(), null);
+        try {
+            CountDownLatch latch = new CountDownLatch(1);
+            // nothing listening on the port
+            serviceClient.send(Operation.createGet(URI.create("http://127.0.0.1:1/test"))
+                    .setReferer(URI.create("/"))
+                    .forceRemote()
+                    .setCompletion((o, e) -> latch.countDown()));
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+
+            HostStats stats = ServiceClientFactory.getServiceClientStats().get("127.0.0.1:1");
+            assertNotNull(stats);
+            assertEquals(0, stats.inFlight);
+            assertEquals(1, stats.maxInFlight);
+            assertEquals(1, stats.requests);
+            assertEquals(1, stats.failures);
+        } finally {
+            serviceClient.stop();
+        }
+    }
+
+    @Test
+    public void testSharedServiceClientsOverHttpAndHttps() throws Throwable {
+        VerificationHost host = VerificationHost.create(0);
+        List<ServiceClient> serviceClients = new CopyOnWriteArrayList<>();
+        try {
+            VerificationHost.createAndAttachSSLClient(host);
+            host.setSecurePort(0);
+            host.start();
+            // more clients than the threads a fixed executor would have for their event loops
+            for (int i = 0; i < 3; i++) {
+                serviceClients.add(ServiceClientFactory.getServiceClient(new TestTrustManager(),
+                        null));
+            }
+
+            List<URI> uris = Arrays.asList(
+                    URI.create(host.getUri() + ServiceUriPaths.CORE_MANAGEMENT),
+                    URI.create(host.getSecureUri() + ServiceUriPaths.CORE_MANAGEMENT));
+            int requestsPerUri = 10;
+            List<Throwable> failures = new CopyOnWriteArrayList<>();
+            CountDownLatch latch = new CountDownLatch(
+                    serviceClients.size() * uris.size() * requestsPerUri);
+            for (ServiceClient serviceClient : serviceClients) {
+                for (URI uri : uris) {
+                    for (int i = 0; i < requestsPerUri; i++) {
+                        serviceClient.send(Operation.createGet(uri)
+                                .setReferer(URI.create("/"))
+                                .forceRemote()
+                                .setCompletion((o, e) -> {
+                                    if (e != null) {
+                                        failures.add(e);
+                                    }
+                                    latch.countDown();
+                                }));
+                    }
+                }
+            }
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+            assertTrue(failures.toString(), failures.isEmpty());
+
+            for (URI uri : uris) {
+                HostStats stats = ServiceClientFactory.getServiceClientStats()
+                        .get(uri.getHost() + ":" + uri.getPort());
+                assertEquals(serviceClients.size() * requestsPerUri, stats.requests);
+                assertEquals(0, stats.inFlight);
+                assertEquals(0, stats.failures);
+            }
+        } finally {
+            serviceClients.forEach(ServiceClient::stop);
+            host.tearDown();
+        }
+    }
+
+    private static class TestTrustManager implements X509TrustManager {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.host.HostInitServiceHelper;
+import com.vmware.admiral.service.common.CounterSubTaskService.CounterSubTaskState;
+import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallbackResponse;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.TaskState.TaskStage;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.common.test.VerificationHost;
+
+public class CounterSubTaskAggregatorTest {
+    private static final String PARENT_LINK = "/test-counter-parent";
+
+    private final List<ServiceTaskCallbackResponse> parentPatches = new CopyOnWriteArrayList<>();
+    private VerificationHost host;
+
+    @Before
+    public void setUp() throws Throwable {
+        host = VerificationHost.create(0);
+        host.start();
+        HostInitServiceHelper.startServiceFactories(host, CounterSubTaskService.class);
+        host.waitForServiceAvailable(CounterSubTaskService.FACTORY_LINK);
+        host.startServiceAndWait(new StatelessService() {
+            @Override
+            public void handlePatch(Operation patch) {
+                parentPatches.add(patch.getBody(ServiceTaskCallbackResponse.class));
+                patch.complete();
+            }
+        }, PARENT_LINK, new ServiceDocument());
+    }
+
+    @After
+    public void tearDown() {
+        host.tearDown();
+    }
+
+    @Test
+    public void testAggregatedCompletions() throws Throwable {
+        String counterLink = createCounter(10, 0.5);
+        CounterSubTaskAggregator aggregator = CounterSubTaskAggregator.getInstance(host);
+        for (int i = 0; i < 10; i++) {
+            aggregator.complete(counterLink, response(i % 4 == 0 ? TaskStage.FAILED
+                    : TaskStage.FINISHED), (e) -> host.failIteration(e));
+        }
+
+        waitForParentPatch(counterLink);
+        assertEquals(TaskStage.FINISHED, parentPatches.get(0).taskInfo.stage);
+
+        CounterSubTaskState counter = getCounter(counterLink);
+        assertEquals(0, counter.completionsRemaining);
+        assertEquals(7, counter.finishedCount);
+        assertEquals(3, counter.failCount);
+        // all the completions in a single checkpoint
+        assertEquals(1, counter.documentVersion);
+    }
+
+    @Test
+    public void testAggregatedCompletionsOverErrorThreshold() throws Throwable {
+        String counterLink = createCounter(10, 0.2);
+        CounterSubTaskAggregator aggregator = CounterSubTaskAggregator.getInstance(host);
+        for (int i = 0; i < 10; i++) {
+            // the last completion is finished but the failures are over the threshold
+            aggregator.complete(counterLink, response(i < 3 ? TaskStage.FAILED
+                    : TaskStage.FINISHED), (e) -> host.failIteration(e));
+        }
+
+        waitForParentPatch(counterLink);
+        assertEquals(TaskStage.FAILED, parentPatches.get(0).taskInfo.stage);
+    }
+
+    private String createCounter(long count, double errorThreshold) throws Throwable {
+        CounterSubTaskState state = new CounterSubTaskState();
+        state.completionsRemaining = count;
+        state.errorThreshold = errorThreshold;
+        state.serviceTaskCallback = ServiceTaskCallback.create(PARENT_LINK);
+
+        String[] link = new String[1];
+        TestContext ctx = host.testCreate(1);
+        host.send(Operation
+                .createPost(UriUtils.buildUri(host, CounterSubTaskService.FACTORY_LINK))
+                .setBody(state)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        ctx.failIteration(e);
+                        return;
+                    }
+                    link[0] = o.getBody(CounterSubTaskState.class).documentSelfLink;
+                    ctx.completeIteration();
+                }));
+        host.testWait(ctx);
+        return link[0];
+    }
+
+    private CounterSubTaskState getCounter(String counterLink) {
+        return host.getServiceState(null, CounterSubTaskState.class,
+                UriUtils.buildUri(host, counterLink));
+    }
+
+    /**
+     * Waits for the parent to be notified and all the completions to be applied to the counter,
+     * the parent is notified only once
+     */
+    private void waitForParentPatch(String counterLink) throws Throwable {
+        host.waitFor("parent not notified", () -> !parentPatches.isEmpty()
+                && getCounter(counterLink).completionsRemaining == 0);
+        assertEquals(1, parentPatches.size());
+    }
+
+    private static ServiceTaskCallbackResponse response(TaskStage stage) {
+        ServiceTaskCallback callback = ServiceTaskCallback.create("/counter",
+                TaskStage.FINISHED, DefaultSubStage.COMPLETED,
+                TaskStage.FAILED, DefaultSubStage.ERROR);
+        return stage == TaskStage.FINISHED ? callback.getFinishedResponse()
+                : callback.getFailedResponse(new IllegalStateException("failed"));
+    }
+}
@@ -93,6 +93,9 @@ public class ContainerHostService extends StatelessService {
 
     public static final String DOCKER_HOST_CLUSTER_STORE_PROP_NAME = "__ClusterStore";
 
+    /** Last time the events of the host were known to be followed, in micros since the epoch */
+    public static final String DOCKER_HOST_EVENTS_TIME_PROP_NAME = "__eventsTimeMicros";
+
     public enum DockerAdapterType {
         SSH,
         API
@@ -12,6 +12,7 @@
 package com.vmware.admiral.compute;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import com.vmware.admiral.common.util.AssertUtil;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
@@ -25,6 +26,13 @@ public class ContainerHostUtil {
     private static final String VMWARE_VIC_DRIVER1 = "vmware";
     private static final String VMWARE_VIC_DRIVER2 = "vsphere";
 
+    /**
+     * Interval at which the time the events of a host are followed is refreshed in the host state,
+     * the events are considered not followed anymore when not refreshed for twice as long
+     */
+    public static final long EVENTS_REFRESH_INTERVAL_MICROS = Long.getLong(
+            "com.vmware.admiral.compute.container.host.events.refresh.interval.micros",
+            TimeUnit.MINUTES.toMicros(5));
 
     /**
      * Build host id
@@ -94,4 +102,30 @@ public class ContainerHostUtil {
 
         return vic;
     }
+
+    /**
+     * Check if the container events of the host are followed, so the changes of its containers
+     * are applied as they happen.
+     *
+     * @param computeState host to check
+     * @param nowMicrosUtc the current time
+     * @return boolean value
+     */
+    public static boolean isFollowingEvents(ComputeState computeState, long nowMicrosUtc) {
+        if (computeState == null || computeState.customProperties == null) {
+            return false;
+        }
+
+        String eventsTime = computeState.customProperties
+                .get(ContainerHostService.DOCKER_HOST_EVENTS_TIME_PROP_NAME);
+        if (eventsTime == null) {
+            return false;
+        }
+
+        try {
+            return nowMicrosUtc - Long.parseLong(eventsTime) < 2 * EVENTS_REFRESH_INTERVAL_MICROS;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
 }
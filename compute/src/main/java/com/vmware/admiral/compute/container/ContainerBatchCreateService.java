@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.common.util.OperationUtil;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceErrorResponse;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Creates a batch of {@link ContainerState}s through the {@link ContainerFactoryService} with a
+ * single request, completed once all the container states are created or failed. The response
+ * holds a result per requested container state, in the same order, so the callers could complete
+ * once for the whole batch instead of once per container.
+ */
+public class ContainerBatchCreateService extends StatelessService {
+    public static final String SELF_LINK = ManagementUriParts.CONTAINERS_BATCH;
+
+    public static class ContainerBatchCreateRequest {
+        public List<ContainerState> containerStates;
+    }
+
+    public static class ContainerBatchCreateResponse {
+        /** The results in the order of the requested container states. */
+        public List<ContainerBatchCreateResult> results;
+    }
+
+    public static class ContainerBatchCreateResult {
+        /** The link of the created container state, <code>null</code> if it failed. */
+        public String documentSelfLink;
+        /** The failure creating the container state, <code>null</code> if it was created. */
+        public ServiceErrorResponse failure;
+    }
+
+    @Override
+    public void handlePost(Operation post) {
+        if (!post.hasBody()) {
+            post.fail(new IllegalArgumentException("body is required"));
+            return;
+        }
+
+        ContainerBatchCreateRequest request = post.getBody(ContainerBatchCreateRequest.class);
+        if (request.containerStates == null || request.containerStates.isEmpty()) {
+            post.fail(new IllegalArgumentException("containerStates are required"));
+            return;
+        }
+
+        int size = request.containerStates.size();
+        List<ContainerBatchCreateResult> results = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            results.add(new ContainerBatchCreateResult());
+        }
+        AtomicInteger remaining = new AtomicInteger(size);
+
+        for (int i = 0; i < size; i++) {
+            ContainerBatchCreateResult result = results.get(i);
+            sendRequest(OperationUtil
+                    .createForcedPost(this, ContainerFactoryService.SELF_LINK)
+                    .setBody(request.containerStates.get(i))
+                    .setCompletion((o, e) -> {
+                        if (e != null) {
+                            logWarning("Failure creating container state: %s",
+                                    Utils.toString(e));
+                            result.failure = Utils.toServiceErrorResponse(e);
+                        } else {
+                            result.documentSelfLink = o.getBody(
+                                    ContainerState.class).documentSelfLink;
+                        }
+
+                        if (remaining.decrementAndGet() == 0) {
+                            ContainerBatchCreateResponse response =
+                                    new ContainerBatchCreateResponse();
+                            response.results = results;
+                            post.setBody(response).complete();
+                        }
+                    }));
+        }
+    }
+}
@@ -26,6 +26,8 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -35,6 +37,7 @@ import com.vmware.admiral.adapter.common.ContainerHostOperationType;
 import com.vmware.admiral.common.DeploymentProfileConfig;
 import com.vmware.admiral.common.ManagementUriParts;
 import com.vmware.admiral.common.util.PropertyUtils;
+import com.vmware.admiral.common.util.QueryResultCache;
 import com.vmware.admiral.common.util.QueryUtil;
 import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.common.util.UriUtilsExtended;
@@ -45,6 +48,7 @@ import com.vmware.admiral.compute.container.GroupResourcePolicyService.GroupReso
 import com.vmware.admiral.compute.container.HostContainerListDataCollection.ContainerListCallback;
 import com.vmware.admiral.compute.container.HostContainerListDataCollection.HostContainerListDataCollectionFactoryService;
 import com.vmware.admiral.service.common.AbstractCallbackServiceHandler;
+import com.vmware.admiral.service.common.AbstractCallbackServiceHandler.CallbackServiceHandlerState;
 import com.vmware.admiral.service.common.ServiceTaskCallback;
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription.ComputeType;
@@ -80,6 +84,24 @@ public class ContainerHostDataCollectionService extends StatefulService {
             "com.vmware.admiral.compute.container.host.frequency.interval.micros",
             TimeUnit.SECONDS.toMicros(20));
 
+    private static final int HOSTS_QUERY_PAGE_SIZE = Integer.getInteger(
+            "com.vmware.admiral.compute.container.host.query.page.size", 200);
+
+    private static final int HOST_COLLECTION_MAX_IN_FLIGHT = Integer.getInteger(
+            "com.vmware.admiral.compute.container.host.collection.max.in.flight", 32);
+    private static final long HOST_COLLECTION_TIMEOUT_MICROS = Long.getLong(
+            "com.vmware.admiral.compute.container.host.collection.timeout.micros",
+            TimeUnit.MINUTES.toMicros(2));
+
+    public static final String STAT_NAME_HOST_COLLECTIONS_IN_FLIGHT = "hostCollectionsInFlight";
+    public static final String STAT_NAME_HOST_COLLECTIONS_PENDING = "hostCollectionsPending";
+    public static final String STAT_NAME_HOST_COLLECTIONS_SKIPPED = "hostCollectionsSkipped";
+    public static final String STAT_NAME_HOST_COLLECTION_LATENCY_MILLIS =
+            "hostCollectionLatencyMillis";
+    public static final String STAT_NAME_RESOURCE_POOL_WRITES = "resourcePoolWrites";
+    public static final String STAT_NAME_RESOURCE_POOL_WRITES_SKIPPED =
+            "resourcePoolWritesSkipped";
+
     public static final String RESOURCE_POOL_CPU_USAGE_CUSTOM_PROP = "__cpuUsage";
     public static final String RESOURCE_POOL_AVAILABLE_MEMORY_CUSTOM_PROP = "__availableMemory";
 
@@ -115,6 +137,14 @@ public class ContainerHostDataCollectionService extends StatefulService {
         public long skipRunCount;
     }
 
+    private final ResourcePoolRollup resourcePoolRollup = new ResourcePoolRollup();
+
+    private final HostCollectionScheduler hostCollectionScheduler = new HostCollectionScheduler(
+            HOST_COLLECTION_MAX_IN_FLIGHT, HOST_COLLECTION_TIMEOUT_MICROS,
+            Utils::getNowMicrosUtc, this::collectHost);
+
+    private final AtomicBoolean timeoutCheckScheduled = new AtomicBoolean();
+
     public ContainerHostDataCollectionService() {
         super(ContainerHostDataCollectionState.class);
         super.toggleOption(ServiceOption.PERSISTENCE, true);
@@ -188,12 +218,16 @@ public class ContainerHostDataCollectionService extends StatefulService {
                         } else {
                             handleHostAvailable(computeHostLink);
                             updateResourcePool(computeHostLink, body.remove);
-                            updateContainerHostContainers(computeHostLink);
-                            updateHostStats(computeHostLink);
+                            // the containers and the stats are collected within the in-flight
+                            // window, like for the hosts already added
+                            hostCollectionScheduler.schedule(
+                                    Collections.singletonList(computeHostLink));
+                            scheduleTimeoutCheck();
                         }
                     }, null);
                 } else {
                     updateResourcePool(computeHostLink, body.remove);
+                    removeContainerHostContainers(computeHostLink);
                 }
             }
 
@@ -352,6 +386,8 @@ public class ContainerHostDataCollectionService extends StatefulService {
                                 logSevere("Unable to update the resource pool with link "
                                         + resourcePoolState.documentSelfLink);
                             }
+                            // the totals are rewritten on the next full data collection
+                            resourcePoolRollup.invalidate(resourcePoolState.documentSelfLink);
                             updatePolicies(resourcePoolState);
                         }));
             };
@@ -448,51 +484,14 @@ public class ContainerHostDataCollectionService extends StatefulService {
         }
     }
 
-    private void updateResourcePool(String resourcePoolLink, Set<ComputeState> computeStates) {
+    private void updateResourcePool(String resourcePoolLink, ResourcePoolRollup.Totals totals) {
         if (getHost().isStopping()) {
             return;
         }
-        Long memorySum = 0L;
-        double totalCpuUsage = 0.0;
-        long totalAvailableMemory = 0L;
-        long totalNumCores = 0;
-        for (ComputeState computeState : computeStates) {
-
-            Long hostTotalMemory = PropertyUtils.getPropertyLong(computeState.customProperties,
-                    ContainerHostService.DOCKER_HOST_TOTAL_MEMORY_PROP_NAME).orElse(Long.MAX_VALUE);
-
-            if (memorySum != Long.MAX_VALUE) {
-                memorySum += hostTotalMemory;
-            }
-
-            Long numCores = PropertyUtils.getPropertyLong(computeState.customProperties,
-                    ContainerHostService.DOCKER_HOST_NUM_CORES_PROP_NAME).orElse(1L);
-
-            Double hostCpuUsage = PropertyUtils.getPropertyDouble(computeState.customProperties,
-                    ContainerHostService.DOCKER_HOST_CPU_USAGE_PCT_PROP_NAME).orElse(0.0);
-
-            totalCpuUsage += numCores * hostCpuUsage;
-            totalNumCores += numCores;
-
-            // get the available memory, if missing => use the total memory, if missing => 0
-            Long availableMemory = PropertyUtils
-                    .getPropertyLong(computeState.customProperties,
-                            ContainerHostService.DOCKER_HOST_AVAILABLE_MEMORY_PROP_NAME)
-                    .orElse(PropertyUtils
-                            .getPropertyLong(computeState.customProperties,
-                                    ContainerHostService.DOCKER_HOST_TOTAL_MEMORY_PROP_NAME)
-                            .orElse(0L));
-
-            totalAvailableMemory += availableMemory;
-        }
-
-        // the aggregateCpuUsage is calculated:
-        // (H1.cpuUsage * H1.numCores + ... + Hn.cpuUsage * Hn.numCores) / (H1.numCores + ... +
-        // Hn.numCores)
-        double aggregateCpuUsage = totalNumCores == 0 ? 0 : totalCpuUsage / totalNumCores;
-        long resourcePoolAvailableMemory = totalAvailableMemory;
-
-        final Long totalMemory = memorySum;
+        ResourcePoolRollup.Totals lastWritten = resourcePoolRollup
+                .getLastWritten(resourcePoolLink);
+        boolean capacityChanged = lastWritten == null
+                || lastWritten.maxMemoryBytes != totals.maxMemoryBytes;
 
         // TODO this will not work in a multi node setting, with consensus. There is a race.
         // Resource pool should support PATCJ
@@ -509,34 +508,51 @@ public class ContainerHostDataCollectionService extends StatefulService {
                 resourcePoolState.customProperties = new HashMap<>();
             }
             resourcePoolState.customProperties
-                    .put(RESOURCE_POOL_CPU_USAGE_CUSTOM_PROP, Double.toString(aggregateCpuUsage));
+                    .put(RESOURCE_POOL_CPU_USAGE_CUSTOM_PROP, Double.toString(totals.cpuUsage));
             resourcePoolState.customProperties
                     .put(RESOURCE_POOL_AVAILABLE_MEMORY_CUSTOM_PROP,
-                            Long.toString(resourcePoolAvailableMemory));
-            resourcePoolState.maxMemoryBytes = totalMemory;
+                            Long.toString(totals.availableMemory));
+            resourcePoolState.maxMemoryBytes = totals.maxMemoryBytes;
             resourcePoolState.minMemoryBytes = 0;
             sendRequest(Operation.createPut(this, resourcePoolLink)
                     .setBody(resourcePoolState).setCompletion((op, e) -> {
                         if (e != null) {
                             logSevere("Unable to update the resource pool with link "
                                     + resourcePoolState.documentSelfLink);
+                            return;
+                        }
+                        adjustStat(STAT_NAME_RESOURCE_POOL_WRITES, 1);
+                        resourcePoolRollup.markWritten(resourcePoolLink, totals,
+                                Utils.getNowMicrosUtc());
+                        // the policies depend only on the memory capacity of the pool
+                        if (capacityChanged) {
+                            updatePolicies(resourcePoolState);
                         }
-                        updatePolicies(resourcePoolState);
                     }));
         };
         sendRequest(Operation.createGet(this, resourcePoolLink).setCompletion(c));
     }
 
-    private void updateHostStats(String computeHostLink) {
+    private void updateHostStats(String computeHostLink,
+            BiConsumer<CallbackServiceHandlerState, Boolean> consumer,
+            ServiceTaskCallback serviceTaskCallback) {
+
+        if (serviceTaskCallback == null) {
+            startAndCreateCallbackHandlerService(consumer,
+                    (callback) -> updateHostStats(computeHostLink, consumer, callback));
+            return;
+        }
+
         AdapterRequest request = new AdapterRequest();
         request.operationTypeId = ContainerHostOperationType.STATS.id;
-        request.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+        request.serviceTaskCallback = serviceTaskCallback;
         request.resourceReference = UriUtilsExtended.buildUri(getHost(), computeHostLink);
         sendRequest(Operation.createPatch(this, ManagementUriParts.ADAPTER_DOCKER_HOST)
                 .setBody(request)
                 .setCompletion((o, ex) -> {
                     if (ex != null) {
                         logWarning(Utils.toString(ex));
+                        consumer.accept(null, true);
                         return;
                     }
                 }));
@@ -556,6 +572,7 @@ public class ContainerHostDataCollectionService extends StatefulService {
         }
 
         logFine("Performing maintenance for: %s", getUri());
+        logFine("Query result cache stats: %s", QueryResultCache.getInstance(getHost()).getStats());
         updateHostInfoDataCollection(post);
     }
 
@@ -564,7 +581,7 @@ public class ContainerHostDataCollectionService extends StatefulService {
         QueryTask q = createDockerComputeDescriptionQuery();
         ServiceDocumentQuery<ComputeDescription> query = new ServiceDocumentQuery<>(getHost(),
                 ComputeDescription.class);
-        query.query(q, (r) -> {
+        query.queryCached(q, (r) -> {
             if (getHost().isStopping()) {
                 maintOp.complete();
                 return;
@@ -603,59 +620,119 @@ public class ContainerHostDataCollectionService extends StatefulService {
         ServiceDocumentQuery<ComputeState> query = new ServiceDocumentQuery<>(getHost(),
                 ComputeState.class);
 
-        Map<String, Set<ComputeState>> resourcePoolToComputeStates = new HashMap<>();
-        query.query(q, (r) -> {
-            if (r.hasException()) {
+        Set<String> resourcePoolLinks = new HashSet<>();
+        Set<String> computeStateLinks = new HashSet<>();
+        query.queryPages(q, HOSTS_QUERY_PAGE_SIZE, (page) -> {
+            if (page.hasException()) {
                 logWarning("Exception while retrieving docker host. Error: %s",
-                        (r.getException() instanceof CancellationException)
-                                ? r.getException().getClass().getName()
-                                : Utils.toString(r.getException()));
-                maintOp.fail(r.getException());
-            } else if (r.hasResult()) {
-                updateContainerHostInfo(r.getDocumentSelfLink(), (o, error) -> {
-                    maintOp.complete(); /*
-                                         * we complete maintOp here, not waiting for container
-                                         * update
-                                         */
-                    if (error) {
-                        handleHostNotAvailable(r.getDocumentSelfLink());
-                    } else {
-                        handleHostAvailable(r.getDocumentSelfLink());
-                    }
-                }, null);
-
-                updateContainerHostContainers(r.getDocumentSelfLink());
+                        (page.getException() instanceof CancellationException)
+                                ? page.getException().getClass().getName()
+                                : Utils.toString(page.getException()));
+                maintOp.fail(page.getException());
+                return;
+            }
 
-                Set<ComputeState> computeStates = resourcePoolToComputeStates
-                        .get(r.getResult().resourcePoolLink);
+            List<String> pageComputeStateLinks = new ArrayList<>();
+            for (ComputeState computeState : page.getDocuments()) {
+                pageComputeStateLinks.add(computeState.documentSelfLink);
 
-                if (computeStates == null) {
-                    computeStates = new HashSet<>();
-                    resourcePoolToComputeStates.put(r.getResult().resourcePoolLink, computeStates);
+                resourcePoolRollup.applyHost(computeState.documentSelfLink,
+                        computeState.resourcePoolLink, computeState.customProperties);
+                if (computeState.resourcePoolLink != null) {
+                    resourcePoolLinks.add(computeState.resourcePoolLink);
                 }
+            }
+
+            // the hosts are collected in the background, within the in-flight window
+            computeStateLinks.addAll(pageComputeStateLinks);
+            hostCollectionScheduler.schedule(pageComputeStateLinks);
 
-                computeStates.add(r.getResult());
+            if (page.isLast()) {
+                hostCollectionScheduler.retainHosts(computeStateLinks);
+                resourcePoolRollup.retainHosts(computeStateLinks);
+                updateHostCollectionStats();
+                updateResourcePools(resourcePoolLinks, maintOp);
             } else {
-                updateResourcePools(resourcePoolToComputeStates, maintOp);
+                page.next();
             }
         });
     }
 
-    private void updateResourcePools(
-            Map<String, Set<ComputeState>> resourcePoolToComputeStates, Operation maintOp) {
+    /**
+     * Collects the info, the containers and the stats of the host, the slot of the host is held
+     * until all of them are collected. The stats are collected only once the host is known to be
+     * available.
+     */
+    private void collectHost(String computeStateLink, Consumer<Boolean> done) {
+        scheduleTimeoutCheck();
+
+        AtomicInteger remaining = new AtomicInteger(2);
+        AtomicBoolean failed = new AtomicBoolean();
+        Runnable collected = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                done.accept(failed.get());
+            }
+        };
+
+        updateContainerHostInfo(computeStateLink, (o, error) -> {
+            if (error) {
+                failed.set(true);
+                handleHostNotAvailable(computeStateLink);
+                collected.run();
+            } else {
+                handleHostAvailable(computeStateLink);
+                updateHostStats(computeStateLink, (oo, statsError) -> collected.run(), null);
+            }
+        }, null);
+
+        updateContainerHostContainers(computeStateLink, (o, error) -> collected.run(), null);
+    }
+
+    /**
+     * Releases the slots of the hosts not reporting back in time, with a single check pending at
+     * a time while there are collections in flight.
+     */
+    private void scheduleTimeoutCheck() {
+        if (!timeoutCheckScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        getHost().schedule(() -> {
+            timeoutCheckScheduled.set(false);
+            if (getHost().isStopping()) {
+                return;
+            }
+            hostCollectionScheduler.checkTimeouts();
+            if (hostCollectionScheduler.getInFlight() > 0) {
+                scheduleTimeoutCheck();
+            }
+        }, HOST_COLLECTION_TIMEOUT_MICROS + 1, TimeUnit.MICROSECONDS);
+    }
+
+    private void updateHostCollectionStats() {
+        setStat(STAT_NAME_HOST_COLLECTIONS_IN_FLIGHT, hostCollectionScheduler.getInFlight());
+        setStat(STAT_NAME_HOST_COLLECTIONS_PENDING, hostCollectionScheduler.getPending());
+        setStat(STAT_NAME_HOST_COLLECTIONS_SKIPPED, hostCollectionScheduler.getSkippedCount());
+
+        long[] latencyCounts = hostCollectionScheduler.getLatencyCounts();
+        for (int i = 0; i < latencyCounts.length; i++) {
+            setStat(STAT_NAME_HOST_COLLECTION_LATENCY_MILLIS + ".upTo."
+                    + HostCollectionScheduler.LATENCY_BOUNDS_MILLIS[i], latencyCounts[i]);
+        }
+    }
+
+    private void updateResourcePools(Set<String> resourcePoolLinks, Operation maintOp) {
         if (getHost().isStopping()) {
             maintOp.complete();
             return;
         }
-        // resourcePoolToComputeStates contains all added hosts in the system.
+        // resourcePoolLinks contains the pools of all added hosts in the system.
         // We need to get the empty resource pools and update them too
         QueryTask emptyResourcePoolQueryTask = createEmptyResourcePoolQueryTask(
-                resourcePoolToComputeStates.keySet());
+                resourcePoolLinks);
         ServiceDocumentQuery<ResourcePoolService.ResourcePoolState> emptyResourcePoolQuery = new ServiceDocumentQuery<>(
                 getHost(),
                 ResourcePoolService.ResourcePoolState.class);
 
-        // TODO countersubtask?
         emptyResourcePoolQuery.query(emptyResourcePoolQueryTask, (r) -> {
             maintOp.complete(); /* complete here, in parallel with resource pool update */
             if (r.hasException()) {
@@ -665,14 +742,18 @@ public class ContainerHostDataCollectionService extends StatefulService {
                                 ? r.getException().getClass().getName()
                                 : Utils.toString(r.getException()));
             } else if (r.hasResult()) {
-                updateResourcePool(r.getDocumentSelfLink(), Collections.emptySet());
+                resourcePoolLinks.add(r.getDocumentSelfLink());
+                resourcePoolRollup.addPool(r.getDocumentSelfLink());
+                return;
             }
-        });
 
-        // do a PUT for each resource pool in parallel
-        // TODO use a counter sub-task?
-        resourcePoolToComputeStates.entrySet().forEach(entry -> {
-            updateResourcePool(entry.getKey(), entry.getValue());
+            // write only the pools whose totals changed significantly
+            resourcePoolRollup.retainPools(resourcePoolLinks);
+            Map<String, ResourcePoolRollup.Totals> changedPools = resourcePoolRollup
+                    .getChangedPools(Utils.getNowMicrosUtc());
+            adjustStat(STAT_NAME_RESOURCE_POOL_WRITES_SKIPPED,
+                    resourcePoolLinks.size() - changedPools.size());
+            changedPools.forEach(this::updateResourcePool);
         });
     }
 
@@ -743,9 +824,20 @@ public class ContainerHostDataCollectionService extends StatefulService {
                 }));
     }
 
-    private void updateContainerHostContainers(String documentSelfLink) {
+    private void updateContainerHostContainers(String documentSelfLink,
+            BiConsumer<CallbackServiceHandlerState, Boolean> consumer,
+            ServiceTaskCallback serviceTaskCallback) {
+
+        if (serviceTaskCallback == null) {
+            startAndCreateCallbackHandlerService(consumer,
+                    (callback) -> updateContainerHostContainers(documentSelfLink, consumer,
+                            callback));
+            return;
+        }
+
         ContainerListCallback body = new ContainerListCallback();
         body.containerHostLink = documentSelfLink;
+        body.serviceTaskCallback = serviceTaskCallback;
         sendRequest(Operation
                 .createPatch(
                         this,
@@ -754,11 +846,28 @@ public class ContainerHostDataCollectionService extends StatefulService {
                 .setCompletion((o, ex) -> {
                     if (ex != null) {
                         logWarning(Utils.toString(ex));
+                        consumer.accept(null, true);
                         return;
                     }
                 }));
     }
 
+    private void removeContainerHostContainers(String documentSelfLink) {
+        ContainerListCallback body = new ContainerListCallback();
+        body.containerHostLink = documentSelfLink;
+        body.hostRemoved = true;
+        sendRequest(Operation
+                .createPatch(
+                        this,
+                        HostContainerListDataCollectionFactoryService.DEFAULT_HOST_CONAINER_LIST_DATA_COLLECTION_LINK)
+                .setBody(body)
+                .setCompletion((o, ex) -> {
+                    if (ex != null) {
+                        logWarning(Utils.toString(ex));
+                    }
+                }));
+    }
+
     private void startAndCreateCallbackHandlerService(
             BiConsumer<AbstractCallbackServiceHandler.CallbackServiceHandlerState, Boolean> actualCallback,
             Consumer<ServiceTaskCallback> caller) {
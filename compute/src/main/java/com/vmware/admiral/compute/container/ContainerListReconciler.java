@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Reconciles the list of containers reported by a container host with the known
+ * {@link ContainerState}s for that host. The reported list is indexed by id and by names once, so
+ * the whole reconciliation is done in a single pass over the container states.
+ */
+public class ContainerListReconciler {
+
+    /**
+     * The outcome of a single reconciliation pass.
+     */
+    public static class ReconcileResult {
+        /** Container states reported by the host, either by id or by names. */
+        public final List<ContainerState> matched = new ArrayList<>();
+
+        /** Active container states which are no longer reported by the host. */
+        public final List<ContainerState> missing = new ArrayList<>();
+
+        /** Reported container ids (and names) without a corresponding container state. */
+        public final Map<String, String> created = new LinkedHashMap<>();
+
+        public long elapsedMicros;
+
+        public boolean hasChanges() {
+            return !missing.isEmpty() || !created.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("matched: %d, missing: %d, created: %d, elapsed: %d micros",
+                    matched.size(), missing.size(), created.size(), elapsedMicros);
+        }
+    }
+
+    /**
+     * Computes the matched, missing and created containers.
+     *
+     * @param reportedIdsAndNames
+     *            container ids and comma separated names as reported by the host
+     * @param containerStates
+     *            the known container states for the host
+     */
+    public static ReconcileResult reconcile(Map<String, String> reportedIdsAndNames,
+            Collection<ContainerState> containerStates) {
+        long startNanos = System.nanoTime();
+
+        ReconcileResult result = new ReconcileResult();
+        result.created.putAll(reportedIdsAndNames);
+
+        // containers without an id (provisioning or failed ones) are matched by names
+        Map<String, Deque<String>> idsByNames = new HashMap<>(reportedIdsAndNames.size());
+        for (Entry<String, String> entry : reportedIdsAndNames.entrySet()) {
+            idsByNames.computeIfAbsent(entry.getValue(), (k) -> new ArrayDeque<>())
+                    .add(entry.getKey());
+        }
+
+        for (ContainerState containerState : containerStates) {
+            boolean exists = false;
+            if (containerState.id != null) {
+                exists = result.created.containsKey(containerState.id);
+                result.created.remove(containerState.id);
+            } else if (containerState.powerState == PowerState.PROVISIONING
+                    || containerState.powerState == PowerState.RETIRED
+                    || containerState.powerState == PowerState.ERROR) {
+                exists = removeByNames(result.created, idsByNames,
+                        containerNamesToString(containerState.names));
+            }
+
+            if (exists) {
+                result.matched.add(containerState);
+            } else if (containerState.powerState == PowerState.RUNNING
+                    || containerState.powerState == PowerState.STOPPED
+                    || containerState.powerState == PowerState.PAUSED) {
+                // provisioning, allocating containers in error might not have
+                // id associated yet.
+                result.missing.add(containerState);
+            }
+        }
+
+        result.elapsedMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        return result;
+    }
+
+    /**
+     * Computes a fingerprint of a reported container list based on the sorted container ids, names
+     * and images. Equal fingerprints mean the host reported the very same containers.
+     */
+    public static String fingerprint(Map<String, String> reportedIdsAndNames,
+            Map<String, String> reportedIdsAndImage) {
+        List<String> ids = new ArrayList<>(reportedIdsAndNames.keySet());
+        Collections.sort(ids);
+
+        StringBuilder sb = new StringBuilder();
+        for (String id : ids) {
+            sb.append(id).append('|').append(reportedIdsAndNames.get(id)).append('|');
+            if (reportedIdsAndImage != null) {
+                sb.append(reportedIdsAndImage.get(id));
+            }
+            sb.append('\n');
+        }
+        return Utils.computeHash(sb.toString());
+    }
+
+    /**
+     * Returns the ids of the containers which were added, removed or renamed between two reported
+     * container lists.
+     */
+    public static Set<String> changedIds(Map<String, String> previousIdsAndNames,
+            Map<String, String> currentIdsAndNames) {
+        Set<String> changedIds = new HashSet<>();
+        for (Entry<String, String> entry : currentIdsAndNames.entrySet()) {
+            if (!previousIdsAndNames.containsKey(entry.getKey())
+                    || !Objects.equals(previousIdsAndNames.get(entry.getKey()),
+                            entry.getValue())) {
+                changedIds.add(entry.getKey());
+            }
+        }
+        for (String id : previousIdsAndNames.keySet()) {
+            if (!currentIdsAndNames.containsKey(id)) {
+                changedIds.add(id);
+            }
+        }
+        return changedIds;
+    }
+
+    public static String containerNamesToString(List<String> names) {
+        if (names != null && names.size() > 0) {
+            StringBuilder sb = new StringBuilder();
+            for (String name : names) {
+                sb.append(name.startsWith("/") ? name.substring(1) : name);
+                sb.append(HostContainerListDataCollection.ContainerListCallback.NAME_SEPERATOR);
+            }
+            sb.deleteCharAt(sb.length() - 1);
+            return sb.toString();
+        } else {
+            return null;
+        }
+    }
+
+    private static boolean removeByNames(Map<String, String> remaining,
+            Map<String, Deque<String>> idsByNames, String names) {
+        Deque<String> ids = idsByNames.get(names);
+        while (ids != null && !ids.isEmpty()) {
+            String id = ids.poll();
+            if (remaining.containsKey(id)) {
+                remaining.remove(id);
+                return true;
+            }
+        }
+        return false;
+    }
+}
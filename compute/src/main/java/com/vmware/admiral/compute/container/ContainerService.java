@@ -28,6 +28,7 @@ import com.vmware.admiral.compute.container.ContainerService.ContainerState.Powe
 import com.vmware.admiral.compute.container.maintenance.ContainerHealthEvaluator;
 import com.vmware.admiral.compute.container.maintenance.ContainerMaintenance;
 import com.vmware.admiral.compute.container.maintenance.ContainerStats;
+import com.vmware.admiral.compute.container.maintenance.ContainerStatsSweepService;
 import com.vmware.admiral.compute.container.network.ContainerNetworkReconfigureService;
 import com.vmware.admiral.compute.container.network.ContainerNetworkReconfigureService.ContainerNetworkReconfigureState;
 import com.vmware.admiral.compute.container.util.CompositeComponentNotifier;
@@ -62,6 +63,7 @@ public class ContainerService extends StatefulService {
         public static final String FIELD_NAME_PARENT_LINK = "parentLink";
         public static final String FIELD_NAME_RESOURCE_POOL_LINK = "resourcePoolLink";
         public static final String FIELD_NAME_POWER_STATE = "powerState";
+        public static final String FIELD_NAME_ADAPTER_MANAGEMENT_REFERENCE = "adapterManagementReference";
         public static final String CONTAINER_ALLOCATION_STATUS = "allocation";
         public static final String CONTAINER_DEGRADED_STATUS = "degraded";
         public static final String CONTAINER_ERROR_STATUS = "error";
@@ -242,7 +244,9 @@ public class ContainerService extends StatefulService {
         super.toggleOption(ServiceOption.REPLICATION, true);
         super.toggleOption(ServiceOption.OWNER_SELECTION, true);
         super.toggleOption(ServiceOption.INSTRUMENTATION, true);
-        super.toggleOption(ServiceOption.PERIODIC_MAINTENANCE, true);
+        // the periodic maintenance is done for all containers at once by the sweep if enabled
+        super.toggleOption(ServiceOption.PERIODIC_MAINTENANCE,
+                !ContainerStatsSweepService.ENABLED);
         super.setMaintenanceIntervalMicros(ContainerMaintenance.MAINTENANCE_INTERVAL_MICROS);
     }
 
@@ -362,6 +366,8 @@ public class ContainerService extends StatefulService {
             containerMaintenance = ContainerMaintenance.create(getHost(), getSelfLink());
         }
         containerMaintenance.handleMaintenance(post);
+        setStat(ContainerMaintenance.STAT_NAME_INSPECT_INTERVAL_MICROS,
+                containerMaintenance.getInspectIntervalMicros());
     }
 
     private void startMonitoringContainerState(ContainerState body) {
@@ -39,6 +39,12 @@ public class DeploymentPolicyService extends StatefulService {
         @UsageOption(option = PropertyUsageOption.REQUIRED)
         public String name;
         public String description;
+
+        /**
+         * Name of the strategy used to place the containers on the hosts of this policy, e.g.
+         * spread or binpack. The hosts are picked randomly if not set.
+         */
+        public String placementStrategy;
     }
 
     public DeploymentPolicyService() {
@@ -104,6 +110,9 @@ public class DeploymentPolicyService extends StatefulService {
         if (patchBody.description != null) {
             currentState.description = patchBody.description;
         }
+        if (patchBody.placementStrategy != null) {
+            currentState.placementStrategy = patchBody.placementStrategy;
+        }
         patch.setBody(currentState).complete();
     }
 
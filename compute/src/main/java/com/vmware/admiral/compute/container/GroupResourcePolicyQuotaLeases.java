@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import static com.vmware.admiral.compute.container.GroupResourcePolicyService.UNLIMITED_NUMBER_INSTANCES;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+
+import com.vmware.admiral.common.util.HostScopedInstances;
+import com.vmware.admiral.compute.container.GroupResourcePolicyService.GroupResourcePolicyState;
+import com.vmware.admiral.compute.container.GroupResourcePolicyService.QuotaLease;
+import com.vmware.admiral.compute.container.GroupResourcePolicyService.ResourcePolicyLeaseRequest;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Reserves instances and memory of the group resource policies from quota leased to the current
+ * node, instead of updating the policy document for each reservation. The policy document is
+ * updated on its owner node, one update at a time, and becomes a bottleneck when many
+ * reservations are made concurrently.
+ * <p>
+ * A node leases the quota it needs plus a slice of {@link #SLICE_SIZE} instances in advance, and
+ * the following reservations are made from the lease locally. The reservations are committed to
+ * the policy right away, those made while a commit is in progress with the next one, so the
+ * policy is updated at most once at a time per node. The leases are renewed by the commits, the
+ * idle ones are returned to the policy, and the ones not renewed in time, e.g. of a node that is
+ * gone, are reclaimed by the policy, so the quota is rebalanced between the nodes over time. A
+ * node short of quota also takes back the spare quota of the leases not renewed for
+ * {@link #LEASE_RECLAIM_IDLE_MICROS}, instead of waiting for them to be returned.
+ * <p>
+ * Enabled with the <code>com.vmware.admiral.compute.container.policy.quota.leases</code> system
+ * property. The reservations are released directly on the policy, which accepts the releases of
+ * the reservations not committed yet while the leases are in use.
+ */
+public class GroupResourcePolicyQuotaLeases {
+    public static final boolean ENABLED = Boolean.getBoolean(
+            "com.vmware.admiral.compute.container.policy.quota.leases");
+    /** Number of instances leased in advance. */
+    static final long SLICE_SIZE = Long.getLong(
+            "com.vmware.admiral.compute.container.policy.quota.lease.slice.size", 10);
+    static final long LEASE_EXPIRATION_MICROS = Long.getLong(
+            "com.vmware.admiral.compute.container.policy.quota.lease.expiration.micros",
+            TimeUnit.MINUTES.toMicros(5));
+    static final long LEASE_IDLE_MICROS = Long.getLong(
+            "com.vmware.admiral.compute.container.policy.quota.lease.idle.micros",
+            TimeUnit.MINUTES.toMicros(1));
+    /** Time without renewal after which the quota left in the lease of a node can be reclaimed. */
+    static final long LEASE_RECLAIM_IDLE_MICROS = Long.getLong(
+            "com.vmware.admiral.compute.container.policy.quota.lease.reclaim.idle.micros",
+            TimeUnit.SECONDS.toMicros(10));
+    private static final long COMMIT_RETRY_DELAY_MICROS = TimeUnit.SECONDS.toMicros(5);
+
+    /** Referer of the lease requests, authorized by the {@link GroupResourcePolicyService}. */
+    public static final String REFERER_PATH = UriUtils.buildUriPath(
+            GroupResourcePolicyService.FACTORY_LINK, "quota-leases");
+
+    private final ServiceHost host;
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
+
+    /**
+     * The lease of a policy as seen by the current node.
+     */
+    private static class Lease {
+        final String policyLink;
+        /** The policy as of the last update */
+        GroupResourcePolicyState policy;
+        long policyVersion = -1;
+        /** The quota leased as of the last update of the policy */
+        long leasedInstances;
+        long leasedMemory;
+        /** The quota reserved from the lease and not committed yet */
+        long uncommittedInstances;
+        long uncommittedMemory;
+        /** The reservations not sent for commit yet */
+        Map<String, Long> reserved = new HashMap<>();
+        Map<String, Long> reservedMemory = new HashMap<>();
+        boolean committing;
+        boolean leasing;
+        List<Runnable> waiting = new ArrayList<>();
+        long lastUsedMicros;
+
+        Lease(String policyLink) {
+            this.policyLink = policyLink;
+        }
+
+        boolean covers(long instances, long memory) {
+            return policy != null
+                    && (policy.maxNumberInstances == UNLIMITED_NUMBER_INSTANCES
+                            || leasedInstances - uncommittedInstances >= instances)
+                    && (policy.memoryLimit == 0
+                            || leasedMemory - uncommittedMemory >= memory);
+        }
+
+        void reserve(String descLink, long instances, long memory) {
+            reserved.merge(descLink, instances, Long::sum);
+            if (memory != 0) {
+                reservedMemory.merge(descLink, memory, Long::sum);
+            }
+            uncommittedInstances += instances;
+            uncommittedMemory += memory;
+            lastUsedMicros = Utils.getNowMicrosUtc();
+        }
+
+        void update(GroupResourcePolicyState policy, String leaseHolder) {
+            if (policy.documentVersion <= policyVersion) {
+                return;
+            }
+            QuotaLease lease = policy.quotaLeases != null
+                    ? policy.quotaLeases.get(leaseHolder) : null;
+            this.policy = policy;
+            this.policyVersion = policy.documentVersion;
+            this.leasedInstances = lease != null ? lease.instances : 0;
+            this.leasedMemory = lease != null ? lease.memory : 0;
+        }
+    }
+
+    public static GroupResourcePolicyQuotaLeases getInstance(ServiceHost host) {
+        return HostScopedInstances.getInstance(host, GroupResourcePolicyQuotaLeases.class,
+                GroupResourcePolicyQuotaLeases::new);
+    }
+
+    GroupResourcePolicyQuotaLeases(ServiceHost host) {
+        this.host = host;
+    }
+
+    /**
+     * Returns whether the policy has enough instances and memory for the given number of resources
+     * for a reservation of the current node, including the quota leased to it and not reserved yet,
+     * and the spare quota of the other nodes reclaimed on a lease request.
+     *
+     * @param memoryPerInstance
+     *            - the memory limit of the resource description, <code>0</code> if not set
+     */
+    public boolean hasCapacity(GroupResourcePolicyState policy, long resourceCount,
+            long memoryPerInstance) {
+        long leasedInstances;
+        long leasedMemory;
+        Lease lease = leases.get(policy.documentSelfLink);
+        if (lease != null && lease.policy != null) {
+            synchronized (lease) {
+                leasedInstances = lease.leasedInstances - lease.uncommittedInstances;
+                leasedMemory = lease.leasedMemory - lease.uncommittedMemory;
+            }
+        } else {
+            QuotaLease quotaLease = policy.quotaLeases != null
+                    ? policy.quotaLeases.get(host.getId()) : null;
+            leasedInstances = quotaLease != null ? quotaLease.instances : 0;
+            leasedMemory = quotaLease != null ? quotaLease.memory : 0;
+        }
+        if (policy.quotaLeases != null) {
+            long now = Utils.getNowMicrosUtc();
+            for (Map.Entry<String, QuotaLease> e : policy.quotaLeases.entrySet()) {
+                if (!e.getKey().equals(host.getId()) && isReclaimable(e.getValue(), now)) {
+                    leasedInstances += e.getValue().instances;
+                    leasedMemory += e.getValue().memory;
+                }
+            }
+        }
+        return (policy.maxNumberInstances == UNLIMITED_NUMBER_INSTANCES
+                || policy.availableInstancesCount + leasedInstances >= resourceCount)
+                && (policy.memoryLimit == 0
+                        || policy.availableMemory + leasedMemory
+                                >= memoryPerInstance * resourceCount);
+    }
+
+    /**
+     * Reserves the given number of instances of the given resource description from the policy.
+     *
+     * @param memoryPerInstance
+     *            - the memory limit of the resource description, <code>0</code> if not set
+     * @param callback
+     *            - completed with the policy, or with the failure if the quota is not available
+     */
+    public void reserve(String policyLink, String resourceDescriptionLink, long resourceCount,
+            long memoryPerInstance, BiConsumer<GroupResourcePolicyState, Throwable> callback) {
+        Lease lease = leases.computeIfAbsent(policyLink, Lease::new);
+        long memory = memoryPerInstance * resourceCount;
+        GroupResourcePolicyState policy;
+        boolean commit = false;
+        synchronized (lease) {
+            if (lease.leasing) {
+                lease.waiting.add(() -> reserve(policyLink, resourceDescriptionLink,
+                        resourceCount, memoryPerInstance, callback));
+                return;
+            }
+            if (!lease.covers(resourceCount, memory)) {
+                lease.leasing = true;
+                policy = null;
+            } else {
+                lease.reserve(resourceDescriptionLink, resourceCount, memory);
+                policy = lease.policy;
+                if (!lease.committing) {
+                    lease.committing = true;
+                    commit = true;
+                }
+            }
+        }
+
+        if (policy == null) {
+            extend(lease, resourceCount, memory, memoryPerInstance,
+                    (o, e) -> {
+                        if (e != null) {
+                            callback.accept(null, e);
+                            return;
+                        }
+                        reserve(policyLink, resourceDescriptionLink, resourceCount,
+                                memoryPerInstance, callback);
+                    });
+            return;
+        }
+
+        scheduleMaintenance();
+        if (commit) {
+            commit(lease);
+        }
+        callback.accept(policy, null);
+    }
+
+    /**
+     * Leases the quota missing for the given reservation plus a slice in advance.
+     */
+    private void extend(Lease lease, long instances, long memory, long memoryPerInstance,
+            BiConsumer<GroupResourcePolicyState, Throwable> callback) {
+        ResourcePolicyLeaseRequest request = createRequest();
+        synchronized (lease) {
+            request.instances = Math.max(0,
+                    instances - (lease.leasedInstances - lease.uncommittedInstances));
+            request.memory = Math.max(0, memory - (lease.leasedMemory - lease.uncommittedMemory));
+        }
+        request.spareInstances = SLICE_SIZE;
+        request.spareMemory = memoryPerInstance * SLICE_SIZE;
+
+        send(lease, request, (policy, e) -> {
+            List<Runnable> waiting;
+            synchronized (lease) {
+                lease.leasing = false;
+                waiting = lease.waiting;
+                lease.waiting = new ArrayList<>();
+            }
+            callback.accept(policy, e);
+            waiting.forEach(Runnable::run);
+        });
+    }
+
+    /**
+     * Commits the reservations made from the lease since the last commit, until there are no
+     * more.
+     */
+    private void commit(Lease lease) {
+        ResourcePolicyLeaseRequest request = createRequest();
+        synchronized (lease) {
+            if (lease.reserved.isEmpty()) {
+                lease.committing = false;
+                return;
+            }
+            request.reservedPerResourceDesc = lease.reserved;
+            request.reservedMemoryPerResourceDesc = lease.reservedMemory;
+            lease.reserved = new HashMap<>();
+            lease.reservedMemory = new HashMap<>();
+        }
+
+        send(lease, request, (policy, e) -> {
+            if (e != null) {
+                if (leases.get(lease.policyLink) != lease) {
+                    host.log(Level.WARNING, "Policy %s not found, dropping its reservations",
+                            lease.policyLink);
+                    return;
+                }
+                synchronized (lease) {
+                    request.reservedPerResourceDesc.forEach(
+                            (k, v) -> lease.reserved.merge(k, v, Long::sum));
+                    request.reservedMemoryPerResourceDesc.forEach(
+                            (k, v) -> lease.reservedMemory.merge(k, v, Long::sum));
+                }
+                host.log(Level.WARNING, "Failure committing reservations to %s, retrying: %s",
+                        lease.policyLink, Utils.toString(e));
+                host.schedule(() -> commit(lease), COMMIT_RETRY_DELAY_MICROS,
+                        TimeUnit.MICROSECONDS);
+                return;
+            }
+            synchronized (lease) {
+                lease.uncommittedInstances -= sum(request.reservedPerResourceDesc);
+                lease.uncommittedMemory -= sum(request.reservedMemoryPerResourceDesc);
+            }
+            commit(lease);
+        });
+    }
+
+    /**
+     * Returns the leases idle for longer than the given time to their policies.
+     */
+    void returnIdleLeases(long idleMicros) {
+        long idleSince = Utils.getNowMicrosUtc() - idleMicros;
+        for (Lease lease : leases.values()) {
+            ResourcePolicyLeaseRequest request = createRequest();
+            synchronized (lease) {
+                if (lease.leasing || lease.committing || lease.lastUsedMicros > idleSince) {
+                    continue;
+                }
+                lease.leasing = true;
+                request.returnLease = true;
+            }
+
+            send(lease, request, (policy, e) -> {
+                List<Runnable> waiting;
+                synchronized (lease) {
+                    lease.leasing = false;
+                    if (e == null) {
+                        leases.remove(lease.policyLink, lease);
+                    }
+                    waiting = lease.waiting;
+                    lease.waiting = new ArrayList<>();
+                }
+                waiting.forEach(Runnable::run);
+            });
+        }
+    }
+
+    private void scheduleMaintenance() {
+        if (!maintenanceScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        host.schedule(() -> {
+            maintenanceScheduled.set(false);
+            returnIdleLeases(LEASE_IDLE_MICROS);
+            if (!leases.isEmpty()) {
+                scheduleMaintenance();
+            }
+        }, LEASE_IDLE_MICROS / 2, TimeUnit.MICROSECONDS);
+    }
+
+    private void send(Lease lease, ResourcePolicyLeaseRequest request,
+            BiConsumer<GroupResourcePolicyState, Throwable> callback) {
+        host.sendRequest(Operation.createPatch(host, lease.policyLink)
+                .setBody(request)
+                .setReferer(UriUtils.buildUri(host, REFERER_PATH))
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        if (o.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND) {
+                            // the policy is gone together with its quota
+                            leases.remove(lease.policyLink, lease);
+                        }
+                        callback.accept(null, e);
+                        return;
+                    }
+                    GroupResourcePolicyState policy = o.getBody(GroupResourcePolicyState.class);
+                    synchronized (lease) {
+                        lease.update(policy, request.leaseHolder);
+                    }
+                    callback.accept(policy, null);
+                }));
+    }
+
+    private ResourcePolicyLeaseRequest createRequest() {
+        ResourcePolicyLeaseRequest request = new ResourcePolicyLeaseRequest();
+        request.leaseHolder = host.getId();
+        request.expirationMicros = Utils.getNowMicrosUtc() + LEASE_EXPIRATION_MICROS;
+        return request;
+    }
+
+    /**
+     * Returns whether the quota left in the lease can be reclaimed for the other nodes: the lease
+     * is not renewed for a while, so no reservation made from it is being committed.
+     */
+    static boolean isReclaimable(QuotaLease lease, long nowMicros) {
+        return lease.expirationMicros - LEASE_EXPIRATION_MICROS + LEASE_RECLAIM_IDLE_MICROS
+                <= nowMicros;
+    }
+
+    private static long sum(Map<String, Long> values) {
+        return values.values().stream().mapToLong(Long::longValue).sum();
+    }
+}
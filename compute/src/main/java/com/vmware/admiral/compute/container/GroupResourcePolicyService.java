@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.CancellationException;
 import java.util.function.Consumer;
 
@@ -35,6 +36,7 @@ import com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption
 import com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption;
 import com.vmware.xenon.common.StatefulService;
 import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.QueryTask;
 
 /**
@@ -187,6 +189,28 @@ public class GroupResourcePolicyService extends StatefulService {
         @UsageOption(option = PropertyUsageOption.SERVICE_USE)
         @PropertyOptions(indexing = { PropertyIndexingOption.STORE_ONLY })
         public Map<String, Long> memoryQuotaPerResourceDesc;
+
+        /** Set by Task. The quota leased to the nodes by node id. */
+        @Documentation(description = "The quota leased to the nodes by node id.")
+        @UsageOption(option = PropertyUsageOption.SERVICE_USE)
+        @PropertyOptions(indexing = { PropertyIndexingOption.STORE_ONLY })
+        public Map<String, QuotaLease> quotaLeases;
+    }
+
+    /**
+     * Quota of a policy leased to a node, so the node can reserve from it without updating the
+     * policy for each reservation. The leased quota is not included in the available instances
+     * and memory of the policy.
+     */
+    public static class QuotaLease {
+        /** The leased instances not reserved yet, if the number of instances is limited. */
+        public long instances;
+
+        /** The leased memory not reserved yet, if the memory is limited. */
+        public long memory;
+
+        /** The time after which the lease is returned to the policy, if not renewed. */
+        public long expirationMicros;
     }
 
     /**
@@ -197,6 +221,41 @@ public class GroupResourcePolicyService extends StatefulService {
         public String resourceDescriptionLink;
     }
 
+    /**
+     * An DTO used during PATCH operation in order to lease quota of the policy to a node, to return
+     * it or to commit the reservations made from it. Every such request renews the lease.
+     */
+    public static class ResourcePolicyLeaseRequest {
+        /** Id of the node the quota is leased to. */
+        public String leaseHolder;
+
+        /** Instances to add to the lease, the request fails if not available. Negative to return. */
+        public long instances;
+
+        /** Instances to add to the lease in advance, as many as available. */
+        public long spareInstances;
+
+        /** Memory to add to the lease, the request fails if not available. Negative to return. */
+        public long memory;
+
+        /** Memory to add to the lease in advance, as much as available. */
+        public long spareMemory;
+
+        /** Number of instances reserved from the lease by resource description link. */
+        public Map<String, Long> reservedPerResourceDesc;
+
+        /** Memory reserved from the lease by resource description link. */
+        public Map<String, Long> reservedMemoryPerResourceDesc;
+
+        /**
+         * Returns the quota left in the lease and ends it. Without a lease holder only the expired
+         * leases are ended.
+         */
+        public boolean returnLease;
+
+        public long expirationMicros;
+    }
+
     /**
      * State with in-line, expanded ResourcePoolLink.
      */
@@ -238,6 +297,10 @@ public class GroupResourcePolicyService extends StatefulService {
         super.toggleOption(ServiceOption.REPLICATION, true);
         super.toggleOption(ServiceOption.OWNER_SELECTION, true);
         super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+        // the expired quota leases are reclaimed on maintenance
+        super.toggleOption(ServiceOption.PERIODIC_MAINTENANCE,
+                GroupResourcePolicyQuotaLeases.ENABLED);
+        super.setMaintenanceIntervalMicros(GroupResourcePolicyQuotaLeases.LEASE_EXPIRATION_MICROS);
     }
 
     @Override
@@ -296,7 +359,8 @@ public class GroupResourcePolicyService extends StatefulService {
             currentState.priority = putBody.priority;
             currentState.customProperties = putBody.customProperties;
 
-            long reserved = currentState.allocatedInstancesCount;
+            long reserved = currentState.allocatedInstancesCount
+                    + getLeasedInstances(currentState);
             if (putBody.maxNumberInstances != UNLIMITED_NUMBER_INSTANCES
                     && putBody.maxNumberInstances < reserved) {
                 put.fail(new IllegalArgumentException("'maxNumberInstances' cannot be less than the"
@@ -354,6 +418,12 @@ public class GroupResourcePolicyService extends StatefulService {
             return;
         }
 
+        ResourcePolicyLeaseRequest leaseRequest = patch.getBody(ResourcePolicyLeaseRequest.class);
+        if (leaseRequest.leaseHolder != null || leaseRequest.returnLease) {
+            handleLeasePatch(patch, leaseRequest);
+            return;
+        }
+
         ResourcePolicyReservationRequest request = patch
                 .getBody(ResourcePolicyReservationRequest.class);
 
@@ -390,26 +460,24 @@ public class GroupResourcePolicyService extends StatefulService {
 
         Long countPerDesc = state.resourceQuotaPerResourceDesc
                 .get(request.resourceDescriptionLink);
-        if (countPerDesc == null) {
-            if (request.resourceCount < 0) {
-                patch.fail(new IllegalArgumentException(
-                        "Releasing policy do not exist for requested resourceDescriptionLink: "
-                                + request.resourceDescriptionLink));
-                return;
-            }
-            state.resourceQuotaPerResourceDesc.put(request.resourceDescriptionLink,
-                    request.resourceCount);
-        } else {
-            long currentCountPerDesc = countPerDesc + request.resourceCount;
-            if (currentCountPerDesc < 0) {
-                patch.fail(new IllegalArgumentException(
-                        "Releasing policy is more than previously requested for the resourceDescriptionLink: "
+        long currentCountPerDesc = (countPerDesc != null ? countPerDesc : 0)
+                + request.resourceCount;
+        if (currentCountPerDesc < 0) {
+            if (state.quotaLeases == null || state.quotaLeases.isEmpty()) {
+                patch.fail(new IllegalArgumentException(countPerDesc == null
+                        ? "Releasing policy do not exist for requested resourceDescriptionLink: "
+                                + request.resourceDescriptionLink
+                        : "Releasing policy is more than previously requested for the resourceDescriptionLink: "
                                 + request.resourceDescriptionLink));
                 return;
             }
-            state.resourceQuotaPerResourceDesc.put(request.resourceDescriptionLink,
-                    currentCountPerDesc);
+            // the reservation may be made from a lease and not committed yet, the count is
+            // reconciled when the lease holder commits it
+            logInfo("%s: releasing %d uncommitted instances of %s", state.name,
+                    -currentCountPerDesc, request.resourceDescriptionLink);
         }
+        state.resourceQuotaPerResourceDesc.put(request.resourceDescriptionLink,
+                currentCountPerDesc);
 
         state.availableInstancesCount = currentCount;
         state.allocatedInstancesCount += request.resourceCount;
@@ -456,6 +524,200 @@ public class GroupResourcePolicyService extends StatefulService {
 
     }
 
+    private void handleLeasePatch(Operation patch, ResourcePolicyLeaseRequest request) {
+        GroupResourcePolicyState state = getState(patch);
+        adjustStat(ResourcePolicyLeaseRequest.class.getSimpleName(), 1);
+
+        boolean limitedInstances = state.maxNumberInstances != UNLIMITED_NUMBER_INSTANCES;
+        boolean limitedMemory = state.memoryLimit != 0;
+        long instances = limitedInstances ? request.instances : 0;
+        long memory = limitedMemory ? request.memory : 0;
+
+        if (state.quotaLeases == null) {
+            state.quotaLeases = new HashMap<>();
+        }
+        reclaimExpiredLeases(state);
+        if (request.leaseHolder == null) {
+            patch.setBody(state).complete();
+            return;
+        }
+
+        // the spare quota of the other nodes is taken back rather than failing the request
+        if (instances > state.availableInstancesCount || memory > state.availableMemory) {
+            reclaimSpareQuota(state, request.leaseHolder,
+                    instances - state.availableInstancesCount, memory - state.availableMemory);
+        }
+        if (instances > state.availableInstancesCount) {
+            patch.fail(new IllegalArgumentException(
+                    "Requested instances are more than the available resource policy: "
+                            + state.availableInstancesCount));
+            return;
+        }
+        if (memory > state.availableMemory) {
+            patch.fail(new IllegalArgumentException(
+                    "Requested memory is more than the available memory policy: "
+                            + state.availableMemory));
+            return;
+        }
+
+        QuotaLease lease = state.quotaLeases.computeIfAbsent(request.leaseHolder,
+                (k) -> new QuotaLease());
+
+        // commit the reservations made from the lease
+        if (request.reservedPerResourceDesc != null) {
+            if (state.resourceQuotaPerResourceDesc == null) {
+                state.resourceQuotaPerResourceDesc = new HashMap<>();
+            }
+            for (Entry<String, Long> e : request.reservedPerResourceDesc.entrySet()) {
+                state.resourceQuotaPerResourceDesc.merge(e.getKey(), e.getValue(), Long::sum);
+                state.allocatedInstancesCount += e.getValue();
+                if (limitedInstances) {
+                    lease.instances -= e.getValue();
+                }
+            }
+        }
+        if (request.reservedMemoryPerResourceDesc != null) {
+            if (state.memoryQuotaPerResourceDesc == null) {
+                state.memoryQuotaPerResourceDesc = new HashMap<>();
+            }
+            for (Entry<String, Long> e : request.reservedMemoryPerResourceDesc.entrySet()) {
+                state.memoryQuotaPerResourceDesc.merge(e.getKey(), e.getValue(), Long::sum);
+                if (limitedMemory) {
+                    lease.memory -= e.getValue();
+                }
+            }
+        }
+        // reservations beyond the lease, e.g. made while it expired, are taken from the policy
+        if (lease.instances < 0 || lease.memory < 0) {
+            logWarning("%s: reservations of node %s exceed the leased quota", state.name,
+                    request.leaseHolder);
+            state.availableInstancesCount += Math.min(0, lease.instances);
+            state.availableMemory += Math.min(0, lease.memory);
+            lease.instances = Math.max(0, lease.instances);
+            lease.memory = Math.max(0, lease.memory);
+        }
+
+        // lease or return quota, the spare quota is limited to half of the available one so there
+        // is some left for the other nodes
+        if (instances >= 0) {
+            instances += Math.max(0, Math.min(request.spareInstances,
+                    (state.availableInstancesCount - instances) / 2));
+        } else {
+            instances = -Math.min(-instances, lease.instances);
+        }
+        if (memory >= 0) {
+            memory += Math.max(0, Math.min(request.spareMemory,
+                    (state.availableMemory - memory) / 2));
+        } else {
+            memory = -Math.min(-memory, lease.memory);
+        }
+        if (limitedInstances) {
+            state.availableInstancesCount -= instances;
+            lease.instances += instances;
+        }
+        if (limitedMemory) {
+            state.availableMemory -= memory;
+            lease.memory += memory;
+        }
+
+        lease.expirationMicros = request.expirationMicros;
+        if (request.returnLease) {
+            // the lease is kept while in use, even if empty, so the releases of its uncommitted
+            // reservations are accepted
+            returnQuota(state, lease);
+            state.quotaLeases.remove(request.leaseHolder);
+        }
+
+        patch.setBody(state).complete();
+    }
+
+    @Override
+    public void handleMaintenance(Operation post) {
+        if (getProcessingStage() != ProcessingStage.AVAILABLE) {
+            post.complete();
+            return;
+        }
+        post.complete();
+
+        sendRequest(Operation.createGet(getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        logWarning("Failure retrieving policy on maintenance: %s",
+                                Utils.toString(e));
+                        return;
+                    }
+                    GroupResourcePolicyState state = o.getBody(GroupResourcePolicyState.class);
+                    long now = Utils.getNowMicrosUtc();
+                    if (state.quotaLeases == null || state.quotaLeases.values().stream()
+                            .noneMatch((l) -> l.expirationMicros <= now)) {
+                        return;
+                    }
+                    ResourcePolicyLeaseRequest request = new ResourcePolicyLeaseRequest();
+                    request.returnLease = true;
+                    sendRequest(Operation.createPatch(getUri())
+                            .setBody(request)
+                            .setReferer(UriUtils.buildUri(getHost(),
+                                    GroupResourcePolicyQuotaLeases.REFERER_PATH))
+                            .setCompletion((po, pe) -> {
+                                if (pe != null) {
+                                    logWarning("Failure reclaiming expired quota leases: %s",
+                                            Utils.toString(pe));
+                                }
+                            }));
+                }));
+    }
+
+    private void reclaimExpiredLeases(GroupResourcePolicyState state) {
+        long now = Utils.getNowMicrosUtc();
+        state.quotaLeases.entrySet().removeIf((e) -> {
+            QuotaLease lease = e.getValue();
+            if (lease.expirationMicros > now) {
+                return false;
+            }
+            logWarning("%s: reclaiming expired quota lease of node %s", state.name, e.getKey());
+            returnQuota(state, lease);
+            return true;
+        });
+    }
+
+    private void reclaimSpareQuota(GroupResourcePolicyState state, String leaseHolder,
+            long instances, long memory) {
+        long now = Utils.getNowMicrosUtc();
+        for (Entry<String, QuotaLease> e : state.quotaLeases.entrySet()) {
+            QuotaLease lease = e.getValue();
+            if ((instances <= 0 && memory <= 0) || e.getKey().equals(leaseHolder)
+                    || !GroupResourcePolicyQuotaLeases.isReclaimable(lease, now)) {
+                continue;
+            }
+            long reclaimedInstances = Math.max(0, Math.min(instances, lease.instances));
+            long reclaimedMemory = Math.max(0, Math.min(memory, lease.memory));
+            logInfo("%s: reclaiming spare quota of node %s: %d instances, %d memory", state.name,
+                    e.getKey(), reclaimedInstances, reclaimedMemory);
+            lease.instances -= reclaimedInstances;
+            lease.memory -= reclaimedMemory;
+            state.availableInstancesCount += reclaimedInstances;
+            state.availableMemory += reclaimedMemory;
+            instances -= reclaimedInstances;
+            memory -= reclaimedMemory;
+        }
+    }
+
+    private static void returnQuota(GroupResourcePolicyState state, QuotaLease lease) {
+        if (state.maxNumberInstances != UNLIMITED_NUMBER_INSTANCES) {
+            state.availableInstancesCount += lease.instances;
+        }
+        if (state.memoryLimit != 0) {
+            state.availableMemory += lease.memory;
+        }
+    }
+
+    private static long getLeasedInstances(GroupResourcePolicyState state) {
+        if (state.quotaLeases == null) {
+            return 0;
+        }
+        return state.quotaLeases.values().stream().mapToLong((l) -> l.instances).sum();
+    }
+
     private boolean reserveMemory(Operation patch,
             ResourcePolicyReservationRequest request,
             GroupResourcePolicyState state, Long memoryBytes) {
@@ -653,7 +915,9 @@ public class GroupResourcePolicyService extends StatefulService {
                         || patch.getReferer().getPath()
                                 .startsWith(ManagementUriParts.REQUEST_RESERVATION_REMOVAL_TASKS)
                         || patch.getReferer().getPath()
-                                .startsWith(ManagementUriParts.REQUEST_COMPUTE_RESERVATION_TASKS));
+                                .startsWith(ManagementUriParts.REQUEST_COMPUTE_RESERVATION_TASKS)
+                        || patch.getReferer().getPath()
+                                .startsWith(GroupResourcePolicyQuotaLeases.REFERER_PATH));
 
     }
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Schedules the data collection of the container hosts with a bounded number of collections in
+ * flight, so the adapters and the http client pools are not flooded with requests for all hosts
+ * at once. Hosts whose last collection failed go first, followed by the hosts collected least
+ * recently. A host already waiting or being collected is not scheduled again. The latency of the
+ * collections is tracked per host in a histogram over {@link #LATENCY_BOUNDS_MILLIS}.
+ */
+class HostCollectionScheduler {
+    static final long[] LATENCY_BOUNDS_MILLIS = {
+            100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000 };
+
+    private final int maxInFlight;
+    private final long timeoutMicros;
+    private final LongSupplier clock;
+    private final BiConsumer<String, Consumer<Boolean>> collector;
+
+    private final Map<String, HostEntry> hosts = new HashMap<>();
+    private final PriorityQueue<HostEntry> pending = new PriorityQueue<>(
+            HostCollectionScheduler::compare);
+    private int inFlight;
+    private long skippedCount;
+    private long sequence;
+
+    private static class HostEntry {
+        final String hostLink;
+        final long[] latencyCounts = new long[LATENCY_BOUNDS_MILLIS.length];
+        long lastCompletionMicros;
+        boolean lastFailed;
+        boolean pending;
+        boolean inFlight;
+        long pendingSequence;
+        long startMicros;
+        long runId;
+
+        HostEntry(String hostLink) {
+            this.hostLink = hostLink;
+        }
+    }
+
+    /**
+     * @param maxInFlight
+     *            the maximum number of host collections running at the same time
+     * @param timeoutMicros
+     *            time after which a collection that has not reported back is considered failed
+     *            and its slot is released
+     * @param clock
+     *            source of the current time in microseconds
+     * @param collector
+     *            starts the collection of the given host and reports back once done, with
+     *            <code>true</code> if it failed
+     */
+    HostCollectionScheduler(int maxInFlight, long timeoutMicros, LongSupplier clock,
+            BiConsumer<String, Consumer<Boolean>> collector) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.timeoutMicros = timeoutMicros;
+        this.clock = clock;
+        this.collector = collector;
+    }
+
+    private static int compare(HostEntry e1, HostEntry e2) {
+        if (e1.lastFailed != e2.lastFailed) {
+            return e1.lastFailed ? -1 : 1;
+        }
+        if (e1.lastCompletionMicros != e2.lastCompletionMicros) {
+            return Long.compare(e1.lastCompletionMicros, e2.lastCompletionMicros);
+        }
+        return Long.compare(e1.pendingSequence, e2.pendingSequence);
+    }
+
+    /**
+     * Schedules the collection of the given hosts, skipping the ones already scheduled or being
+     * collected, and starts as many collections as the window allows. Returns the number of hosts
+     * skipped.
+     */
+    int schedule(Collection<String> hostLinks) {
+        int skipped = 0;
+        synchronized (this) {
+            releaseTimedOut();
+            for (String hostLink : hostLinks) {
+                HostEntry entry = hosts.computeIfAbsent(hostLink, HostEntry::new);
+                if (entry.pending || entry.inFlight) {
+                    skipped++;
+                    continue;
+                }
+                entry.pending = true;
+                entry.pendingSequence = sequence++;
+                pending.add(entry);
+            }
+            skippedCount += skipped;
+        }
+        startNext();
+        return skipped;
+    }
+
+    /**
+     * Forgets the hosts not in the given collection, e.g. the removed hosts.
+     */
+    synchronized void retainHosts(Collection<String> hostLinks) {
+        hosts.values().removeIf((e) -> !hostLinks.contains(e.hostLink) && !e.pending
+                && !e.inFlight);
+    }
+
+    private void startNext() {
+        while (true) {
+            HostEntry entry;
+            long runId;
+            synchronized (this) {
+                if (inFlight >= maxInFlight || pending.isEmpty()) {
+                    return;
+                }
+                entry = pending.poll();
+                entry.pending = false;
+                entry.inFlight = true;
+                entry.startMicros = clock.getAsLong();
+                runId = ++entry.runId;
+                inFlight++;
+            }
+            collector.accept(entry.hostLink, (failed) -> complete(entry, runId, failed));
+        }
+    }
+
+    private void complete(HostEntry entry, long runId, boolean failed) {
+        synchronized (this) {
+            if (entry.runId != runId || !entry.inFlight) {
+                // already released on timeout
+                return;
+            }
+            release(entry, failed);
+        }
+        startNext();
+    }
+
+    private void release(HostEntry entry, boolean failed) {
+        long nowMicros = clock.getAsLong();
+        long latencyMillis = TimeUnit.MICROSECONDS.toMillis(nowMicros - entry.startMicros);
+        entry.latencyCounts[getLatencyBucket(latencyMillis)]++;
+        entry.lastCompletionMicros = nowMicros;
+        entry.lastFailed = failed;
+        entry.inFlight = false;
+        inFlight--;
+    }
+
+    /**
+     * Releases the slots of the collections that timed out and starts the next ones.
+     */
+    void checkTimeouts() {
+        synchronized (this) {
+            releaseTimedOut();
+        }
+        startNext();
+    }
+
+    private void releaseTimedOut() {
+        long nowMicros = clock.getAsLong();
+        for (HostEntry entry : hosts.values()) {
+            if (entry.inFlight && entry.startMicros + timeoutMicros < nowMicros) {
+                release(entry, true);
+            }
+        }
+    }
+
+    static int getLatencyBucket(long latencyMillis) {
+        for (int i = 0; i < LATENCY_BOUNDS_MILLIS.length; i++) {
+            if (latencyMillis <= LATENCY_BOUNDS_MILLIS[i]) {
+                return i;
+            }
+        }
+        return LATENCY_BOUNDS_MILLIS.length - 1;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    synchronized int getPending() {
+        return pending.size();
+    }
+
+    synchronized long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * Returns the collection latency histogram of the given host, the counts per bucket of
+     * {@link #LATENCY_BOUNDS_MILLIS}, or <code>null</code> if the host is not known.
+     */
+    synchronized long[] getLatencyCounts(String hostLink) {
+        HostEntry entry = hosts.get(hostLink);
+        return entry != null ? entry.latencyCounts.clone() : null;
+    }
+
+    /**
+     * Returns the collection latency histogram over all hosts.
+     */
+    synchronized long[] getLatencyCounts() {
+        long[] counts = new long[LATENCY_BOUNDS_MILLIS.length];
+        for (HostEntry entry : hosts.values()) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += entry.latencyCounts[i];
+            }
+        }
+        return counts;
+    }
+}
@@ -14,6 +14,7 @@ package com.vmware.admiral.compute.container;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -22,6 +23,8 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -44,6 +47,7 @@ import com.vmware.admiral.compute.ContainerHostUtil;
 import com.vmware.admiral.compute.HostConfigCertificateDistributionService;
 import com.vmware.admiral.compute.HostConfigCertificateDistributionService.HostConfigCertificateDistributionState;
 import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.compute.container.ContainerListReconciler.ReconcileResult;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
 import com.vmware.admiral.compute.container.util.ContainerUtil;
@@ -67,6 +71,9 @@ import com.vmware.xenon.common.TaskState.TaskStage;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.Query.Occurance;
+import com.vmware.xenon.services.common.QueryTask.QueryTerm.MatchType;
 
 /**
  * Synchronize the ContainerStates with a list of container IDs
@@ -74,6 +81,60 @@ import com.vmware.xenon.services.common.QueryTask;
 public class HostContainerListDataCollection extends StatefulService {
     private static final String SYSTEM_CONTAINER_NAME = "systemContainerName";
 
+    private static final boolean INCREMENTAL_COLLECTION_ENABLED = Boolean.getBoolean(
+            "com.vmware.admiral.compute.container.list.incremental");
+
+    static final int INCREMENTAL_COLLECTION_MAX_CHANGED_CONTAINERS = Integer.getInteger(
+            "com.vmware.admiral.compute.container.list.incremental.max.changed", 50);
+
+    static final long FULL_COLLECTION_INTERVAL_MICROS = Long.getLong(
+            "com.vmware.admiral.compute.container.list.full.interval.micros",
+            TimeUnit.MINUTES.toMicros(30));
+
+    /**
+     * The last reconciled container list of a host. Kept in memory only, so a new owner of the
+     * service starts with a full collection.
+     */
+    static class ContainerListSnapshot {
+        final String fingerprint;
+        final Map<String, String> containerIdsAndNames;
+        final long lastFullSyncTimeMicros;
+
+        ContainerListSnapshot(ContainerListCallback reported, long lastFullSyncTimeMicros) {
+            this.fingerprint = ContainerListReconciler.fingerprint(
+                    reported.containerIdsAndNames, reported.containerIdsAndImage);
+            this.containerIdsAndNames = reported.containerIdsAndNames;
+            this.lastFullSyncTimeMicros = lastFullSyncTimeMicros;
+        }
+
+        boolean isFullSyncDue(long nowMicros) {
+            return lastFullSyncTimeMicros + FULL_COLLECTION_INTERVAL_MICROS < nowMicros;
+        }
+
+        /**
+         * Returns the ids of the containers added, removed or renamed since this snapshot, none if
+         * the reported list has not changed, or <code>null</code> if more than the given number
+         * have changed and all the containers should be collected again.
+         */
+        Set<String> getChangedIds(ContainerListCallback reported, int maxChangedContainers) {
+            String reportedFingerprint = ContainerListReconciler.fingerprint(
+                    reported.containerIdsAndNames, reported.containerIdsAndImage);
+            if (reportedFingerprint.equals(fingerprint)) {
+                return Collections.emptySet();
+            }
+            Set<String> changedIds = ContainerListReconciler.changedIds(containerIdsAndNames,
+                    reported.containerIdsAndNames);
+            return changedIds.size() > maxChangedContainers ? null : changedIds;
+        }
+    }
+
+    private final Map<String, ContainerListSnapshot> lastContainerLists =
+            new ConcurrentHashMap<>();
+
+    /** The callbacks to notify once the running data collection of their host completes */
+    private final Map<String, List<ServiceTaskCallback>> collectionCallbacks =
+            new ConcurrentHashMap<>();
+
     public static class HostContainerListDataCollectionFactoryService extends FactoryService {
         public static final String SELF_LINK = ManagementUriParts.HOST_CONTAINER_LIST_DATA_COLLECTION;
 
@@ -139,11 +200,15 @@ public class HostContainerListDataCollection extends StatefulService {
     }
 
     public static class ContainerListCallback extends ServiceTaskCallbackResponse {
-        private static final String NAME_SEPERATOR = ",";
+        static final String NAME_SEPERATOR = ",";
         public String containerHostLink;
         public Map<String, String> containerIdsAndNames = new HashMap<>();
         public Map<String, String> containerIdsAndImage = new HashMap<>();
         public boolean unlockDataCollectionForHost;
+        /** Marks the host as removed, so nothing is kept for it anymore */
+        public boolean hostRemoved;
+        /** Optional, notified once the data collection for the host completes */
+        public ServiceTaskCallback serviceTaskCallback;
 
         public void addIdAndNames(String id, String[] names) {
             AssertUtil.assertNotNull(id, "containerId");
@@ -308,11 +373,24 @@ public class HostContainerListDataCollection extends StatefulService {
             //patch to mark that there is no active list containers data collection for a given host.
             state.containerHostLinks.remove(body.containerHostLink);
             op.complete();
+            notifyCollectionCallbacks(body.containerHostLink);
+            return;
+        }
+
+        if (body.hostRemoved) {
+            lastContainerLists.remove(body.containerHostLink);
+            op.complete();
             return;
         }
 
         AssertUtil.assertNotNull(body.containerIdsAndNames, "containerIdsAndNames");
 
+        if (body.serviceTaskCallback != null && !body.serviceTaskCallback.isEmpty()) {
+            // notified once the data collection completes, the active one if there is any
+            collectionCallbacks.computeIfAbsent(body.containerHostLink, (k) -> new ArrayList<>())
+                    .add(body.serviceTaskCallback);
+        }
+
         if (Logger.getLogger(this.getClass().getName()).isLoggable(Level.FINE)) {
             logFine("Host container list callback invoked for host [%s] with container IDs: %s",
                     body.containerHostLink, body.containerIdsAndNames.keySet().stream()
@@ -329,11 +407,25 @@ public class HostContainerListDataCollection extends StatefulService {
             //continue with the data collection.
         }
 
+        ContainerListSnapshot snapshot = INCREMENTAL_COLLECTION_ENABLED
+                ? lastContainerLists.get(body.containerHostLink) : null;
+        if (snapshot == null || snapshot.isFullSyncDue(Utils.getNowMicrosUtc())) {
+            collectFull(body.containerHostLink);
+        } else {
+            collectIncremental(body.containerHostLink, snapshot);
+        }
+    }
+
+    /**
+     * Queries all the known containers of the host and reconciles them with the host's container
+     * list.
+     */
+    private void collectFull(String containerHostLink) {
         List<ContainerState> containerStates = new ArrayList<ContainerState>();
         QueryTask queryTask = QueryUtil.buildPropertyQuery(ContainerState.class,
-                ContainerState.FIELD_NAME_PARENT_LINK, body.containerHostLink);
+                ContainerState.FIELD_NAME_PARENT_LINK, containerHostLink);
         QueryUtil.addExpandOption(queryTask);
-        final String hostId = Service.getId(body.containerHostLink);
+        final String hostId = Service.getId(containerHostLink);
 
         QueryUtil.addBroadcastOption(queryTask);
         new ServiceDocumentQuery<ContainerState>(getHost(), ContainerState.class)
@@ -345,74 +437,180 @@ public class HostContainerListDataCollection extends StatefulService {
                                         r.getException() instanceof CancellationException
                                                 ? r.getException().getMessage()
                                                 : Utils.toString(r.getException()));
-                                unlockCurrentDataCollectionForHost(body.containerHostLink);
+                                unlockCurrentDataCollectionForHost(containerHostLink);
+                            } else if (r.hasResult()) {
+                                containerStates.add(r.getResult());
+                            } else {
+                                listContainers(containerHostLink, (callback) -> {
+                                    ContainerListCallback reported = copyOf(callback);
+                                    updateContainerStates(callback, containerStates, hostId,
+                                            Collections.emptyMap(),
+                                            () -> rememberContainerList(reported, true));
+                                });
+                            }
+                        });
+    }
+
+    /**
+     * Lists the containers of the host first and compares them with the last reconciled list. The
+     * known containers are not queried at all when nothing has changed, and only the containers
+     * which were added, removed or renamed are queried when the change is small.
+     */
+    private void collectIncremental(String containerHostLink, ContainerListSnapshot snapshot) {
+        listContainers(containerHostLink, (callback) -> {
+            Set<String> changedIds = snapshot.getChangedIds(callback,
+                    INCREMENTAL_COLLECTION_MAX_CHANGED_CONTAINERS);
+            if (changedIds == null) {
+                logFine("Container list of host [%s] changed with more than %s containers,"
+                        + " running full collection.", containerHostLink,
+                        INCREMENTAL_COLLECTION_MAX_CHANGED_CONTAINERS);
+                collectFull(containerHostLink);
+                return;
+            }
+
+            if (changedIds.isEmpty()) {
+                logFine("Container list of host [%s] not changed since last collection.",
+                        containerHostLink);
+                // e.g. only the images have changed
+                rememberContainerList(copyOf(callback), false);
+                unlockCurrentDataCollectionForHost(containerHostLink);
+                return;
+            }
+
+            collectChanged(callback, changedIds);
+        });
+    }
+
+    private void collectChanged(ContainerListCallback callback, Set<String> changedIds) {
+        ContainerListCallback reported = copyOf(callback);
+        Map<String, String> unchangedIdsAndNames = new HashMap<>();
+        for (Entry<String, String> entry : reported.containerIdsAndNames.entrySet()) {
+            if (changedIds.contains(entry.getKey())) {
+                continue;
+            }
+            unchangedIdsAndNames.put(entry.getKey(), entry.getValue());
+            callback.containerIdsAndNames.remove(entry.getKey());
+        }
+
+        // the changed containers are matched by id, while the ones without id yet by names
+        QueryTask queryTask = QueryUtil.buildPropertyQuery(ContainerState.class,
+                ContainerState.FIELD_NAME_PARENT_LINK, callback.containerHostLink);
+        Query idClause = QueryUtil.addListValueClause(ContainerState.FIELD_NAME_ID,
+                changedIds, MatchType.TERM);
+        idClause.occurance = Occurance.SHOULD_OCCUR;
+        Query powerStateClause = QueryUtil.addListValueClause(
+                ContainerState.FIELD_NAME_POWER_STATE,
+                Arrays.asList(PowerState.PROVISIONING.name(), PowerState.RETIRED.name(),
+                        PowerState.ERROR.name()), MatchType.TERM);
+        powerStateClause.occurance = Occurance.SHOULD_OCCUR;
+        queryTask.querySpec.query.addBooleanClause(new Query()
+                .addBooleanClause(idClause)
+                .addBooleanClause(powerStateClause));
+        QueryUtil.addExpandOption(queryTask);
+        QueryUtil.addBroadcastOption(queryTask);
+
+        final String hostId = Service.getId(callback.containerHostLink);
+        List<ContainerState> containerStates = new ArrayList<ContainerState>();
+        new ServiceDocumentQuery<ContainerState>(getHost(), ContainerState.class)
+                .query(queryTask,
+                        (r) -> {
+                            if (r.hasException()) {
+                                logSevere(
+                                        "Failed to query for changed ContainerState instances: %s",
+                                        r.getException() instanceof CancellationException
+                                                ? r.getException().getMessage()
+                                                : Utils.toString(r.getException()));
+                                unlockCurrentDataCollectionForHost(callback.containerHostLink);
                             } else if (r.hasResult()) {
                                 containerStates.add(r.getResult());
                             } else {
-                                AdapterRequest request = new AdapterRequest();
-                                request.operationTypeId = ContainerHostOperationType.LIST_CONTAINERS.id;
-                                request.serviceTaskCallback = ServiceTaskCallback.createEmpty();
-                                request.resourceReference = UriUtilsExtended.buildUri(getHost(),
-                                        body.containerHostLink);
-                                sendRequest(Operation
-                                        .createPatch(this, ManagementUriParts.ADAPTER_DOCKER_HOST)
-                                        .setBody(request)
-                                        .addPragmaDirective(
-                                                Operation.PRAGMA_DIRECTIVE_QUEUE_FOR_SERVICE_AVAILABILITY)
-                                        .setCompletion(
-                                                (o, ex) -> {
-                                                    if (ex == null) {
-                                                        ContainerListCallback callback = o
-                                                                .getBody(ContainerListCallback.class);
-                                                        updateContainerStates(callback,
-                                                                containerStates, hostId);
-                                                    } else {
-                                                        unlockCurrentDataCollectionForHost(body.containerHostLink);
-                                                    }
-                                                }));
+                                updateContainerStates(callback, containerStates, hostId,
+                                        unchangedIdsAndNames,
+                                        () -> rememberContainerList(reported, false));
                             }
                         });
     }
 
+    private void listContainers(String containerHostLink,
+            Consumer<ContainerListCallback> callbackHandler) {
+        AdapterRequest request = new AdapterRequest();
+        request.operationTypeId = ContainerHostOperationType.LIST_CONTAINERS.id;
+        request.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+        request.resourceReference = UriUtilsExtended.buildUri(getHost(), containerHostLink);
+        sendRequest(Operation
+                .createPatch(this, ManagementUriParts.ADAPTER_DOCKER_HOST)
+                .setBody(request)
+                .addPragmaDirective(Operation.PRAGMA_DIRECTIVE_QUEUE_FOR_SERVICE_AVAILABILITY)
+                .setCompletion(
+                        (o, ex) -> {
+                            if (ex == null) {
+                                callbackHandler.accept(o.getBody(ContainerListCallback.class));
+                            } else {
+                                unlockCurrentDataCollectionForHost(containerHostLink);
+                            }
+                        }));
+    }
+
+    private void rememberContainerList(ContainerListCallback reported, boolean fullSync) {
+        if (!INCREMENTAL_COLLECTION_ENABLED) {
+            return;
+        }
+
+        ContainerListSnapshot previous = lastContainerLists.get(reported.containerHostLink);
+        long lastFullSyncTimeMicros = fullSync || previous == null
+                ? Utils.getNowMicrosUtc() : previous.lastFullSyncTimeMicros;
+
+        lastContainerLists.put(reported.containerHostLink,
+                new ContainerListSnapshot(reported, lastFullSyncTimeMicros));
+    }
+
+    private static ContainerListCallback copyOf(ContainerListCallback callback) {
+        ContainerListCallback copy = new ContainerListCallback();
+        copy.containerHostLink = callback.containerHostLink;
+        copy.containerIdsAndNames = new HashMap<>(callback.containerIdsAndNames);
+        if (callback.containerIdsAndImage != null) {
+            copy.containerIdsAndImage = new HashMap<>(callback.containerIdsAndImage);
+        }
+        return copy;
+    }
+
     private void updateContainerStates(ContainerListCallback callback,
-            List<ContainerState> containerStates, String hostId) {
+            List<ContainerState> containerStates, String hostId,
+            Map<String, String> unchangedIdsAndNames, Runnable onSynchronized) {
         final List<String> systemContainersToInstall = SystemContainerDescriptions
                 .getSystemContainerNames();
-        for (ContainerState containerState : containerStates) {
-
-            boolean exists = false;
-            if (containerState.id != null) {
-                exists = callback.containerIdsAndNames
-                        .containsKey(containerState.id);
-                callback.containerIdsAndNames.remove(containerState.id);
-            } else if (containerState.powerState.equals(PowerState.PROVISIONING)
-                    || containerState.powerState.equals(PowerState.RETIRED)
-                    || containerState.powerState.equals(PowerState.ERROR)) {
-                String names = containerNamesToString(containerState.names);
-                exists = callback.containerIdsAndNames.containsValue(names);
-                callback.containerIdsAndNames.values().remove(names);
+
+        // system containers not changed since the last collection are already installed
+        for (String names : unchangedIdsAndNames.values()) {
+            String systemContainerName = matchSystemContainerName(systemContainersToInstall,
+                    names == null ? null : Arrays.asList(
+                            names.split(ContainerListCallback.NAME_SEPERATOR)));
+            if (systemContainerName != null) {
+                systemContainersToInstall.remove(systemContainerName);
             }
+        }
 
-            // if containerId doesn't exists, mark the ContainerState as missing
-            // provisioning, allocating containers in error might not have
-            // id associated yet.
-            if (!exists) {
-                boolean active = containerState.powerState == PowerState.RUNNING
-                        || containerState.powerState == PowerState.STOPPED
-                        || containerState.powerState == PowerState.PAUSED;
-                if (active) {
-                    handleMissingContainer(containerState);
-                }
-            } else {
-                callback.containerIdsAndNames.remove(containerState.id);
-                String systemContainerName = matchSystemContainerName(
-                        systemContainersToInstall, containerState.names);
-                if (systemContainerName != null) {
-                    systemContainersToInstall.remove(systemContainerName);
-                    if (containerState.powerState == PowerState.STOPPED) {
-                        logWarning("System container found but is OFF. Starting.");
-                        startSystemContainer(containerState, null);
-                    }
+        ReconcileResult diff = ContainerListReconciler.reconcile(callback.containerIdsAndNames,
+                containerStates);
+        if (diff.hasChanges()) {
+            logInfo("Reconciled containers for host [%s]: %s", callback.containerHostLink, diff);
+        } else {
+            logFine("Reconciled containers for host [%s]: %s", callback.containerHostLink, diff);
+        }
+
+        // if containerId doesn't exists, mark the ContainerState as missing
+        for (ContainerState containerState : diff.missing) {
+            handleMissingContainer(containerState);
+        }
+
+        for (ContainerState containerState : diff.matched) {
+            String systemContainerName = matchSystemContainerName(
+                    systemContainersToInstall, containerState.names);
+            if (systemContainerName != null) {
+                systemContainersToInstall.remove(systemContainerName);
+                if (containerState.powerState == PowerState.STOPPED) {
+                    logWarning("System container found but is OFF. Starting.");
+                    startSystemContainer(containerState, null);
                 }
             }
         }
@@ -434,8 +632,7 @@ public class HostContainerListDataCollection extends StatefulService {
                             ComputeState host = o.getBody(ComputeState.class);
                             List<String> group = host.tenantLinks;
 
-                            for (Entry<String, String> entry : callback.containerIdsAndNames
-                                    .entrySet()) {
+                            for (Entry<String, String> entry : diff.created.entrySet()) {
                                 ContainerState containerState = new ContainerState();
                                 containerState.id = entry.getKey();
                                 containerState.names = entry.getValue() == null ? null
@@ -485,6 +682,7 @@ public class HostContainerListDataCollection extends StatefulService {
                                     (e) -> {
                                         if (e == null) {
                                             updateNumberOfContainers(callback.containerHostLink);
+                                            onSynchronized.run();
                                         }
 
                                         for (ContainerState containerState : systemContainersToStart) {
@@ -499,20 +697,6 @@ public class HostContainerListDataCollection extends StatefulService {
         sendRequest(operation);
     }
 
-    private String containerNamesToString(List<String> names) {
-        if (names != null && names.size() > 0) {
-            StringBuilder sb = new StringBuilder();
-            for (String name : names) {
-                sb.append(name.startsWith("/") ? name.substring(1) : name);
-                sb.append(ContainerListCallback.NAME_SEPERATOR);
-            }
-            sb.deleteCharAt(sb.length() - 1);
-            return sb.toString();
-        } else {
-            return null;
-        }
-    }
-
     private void startSystemContainer(ContainerState containerState,
             ServiceTaskCallback serviceTaskCallback) {
         AdapterRequest adapterRequest = new AdapterRequest();
@@ -676,6 +860,28 @@ public class HostContainerListDataCollection extends StatefulService {
         getHost().startService(startPost, service);
     }
 
+    private void notifyCollectionCallbacks(String containerHostLink) {
+        List<ServiceTaskCallback> callbacks = collectionCallbacks.remove(containerHostLink);
+        if (callbacks == null) {
+            return;
+        }
+        for (ServiceTaskCallback callback : callbacks) {
+            URI callbackReference = URI.create(callback.serviceSelfLink);
+            if (callbackReference.getScheme() == null) {
+                callbackReference = UriUtilsExtended.buildUri(getHost(),
+                        callback.serviceSelfLink);
+            }
+            sendRequest(Operation.createPatch(callbackReference)
+                    .setBody(callback.getFinishedResponse())
+                    .setCompletion((o, ex) -> {
+                        if (ex != null) {
+                            logWarning("Notifying data collection callback %s failed: %s",
+                                    callback.serviceSelfLink, Utils.toString(ex));
+                        }
+                    }));
+        }
+    }
+
     private void unlockCurrentDataCollectionForHost(String containerHostLink) {
         ContainerListCallback body = new ContainerListCallback();
         body.containerHostLink = containerHostLink;
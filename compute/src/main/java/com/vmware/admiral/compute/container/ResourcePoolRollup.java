@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.admiral.common.util.PropertyUtils;
+import com.vmware.admiral.compute.ContainerHostService;
+
+/**
+ * Incremental rollup of the container host resources to their resource pools. Each host
+ * contribution (total and available memory, cores and cpu usage) is kept, so when the host is
+ * seen again only the difference is applied to the pool totals, without reading the other hosts
+ * of the pool. The totals of a pool are reported for writing only when they differ significantly
+ * from the last written ones: any change of the memory capacity, a relative change of the
+ * available memory above {@link #AVAILABLE_MEMORY_THRESHOLD} or a change of the cpu usage above
+ * {@link #CPU_USAGE_THRESHOLD} percentage points. The totals are also rewritten once in a while
+ * regardless of the changes, in case the pool was updated by someone else.
+ */
+class ResourcePoolRollup {
+    static final double AVAILABLE_MEMORY_THRESHOLD = Double.parseDouble(System.getProperty(
+            "com.vmware.admiral.compute.container.pool.rollup.memory.threshold", "0.05"));
+    static final double CPU_USAGE_THRESHOLD = Double.parseDouble(System.getProperty(
+            "com.vmware.admiral.compute.container.pool.rollup.cpu.threshold", "5"));
+    static final long FULL_WRITE_INTERVAL_MICROS = Long.getLong(
+            "com.vmware.admiral.compute.container.pool.rollup.full.write.interval.micros",
+            TimeUnit.MINUTES.toMicros(30));
+
+    private final Map<String, HostContribution> hosts = new HashMap<>();
+    private final Map<String, PoolAggregate> pools = new HashMap<>();
+
+    /**
+     * Resource totals of a pool.
+     */
+    static class Totals {
+        long maxMemoryBytes;
+        long availableMemory;
+        double cpuUsage;
+    }
+
+    private static class HostContribution {
+        String resourcePoolLink;
+        /** the total memory or <code>null</code> if unknown, i.e. unlimited */
+        Long totalMemory;
+        long availableMemory;
+        long numCores;
+        double weightedCpuUsage;
+    }
+
+    private static class PoolAggregate {
+        long totalMemory;
+        int unlimitedMemoryHosts;
+        long availableMemory;
+        long numCores;
+        double weightedCpuUsage;
+        Totals lastWritten;
+        long lastWriteMicros;
+
+        void add(HostContribution host, int coef) {
+            if (host.totalMemory == null) {
+                unlimitedMemoryHosts += coef;
+            } else {
+                totalMemory += coef * host.totalMemory;
+            }
+            availableMemory += coef * host.availableMemory;
+            numCores += coef * host.numCores;
+            weightedCpuUsage += coef * host.weightedCpuUsage;
+        }
+
+        Totals getTotals() {
+            Totals totals = new Totals();
+            totals.maxMemoryBytes = unlimitedMemoryHosts > 0 ? Long.MAX_VALUE : totalMemory;
+            totals.availableMemory = availableMemory;
+            // (H1.cpuUsage * H1.numCores + ... + Hn.cpuUsage * Hn.numCores)
+            // / (H1.numCores + ... + Hn.numCores)
+            totals.cpuUsage = numCores <= 0 ? 0 : Math.max(0, weightedCpuUsage / numCores);
+            return totals;
+        }
+    }
+
+    /**
+     * Applies the current resources of the given host, read from its custom properties, to the
+     * totals of its resource pool.
+     */
+    synchronized void applyHost(String hostLink, String resourcePoolLink,
+            Map<String, String> customProperties) {
+        HostContribution host = new HostContribution();
+        host.resourcePoolLink = resourcePoolLink;
+        host.totalMemory = PropertyUtils.getPropertyLong(customProperties,
+                ContainerHostService.DOCKER_HOST_TOTAL_MEMORY_PROP_NAME).orElse(null);
+        long numCores = PropertyUtils.getPropertyLong(customProperties,
+                ContainerHostService.DOCKER_HOST_NUM_CORES_PROP_NAME).orElse(1L);
+        double cpuUsage = PropertyUtils.getPropertyDouble(customProperties,
+                ContainerHostService.DOCKER_HOST_CPU_USAGE_PCT_PROP_NAME).orElse(0.0);
+        host.numCores = numCores;
+        host.weightedCpuUsage = numCores * cpuUsage;
+        // get the available memory, if missing => use the total memory, if missing => 0
+        host.availableMemory = PropertyUtils.getPropertyLong(customProperties,
+                ContainerHostService.DOCKER_HOST_AVAILABLE_MEMORY_PROP_NAME)
+                .orElse(host.totalMemory != null ? host.totalMemory : 0L);
+
+        HostContribution previous = hosts.put(hostLink, host);
+        if (previous != null && previous.resourcePoolLink != null) {
+            PoolAggregate pool = pools.get(previous.resourcePoolLink);
+            if (pool != null) {
+                pool.add(previous, -1);
+            }
+        }
+        if (resourcePoolLink != null) {
+            pools.computeIfAbsent(resourcePoolLink, (k) -> new PoolAggregate()).add(host, 1);
+        }
+    }
+
+    /**
+     * Makes sure the given pool is tracked, even with no hosts.
+     */
+    synchronized void addPool(String resourcePoolLink) {
+        pools.computeIfAbsent(resourcePoolLink, (k) -> new PoolAggregate());
+    }
+
+    /**
+     * Removes the contributions of the hosts not in the given collection, e.g. the removed hosts.
+     */
+    synchronized void retainHosts(Collection<String> hostLinks) {
+        hosts.entrySet().removeIf((e) -> {
+            if (hostLinks.contains(e.getKey())) {
+                return false;
+            }
+            PoolAggregate pool = e.getValue().resourcePoolLink != null
+                    ? pools.get(e.getValue().resourcePoolLink) : null;
+            if (pool != null) {
+                pool.add(e.getValue(), -1);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Stops tracking the pools not in the given collection, e.g. the removed pools.
+     */
+    synchronized void retainPools(Collection<String> resourcePoolLinks) {
+        pools.keySet().retainAll(resourcePoolLinks);
+    }
+
+    /**
+     * Returns the totals of the pools that changed significantly since their last write.
+     */
+    synchronized Map<String, Totals> getChangedPools(long nowMicros) {
+        Map<String, Totals> changed = new HashMap<>();
+        for (Entry<String, PoolAggregate> entry : pools.entrySet()) {
+            PoolAggregate pool = entry.getValue();
+            Totals totals = pool.getTotals();
+            if (pool.lastWriteMicros + FULL_WRITE_INTERVAL_MICROS < nowMicros
+                    || isSignificantChange(pool.lastWritten, totals)) {
+                changed.put(entry.getKey(), totals);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the last written totals of the given pool or <code>null</code> if not written yet.
+     */
+    synchronized Totals getLastWritten(String resourcePoolLink) {
+        PoolAggregate pool = pools.get(resourcePoolLink);
+        return pool != null ? pool.lastWritten : null;
+    }
+
+    synchronized void markWritten(String resourcePoolLink, Totals totals, long nowMicros) {
+        PoolAggregate pool = pools.get(resourcePoolLink);
+        if (pool != null) {
+            pool.lastWritten = totals;
+            pool.lastWriteMicros = nowMicros;
+        }
+    }
+
+    /**
+     * Forces the next write of the given pool, e.g. after it was updated outside the rollup.
+     */
+    synchronized void invalidate(String resourcePoolLink) {
+        PoolAggregate pool = pools.get(resourcePoolLink);
+        if (pool != null) {
+            pool.lastWritten = null;
+        }
+    }
+
+    static boolean isSignificantChange(Totals lastWritten, Totals totals) {
+        if (lastWritten == null || lastWritten.maxMemoryBytes != totals.maxMemoryBytes) {
+            return true;
+        }
+        if (Math.abs(totals.cpuUsage - lastWritten.cpuUsage) > CPU_USAGE_THRESHOLD) {
+            return true;
+        }
+        long memoryDiff = Math.abs(totals.availableMemory - lastWritten.availableMemory);
+        long memoryBase = Math.max(Math.abs(lastWritten.availableMemory), 1);
+        return (double) memoryDiff / memoryBase > AVAILABLE_MEMORY_THRESHOLD;
+    }
+}
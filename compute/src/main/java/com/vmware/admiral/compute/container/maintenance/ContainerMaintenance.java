@@ -11,15 +11,18 @@
 
 package com.vmware.admiral.compute.container.maintenance;
 
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import com.vmware.admiral.adapter.common.AdapterRequest;
 import com.vmware.admiral.adapter.common.ContainerOperationType;
 import com.vmware.admiral.common.DeploymentProfileConfig;
+import com.vmware.admiral.compute.ContainerHostUtil;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
 import com.vmware.admiral.service.common.ServiceTaskCallback;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceHost;
 import com.vmware.xenon.common.UriUtils;
@@ -30,15 +33,32 @@ public class ContainerMaintenance {
             "dcp.management.container.periodic.maintenance.period.micros",
             TimeUnit.SECONDS.toMicros(30));
     protected static final long MAINTENANCE_INTERVAL_INSPECT_MICROS = Long.getLong(
-            "dcp.management.container.periodic.maintenance.period.micros",
+            "dcp.management.container.periodic.maintenance.inspect.period.micros",
             TimeUnit.SECONDS.toMicros(300));
     protected static final long MAINTENANCE_INTERVAL_SLOW_DOWN_PERIOD = Long.getLong(
             "dcp.management.container.periodic.maintenance.slow.down.period.micros",
             TimeUnit.SECONDS.toMicros(600));
+    protected static final long MAINTENANCE_INTERVAL_INSPECT_MAX_MICROS = Long.getLong(
+            "dcp.management.container.periodic.maintenance.inspect.max.period.micros",
+            6 * MAINTENANCE_INTERVAL_SLOW_DOWN_PERIOD);
+    protected static final double MAINTENANCE_INTERVAL_JITTER = Double.parseDouble(
+            System.getProperty("dcp.management.container.periodic.maintenance.jitter", "0.2"));
+    protected static final long MAINTENANCE_INTERVAL_INSPECT_EVENTS_MICROS = Long.getLong(
+            "dcp.management.container.periodic.maintenance.inspect.events.period.micros",
+            MAINTENANCE_INTERVAL_INSPECT_MAX_MICROS);
+
+    public static final String STAT_NAME_INSPECT_INTERVAL_MICROS = "inspectIntervalMicros";
+
+    enum MaintenanceType {
+        INSPECT, STATS, NONE
+    }
 
     private final ServiceHost host;
     private final String containerSelfLink;
-    private long lastInspectMaintainanceInMicros;
+    private long inspectIntervalMicros = MAINTENANCE_INTERVAL_INSPECT_MICROS;
+    private long nextInspectMicros;
+    private long lastUpdateTimeMicros;
+    private PowerState lastPowerState;
 
     public static ContainerMaintenance create(ServiceHost host, String containerSelfLink) {
         return new ContainerMaintenance(host, containerSelfLink);
@@ -71,43 +91,101 @@ public class ContainerMaintenance {
                                 return;
                             }
                             ContainerState containerState = o.getBody(ContainerState.class);
-                            long nowMicrosUtc = Utils.getNowMicrosUtc();
-
-                            /* if container hasn't been updated for a while, slow down the data-collection */
-                            if (containerState.documentUpdateTimeMicros
-                                    + MAINTENANCE_INTERVAL_SLOW_DOWN_PERIOD < nowMicrosUtc) {
-                                /* check if the slow-down period has expired */
-                                if (lastInspectMaintainanceInMicros + 6
-                                        * MAINTENANCE_INTERVAL_SLOW_DOWN_PERIOD < nowMicrosUtc) {
-                                    /* set another slow-down period and perform collection */
-                                    lastInspectMaintainanceInMicros = nowMicrosUtc + 6
-                                            * MAINTENANCE_INTERVAL_SLOW_DOWN_PERIOD;
-                                    processContainerInspect(post, containerState);
-                                } else {
-                                    post.complete();
-                                }
-
-                                return;
-                            }
-
-                            if (lastInspectMaintainanceInMicros
-                                    + MAINTENANCE_INTERVAL_INSPECT_MICROS < nowMicrosUtc) {
-                                lastInspectMaintainanceInMicros = nowMicrosUtc;
-                                processContainerInspect(post, containerState);
-                            } else {
+                            switch (nextMaintenance(containerState, Utils.getNowMicrosUtc())) {
+                            case INSPECT:
+                                checkFollowedByEvents(containerState, () ->
+                                        processContainerInspect(containerState, post::complete));
+                                break;
+                            case STATS:
                                 performStatsInspection(post, containerState);
+                                break;
+                            default:
+                                post.complete();
                             }
                         }));
     }
 
-    private void processContainerInspect(Operation post, ContainerState containerState) {
+    /**
+     * Decides the kind of maintenance due for the given container state. The containers are
+     * inspected on an adaptive schedule: the interval doubles, up to
+     * {@link #MAINTENANCE_INTERVAL_INSPECT_MAX_MICROS}, every time the container state is found
+     * unchanged since the previous inspection (the container service ignores updates which don't
+     * change the state), is reset when the state changes and drops to the maintenance interval
+     * when the power state changes. Every interval is randomly spread by
+     * {@link #MAINTENANCE_INTERVAL_JITTER}, so containers started together don't keep inspecting
+     * in lockstep. While the interval is longer than the slow-down period the stats are not
+     * collected either.
+     */
+    MaintenanceType nextMaintenance(ContainerState containerState, long nowMicrosUtc) {
+        boolean powerStateChanged = lastPowerState != null
+                && lastPowerState != containerState.powerState;
+        lastPowerState = containerState.powerState;
+        if (powerStateChanged) {
+            inspectIntervalMicros = MAINTENANCE_INTERVAL_MICROS;
+        } else if (nextInspectMicros > nowMicrosUtc) {
+            return inspectIntervalMicros > MAINTENANCE_INTERVAL_SLOW_DOWN_PERIOD
+                    ? MaintenanceType.NONE : MaintenanceType.STATS;
+        } else if (lastUpdateTimeMicros != 0) {
+            if (lastUpdateTimeMicros == containerState.documentUpdateTimeMicros) {
+                inspectIntervalMicros = Math.min(inspectIntervalMicros * 2,
+                        MAINTENANCE_INTERVAL_INSPECT_MAX_MICROS);
+            } else {
+                inspectIntervalMicros = Math.min(inspectIntervalMicros,
+                        MAINTENANCE_INTERVAL_INSPECT_MICROS);
+            }
+        }
+        lastUpdateTimeMicros = containerState.documentUpdateTimeMicros;
+
+        double jitter = MAINTENANCE_INTERVAL_JITTER
+                * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        nextInspectMicros = nowMicrosUtc + (long) (inspectIntervalMicros * (1 + jitter));
+        return MaintenanceType.INSPECT;
+    }
+
+    /**
+     * Postpones the next inspection of a container whose host events are followed. The changes of
+     * the container are applied by the events then, so the inspections are only a safety net for
+     * the missed ones and are done every {@link #MAINTENANCE_INTERVAL_INSPECT_EVENTS_MICROS}
+     * instead. The stats are still collected as usual.
+     */
+    void followedByEvents(long nowMicrosUtc) {
+        nextInspectMicros = Math.max(nextInspectMicros,
+                nowMicrosUtc + MAINTENANCE_INTERVAL_INSPECT_EVENTS_MICROS);
+    }
+
+    /**
+     * The current interval between two inspections of the container, without the jitter.
+     */
+    public long getInspectIntervalMicros() {
+        return inspectIntervalMicros;
+    }
+
+    private void checkFollowedByEvents(ContainerState containerState, Runnable done) {
+        if (containerState.parentLink == null) {
+            done.run();
+            return;
+        }
+
+        host.sendRequest(Operation
+                .createGet(host, containerState.parentLink)
+                .setReferer(host.getUri())
+                .setCompletion((o, ex) -> {
+                    if (ex == null && ContainerHostUtil.isFollowingEvents(
+                            o.getBody(ComputeState.class), Utils.getNowMicrosUtc())) {
+                        followedByEvents(Utils.getNowMicrosUtc());
+                    }
+                    done.run();
+                }));
+    }
+
+    void processContainerInspect(ContainerState containerState, Runnable done) {
         if (containerState.adapterManagementReference == null) {
             // probably the container hasn't finished provisioning
             Utils.log(getClass(), containerSelfLink, Level.FINE,
                     "Can't perform maintenance because adapter reference is not set: %s",
                     containerState.documentSelfLink);
 
-            post.complete();
+            done.run();
             return;
         }
 
@@ -115,14 +193,14 @@ public class ContainerMaintenance {
             Utils.log(getClass(), containerSelfLink, Level.FINE,
                     "Skipping maintenance for unmanaged container: %s",
                     containerState.documentSelfLink);
-            post.complete();
+            done.run();
             return;
         }
 
-        requestContainerInspection(post, containerState);
+        requestContainerInspection(containerState, done);
     }
 
-    private void requestContainerInspection(Operation post, ContainerState containerState) {
+    private void requestContainerInspection(ContainerState containerState, Runnable done) {
         AdapterRequest request = new AdapterRequest();
         request.resourceReference = UriUtils.buildPublicUri(host,
                 containerState.documentSelfLink);
@@ -139,7 +217,7 @@ public class ContainerMaintenance {
                                 "Exception while inspect request for container: %s. Error: %s",
                                 containerState.documentSelfLink, Utils.toString(ex));
                     }
-                    post.complete();
+                    done.run();
                 }));
     }
 
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container.maintenance;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.vmware.admiral.adapter.common.AdapterRequest;
+import com.vmware.admiral.adapter.common.ContainerHostOperationType;
+import com.vmware.admiral.common.DeploymentProfileConfig;
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.common.util.QueryUtil;
+import com.vmware.admiral.common.util.ServiceDocumentQuery;
+import com.vmware.admiral.common.util.UriUtilsExtended;
+import com.vmware.admiral.compute.ComputeConstants;
+import com.vmware.admiral.compute.ContainerHostUtil;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
+import com.vmware.admiral.compute.container.maintenance.ContainerMaintenance.MaintenanceType;
+import com.vmware.admiral.service.common.ServiceTaskCallback;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.StatefulService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification;
+
+/**
+ * Periodic maintenance of all containers, replacing the per container service maintenance when
+ * enabled. Instead of a self GET and an adapter request per container on every interval, the
+ * containers are queried once, grouped by their host, and the stats of the running containers on
+ * a host are requested with a single {@link ContainerHostOperationType#CONTAINERS_STATS} adapter
+ * request. The adapter fetches them with bounded concurrency per host. The containers due for
+ * inspection are still inspected one by one, following the {@link ContainerMaintenance} policy.
+ */
+public class ContainerStatsSweepService extends StatefulService {
+    public static final String FACTORY_LINK = ManagementUriParts.CONTAINER_STATS_SWEEP;
+    private static final String CONTAINER_STATS_SWEEP_ID = "container-stats-sweep";
+    public static final String CONTAINER_STATS_SWEEP_LINK = UriUtilsExtended.buildUriPath(
+            FACTORY_LINK, CONTAINER_STATS_SWEEP_ID);
+
+    public static final boolean ENABLED = Boolean.getBoolean(
+            "com.vmware.admiral.compute.container.maintenance.sweep");
+    private static final int QUERY_PAGE_SIZE = Integer.getInteger(
+            "com.vmware.admiral.compute.container.maintenance.sweep.page.size", 500);
+
+    private final Map<String, ContainerMaintenance> containerMaintenances =
+            new ConcurrentHashMap<>();
+
+    public static ServiceDocument buildDefaultStateInstance() {
+        ContainerStatsSweepState state = new ContainerStatsSweepState();
+        state.documentSelfLink = CONTAINER_STATS_SWEEP_LINK;
+        return state;
+    }
+
+    public static class ContainerStatsSweepState extends ServiceDocument {
+    }
+
+    public ContainerStatsSweepService() {
+        super(ContainerStatsSweepState.class);
+        super.toggleOption(ServiceOption.PERSISTENCE, true);
+        super.toggleOption(ServiceOption.REPLICATION, true);
+        super.toggleOption(ServiceOption.OWNER_SELECTION, true);
+        super.toggleOption(ServiceOption.PERIODIC_MAINTENANCE, true);
+        super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+        super.setMaintenanceIntervalMicros(ContainerMaintenance.MAINTENANCE_INTERVAL_MICROS);
+        super.toggleOption(ServiceOption.IDEMPOTENT_POST, true);
+    }
+
+    @Override
+    public void handleMaintenance(Operation post) {
+        if (getProcessingStage() != ProcessingStage.AVAILABLE) {
+            logFine("Skipping maintenance since service is not available: %s ", getUri());
+            return;
+        }
+
+        if (!ENABLED || DeploymentProfileConfig.getInstance().isTest()) {
+            post.complete();
+            return;
+        }
+
+        logFine("Performing containers maintenance sweep");
+        sweep(post);
+    }
+
+    void sweep(Operation maintOp) {
+        QueryTask q = QueryUtil.buildPropertyQuery(ComputeState.class,
+                QuerySpecification.buildCompositeFieldName(
+                        ComputeState.FIELD_NAME_CUSTOM_PROPERTIES,
+                        ComputeConstants.COMPUTE_CONTAINER_HOST_PROP_NAME), "true");
+        QueryUtil.addExpandOption(q);
+
+        long nowMicrosUtc = Utils.getNowMicrosUtc();
+        Set<String> followedHostLinks = new HashSet<>();
+        new ServiceDocumentQuery<>(getHost(), ComputeState.class).query(q, (r) -> {
+            if (r.hasException()) {
+                // the containers are inspected at their usual intervals then
+                logWarning("Exception while retrieving container hosts. Error: %s",
+                        Utils.toString(r.getException()));
+                sweepContainers(maintOp, Collections.emptySet());
+            } else if (r.hasResult()) {
+                if (ContainerHostUtil.isFollowingEvents(r.getResult(), nowMicrosUtc)) {
+                    followedHostLinks.add(r.getDocumentSelfLink());
+                }
+            } else {
+                sweepContainers(maintOp, followedHostLinks);
+            }
+        });
+    }
+
+    private void sweepContainers(Operation maintOp, Set<String> followedHostLinks) {
+        QueryTask q = QueryUtil.buildQuery(ContainerState.class, true);
+        QueryUtil.addExpandOption(q);
+        ServiceDocumentQuery<ContainerState> query = ServiceDocumentQuery.projection(getHost(),
+                ContainerState.class,
+                ContainerState.FIELD_NAME_ID,
+                ContainerState.FIELD_NAME_PARENT_LINK,
+                ContainerState.FIELD_NAME_POWER_STATE,
+                ContainerState.FIELD_NAME_ADAPTER_MANAGEMENT_REFERENCE,
+                ServiceDocument.FIELD_NAME_UPDATE_TIME_MICROS);
+
+        long nowMicrosUtc = Utils.getNowMicrosUtc();
+        Map<String, Map<String, String>> runningContainersByHost = new HashMap<>();
+        Set<String> containerLinks = new HashSet<>();
+        query.queryPages(q, QUERY_PAGE_SIZE, (page) -> {
+            if (page.hasException()) {
+                logWarning("Exception while retrieving containers. Error: %s",
+                        (page.getException() instanceof CancellationException)
+                                ? page.getException().getClass().getName()
+                                : Utils.toString(page.getException()));
+                maintOp.fail(page.getException());
+                return;
+            }
+
+            for (ContainerState containerState : page.getDocuments()) {
+                String containerLink = containerState.documentSelfLink;
+                containerLinks.add(containerLink);
+                ContainerMaintenance maintenance = containerMaintenances.computeIfAbsent(
+                        containerLink, (link) -> ContainerMaintenance.create(getHost(), link));
+
+                MaintenanceType type = maintenance.nextMaintenance(containerState, nowMicrosUtc);
+                if (type == MaintenanceType.INSPECT) {
+                    if (followedHostLinks.contains(containerState.parentLink)) {
+                        maintenance.followedByEvents(nowMicrosUtc);
+                    }
+                    // the inspection also refreshes the stats of a running container
+                    maintenance.processContainerInspect(containerState, () -> {
+                    });
+                } else if (type == MaintenanceType.STATS
+                        && containerState.powerState == PowerState.RUNNING
+                        && containerState.id != null && containerState.parentLink != null
+                        && containerState.adapterManagementReference != null) {
+                    runningContainersByHost
+                            .computeIfAbsent(containerState.parentLink, (k) -> new HashMap<>())
+                            .put(containerLink, containerState.id);
+                }
+            }
+
+            if (!page.isLast()) {
+                page.next();
+                return;
+            }
+
+            // forget the removed containers
+            containerMaintenances.keySet().retainAll(containerLinks);
+            updateInspectIntervalStats();
+            for (Entry<String, Map<String, String>> entry : runningContainersByHost.entrySet()) {
+                requestContainersStats(entry.getKey(), entry.getValue());
+            }
+            logFine("Requested stats of containers on %d hosts",
+                    runningContainersByHost.size());
+            maintOp.complete();
+        });
+    }
+
+    /**
+     * Publishes the distribution of the current inspect intervals of the containers as the count
+     * of containers per power of two multiple of the maintenance interval, e.g.
+     * <code>inspectIntervalMicros.upTo.60000000</code>.
+     */
+    private void updateInspectIntervalStats() {
+        TreeMap<Long, Integer> countsByBound = new TreeMap<>();
+        for (long bound = ContainerMaintenance.MAINTENANCE_INTERVAL_MICROS;
+                bound < ContainerMaintenance.MAINTENANCE_INTERVAL_INSPECT_MAX_MICROS;
+                bound *= 2) {
+            countsByBound.put(bound, 0);
+        }
+        countsByBound.put(ContainerMaintenance.MAINTENANCE_INTERVAL_INSPECT_MAX_MICROS, 0);
+
+        for (ContainerMaintenance maintenance : containerMaintenances.values()) {
+            Long bound = countsByBound.ceilingKey(maintenance.getInspectIntervalMicros());
+            if (bound == null) {
+                bound = countsByBound.lastKey();
+            }
+            countsByBound.put(bound, countsByBound.get(bound) + 1);
+        }
+
+        for (Entry<Long, Integer> entry : countsByBound.entrySet()) {
+            setStat(ContainerMaintenance.STAT_NAME_INSPECT_INTERVAL_MICROS + ".upTo."
+                    + entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void requestContainersStats(String hostLink, Map<String, String> containerIdsByLink) {
+        AdapterRequest request = new AdapterRequest();
+        request.operationTypeId = ContainerHostOperationType.CONTAINERS_STATS.id;
+        request.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+        request.resourceReference = UriUtils.buildUri(getHost(), hostLink);
+        request.customProperties = containerIdsByLink;
+        sendRequest(Operation.createPatch(this, ManagementUriParts.ADAPTER_DOCKER_HOST)
+                .setBody(request)
+                .setCompletion((o, ex) -> {
+                    if (ex != null) {
+                        logWarning("Exception while stats request for containers on host: %s."
+                                + " Error: %s", hostLink, Utils.toString(ex));
+                    }
+                }));
+    }
+}
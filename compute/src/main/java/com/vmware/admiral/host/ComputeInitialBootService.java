@@ -19,6 +19,7 @@ import com.vmware.admiral.compute.container.ContainerHostDataCollectionService;
 import com.vmware.admiral.compute.container.GroupResourcePolicyService;
 import com.vmware.admiral.compute.container.HostContainerListDataCollection.HostContainerListDataCollectionFactoryService;
 import com.vmware.admiral.compute.container.SystemContainerDescriptions;
+import com.vmware.admiral.compute.container.maintenance.ContainerStatsSweepService;
 import com.vmware.admiral.service.common.AbstractInitialBootService;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceDocument;
@@ -38,6 +39,7 @@ public class ComputeInitialBootService extends AbstractInitialBootService {
         states = new ArrayList<>();
         states.add(ContainerHostDataCollectionService.buildDefaultStateInstance());
         states.add(HostContainerListDataCollectionFactoryService.buildDefaultStateInstance());
+        states.add(ContainerStatsSweepService.buildDefaultStateInstance());
         states.add(GroupResourcePolicyService.buildDefaultResourcePool());
         states.add(GroupResourcePolicyService.buildDefaultStateInstance());
         states.addAll(EnvironmentMappingService.getDefaultMappings());
@@ -21,6 +21,7 @@ import com.vmware.admiral.compute.container.CompositeComponentFactoryService;
 import com.vmware.admiral.compute.container.CompositeComponentRegistry;
 import com.vmware.admiral.compute.container.CompositeDescriptionCloneService;
 import com.vmware.admiral.compute.container.CompositeDescriptionFactoryService;
+import com.vmware.admiral.compute.container.ContainerBatchCreateService;
 import com.vmware.admiral.compute.container.ContainerDescriptionService;
 import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
 import com.vmware.admiral.compute.container.ContainerFactoryService;
@@ -35,6 +36,7 @@ import com.vmware.admiral.compute.container.GroupResourcePolicyService;
 import com.vmware.admiral.compute.container.HostContainerListDataCollection.HostContainerListDataCollectionFactoryService;
 import com.vmware.admiral.compute.container.ShellContainerExecutorService;
 import com.vmware.admiral.compute.container.TemplateSearchService;
+import com.vmware.admiral.compute.container.maintenance.ContainerStatsSweepService;
 import com.vmware.admiral.compute.container.network.ContainerNetworkDescriptionService;
 import com.vmware.admiral.compute.container.network.ContainerNetworkDescriptionService.ContainerNetworkDescription;
 import com.vmware.admiral.compute.container.network.ContainerNetworkReconfigureService;
@@ -58,6 +60,7 @@ public class HostInitComputeServicesConfig extends HostInitServiceHelper {
     public static void startServices(ServiceHost host) {
         startServices(host,
                 ContainerFactoryService.class,
+                ContainerBatchCreateService.class,
                 ContainerHostService.class,
                 ContainerHostNetworkConfigFactoryService.class,
                 ContainerNetworkReconfigureService.class,
@@ -76,6 +79,7 @@ public class HostInitComputeServicesConfig extends HostInitServiceHelper {
         startServiceFactories(host, ContainerDescriptionService.class,
                 GroupResourcePolicyService.class,
                 ContainerHostDataCollectionService.class,
+                ContainerStatsSweepService.class,
                 EnvironmentMappingService.class, DeploymentPolicyService.class,
                 EndpointService.class,
                 ContainerNetworkService.class,
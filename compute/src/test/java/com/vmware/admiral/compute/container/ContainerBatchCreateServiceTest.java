@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.compute.container.ContainerBatchCreateService.ContainerBatchCreateRequest;
+import com.vmware.admiral.compute.container.ContainerBatchCreateService.ContainerBatchCreateResponse;
+import com.vmware.admiral.compute.container.ContainerBatchCreateService.ContainerBatchCreateResult;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.UriUtils;
+
+public class ContainerBatchCreateServiceTest extends ComputeBaseTest {
+
+    @Before
+    public void setUp() throws Throwable {
+        waitForServiceAvailability(ContainerFactoryService.SELF_LINK);
+        waitForServiceAvailability(ContainerBatchCreateService.SELF_LINK);
+    }
+
+    @Test
+    public void testCreateBatch() throws Throwable {
+        ContainerBatchCreateRequest request = new ContainerBatchCreateRequest();
+        request.containerStates = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            request.containerStates.add(createContainerState("batch-container-" + i));
+        }
+
+        List<ContainerBatchCreateResult> results = createBatch(request, false).results;
+
+        assertEquals(request.containerStates.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            ContainerBatchCreateResult result = results.get(i);
+            assertNull(result.failure);
+            // the results are in the order of the requested container states
+            assertEquals(UriUtils.buildUriPath(ContainerFactoryService.SELF_LINK,
+                    "batch-container-" + i), result.documentSelfLink);
+
+            ContainerState containerState = getDocument(ContainerState.class,
+                    result.documentSelfLink);
+            assertEquals(Arrays.asList("batch-container-" + i), containerState.names);
+        }
+    }
+
+    @Test
+    public void testCreateBatchWithFailure() throws Throwable {
+        ContainerBatchCreateRequest request = new ContainerBatchCreateRequest();
+        request.containerStates = new ArrayList<>();
+        request.containerStates.add(createContainerState("batch-duplicate"));
+        request.containerStates.add(createContainerState("batch-duplicate"));
+        request.containerStates.add(createContainerState("batch-single"));
+
+        List<ContainerBatchCreateResult> results = createBatch(request, false).results;
+
+        assertEquals(3, results.size());
+        // only one of the container states with the same link is created
+        ContainerBatchCreateResult first = results.get(0);
+        ContainerBatchCreateResult second = results.get(1);
+        assertEquals(1, (first.failure == null ? 0 : 1) + (second.failure == null ? 0 : 1));
+        ContainerBatchCreateResult failed = first.failure != null ? first : second;
+        assertNull(failed.documentSelfLink);
+        assertNotNull(failed.failure.message);
+
+        assertNull(results.get(2).failure);
+        assertNotNull(results.get(2).documentSelfLink);
+    }
+
+    @Test
+    public void testCreateEmptyBatch() throws Throwable {
+        createBatch(new ContainerBatchCreateRequest(), true);
+    }
+
+    private ContainerBatchCreateResponse createBatch(ContainerBatchCreateRequest request,
+            boolean expectFailure) throws Throwable {
+        ContainerBatchCreateResponse[] response = new ContainerBatchCreateResponse[1];
+        host.testStart(1);
+        host.send(Operation
+                .createPost(UriUtils.buildUri(host, ContainerBatchCreateService.SELF_LINK))
+                .setBody(request)
+                .setCompletion((o, e) -> {
+                    if (expectFailure) {
+                        if (e instanceof IllegalArgumentException) {
+                            host.completeIteration();
+                        } else {
+                            host.failIteration(new IllegalStateException(
+                                    "IllegalArgumentException expected"));
+                        }
+                        return;
+                    }
+                    if (e != null) {
+                        host.failIteration(e);
+                        return;
+                    }
+                    response[0] = o.getBody(ContainerBatchCreateResponse.class);
+                    host.completeIteration();
+                }));
+        host.testWait();
+        return response[0];
+    }
+
+    private static ContainerState createContainerState(String name) {
+        ContainerState containerState = new ContainerState();
+        containerState.documentSelfLink = name;
+        containerState.names = new ArrayList<>(Arrays.asList(name));
+        containerState.parentLink = "/parent/1";
+        containerState.powerState = ContainerState.PowerState.PROVISIONING;
+        return containerState;
+    }
+}
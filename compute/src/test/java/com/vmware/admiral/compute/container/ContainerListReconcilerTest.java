@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.vmware.admiral.compute.container.ContainerListReconciler.ReconcileResult;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
+
+public class ContainerListReconcilerTest {
+
+    @Test
+    public void testReconcile() {
+        Map<String, String> reported = new HashMap<>();
+        reported.put("id-1", "name-1");
+        reported.put("id-2", "name-2");
+        reported.put("id-3", "name-3");
+
+        List<ContainerState> containerStates = new ArrayList<>();
+        containerStates.add(createContainerState("id-1", PowerState.RUNNING, "name-1"));
+        // provisioning container without id yet is matched by names
+        containerStates.add(createContainerState(null, PowerState.PROVISIONING, "/name-2"));
+        containerStates.add(createContainerState("id-4", PowerState.STOPPED, "name-4"));
+        // not active, so not reported as missing
+        containerStates.add(createContainerState("id-5", PowerState.RETIRED, "name-5"));
+
+        ReconcileResult result = ContainerListReconciler.reconcile(reported, containerStates);
+
+        assertEquals(2, result.matched.size());
+        assertEquals(1, result.missing.size());
+        assertEquals("id-4", result.missing.get(0).id);
+        assertEquals(1, result.created.size());
+        assertEquals("name-3", result.created.get("id-3"));
+        assertTrue(result.hasChanges());
+        // the reported list is not modified
+        assertEquals(3, reported.size());
+    }
+
+    @Test
+    public void testReconcileWithoutChanges() {
+        Map<String, String> reported = new HashMap<>();
+        List<ContainerState> containerStates = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            reported.put("id-" + i, "name-" + i);
+            containerStates.add(createContainerState("id-" + i, PowerState.RUNNING, "name-" + i));
+        }
+
+        ReconcileResult result = ContainerListReconciler.reconcile(reported, containerStates);
+
+        assertEquals(5000, result.matched.size());
+        assertFalse(result.hasChanges());
+    }
+
+    @Test
+    public void testFingerprint() {
+        Map<String, String> idsAndNames = new HashMap<>();
+        Map<String, String> idsAndImage = new HashMap<>();
+        Map<String, String> sameIdsAndNames = new LinkedHashMap<>();
+        Map<String, String> sameIdsAndImage = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            idsAndNames.put("id-" + i, "name-" + i);
+            idsAndImage.put("id-" + i, "image-" + i);
+        }
+        // the same containers reported in a different order
+        for (int i = 99; i >= 0; i--) {
+            sameIdsAndNames.put("id-" + i, "name-" + i);
+            sameIdsAndImage.put("id-" + i, "image-" + i);
+        }
+
+        String fingerprint = ContainerListReconciler.fingerprint(idsAndNames, idsAndImage);
+        assertEquals(fingerprint, ContainerListReconciler.fingerprint(idsAndNames, idsAndImage));
+        assertEquals(fingerprint, ContainerListReconciler.fingerprint(sameIdsAndNames,
+                sameIdsAndImage));
+
+        // any renamed container or changed image changes the fingerprint
+        sameIdsAndImage.put("id-1", "other-image");
+        assertNotEquals(fingerprint, ContainerListReconciler.fingerprint(sameIdsAndNames,
+                sameIdsAndImage));
+        sameIdsAndImage.put("id-1", "image-1");
+        sameIdsAndNames.put("id-1", "other-name");
+        assertNotEquals(fingerprint, ContainerListReconciler.fingerprint(sameIdsAndNames,
+                sameIdsAndImage));
+        assertNotEquals(fingerprint, ContainerListReconciler.fingerprint(idsAndNames, null));
+    }
+
+    @Test
+    public void testChangedIds() {
+        Map<String, String> previous = new HashMap<>();
+        previous.put("id-1", "name-1");
+        previous.put("id-2", "name-2");
+        previous.put("id-3", "name-3");
+        previous.put("id-4", null);
+
+        Map<String, String> current = new HashMap<>(previous);
+        assertTrue(ContainerListReconciler.changedIds(previous, current).isEmpty());
+
+        // added, removed and renamed containers
+        current.put("id-5", "name-5");
+        current.remove("id-2");
+        current.put("id-3", "other-name");
+        current.put("id-4", "name-4");
+        assertEquals(new HashSet<>(Arrays.asList("id-2", "id-3", "id-4", "id-5")),
+                ContainerListReconciler.changedIds(previous, current));
+    }
+
+    private static ContainerState createContainerState(String id, PowerState powerState,
+            String... names) {
+        ContainerState containerState = new ContainerState();
+        containerState.id = id;
+        containerState.powerState = powerState;
+        containerState.names = new ArrayList<>(Arrays.asList(names));
+        return containerState;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.compute.container.GroupResourcePolicyService.GroupResourcePolicyState;
+import com.vmware.admiral.compute.container.GroupResourcePolicyService.ResourcePolicyLeaseRequest;
+import com.vmware.admiral.compute.container.GroupResourcePolicyService.ResourcePolicyReservationRequest;
+import com.vmware.photon.controller.model.resources.ResourcePoolService;
+import com.vmware.photon.controller.model.resources.ResourcePoolService.ResourcePoolState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.test.TestContext;
+
+public class GroupResourcePolicyQuotaLeasesTest extends ComputeBaseTest {
+    private static final long MAX_INSTANCES = 10;
+
+    private GroupResourcePolicyQuotaLeases quotaLeases;
+    private String policyLink;
+    private String descLink;
+    private long containerMemory;
+
+    @Before
+    public void setUp() throws Throwable {
+        waitForServiceAvailability(GroupResourcePolicyService.FACTORY_LINK);
+        waitForServiceAvailability(ResourcePoolService.FACTORY_LINK);
+        containerMemory = ContainerDescriptionService.getContainerMinMemoryLimit();
+
+        ContainerDescription containerDesc = new ContainerDescription();
+        containerDesc.name = "name";
+        containerDesc.image = "image";
+        containerDesc.memoryLimit = containerMemory;
+        descLink = doPost(containerDesc, ContainerDescriptionService.FACTORY_LINK)
+                .documentSelfLink;
+
+        ResourcePoolState poolState = new ResourcePoolState();
+        poolState.id = "test-resource-pool-" + UUID.randomUUID().toString();
+        poolState.name = poolState.id;
+        poolState.documentSelfLink = poolState.id;
+        poolState.maxMemoryBytes = 1024L * 1024L * 1024L * 46L;
+        poolState = doPost(poolState, ResourcePoolService.FACTORY_LINK);
+
+        GroupResourcePolicyState policyState = new GroupResourcePolicyState();
+        policyState.name = "quota-leases-test";
+        policyState.tenantLinks = Collections.singletonList("testGroup");
+        policyState.maxNumberInstances = MAX_INSTANCES;
+        policyState.memoryLimit = MAX_INSTANCES * containerMemory;
+        policyState.resourcePoolLink = poolState.documentSelfLink;
+        policyLink = doPost(policyState, GroupResourcePolicyService.FACTORY_LINK)
+                .documentSelfLink;
+
+        quotaLeases = new GroupResourcePolicyQuotaLeases(host);
+    }
+
+    @Test
+    public void testAcquire() throws Throwable {
+        assertNotNull(reserve(2));
+
+        // the quota needed and half of the rest in advance
+        GroupResourcePolicyState policy = getPolicy();
+        assertEquals(6, policy.quotaLeases.get(host.getId()).instances
+                + policy.allocatedInstancesCount);
+        assertEquals(MAX_INSTANCES - 6, policy.availableInstancesCount);
+
+        // the quota leased and not reserved yet is available to the node only
+        waitFor(() -> getPolicy().allocatedInstancesCount == 2);
+        policy = getPolicy();
+        assertTrue(quotaLeases.hasCapacity(policy, 8, containerMemory));
+        assertFalse(quotaLeases.hasCapacity(policy, 9, containerMemory));
+        policy.quotaLeases = null;
+        assertTrue(new GroupResourcePolicyQuotaLeases(host).hasCapacity(policy, 4, 0));
+        assertFalse(new GroupResourcePolicyQuotaLeases(host).hasCapacity(policy, 5, 0));
+    }
+
+    @Test
+    public void testCommit() throws Throwable {
+        for (int i = 0; i < 4; i++) {
+            reserve(1);
+        }
+
+        // the reservations are committed, those made during a commit with the next one
+        waitFor(() -> getPolicy().allocatedInstancesCount == 4);
+        GroupResourcePolicyState policy = getPolicy();
+        assertEquals(4, policy.resourceQuotaPerResourceDesc.get(descLink).longValue());
+        assertEquals(4 * containerMemory,
+                policy.memoryQuotaPerResourceDesc.get(descLink).longValue());
+        assertEquals(MAX_INSTANCES - 4, policy.availableInstancesCount
+                + policy.quotaLeases.get(host.getId()).instances);
+    }
+
+    @Test
+    public void testRelease() throws Throwable {
+        reserve(2);
+        waitFor(() -> getPolicy().allocatedInstancesCount == 2);
+
+        // the idle lease is returned to the policy
+        quotaLeases.returnIdleLeases(0);
+        waitFor(() -> getPolicy().quotaLeases.isEmpty());
+        GroupResourcePolicyState policy = getPolicy();
+        assertEquals(MAX_INSTANCES - 2, policy.availableInstancesCount);
+        assertEquals((MAX_INSTANCES - 2) * containerMemory, policy.availableMemory);
+
+        // and the reservations are released directly on the policy
+        ResourcePolicyReservationRequest request = new ResourcePolicyReservationRequest();
+        request.resourceCount = -2;
+        request.resourceDescriptionLink = descLink;
+        patchPolicy(request, ManagementUriParts.REQUEST_RESERVATION_REMOVAL_TASKS);
+        policy = getPolicy();
+        assertEquals(MAX_INSTANCES, policy.availableInstancesCount);
+        assertEquals(0, policy.allocatedInstancesCount);
+
+        // the next reservation leases again
+        reserve(1);
+        assertNotNull(getPolicy().quotaLeases.get(host.getId()));
+    }
+
+    @Test
+    public void testExpiry() throws Throwable {
+        reserve(2);
+        waitFor(() -> getPolicy().allocatedInstancesCount == 2);
+
+        // the lease expires and is reclaimed by the policy
+        ResourcePolicyLeaseRequest request = new ResourcePolicyLeaseRequest();
+        request.leaseHolder = host.getId();
+        request.expirationMicros = Utils.getNowMicrosUtc() - 1;
+        patchPolicy(request, GroupResourcePolicyQuotaLeases.REFERER_PATH);
+        request = new ResourcePolicyLeaseRequest();
+        request.returnLease = true;
+        patchPolicy(request, GroupResourcePolicyQuotaLeases.REFERER_PATH);
+        GroupResourcePolicyState policy = getPolicy();
+        assertNull(policy.quotaLeases.get(host.getId()));
+        assertEquals(MAX_INSTANCES - 2, policy.availableInstancesCount);
+
+        // the reservation made from the expired lease is taken from the policy on commit
+        reserve(1);
+        waitFor(() -> getPolicy().allocatedInstancesCount == 3);
+        policy = getPolicy();
+        assertEquals(MAX_INSTANCES - 3, policy.availableInstancesCount);
+        assertEquals(0, policy.quotaLeases.get(host.getId()).instances);
+
+        // and the next reservation leases again
+        reserve(1);
+        waitFor(() -> getPolicy().allocatedInstancesCount == 4);
+        policy = getPolicy();
+        assertEquals(MAX_INSTANCES - 4, policy.availableInstancesCount
+                + policy.quotaLeases.get(host.getId()).instances);
+    }
+
+    @Test
+    public void testReclaimSpare() throws Throwable {
+        // another node holds most of the quota
+        ResourcePolicyLeaseRequest request = new ResourcePolicyLeaseRequest();
+        request.leaseHolder = "other-node";
+        request.instances = 8;
+        request.memory = 8 * containerMemory;
+        request.expirationMicros = Utils.getNowMicrosUtc()
+                + GroupResourcePolicyQuotaLeases.LEASE_EXPIRATION_MICROS;
+        patchPolicy(request, GroupResourcePolicyQuotaLeases.REFERER_PATH);
+        assertEquals(2, getPolicy().availableInstancesCount);
+
+        // its spare quota is not available while the lease is in use
+        assertFalse(quotaLeases.hasCapacity(getPolicy(), 5, containerMemory));
+
+        // and is reclaimed once the lease is not renewed for a while
+        request = new ResourcePolicyLeaseRequest();
+        request.leaseHolder = "other-node";
+        request.expirationMicros = Utils.getNowMicrosUtc()
+                + GroupResourcePolicyQuotaLeases.LEASE_EXPIRATION_MICROS
+                - GroupResourcePolicyQuotaLeases.LEASE_RECLAIM_IDLE_MICROS - 1;
+        patchPolicy(request, GroupResourcePolicyQuotaLeases.REFERER_PATH);
+        assertTrue(quotaLeases.hasCapacity(getPolicy(), 5, containerMemory));
+        assertFalse(quotaLeases.hasCapacity(getPolicy(), 11, containerMemory));
+
+        assertNotNull(reserve(5));
+        waitFor(() -> getPolicy().allocatedInstancesCount == 5);
+        GroupResourcePolicyState policy = getPolicy();
+        assertEquals(5, policy.quotaLeases.get("other-node").instances);
+        assertEquals(5 * containerMemory, policy.quotaLeases.get("other-node").memory);
+        assertEquals(0, policy.availableInstancesCount
+                + policy.quotaLeases.get(host.getId()).instances);
+    }
+
+    private GroupResourcePolicyState reserve(long resourceCount) throws Throwable {
+        GroupResourcePolicyState[] result = new GroupResourcePolicyState[1];
+        TestContext ctx = testCreate(1);
+        quotaLeases.reserve(policyLink, descLink, resourceCount, containerMemory, (p, e) -> {
+            if (e != null) {
+                ctx.failIteration(e);
+                return;
+            }
+            result[0] = p;
+            ctx.completeIteration();
+        });
+        testWait(ctx);
+        return result[0];
+    }
+
+    private void patchPolicy(Object body, String refererPath) throws Throwable {
+        TestContext ctx = testCreate(1);
+        host.send(Operation.createPatch(UriUtils.buildUri(host, policyLink))
+                .setBody(body)
+                .setReferer(UriUtils.buildUri(host, refererPath))
+                .setCompletion(ctx.getCompletion()));
+        testWait(ctx);
+    }
+
+    private GroupResourcePolicyState getPolicy() throws Throwable {
+        return getDocument(GroupResourcePolicyState.class, policyLink);
+    }
+}
@@ -41,6 +41,7 @@ import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
 import com.vmware.admiral.compute.container.GroupResourcePolicyService.GroupResourcePolicyPoolState;
 import com.vmware.admiral.compute.container.GroupResourcePolicyService.GroupResourcePolicyState;
+import com.vmware.admiral.compute.container.GroupResourcePolicyService.ResourcePolicyLeaseRequest;
 import com.vmware.admiral.compute.container.GroupResourcePolicyService.ResourcePolicyReservationRequest;
 import com.vmware.photon.controller.model.resources.ResourcePoolService;
 import com.vmware.photon.controller.model.resources.ResourcePoolService.ResourcePoolState;
@@ -597,6 +598,169 @@ public class GroupResourcePolicyServiceTest extends ComputeBaseTest {
         assertEquals(1, policyStateAfterProvisioning.allocatedInstancesCount);
     }
 
+    @Test
+    public void testQuotaLeaseRequest() throws Throwable {
+        GroupResourcePolicyState policyState = createAndStoreGroupResourcePolicy();
+        String descLink = containerDescription.documentSelfLink;
+
+        // lease 2 instances and up to 10 more in advance: half of the rest is leased
+        ResourcePolicyLeaseRequest leaseRequest = createLeaseRequest("node1");
+        leaseRequest.instances = 2;
+        leaseRequest.spareInstances = 10;
+        leaseRequest.memory = 2 * CONTAINER_MEMORY;
+        policyState = makeLeaseRequest(leaseRequest, policyState, false);
+        assertEquals(4, policyState.availableInstancesCount);
+        assertEquals(0, policyState.allocatedInstancesCount);
+        assertEquals(6, policyState.quotaLeases.get("node1").instances);
+        assertEquals(6 * CONTAINER_MEMORY + CONTAINER_MEMORY / 2, policyState.availableMemory);
+
+        // more than available
+        leaseRequest = createLeaseRequest("node2");
+        leaseRequest.instances = 5;
+        makeLeaseRequest(leaseRequest, policyState, true);
+
+        // commit the reservations made from the lease
+        leaseRequest = createLeaseRequest("node1");
+        leaseRequest.reservedPerResourceDesc = Collections.singletonMap(descLink, 2L);
+        leaseRequest.reservedMemoryPerResourceDesc = Collections.singletonMap(descLink,
+                2 * CONTAINER_MEMORY);
+        policyState = makeLeaseRequest(leaseRequest, policyState, false);
+        assertEquals(4, policyState.availableInstancesCount);
+        assertEquals(2, policyState.allocatedInstancesCount);
+        assertEquals(2, policyState.resourceQuotaPerResourceDesc.get(descLink).longValue());
+        assertEquals(2 * CONTAINER_MEMORY,
+                policyState.memoryQuotaPerResourceDesc.get(descLink).longValue());
+        assertEquals(4, policyState.quotaLeases.get("node1").instances);
+
+        // return part of the lease, the lease is kept until returned
+        leaseRequest = createLeaseRequest("node1");
+        leaseRequest.instances = -1;
+        policyState = makeLeaseRequest(leaseRequest, policyState, false);
+        assertEquals(5, policyState.availableInstancesCount);
+        assertEquals(3, policyState.quotaLeases.get("node1").instances);
+
+        // return the rest of the lease
+        leaseRequest = createLeaseRequest("node1");
+        leaseRequest.returnLease = true;
+        policyState = makeLeaseRequest(leaseRequest, policyState, false);
+        assertEquals(8, policyState.availableInstancesCount);
+        assertEquals(2, policyState.allocatedInstancesCount);
+        assertTrue(policyState.quotaLeases.isEmpty());
+
+        // release directly on the policy
+        policyState = makeResourcePolicyReservationRequest(policyState, -2);
+        assertEquals(10, policyState.availableInstancesCount);
+        assertEquals(0, policyState.allocatedInstancesCount);
+    }
+
+    @Test
+    public void testExpiredQuotaLease() throws Throwable {
+        GroupResourcePolicyState policyState = createAndStoreGroupResourcePolicy();
+
+        ResourcePolicyLeaseRequest leaseRequest = createLeaseRequest("node1");
+        leaseRequest.instances = 6;
+        leaseRequest.expirationMicros = Utils.getNowMicrosUtc() - 1;
+        policyState = makeLeaseRequest(leaseRequest, policyState, false);
+        assertEquals(4, policyState.availableInstancesCount);
+
+        // the expired lease is reclaimed by the next lease request
+        leaseRequest = createLeaseRequest("node2");
+        leaseRequest.instances = 8;
+        policyState = makeLeaseRequest(leaseRequest, policyState, false);
+        assertEquals(2, policyState.availableInstancesCount);
+        assertEquals(1, policyState.quotaLeases.size());
+        assertEquals(8, policyState.quotaLeases.get("node2").instances);
+
+        // an update of the policy keeps the leased instances reserved
+        policyState.maxNumberInstances = 20;
+        doOperation(policyState, UriUtils.buildUri(host, policyState.documentSelfLink),
+                false, Action.PUT);
+        policyState = getDocument(GroupResourcePolicyState.class, policyState.documentSelfLink);
+        assertEquals(12, policyState.availableInstancesCount);
+    }
+
+    @Test
+    public void testReleaseOfUncommittedQuotaLeaseReservation() throws Throwable {
+        GroupResourcePolicyState policyState = createAndStoreGroupResourcePolicy();
+        String descLink = containerDescription.documentSelfLink;
+
+        ResourcePolicyLeaseRequest leaseRequest = createLeaseRequest("node1");
+        leaseRequest.instances = 2;
+        leaseRequest.memory = 2 * CONTAINER_MEMORY;
+        policyState = makeLeaseRequest(leaseRequest, policyState, false);
+        assertEquals(8, policyState.availableInstancesCount);
+
+        // the release of a reservation made from the lease arrives before its commit
+        policyState = makeResourcePolicyReservationRequest(policyState, -2);
+        assertEquals(10, policyState.availableInstancesCount);
+        assertEquals(-2, policyState.resourceQuotaPerResourceDesc.get(descLink).longValue());
+
+        // and is reconciled by the commit
+        leaseRequest = createLeaseRequest("node1");
+        leaseRequest.reservedPerResourceDesc = Collections.singletonMap(descLink, 2L);
+        leaseRequest.reservedMemoryPerResourceDesc = Collections.singletonMap(descLink,
+                2 * CONTAINER_MEMORY);
+        policyState = makeLeaseRequest(leaseRequest, policyState, false);
+        assertEquals(10, policyState.availableInstancesCount);
+        assertEquals(0, policyState.allocatedInstancesCount);
+        assertEquals(0, policyState.resourceQuotaPerResourceDesc.get(descLink).longValue());
+        assertEquals(0, policyState.memoryQuotaPerResourceDesc.get(descLink).longValue());
+        assertEquals(8 * CONTAINER_MEMORY + CONTAINER_MEMORY / 2, policyState.availableMemory);
+
+        // without a lease the release of more than reserved fails
+        leaseRequest = createLeaseRequest("node1");
+        leaseRequest.returnLease = true;
+        policyState = makeLeaseRequest(leaseRequest, policyState, false);
+        policyState = makeResourcePolicyReservationRequest(policyState, 2);
+        makeResourcePolicyReservationRequest(-1,
+                createAndStoreContainerDescription("other-link").documentSelfLink,
+                policyState, true);
+    }
+
+    @Test
+    public void testReclaimExpiredQuotaLeases() throws Throwable {
+        GroupResourcePolicyState policyState = createAndStoreGroupResourcePolicy();
+
+        long expirationMicros = Utils.getNowMicrosUtc() + TimeUnit.SECONDS.toMicros(1);
+        ResourcePolicyLeaseRequest leaseRequest = createLeaseRequest("node1");
+        leaseRequest.instances = 6;
+        leaseRequest.expirationMicros = expirationMicros;
+        policyState = makeLeaseRequest(leaseRequest, policyState, false);
+        leaseRequest = createLeaseRequest("node2");
+        leaseRequest.instances = 2;
+        policyState = makeLeaseRequest(leaseRequest, policyState, false);
+        assertEquals(2, policyState.availableInstancesCount);
+        waitFor(() -> Utils.getNowMicrosUtc() > expirationMicros);
+
+        // the request sent on maintenance ends the expired leases only
+        leaseRequest = new ResourcePolicyLeaseRequest();
+        leaseRequest.returnLease = true;
+        policyState = makeLeaseRequest(leaseRequest, policyState, false);
+        assertEquals(8, policyState.availableInstancesCount);
+        assertEquals(1, policyState.quotaLeases.size());
+        assertEquals(2, policyState.quotaLeases.get("node2").instances);
+    }
+
+    private ResourcePolicyLeaseRequest createLeaseRequest(String leaseHolder) {
+        ResourcePolicyLeaseRequest leaseRequest = new ResourcePolicyLeaseRequest();
+        leaseRequest.leaseHolder = leaseHolder;
+        leaseRequest.expirationMicros = Utils.getNowMicrosUtc() + TimeUnit.MINUTES.toMicros(5);
+        return leaseRequest;
+    }
+
+    private GroupResourcePolicyState makeLeaseRequest(ResourcePolicyLeaseRequest leaseRequest,
+            GroupResourcePolicyState policyState, boolean expectFailure) throws Throwable {
+        host.testStart(1);
+        host.send(Operation
+                .createPatch(UriUtils.buildUri(host, policyState.documentSelfLink))
+                .setBody(leaseRequest)
+                .setCompletion(expectFailure ? host.getExpectedFailureCompletion()
+                        : host.getCompletion()));
+        host.testWait();
+
+        return getDocument(GroupResourcePolicyState.class, policyState.documentSelfLink);
+    }
+
     private GroupResourcePolicyState makeResourcePolicyReservationRequest(
             GroupResourcePolicyState policyState, int count) throws Throwable {
         return makeResourcePolicyReservationRequest(count, containerDescription.documentSelfLink,
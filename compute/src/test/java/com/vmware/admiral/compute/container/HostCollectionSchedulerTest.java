@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HostCollectionSchedulerTest {
+    private static final long TIMEOUT_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final AtomicLong clock = new AtomicLong(1);
+    private final Map<String, Consumer<Boolean>> started = new LinkedHashMap<>();
+    private HostCollectionScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new HostCollectionScheduler(2, TIMEOUT_MICROS, clock::get,
+                (hostLink, done) -> started.put(hostLink, done));
+    }
+
+    @Test
+    public void testInFlightWindow() {
+        scheduler.schedule(Arrays.asList("h1", "h2", "h3", "h4"));
+        assertEquals(Arrays.asList("h1", "h2"), new ArrayList<>(started.keySet()));
+        assertEquals(2, scheduler.getInFlight());
+        assertEquals(2, scheduler.getPending());
+
+        complete("h1", false);
+        assertEquals(Arrays.asList("h2", "h3"), new ArrayList<>(started.keySet()));
+
+        complete("h2", false);
+        complete("h3", false);
+        complete("h4", false);
+        assertEquals(0, scheduler.getInFlight());
+        assertEquals(0, scheduler.getPending());
+    }
+
+    @Test
+    public void testSkipRunningHosts() {
+        scheduler.schedule(Arrays.asList("h1", "h2", "h3"));
+        // h1 and h2 are being collected, h3 is waiting
+        assertEquals(3, scheduler.schedule(Arrays.asList("h1", "h2", "h3")));
+        assertEquals(3, scheduler.getSkippedCount());
+
+        complete("h1", false);
+        assertEquals(1, scheduler.schedule(Arrays.asList("h1", "h2")));
+    }
+
+    @Test
+    public void testPrioritizeFailedAndOverdueHosts() {
+        scheduler.schedule(Arrays.asList("h1", "h2"));
+        clock.addAndGet(1000);
+        complete("h1", false);
+        clock.addAndGet(1000);
+        complete("h2", true);
+        scheduler.schedule(Arrays.asList("h3", "h4"));
+        complete("h3", false);
+        complete("h4", false);
+
+        // the failed one, then the ones never collected, then the least recently collected
+        scheduler.schedule(Arrays.asList("h1", "h2", "h3", "h5"));
+        List<String> order = new ArrayList<>();
+        while (!started.isEmpty()) {
+            String hostLink = started.keySet().iterator().next();
+            order.add(hostLink);
+            complete(hostLink, false);
+        }
+        assertEquals(Arrays.asList("h2", "h5", "h1", "h3"), order);
+    }
+
+    @Test
+    public void testReleaseTimedOut() {
+        scheduler.schedule(Arrays.asList("h1", "h2", "h3"));
+        clock.addAndGet(TIMEOUT_MICROS + 1);
+        scheduler.checkTimeouts();
+        assertEquals(1, scheduler.getInFlight());
+        assertEquals(0, scheduler.getPending());
+
+        // a late completion of a released collection is ignored
+        started.remove("h1").accept(false);
+        assertEquals(1, scheduler.getInFlight());
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        scheduler.schedule(Arrays.asList("h1"));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toMicros(200));
+        complete("h1", false);
+        scheduler.schedule(Arrays.asList("h1"));
+        clock.addAndGet(TimeUnit.MINUTES.toMicros(5));
+        complete("h1", false);
+
+        long[] expected = new long[HostCollectionScheduler.LATENCY_BOUNDS_MILLIS.length];
+        expected[1] = 1;
+        expected[expected.length - 1] = 1;
+        assertArrayEquals(expected, scheduler.getLatencyCounts("h1"));
+        assertArrayEquals(expected, scheduler.getLatencyCounts());
+    }
+
+    private void complete(String hostLink, boolean failed) {
+        started.remove(hostLink).accept(failed);
+    }
+}
@@ -12,9 +12,14 @@
 package com.vmware.admiral.compute.container;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -27,6 +32,7 @@ import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.common.util.UriUtilsExtended;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState;
 import com.vmware.admiral.compute.container.HostContainerListDataCollection.ContainerListCallback;
+import com.vmware.admiral.compute.container.HostContainerListDataCollection.ContainerListSnapshot;
 import com.vmware.admiral.compute.container.HostContainerListDataCollection.HostContainerListDataCollectionFactoryService;
 import com.vmware.admiral.compute.container.HostContainerListDataCollection.HostContainerListDataCollectionState;
 import com.vmware.admiral.service.test.MockDockerAdapterService;
@@ -181,6 +187,64 @@ public class HostContainerListDataCollectionTest extends ComputeBaseTest {
         assertEquals(Boolean.TRUE, systemContainer.system);
     }
 
+    @Test
+    public void testChangedIdsSinceSnapshot() {
+        ContainerListCallback reported = createContainerList(10);
+        ContainerListSnapshot snapshot = new ContainerListSnapshot(reported, 0);
+
+        // the very same list, nothing to collect
+        ContainerListCallback current = createContainerList(10);
+        assertTrue(snapshot.getChangedIds(current, 50).isEmpty());
+
+        // only the images changed, the known containers are not affected
+        current.containerIdsAndImage.put("id-1", "other-image");
+        assertTrue(snapshot.getChangedIds(current, 50).isEmpty());
+
+        // only the containers added, removed or renamed are collected
+        current.containerIdsAndNames.put("id-10", "name-10");
+        current.containerIdsAndNames.remove("id-2");
+        current.containerIdsAndNames.put("id-3", "other-name");
+        assertEquals(new HashSet<>(Arrays.asList("id-2", "id-3", "id-10")),
+                snapshot.getChangedIds(current, 50));
+    }
+
+    @Test
+    public void testFullCollectionOnManyChanges() {
+        ContainerListSnapshot snapshot = new ContainerListSnapshot(createContainerList(10), 0);
+
+        // up to the max changed containers are collected one by one
+        int maxChanged = HostContainerListDataCollection
+                .INCREMENTAL_COLLECTION_MAX_CHANGED_CONTAINERS;
+        ContainerListCallback current = createContainerList(10 + maxChanged);
+        assertEquals(maxChanged, snapshot.getChangedIds(current, maxChanged).size());
+
+        // and all of them are collected again above that
+        current = createContainerList(10 + maxChanged + 1);
+        assertNull(snapshot.getChangedIds(current, maxChanged));
+    }
+
+    @Test
+    public void testPeriodicFullSync() {
+        long nowMicros = Utils.getNowMicrosUtc();
+        ContainerListSnapshot snapshot = new ContainerListSnapshot(createContainerList(10),
+                nowMicros);
+        assertFalse(snapshot.isFullSyncDue(nowMicros));
+        assertFalse(snapshot.isFullSyncDue(nowMicros
+                + HostContainerListDataCollection.FULL_COLLECTION_INTERVAL_MICROS));
+        assertTrue(snapshot.isFullSyncDue(nowMicros
+                + HostContainerListDataCollection.FULL_COLLECTION_INTERVAL_MICROS + 1));
+    }
+
+    private static ContainerListCallback createContainerList(int count) {
+        ContainerListCallback containerList = new ContainerListCallback();
+        containerList.containerHostLink = COMPUTE_HOST_LINK;
+        for (int i = 0; i < count; i++) {
+            containerList.containerIdsAndNames.put("id-" + i, "name-" + i);
+            containerList.containerIdsAndImage.put("id-" + i, "image-" + i);
+        }
+        return containerList;
+    }
+
     private void startAndWaitHostContainerListDataCollection() throws Throwable {
         host.testStart(1);
         host.sendRequest(Operation
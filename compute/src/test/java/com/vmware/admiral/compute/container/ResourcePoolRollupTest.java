@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.compute.ContainerHostService;
+import com.vmware.admiral.compute.container.ResourcePoolRollup.Totals;
+
+public class ResourcePoolRollupTest {
+    private static final String POOL = "/resources/pools/p1";
+    private static final String OTHER_POOL = "/resources/pools/p2";
+
+    private ResourcePoolRollup rollup;
+    private long nowMicros;
+
+    @Before
+    public void setUp() {
+        rollup = new ResourcePoolRollup();
+        nowMicros = 1;
+    }
+
+    @Test
+    public void testAggregateHosts() {
+        rollup.applyHost("h1", POOL, hostProperties(1000L, 500L, 100.0, 8));
+        rollup.applyHost("h2", POOL, hostProperties(500L, 100L, 50.0, 2));
+
+        Totals totals = writeChanged().get(POOL);
+        assertEquals(1500, totals.maxMemoryBytes);
+        assertEquals(600, totals.availableMemory);
+        // 8 cores with 100% usage and 2 with 50% usage => 90% overall
+        assertEquals(90.0, totals.cpuUsage, 0.001);
+
+        // a host without memory data makes the pool unlimited
+        rollup.applyHost("h3", POOL, hostProperties(null, null, 0.0, 1));
+        assertEquals(Long.MAX_VALUE, writeChanged().get(POOL).maxMemoryBytes);
+    }
+
+    @Test
+    public void testApplyDeltas() {
+        rollup.applyHost("h1", POOL, hostProperties(1000L, 500L, 100.0, 8));
+        rollup.applyHost("h2", POOL, hostProperties(500L, 100L, 50.0, 2));
+        writeChanged();
+
+        // the host moves to another pool
+        rollup.applyHost("h2", OTHER_POOL, hostProperties(500L, 100L, 50.0, 2));
+        Map<String, Totals> changed = writeChanged();
+        assertEquals(1000, changed.get(POOL).maxMemoryBytes);
+        assertEquals(500, changed.get(OTHER_POOL).maxMemoryBytes);
+
+        // the host is removed
+        rollup.retainHosts(Arrays.asList("h1"));
+        changed = writeChanged();
+        assertNull(changed.get(POOL));
+        assertEquals(0, changed.get(OTHER_POOL).maxMemoryBytes);
+        assertEquals(0.0, changed.get(OTHER_POOL).cpuUsage, 0.001);
+    }
+
+    @Test
+    public void testSkipInsignificantChanges() {
+        rollup.applyHost("h1", POOL, hostProperties(1000L, 500L, 50.0, 1));
+        writeChanged();
+
+        // small changes of the available memory and cpu usage are not written
+        rollup.applyHost("h1", POOL, hostProperties(1000L, 490L, 52.0, 1));
+        assertTrue(writeChanged().isEmpty());
+
+        // but accumulate over time
+        rollup.applyHost("h1", POOL, hostProperties(1000L, 450L, 52.0, 1));
+        assertEquals(450, writeChanged().get(POOL).availableMemory);
+        rollup.applyHost("h1", POOL, hostProperties(1000L, 450L, 60.0, 1));
+        assertEquals(60.0, writeChanged().get(POOL).cpuUsage, 0.001);
+
+        // any change of the capacity is written
+        rollup.applyHost("h1", POOL, hostProperties(1001L, 450L, 60.0, 1));
+        assertEquals(1001, writeChanged().get(POOL).maxMemoryBytes);
+
+        // and so is everything once in a while
+        nowMicros += ResourcePoolRollup.FULL_WRITE_INTERVAL_MICROS + 1;
+        assertNotNull(writeChanged().get(POOL));
+    }
+
+    @Test
+    public void testEmptyAndRemovedPools() {
+        rollup.addPool(POOL);
+        Totals totals = writeChanged().get(POOL);
+        assertEquals(0, totals.maxMemoryBytes);
+        assertEquals(0, totals.availableMemory);
+
+        rollup.invalidate(POOL);
+        assertNotNull(writeChanged().get(POOL));
+
+        rollup.retainPools(Arrays.asList(OTHER_POOL));
+        assertTrue(writeChanged().isEmpty());
+    }
+
+    private Map<String, Totals> writeChanged() {
+        Map<String, Totals> changed = rollup.getChangedPools(nowMicros);
+        changed.forEach((link, totals) -> rollup.markWritten(link, totals, nowMicros));
+        return changed;
+    }
+
+    private static Map<String, String> hostProperties(Long totalMemory, Long availableMemory,
+            double cpuUsage, int numCores) {
+        Map<String, String> properties = new HashMap<>();
+        if (totalMemory != null) {
+            properties.put(ContainerHostService.DOCKER_HOST_TOTAL_MEMORY_PROP_NAME,
+                    totalMemory.toString());
+        }
+        if (availableMemory != null) {
+            properties.put(ContainerHostService.DOCKER_HOST_AVAILABLE_MEMORY_PROP_NAME,
+                    availableMemory.toString());
+        }
+        properties.put(ContainerHostService.DOCKER_HOST_CPU_USAGE_PCT_PROP_NAME,
+                Double.toString(cpuUsage));
+        properties.put(ContainerHostService.DOCKER_HOST_NUM_CORES_PROP_NAME,
+                Integer.toString(numCores));
+        return properties;
+    }
+}
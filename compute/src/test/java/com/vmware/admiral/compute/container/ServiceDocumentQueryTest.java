@@ -13,6 +13,7 @@ package com.vmware.admiral.compute.container;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -23,6 +24,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.vmware.admiral.common.test.CommonTestStateFactory;
+import com.vmware.admiral.common.util.QueryResultCache;
+import com.vmware.admiral.common.util.QueryUtil;
 import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.common.util.ServiceDocumentQuery.ServiceDocumentQueryElementResult;
 import com.vmware.admiral.service.common.SslTrustCertificateService;
@@ -31,6 +34,7 @@ import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
 
 public class ServiceDocumentQueryTest extends ComputeBaseTest {
     ServiceDocumentQuery<SslTrustCertificateState> query;
@@ -233,6 +237,112 @@ public class ServiceDocumentQueryTest extends ComputeBaseTest {
         assertEquals(sslTrust1, sslTrustCert.certificate);
     }
 
+    @Test
+    public void testQueryPages() throws Throwable {
+        int count = 7;
+        for (int i = 0; i < count; i++) {
+            SslTrustCertificateState sslTrustCert = new SslTrustCertificateState();
+            sslTrustCert.certificate = sslTrust1;
+            doPost(sslTrustCert, SslTrustCertificateService.FACTORY_LINK);
+        }
+
+        List<Integer> pageSizes = new ArrayList<>();
+        QueryTask q = QueryUtil.buildQuery(SslTrustCertificateState.class, true);
+        QueryUtil.addExpandOption(q);
+
+        host.testStart(1);
+        query.queryPages(q, 3, (page) -> {
+            if (page.hasException()) {
+                host.failIteration(page.getException());
+                return;
+            }
+            pageSizes.add(page.getDocuments().size());
+            certs.addAll(page.getDocuments());
+            if (page.isLast()) {
+                host.completeIteration();
+            } else {
+                page.next();
+            }
+        });
+        host.testWait();
+
+        assertEquals(count, certs.size());
+        for (int pageSize : pageSizes) {
+            assertTrue(pageSize <= 3);
+        }
+        for (SslTrustCertificateState cert : certs) {
+            assertEquals(sslTrust1, cert.certificate);
+        }
+    }
+
+    @Test
+    public void testProjection() throws Throwable {
+        SslTrustCertificateState sslTrustCert = new SslTrustCertificateState();
+        sslTrustCert.certificate = sslTrust1;
+        sslTrustCert = doPost(sslTrustCert, SslTrustCertificateService.FACTORY_LINK);
+        assertNotNull(sslTrustCert.commonName);
+
+        query = ServiceDocumentQuery.projection(host, SslTrustCertificateState.class,
+                "commonName");
+        QueryTask q = QueryUtil.buildQuery(SslTrustCertificateState.class, true);
+        QueryUtil.addExpandOption(q);
+
+        host.testStart(1);
+        query.query(q, handler(false));
+        host.testWait();
+
+        boolean match = false;
+        for (SslTrustCertificateState state : certs) {
+            assertNull(state.certificate);
+            if (sslTrustCert.documentSelfLink.equals(state.documentSelfLink)) {
+                assertEquals(sslTrustCert.commonName, state.commonName);
+                match = true;
+            }
+        }
+        assertTrue(match);
+    }
+
+    @Test
+    public void testQueryCached() throws Throwable {
+        SslTrustCertificateState sslTrustCert = new SslTrustCertificateState();
+        sslTrustCert.certificate = sslTrust1;
+        doPost(sslTrustCert, SslTrustCertificateService.FACTORY_LINK);
+
+        QueryResultCache cache = QueryResultCache.getInstance(host);
+        // the first query starts tracking the changes of the kind
+        assertEquals(1, queryCached().size());
+        waitFor(() -> {
+            long misses = cache.getStats().misses;
+            queryCached();
+            return cache.getStats().misses == misses;
+        });
+
+        long hits = cache.getStats().hits;
+        certs = queryCached();
+        assertEquals(1, certs.size());
+        assertEquals(sslTrust1, certs.get(0).certificate);
+        assertEquals(hits + 1, cache.getStats().hits);
+
+        // cached documents are copies
+        certs.get(0).certificate = null;
+        assertEquals(sslTrust1, queryCached().get(0).certificate);
+
+        sslTrustCert = new SslTrustCertificateState();
+        sslTrustCert.certificate = sslTrust2;
+        doPost(sslTrustCert, SslTrustCertificateService.FACTORY_LINK);
+        waitFor(() -> queryCached().size() == 2);
+    }
+
+    private List<SslTrustCertificateState> queryCached() throws Throwable {
+        QueryTask q = QueryUtil.buildQuery(SslTrustCertificateState.class, true);
+        QueryUtil.addExpandOption(q);
+
+        host.testStart(1);
+        query.queryCached(q, handler(false));
+        host.testWait();
+        return new ArrayList<>(certs);
+    }
+
     private List<SslTrustCertificateState> queryDocument(String documentSelfLink) throws Throwable {
         host.testStart(1);
         query.queryDocument(documentSelfLink, handler(true));
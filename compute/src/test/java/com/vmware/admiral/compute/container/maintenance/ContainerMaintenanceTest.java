@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container.maintenance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
+import com.vmware.admiral.compute.container.maintenance.ContainerMaintenance.MaintenanceType;
+import com.vmware.xenon.common.Utils;
+
+public class ContainerMaintenanceTest {
+    private static final String CONTAINER_LINK = "/resources/containers/test";
+
+    @Test
+    public void testBackOffWhenUnchanged() {
+        ContainerMaintenance maintenance = ContainerMaintenance.create(null, CONTAINER_LINK);
+        ContainerState containerState = createContainerState(PowerState.RUNNING);
+        long nowMicros = Utils.getNowMicrosUtc();
+
+        // the first maintenance inspects right away
+        assertEquals(MaintenanceType.INSPECT,
+                maintenance.nextMaintenance(containerState, nowMicros));
+        assertEquals(ContainerMaintenance.MAINTENANCE_INTERVAL_INSPECT_MICROS,
+                maintenance.getInspectIntervalMicros());
+        assertEquals(MaintenanceType.STATS,
+                maintenance.nextMaintenance(containerState, nowMicros + 1));
+
+        nowMicros = inspectUnchanged(maintenance, containerState, nowMicros);
+        assertEquals(2 * ContainerMaintenance.MAINTENANCE_INTERVAL_INSPECT_MICROS,
+                maintenance.getInspectIntervalMicros());
+
+        for (int i = 0; i < 64; i++) {
+            nowMicros = inspectUnchanged(maintenance, containerState, nowMicros);
+        }
+        assertEquals(ContainerMaintenance.MAINTENANCE_INTERVAL_INSPECT_MAX_MICROS,
+                maintenance.getInspectIntervalMicros());
+        // no stats for containers not changed for a while
+        assertEquals(MaintenanceType.NONE,
+                maintenance.nextMaintenance(containerState, nowMicros + 1));
+    }
+
+    @Test
+    public void testResetWhenChanged() {
+        ContainerMaintenance maintenance = ContainerMaintenance.create(null, CONTAINER_LINK);
+        ContainerState containerState = createContainerState(PowerState.RUNNING);
+        long nowMicros = Utils.getNowMicrosUtc();
+
+        maintenance.nextMaintenance(containerState, nowMicros);
+        for (int i = 0; i < 3; i++) {
+            nowMicros = inspectUnchanged(maintenance, containerState, nowMicros);
+        }
+        assertTrue(maintenance.getInspectIntervalMicros()
+                > ContainerMaintenance.MAINTENANCE_INTERVAL_INSPECT_MICROS);
+
+        containerState.documentUpdateTimeMicros = nowMicros;
+        nowMicros += 2 * maintenance.getInspectIntervalMicros();
+        assertEquals(MaintenanceType.INSPECT,
+                maintenance.nextMaintenance(containerState, nowMicros));
+        assertEquals(ContainerMaintenance.MAINTENANCE_INTERVAL_INSPECT_MICROS,
+                maintenance.getInspectIntervalMicros());
+    }
+
+    @Test
+    public void testTightenOnPowerStateChange() {
+        ContainerMaintenance maintenance = ContainerMaintenance.create(null, CONTAINER_LINK);
+        ContainerState containerState = createContainerState(PowerState.RUNNING);
+        long nowMicros = Utils.getNowMicrosUtc();
+
+        maintenance.nextMaintenance(containerState, nowMicros);
+        containerState.powerState = PowerState.STOPPED;
+        // inspected right away, even though not due yet
+        assertEquals(MaintenanceType.INSPECT,
+                maintenance.nextMaintenance(containerState, nowMicros + 1));
+        assertEquals(ContainerMaintenance.MAINTENANCE_INTERVAL_MICROS,
+                maintenance.getInspectIntervalMicros());
+    }
+
+    @Test
+    public void testPostponeWhenFollowedByEvents() {
+        ContainerMaintenance maintenance = ContainerMaintenance.create(null, CONTAINER_LINK);
+        ContainerState containerState = createContainerState(PowerState.RUNNING);
+        long nowMicros = Utils.getNowMicrosUtc();
+
+        assertEquals(MaintenanceType.INSPECT,
+                maintenance.nextMaintenance(containerState, nowMicros));
+        maintenance.followedByEvents(nowMicros);
+
+        // not inspected at the usual interval, but the stats are still collected
+        assertEquals(MaintenanceType.STATS, maintenance.nextMaintenance(containerState,
+                nowMicros + 2 * ContainerMaintenance.MAINTENANCE_INTERVAL_INSPECT_MICROS));
+        assertEquals(MaintenanceType.INSPECT, maintenance.nextMaintenance(containerState,
+                nowMicros + ContainerMaintenance.MAINTENANCE_INTERVAL_INSPECT_EVENTS_MICROS));
+    }
+
+    @Test
+    public void testJitter() {
+        int count = 100;
+        ContainerMaintenance[] maintenances = new ContainerMaintenance[count];
+        ContainerState containerState = createContainerState(PowerState.RUNNING);
+        long nowMicros = Utils.getNowMicrosUtc();
+        for (int i = 0; i < count; i++) {
+            maintenances[i] = ContainerMaintenance.create(null, CONTAINER_LINK + i);
+            maintenances[i].nextMaintenance(containerState, nowMicros);
+        }
+
+        // containers inspected together are not due at the same time afterwards
+        nowMicros += ContainerMaintenance.MAINTENANCE_INTERVAL_INSPECT_MICROS;
+        int inspected = 0;
+        for (ContainerMaintenance maintenance : maintenances) {
+            if (maintenance.nextMaintenance(containerState, nowMicros)
+                    == MaintenanceType.INSPECT) {
+                inspected++;
+            }
+        }
+        assertTrue(inspected > 0);
+        assertTrue(inspected < count);
+    }
+
+    private static long inspectUnchanged(ContainerMaintenance maintenance,
+            ContainerState containerState, long nowMicros) {
+        nowMicros += 2 * maintenance.getInspectIntervalMicros();
+        assertEquals(MaintenanceType.INSPECT,
+                maintenance.nextMaintenance(containerState, nowMicros));
+        return nowMicros;
+    }
+
+    private static ContainerState createContainerState(PowerState powerState) {
+        ContainerState containerState = new ContainerState();
+        containerState.documentSelfLink = CONTAINER_LINK;
+        containerState.powerState = powerState;
+        containerState.documentUpdateTimeMicros = 1;
+        return containerState;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container.maintenance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.adapter.common.AdapterRequest;
+import com.vmware.admiral.adapter.common.ContainerHostOperationType;
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.compute.container.ComputeBaseTest;
+import com.vmware.admiral.compute.container.ContainerFactoryService;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
+import com.vmware.admiral.compute.container.maintenance.ContainerStatsSweepService.ContainerStatsSweepState;
+import com.vmware.photon.controller.model.resources.ComputeService;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+
+public class ContainerStatsSweepServiceTest extends ComputeBaseTest {
+    private static final String HOST_LINK_1 = UriUtils.buildUriPath(ComputeService.FACTORY_LINK,
+            "test-host-1");
+    private static final String HOST_LINK_2 = UriUtils.buildUriPath(ComputeService.FACTORY_LINK,
+            "test-host-2");
+
+    private final List<AdapterRequest> hostRequests = new ArrayList<>();
+    private ContainerStatsSweepService sweepService;
+
+    @Before
+    public void setUp() throws Throwable {
+        host.startServiceAndWait(new StatelessService() {
+            @Override
+            public void handlePatch(Operation patch) {
+                synchronized (hostRequests) {
+                    hostRequests.add(patch.getBody(AdapterRequest.class));
+                }
+                patch.complete();
+            }
+        }, ManagementUriParts.ADAPTER_DOCKER_HOST, null);
+        host.startServiceAndWait(new StatelessService() {
+            @Override
+            public void handlePatch(Operation patch) {
+                patch.complete();
+            }
+        }, ManagementUriParts.ADAPTER_DOCKER, null);
+
+        sweepService = new ContainerStatsSweepService();
+        host.startServiceAndWait(sweepService, UriUtils.buildUriPath(
+                ContainerStatsSweepService.FACTORY_LINK, "test-sweep"),
+                new ContainerStatsSweepState());
+        waitForServiceAvailability(ContainerFactoryService.SELF_LINK);
+    }
+
+    @Test
+    public void testStatsRequestedPerHost() throws Throwable {
+        Map<String, String> host1Containers = new HashMap<>();
+        Map<String, String> host2Containers = new HashMap<>();
+        for (int i = 0; i < 3; i++) {
+            ContainerState containerState = createContainerState(HOST_LINK_1, PowerState.RUNNING);
+            host1Containers.put(containerState.documentSelfLink, containerState.id);
+        }
+        ContainerState containerState = createContainerState(HOST_LINK_2, PowerState.RUNNING);
+        host2Containers.put(containerState.documentSelfLink, containerState.id);
+        // the stats of the stopped containers are not requested
+        createContainerState(HOST_LINK_1, PowerState.STOPPED);
+        createContainerState(HOST_LINK_2, PowerState.STOPPED);
+
+        // all the containers are inspected on the first sweep
+        sweep();
+        assertEquals(0, getStatsRequests().size());
+
+        // and only their stats are requested on the next one, once per host
+        sweep();
+        waitFor(() -> getStatsRequests().size() == 2);
+
+        Map<String, AdapterRequest> statsRequests = getStatsRequests();
+        AdapterRequest host1Request = statsRequests.get(HOST_LINK_1);
+        assertNotNull(host1Request);
+        assertEquals(host1Containers, host1Request.customProperties);
+        AdapterRequest host2Request = statsRequests.get(HOST_LINK_2);
+        assertNotNull(host2Request);
+        assertEquals(host2Containers, host2Request.customProperties);
+    }
+
+    private void sweep() throws Throwable {
+        TestContext ctx = testCreate(1);
+        sweepService.sweep(Operation.createPost(sweepService.getUri())
+                .setCompletion(ctx.getCompletion()));
+        testWait(ctx);
+    }
+
+    private Map<String, AdapterRequest> getStatsRequests() {
+        Map<String, AdapterRequest> statsRequests = new HashMap<>();
+        synchronized (hostRequests) {
+            for (AdapterRequest request : hostRequests) {
+                if (ContainerHostOperationType.CONTAINERS_STATS.id
+                        .equals(request.operationTypeId)) {
+                    statsRequests.put(request.resourceReference.getPath(), request);
+                }
+            }
+        }
+        return statsRequests;
+    }
+
+    private ContainerState createContainerState(String hostLink, PowerState powerState)
+            throws Throwable {
+        ContainerState containerState = new ContainerState();
+        containerState.id = "test-container-" + hostLink.hashCode() + "-" + System.nanoTime();
+        containerState.parentLink = hostLink;
+        containerState.powerState = powerState;
+        containerState.adapterManagementReference = UriUtils.buildUri(host,
+                ManagementUriParts.ADAPTER_DOCKER);
+        return doPost(containerState, ContainerFactoryService.SELF_LINK);
+    }
+}
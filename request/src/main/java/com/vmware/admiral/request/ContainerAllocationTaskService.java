@@ -28,6 +28,7 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -38,11 +39,14 @@ import java.util.stream.Collectors;
 import com.vmware.admiral.adapter.common.AdapterRequest;
 import com.vmware.admiral.adapter.common.ContainerOperationType;
 import com.vmware.admiral.common.util.AssertUtil;
-import com.vmware.admiral.common.util.OperationUtil;
 import com.vmware.admiral.common.util.QueryUtil;
 import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.common.util.ServiceUtils;
 import com.vmware.admiral.compute.container.CompositeComponentFactoryService;
+import com.vmware.admiral.compute.container.ContainerBatchCreateService;
+import com.vmware.admiral.compute.container.ContainerBatchCreateService.ContainerBatchCreateRequest;
+import com.vmware.admiral.compute.container.ContainerBatchCreateService.ContainerBatchCreateResponse;
+import com.vmware.admiral.compute.container.ContainerBatchCreateService.ContainerBatchCreateResult;
 import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
 import com.vmware.admiral.compute.container.ContainerFactoryService;
 import com.vmware.admiral.compute.container.ContainerHostDataCollectionService;
@@ -481,6 +485,7 @@ public class ContainerAllocationTaskService
         placementTask.resourceDescriptionLink = state.resourceDescriptionLink;
         placementTask.resourcePoolLinks = new ArrayList<>();
         placementTask.resourcePoolLinks.add(resourcePoolLink);
+        placementTask.groupResourcePolicyLink = state.groupResourcePolicyLink;
         placementTask.resourceCount = state.resourceCount;
         placementTask.resourceType = state.resourceType;
         placementTask.tenantLinks = state.tenantLinks;
@@ -713,8 +718,9 @@ public class ContainerAllocationTaskService
 
         if (taskCallback == null) {
             // create a counter subtask link first
-            createCounterSubTaskCallback(state, state.resourceCount, !allocationRequest,
-                    SubStage.PROVISIONING_COMPLETED,
+            // the allocated container states are created in a batch and complete only once
+            createCounterSubTaskCallback(state, allocationRequest ? 1 : state.resourceCount,
+                    !allocationRequest, SubStage.PROVISIONING_COMPLETED,
                     (serviceTask) -> provisionOrAllocateContainers(state,
                             this.containerDescription, serviceTask));
             return;
@@ -744,11 +750,7 @@ public class ContainerAllocationTaskService
                         () -> createContainerInstanceRequests(state, taskCallback, resourceLink));
             }
         } else {
-            for (String resourceName : state.resourceNames) {
-                createContainerState(state, containerDesc, resourceName,
-                        allocationRequest, null,
-                        state.resourceNameToHostSelection.get(resourceName), taskCallback);
-            }
+            createContainerStates(state, containerDesc, allocationRequest, null, taskCallback);
         }
 
         sendSelfPatch(createUpdateSubStageTask(state, SubStage.PROVISIONING));
@@ -832,88 +834,46 @@ public class ContainerAllocationTaskService
 
     }
 
-    private void createContainerState(ContainerAllocationTaskState state,
-            ContainerDescription containerDesc,
-            String resourceName, boolean allocationRequest,
-            GroupResourcePolicyState groupResourcePolicyState, HostSelection hostSelection,
-            ServiceTaskCallback taskCallback) {
+    private void createContainerStates(ContainerAllocationTaskState state,
+            ContainerDescription containerDesc, boolean allocationRequest,
+            GroupResourcePolicyState groupResourcePolicyState, ServiceTaskCallback taskCallback) {
         try {
 
             if (groupResourcePolicyState == null) {
                 getResourcePolicyState(
                         state,
-                        (resourcePolicyState) -> createContainerState(state, containerDesc,
-                                resourceName, allocationRequest, resourcePolicyState,
-                                hostSelection,
-                                taskCallback));
+                        (resourcePolicyState) -> createContainerStates(state, containerDesc,
+                                allocationRequest, resourcePolicyState, taskCallback));
                 return;
             }
 
-            final ContainerState containerState = new ContainerState();
-            containerState.documentSelfLink = buildResourceId(resourceName);
-            containerState.names = new ArrayList<>();
-            containerState.names.add(resourceName);
-            containerState.tenantLinks = state.tenantLinks;
-            containerState.descriptionLink = state.resourceDescriptionLink;
-            containerState.groupResourcePolicyLink = state.groupResourcePolicyLink;
-            containerState.parentLink = hostSelection.hostLink;
-            containerState.powerState = PowerState.PROVISIONING;
-            containerState.status = ContainerState.CONTAINER_ALLOCATION_STATUS;
-            containerState.adapterManagementReference = state.instanceAdapterReference;
-            containerState.customProperties = state.customProperties;
-            containerState.image = containerDesc.image;
-            containerState.command = containerDesc.command;
-            containerState.volumesFrom = hostSelection.mapNames(containerDesc.volumesFrom);
-            containerState.volumeDriver = containerDesc.volumeDriver;
-
-            containerState.networks = mapNetworks(containerDesc, hostSelection);
-
-            containerState.documentExpirationTimeMicros = ServiceUtils
-                    .getDefaultTaskExpirationTimeInMicros();
-
-            containerState.memoryLimit = getMinParam(groupResourcePolicyState.memoryLimit,
-                    containerDesc.memoryLimit);
-
-            Long cpuShares = getMinParam(groupResourcePolicyState.cpuShares,
-                    containerDesc.cpuShares);
-            containerState.cpuShares = cpuShares != null ? cpuShares.intValue() : null;
-
-            String resourceLink = buildResourceLink(resourceName);
-
-            Map<String, ContainerServiceLinksConfig> containerServiceLinksConfigs = state.containerServiceLinksConfigs;
-            if (containerServiceLinksConfigs != null
-                    && containerServiceLinksConfigs.get(resourceLink) != null) {
-                containerState.extraHosts = containerServiceLinksConfigs
-                        .get(resourceLink).extraHosts;
-            } else {
-                containerState.extraHosts = containerDesc.extraHosts;
-            }
-            containerState.env = containerDesc.env;
-
-            String contextId;
-            if (state.customProperties != null && (contextId = state.customProperties
-                    .get(FIELD_NAME_CONTEXT_ID_KEY)) != null) {
-                containerState.compositeComponentLink = UriUtils.buildUriPath(
-                        CompositeComponentFactoryService.SELF_LINK, contextId);
+            ContainerBatchCreateRequest batchRequest = new ContainerBatchCreateRequest();
+            batchRequest.containerStates = new ArrayList<>(state.resourceNames.size());
+            for (String resourceName : state.resourceNames) {
+                batchRequest.containerStates.add(buildContainerState(state, containerDesc,
+                        resourceName, groupResourcePolicyState,
+                        state.resourceNameToHostSelection.get(resourceName)));
             }
 
-            sendRequest(OperationUtil
-                    .createForcedPost(this, ContainerFactoryService.SELF_LINK)
-                    .setBody(containerState)
+            sendRequest(Operation.createPost(this, ContainerBatchCreateService.SELF_LINK)
+                    .setBody(batchRequest)
                     .setCompletion(
                             (o, e) -> {
                                 if (e != null) {
-                                    completeSubTasksCounter(taskCallback, e);
+                                    failTask("Failure creating ContainerStates", e);
                                     return;
                                 }
-                                ContainerState body = o.getBody(ContainerState.class);
-                                logInfo("Created ContainerState: %s ", body.documentSelfLink);
+                                List<ContainerBatchCreateResult> results = o.getBody(
+                                        ContainerBatchCreateResponse.class).results;
+                                logInfo("Created %d ContainerStates", results.stream()
+                                        .filter((r) -> r.failure == null).count());
 
                                 if (allocationRequest) {
-                                    updateNetworksHosts(body, taskCallback);
+                                    completeAllocatedContainerStates(
+                                            batchRequest.containerStates, results,
+                                            taskCallback);
                                 } else {
-                                    createContainerInstanceRequests(state, taskCallback,
-                                            body.documentSelfLink);
+                                    provisionContainerStates(state, results, taskCallback);
                                 }
                             }));
 
@@ -922,27 +882,123 @@ public class ContainerAllocationTaskService
         }
     }
 
+    private ContainerState buildContainerState(ContainerAllocationTaskState state,
+            ContainerDescription containerDesc, String resourceName,
+            GroupResourcePolicyState groupResourcePolicyState, HostSelection hostSelection) {
+        final ContainerState containerState = new ContainerState();
+        containerState.documentSelfLink = buildResourceId(resourceName);
+        containerState.names = new ArrayList<>();
+        containerState.names.add(resourceName);
+        containerState.tenantLinks = state.tenantLinks;
+        containerState.descriptionLink = state.resourceDescriptionLink;
+        containerState.groupResourcePolicyLink = state.groupResourcePolicyLink;
+        containerState.parentLink = hostSelection.hostLink;
+        containerState.powerState = PowerState.PROVISIONING;
+        containerState.status = ContainerState.CONTAINER_ALLOCATION_STATUS;
+        containerState.adapterManagementReference = state.instanceAdapterReference;
+        containerState.customProperties = state.customProperties;
+        containerState.image = containerDesc.image;
+        containerState.command = containerDesc.command;
+        containerState.volumesFrom = hostSelection.mapNames(containerDesc.volumesFrom);
+        containerState.volumeDriver = containerDesc.volumeDriver;
+
+        containerState.networks = mapNetworks(containerDesc, hostSelection);
+
+        containerState.documentExpirationTimeMicros = ServiceUtils
+                .getDefaultTaskExpirationTimeInMicros();
+
+        containerState.memoryLimit = getMinParam(groupResourcePolicyState.memoryLimit,
+                containerDesc.memoryLimit);
+
+        Long cpuShares = getMinParam(groupResourcePolicyState.cpuShares,
+                containerDesc.cpuShares);
+        containerState.cpuShares = cpuShares != null ? cpuShares.intValue() : null;
+
+        String resourceLink = buildResourceLink(resourceName);
+
+        Map<String, ContainerServiceLinksConfig> containerServiceLinksConfigs = state.containerServiceLinksConfigs;
+        if (containerServiceLinksConfigs != null
+                && containerServiceLinksConfigs.get(resourceLink) != null) {
+            containerState.extraHosts = containerServiceLinksConfigs
+                    .get(resourceLink).extraHosts;
+        } else {
+            containerState.extraHosts = containerDesc.extraHosts;
+        }
+        containerState.env = containerDesc.env;
+
+        String contextId;
+        if (state.customProperties != null && (contextId = state.customProperties
+                .get(FIELD_NAME_CONTEXT_ID_KEY)) != null) {
+            containerState.compositeComponentLink = UriUtils.buildUriPath(
+                    CompositeComponentFactoryService.SELF_LINK, contextId);
+        }
+
+        return containerState;
+    }
+
+    /**
+     * Completes the allocation of the whole batch at once, failed if any of the container states
+     * failed to be created.
+     */
+    private void completeAllocatedContainerStates(List<ContainerState> containerStates,
+            List<ContainerBatchCreateResult> results, ServiceTaskCallback taskCallback) {
+        List<ContainerState> created = new ArrayList<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            ContainerBatchCreateResult result = results.get(i);
+            if (result.failure != null) {
+                completeSubTasksCounter(taskCallback,
+                        new IllegalStateException(result.failure.message));
+                return;
+            }
+            created.add(containerStates.get(i));
+        }
+
+        updateNetworksHosts(created, taskCallback);
+    }
+
+    private void provisionContainerStates(ContainerAllocationTaskState state,
+            List<ContainerBatchCreateResult> results, ServiceTaskCallback taskCallback) {
+        for (ContainerBatchCreateResult result : results) {
+            if (result.failure != null) {
+                completeSubTasksCounter(taskCallback,
+                        new IllegalStateException(result.failure.message));
+            } else {
+                createContainerInstanceRequests(state, taskCallback, result.documentSelfLink);
+            }
+        }
+    }
+
     /**
      * Updates all the container networks states (if needed) to use the same container host for
      * provisioning the networks. Alternatively, instead of doing it during the container end of the
      * allocation phase, it could be done during the network beginning of the provisioning phase.
+     * Each network is updated once for all the containers, with the host of the first container
+     * attached to it.
      */
-    private void updateNetworksHosts(ContainerState containerState,
+    private void updateNetworksHosts(List<ContainerState> containerStates,
             ServiceTaskCallback taskCallback) {
 
-        Map<String, ServiceNetwork> networks = containerState.networks;
-        if ((networks == null) || networks.isEmpty()) {
+        Map<String, String> networkHosts = new LinkedHashMap<>();
+        for (ContainerState containerState : containerStates) {
+            if (containerState.networks != null) {
+                for (String networkId : containerState.networks.keySet()) {
+                    networkHosts.putIfAbsent(networkId, containerState.parentLink);
+                }
+            }
+        }
+
+        if (networkHosts.isEmpty()) {
             completeSubTasksCounter(taskCallback, null);
             return;
         }
 
         OperationJoin
-                .create(networks.keySet().stream().map(
-                        (networkId) -> createUpdateNetworkHostLinkOperation(networkId,
-                                containerState.parentLink)))
+                .create(networkHosts.entrySet().stream().map(
+                        (entry) -> createUpdateNetworkHostLinkOperation(entry.getKey(),
+                                entry.getValue())))
                 .setCompletion((os, es) -> {
                     if (es != null) {
-                        completeSubTasksCounter(null,
+                        completeSubTasksCounter(taskCallback,
                                 new IllegalStateException(Utils.toString(es)));
                         return;
                     }
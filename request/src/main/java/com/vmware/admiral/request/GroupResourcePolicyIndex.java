@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import com.vmware.admiral.common.util.HostScopedInstances;
+import com.vmware.admiral.common.util.QueryUtil;
+import com.vmware.admiral.common.util.ServiceDocumentQuery;
+import com.vmware.admiral.compute.ResourceType;
+import com.vmware.admiral.compute.container.GroupResourcePolicyQuotaLeases;
+import com.vmware.admiral.compute.container.GroupResourcePolicyService;
+import com.vmware.admiral.compute.container.GroupResourcePolicyService.GroupResourcePolicyState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+/**
+ * Host local, in-memory index of the group resource policies used by the reservations to find the
+ * candidate policies without a query. The policies are indexed by resource type and tenant link
+ * (global policies under no tenant) and ranked by priority and then by available capacity, the
+ * unlimited policies first.
+ *
+ * The index is built like the placement inventory, with a continuous local query started before
+ * the initial load, and the changes are applied by document version. Until it is loaded
+ * {@link #isReady()} returns <code>false</code> and the callers should query instead.
+ */
+public class GroupResourcePolicyIndex {
+    public static final boolean ENABLED = Boolean.getBoolean(
+            "com.vmware.admiral.request.reservation.policy.index");
+
+    private static final long CONTINUOUS_QUERY_EXPIRATION_MICROS = TimeUnit.DAYS.toMicros(365);
+    private static final String GLOBAL = "";
+
+    private static final Comparator<GroupResourcePolicyState> RANKING = Comparator
+            .comparingInt((GroupResourcePolicyState p) -> p.priority)
+            .thenComparing(GroupResourcePolicyIndex::getAvailableInstances,
+                    Comparator.reverseOrder())
+            .thenComparing(GroupResourcePolicyIndex::getAvailableMemory,
+                    Comparator.reverseOrder())
+            .thenComparing((p) -> p.documentSelfLink);
+
+    private final ServiceHost host;
+    private final Map<String, GroupResourcePolicyState> policies = new HashMap<>();
+    /** The versions of the policies deleted while loading, so the load does not resurrect them */
+    private final Map<String, Long> deletedVersions = new HashMap<>();
+    /** The ranked policies by resource type and tenant link */
+    private final Map<String, Map<String, NavigableSet<GroupResourcePolicyState>>> ranked =
+            new HashMap<>();
+    private volatile boolean ready;
+
+    public static GroupResourcePolicyIndex getInstance(ServiceHost host) {
+        return HostScopedInstances.getInstance(host, GroupResourcePolicyIndex.class, (h) -> {
+            GroupResourcePolicyIndex index = new GroupResourcePolicyIndex(h);
+            if (ENABLED) {
+                index.start();
+            }
+            return index;
+        });
+    }
+
+    GroupResourcePolicyIndex(ServiceHost host) {
+        this.host = host;
+    }
+
+    /**
+     * Returns whether the index is loaded and could be used instead of querying.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Returns the policies of the given tenants, or the global ones if no tenants are given, for
+     * the given resource type with enough instances and memory available, ranked by priority and
+     * available capacity.
+     *
+     * @param memoryLimit
+     *            - the memory limit per resource, <code>null</code> if not set
+     */
+    public synchronized List<GroupResourcePolicyState> getCandidates(List<String> tenantLinks,
+            String resourceType, long resourceCount, Long memoryLimit) {
+        Map<String, NavigableSet<GroupResourcePolicyState>> byTenant = ranked
+                .get(getResourceType(resourceType));
+        if (byTenant == null) {
+            return new ArrayList<>();
+        }
+
+        List<String> tenants = tenantLinks == null || tenantLinks.isEmpty()
+                ? Collections.singletonList(GLOBAL) : tenantLinks;
+        Set<GroupResourcePolicyState> candidates = new TreeSet<>(RANKING);
+        for (String tenant : tenants) {
+            NavigableSet<GroupResourcePolicyState> tenantPolicies = byTenant.get(tenant);
+            if (tenantPolicies == null) {
+                continue;
+            }
+            for (GroupResourcePolicyState policy : tenantPolicies) {
+                if (hasCapacity(policy, resourceCount, memoryLimit)) {
+                    candidates.add(policy);
+                }
+            }
+        }
+        return new ArrayList<>(candidates);
+    }
+
+    private boolean hasCapacity(GroupResourcePolicyState policy, long resourceCount,
+            Long memoryLimit) {
+        if (GroupResourcePolicyQuotaLeases.ENABLED) {
+            return GroupResourcePolicyQuotaLeases.getInstance(host).hasCapacity(policy,
+                    resourceCount, memoryLimit != null ? memoryLimit : 0);
+        }
+        return getAvailableInstances(policy) >= resourceCount
+                && (memoryLimit == null
+                        || getAvailableMemory(policy) >= resourceCount * memoryLimit);
+    }
+
+    private static long getAvailableInstances(GroupResourcePolicyState policy) {
+        return policy.maxNumberInstances == GroupResourcePolicyService.UNLIMITED_NUMBER_INSTANCES
+                ? Long.MAX_VALUE : policy.availableInstancesCount;
+    }
+
+    private static long getAvailableMemory(GroupResourcePolicyState policy) {
+        return policy.memoryLimit == 0 ? Long.MAX_VALUE : policy.availableMemory;
+    }
+
+    private void start() {
+        QueryTask q = QueryUtil.buildQuery(GroupResourcePolicyState.class, false);
+        q.querySpec.options = EnumSet.of(QueryOption.CONTINUOUS, QueryOption.EXPAND_CONTENT);
+        q.documentExpirationTimeMicros = Utils.getNowMicrosUtc()
+                + CONTINUOUS_QUERY_EXPIRATION_MICROS;
+
+        host.sendRequest(Operation
+                .createPost(UriUtils.buildUri(host, ServiceUriPaths.CORE_LOCAL_QUERY_TASKS))
+                .setBody(q)
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        host.log(Level.WARNING, "Failed to start continuous query for group"
+                                + " resource policies, policy index disabled: %s",
+                                Utils.toString(e));
+                        return;
+                    }
+                    QueryTask task = o.getBody(QueryTask.class);
+                    Operation subscribe = Operation
+                            .createPost(UriUtils.buildUri(host, task.documentSelfLink))
+                            .setReferer(host.getUri())
+                            .setCompletion((so, se) -> {
+                                if (se != null) {
+                                    host.log(Level.WARNING, "Failed to subscribe for changes of"
+                                            + " group resource policies, policy index disabled:"
+                                            + " %s", Utils.toString(se));
+                                    return;
+                                }
+                                load();
+                            });
+                    host.startSubscriptionService(subscribe, (notification) -> {
+                        notification.complete();
+                        QueryTask body = notification.getBody(QueryTask.class);
+                        if (body.results == null || body.results.documents == null) {
+                            return;
+                        }
+                        for (Object document : body.results.documents.values()) {
+                            update(Utils.fromJson(document, GroupResourcePolicyState.class));
+                        }
+                    });
+                }));
+    }
+
+    private void load() {
+        QueryTask q = QueryUtil.buildQuery(GroupResourcePolicyState.class, false);
+        QueryUtil.addExpandOption(q);
+        new ServiceDocumentQuery<>(host, GroupResourcePolicyState.class).queryPages(q,
+                (page) -> {
+                    if (page.hasException()) {
+                        host.log(Level.WARNING, "Failed to load group resource policies, policy"
+                                + " index disabled: %s", Utils.toString(page.getException()));
+                        return;
+                    }
+                    page.getDocuments().forEach(this::update);
+                    if (!page.isLast()) {
+                        page.next();
+                        return;
+                    }
+                    synchronized (this) {
+                        deletedVersions.clear();
+                        ready = true;
+                        host.log(Level.INFO, "Group resource policy index loaded with %d"
+                                + " policies", policies.size());
+                    }
+                });
+    }
+
+    synchronized void update(GroupResourcePolicyState policy) {
+        String link = policy.documentSelfLink;
+        GroupResourcePolicyState current = policies.get(link);
+        Long currentVersion = current != null ? current.documentVersion
+                : deletedVersions.get(link);
+        if (currentVersion != null && currentVersion >= policy.documentVersion) {
+            return;
+        }
+
+        if (current != null) {
+            forEachBucket(current, (bucket) -> bucket.remove(current));
+        }
+        if (Action.DELETE.toString().equals(policy.documentUpdateAction)) {
+            policies.remove(link);
+            if (!ready) {
+                deletedVersions.put(link, policy.documentVersion);
+            }
+            return;
+        }
+        policies.put(link, policy);
+        forEachBucket(policy, (bucket) -> bucket.add(policy));
+    }
+
+    private void forEachBucket(GroupResourcePolicyState policy,
+            Consumer<NavigableSet<GroupResourcePolicyState>> action) {
+        Map<String, NavigableSet<GroupResourcePolicyState>> byTenant = ranked.computeIfAbsent(
+                getResourceType(policy.resourceType), (k) -> new HashMap<>());
+        List<String> tenants = policy.tenantLinks == null || policy.tenantLinks.isEmpty()
+                ? Collections.singletonList(GLOBAL) : policy.tenantLinks;
+        for (String tenant : tenants) {
+            action.accept(byTenant.computeIfAbsent(tenant, (k) -> new TreeSet<>(RANKING)));
+        }
+    }
+
+    private static String getResourceType(String resourceType) {
+        return resourceType != null ? resourceType : ResourceType.CONTAINER_TYPE.getName();
+    }
+}
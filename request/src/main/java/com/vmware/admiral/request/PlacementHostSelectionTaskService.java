@@ -12,6 +12,7 @@
 package com.vmware.admiral.request;
 
 import static com.vmware.admiral.common.util.AssertUtil.assertNotEmpty;
+import static com.vmware.admiral.common.util.PropertyUtils.getPropertyDouble;
 import static com.vmware.admiral.common.util.PropertyUtils.getPropertyLong;
 import static com.vmware.admiral.common.util.PropertyUtils.mergeProperty;
 
@@ -21,7 +22,6 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.logging.Level;
@@ -31,11 +31,22 @@ import com.vmware.admiral.common.ManagementUriParts;
 import com.vmware.admiral.common.util.QueryUtil;
 import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.compute.ContainerHostService;
+import com.vmware.admiral.compute.container.CompositeComponentFactoryService;
 import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.compute.container.DeploymentPolicyService;
+import com.vmware.admiral.compute.container.DeploymentPolicyService.DeploymentPolicy;
+import com.vmware.admiral.compute.container.GroupResourcePolicyService.GroupResourcePolicyState;
 import com.vmware.admiral.request.allocation.filter.AffinityFilters;
 import com.vmware.admiral.request.allocation.filter.HostSelectionFilter;
 import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelection;
 import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelectionFilterException;
+import com.vmware.admiral.request.allocation.filter.HostSelectionFilterPlanner;
+import com.vmware.admiral.request.allocation.filter.PlacementInventory;
+import com.vmware.admiral.request.allocation.filter.PlacementInventory.HostView;
+import com.vmware.admiral.request.allocation.score.ClusterHostScorer;
+import com.vmware.admiral.request.allocation.score.HostScorer;
+import com.vmware.admiral.request.allocation.score.HostScorers;
+import com.vmware.admiral.request.utils.RequestUtils;
 import com.vmware.admiral.service.common.AbstractTaskStatefulService;
 import com.vmware.admiral.service.common.DefaultSubStage;
 import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallbackResponse;
@@ -43,6 +54,8 @@ import com.vmware.photon.controller.model.resources.ComputeDescriptionService.Co
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.photon.controller.model.resources.ComputeService.PowerState;
 import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.QueryTask;
 import com.vmware.xenon.services.common.QueryTask.QuerySpecification;
 
@@ -59,6 +72,7 @@ public class PlacementHostSelectionTaskService
     public static final String DISPLAY_NAME = "Host Selection";
     private static final int QUERY_COUNT_ERROR = Integer.getInteger(
             "com.vmware.admiral.service.placement.query.retries", 2);
+    private static final String STAT_NAME_FILTER_LATENCY_MICROS = "filterLatencyMicros";
 
     // cached container description
     private volatile ContainerDescription containerDescription;
@@ -78,6 +92,12 @@ public class PlacementHostSelectionTaskService
         /** (Required) The resourcePool to be used for this provisioning allocation */
         public List<String> resourcePoolLinks;
 
+        /**
+         * (Optional) The group resource policy already selected for this provisioning allocation,
+         * its placement strategy is used when the description has no deployment policy.
+         */
+        public String groupResourcePolicyLink;
+
         /**
          * (Required) The overall contextId of this request (could be the same across multiple
          * request - composite allocation)
@@ -175,7 +195,7 @@ public class PlacementHostSelectionTaskService
         final List<String> computeDescriptionLinks = new ArrayList<>();
         ServiceDocumentQuery<ComputeDescription> query = new ServiceDocumentQuery<ComputeDescription>(
                 getHost(), ComputeDescription.class);
-        query.query(q, (r) -> {
+        query.queryCached(q, (r) -> {
             if (r.hasException()) {
                 failTask("Error querying for placement compute description.", r.getException());
             } else if (r.hasResult()) {
@@ -195,6 +215,17 @@ public class PlacementHostSelectionTaskService
     private void proceedComputeSelection(PlacementHostSelectionTaskState state,
             ContainerDescription desc,
             Collection<String> computeDescriptionLinks, int errorCount) {
+        PlacementInventory inventory = PlacementInventory.getInstance(getHost());
+        if (inventory.isReady()) {
+            List<HostView> hosts = inventory.getHosts(state.resourcePoolLinks,
+                    computeDescriptionLinks);
+            if (!hosts.isEmpty()) {
+                selection(state, buildHostSelectionMapFromInventory(hosts), desc);
+                return;
+            }
+            // the inventory could be behind a host just added, so fall back to the query
+        }
+
         QueryTask q = QueryUtil.buildQuery(ComputeState.class, false);
 
         QueryUtil.addListValueClause(q,
@@ -210,8 +241,18 @@ public class PlacementHostSelectionTaskService
 
         QueryUtil.addExpandOption(q);
 
-        ServiceDocumentQuery<ComputeState> query = new ServiceDocumentQuery<ComputeState>(
-                getHost(), ComputeState.class);
+        // select only the properties needed to build the host selections
+        ServiceDocumentQuery<ComputeState> query = ServiceDocumentQuery.projection(getHost(),
+                ComputeState.class,
+                ComputeState.FIELD_NAME_RESOURCE_POOL_LINK,
+                customPropertyFieldName(ContainerHostService.CUSTOM_PROPERTY_DEPLOYMENT_POLICY),
+                customPropertyFieldName(
+                        ContainerHostService.DOCKER_HOST_AVAILABLE_MEMORY_PROP_NAME),
+                customPropertyFieldName(ContainerHostService.DOCKER_HOST_CLUSTER_STORE_PROP_NAME),
+                customPropertyFieldName(ContainerHostService.DOCKER_HOST_TOTAL_MEMORY_PROP_NAME),
+                customPropertyFieldName(ContainerHostService.DOCKER_HOST_CPU_USAGE_PCT_PROP_NAME),
+                customPropertyFieldName(
+                        ContainerHostService.NUMBER_OF_CONTAINERS_PER_HOST_PROP_NAME));
         List<ComputeState> computeStates = new ArrayList<>();
         query.query(
                 q,
@@ -246,6 +287,11 @@ public class PlacementHostSelectionTaskService
                 });
     }
 
+    private static String customPropertyFieldName(String propertyName) {
+        return QuerySpecification.buildCompositeFieldName(
+                ComputeState.FIELD_NAME_CUSTOM_PROPERTIES, propertyName);
+    }
+
     private Map<String, HostSelection> buildHostSelectionMap(List<ComputeState> computeStates) {
         final Map<String, HostSelection> initHostSelectionMap = new LinkedHashMap<>(
                 computeStates.size());
@@ -261,6 +307,30 @@ public class PlacementHostSelectionTaskService
                     .orElse(Long.MAX_VALUE);
             hostSelection.clusterStore = computeState.customProperties
                     .get(ContainerHostService.DOCKER_HOST_CLUSTER_STORE_PROP_NAME);
+            hostSelection.totalMemory = getPropertyLong(computeState.customProperties,
+                    ContainerHostService.DOCKER_HOST_TOTAL_MEMORY_PROP_NAME).orElse(null);
+            hostSelection.cpuUsage = getPropertyDouble(computeState.customProperties,
+                    ContainerHostService.DOCKER_HOST_CPU_USAGE_PCT_PROP_NAME).orElse(null);
+            hostSelection.hostContainerCount = getPropertyLong(computeState.customProperties,
+                    ContainerHostService.NUMBER_OF_CONTAINERS_PER_HOST_PROP_NAME).orElse(0L);
+            initHostSelectionMap.put(hostSelection.hostLink, hostSelection);
+        }
+        return initHostSelectionMap;
+    }
+
+    private Map<String, HostSelection> buildHostSelectionMapFromInventory(List<HostView> hosts) {
+        final Map<String, HostSelection> initHostSelectionMap = new LinkedHashMap<>(
+                hosts.size());
+        for (HostView hostView : hosts) {
+            final HostSelection hostSelection = new HostSelection();
+            hostSelection.hostLink = hostView.hostLink;
+            hostSelection.resourcePoolLink = hostView.resourcePoolLink;
+            hostSelection.deploymentPolicyLink = hostView.deploymentPolicyLink;
+            hostSelection.availableMemory = hostView.availableMemory;
+            hostSelection.clusterStore = hostView.clusterStore;
+            hostSelection.totalMemory = hostView.totalMemory;
+            hostSelection.cpuUsage = hostView.cpuUsage;
+            hostSelection.hostContainerCount = hostView.hostContainerCount;
             initHostSelectionMap.put(hostSelection.hostLink, hostSelection);
         }
         return initHostSelectionMap;
@@ -301,16 +371,14 @@ public class PlacementHostSelectionTaskService
     private void filter(final PlacementHostSelectionTaskState state,
             final ContainerDescription desc,
             final Map<String, HostSelection> hostSelectionMap,
-            final Queue<HostSelectionFilter> filters) {
+            final Collection<HostSelectionFilter> filters) {
         if (isNoSelection(hostSelectionMap)) {
             failTask(null, new IllegalStateException("Compute state not found"));
             return;
-        } else {
-            final HostSelectionFilter filter = filters.poll();
-            if (filter == null) {
-                complete(state, hostSelectionMap);
-            } else {
-                filter.filter(state, hostSelectionMap, (filteredHostSelectionMap, e) -> {
+        }
+
+        new HostSelectionFilterPlanner(state, filters).execute(hostSelectionMap,
+                this::recordFilterLatency, (filteredHostSelectionMap, e) -> {
                     if (e != null) {
                         if (e instanceof HostSelectionFilterException) {
                             failTask("Allocation Filter Error: " + e.getMessage(), null);
@@ -319,10 +387,176 @@ public class PlacementHostSelectionTaskService
                         }
                         return;
                     }
-                    filter(state, desc, filteredHostSelectionMap, filters);
+                    if (isNoSelection(filteredHostSelectionMap)) {
+                        failTask(null, new IllegalStateException("Compute state not found"));
+                        return;
+                    }
+                    score(state, desc, filteredHostSelectionMap);
                 });
+    }
+
+    private void recordFilterLatency(HostSelectionFilter filter, long latencyMicros) {
+        String filterName = filter.getClass().getSimpleName();
+        logFine("Host selection filter %s completed in %d micros", filterName, latencyMicros);
+        setStat(STAT_NAME_FILTER_LATENCY_MICROS + "." + filterName, latencyMicros);
+    }
+
+    private void score(final PlacementHostSelectionTaskState state,
+            final ContainerDescription desc,
+            final Map<String, HostSelection> hostSelectionMap) {
+        if (isClustered(state, desc)) {
+            // the nodes of a cluster are spread evenly regardless of the placement strategy
+            ArrayList<HostSelection> hostSelections = new ArrayList<>(hostSelectionMap.values());
+            Collections.shuffle(hostSelections);
+            List<HostSelection> assigned = HostScorers.assign(hostSelections,
+                    state.resourceCount, desc.memoryLimit, new ClusterHostScorer());
+            reserve(state, desc, assigned);
+            completeWithHostSelections(state, assigned);
+            return;
+        }
+
+        getPlacementStrategy(state, desc, (strategy) -> {
+            HostScorer scorer = HostScorers.get(strategy);
+            if (scorer == null) {
+                if (strategy != null) {
+                    logWarning("Unknown placement strategy [%s], placing randomly", strategy);
+                }
+                complete(state, hostSelectionMap);
+                return;
             }
+
+            ArrayList<HostSelection> hostSelections = new ArrayList<>(hostSelectionMap.values());
+            // hosts with equal scores are picked randomly
+            Collections.shuffle(hostSelections);
+            completeWithHostSelections(state, HostScorers.assign(hostSelections,
+                    state.resourceCount, desc.memoryLimit, scorer));
+        });
+    }
+
+    private boolean isClustered(PlacementHostSelectionTaskState state,
+            ContainerDescription desc) {
+        return (desc._cluster != null && desc._cluster > 1)
+                || state.getCustomProperty(RequestUtils.CLUSTERING_OPERATION_CUSTOM_PROP) != null;
+    }
+
+    /**
+     * Reserves the cluster nodes placed on each host in the placement inventory, so the concurrent
+     * placements of the same cluster take them into account until the containers are created.
+     */
+    private void reserve(PlacementHostSelectionTaskState state, ContainerDescription desc,
+            List<HostSelection> assigned) {
+        PlacementInventory inventory = PlacementInventory.getInstance(getHost());
+        if (!inventory.isReady()) {
+            return;
+        }
+        String compositeComponentLink = UriUtils.buildUriPath(
+                CompositeComponentFactoryService.SELF_LINK, state.contextId);
+        Map<String, Integer> placedPerHost = new LinkedHashMap<>();
+        for (HostSelection hostSelection : assigned.subList(0,
+                (int) Math.min(state.resourceCount, assigned.size()))) {
+            placedPerHost.merge(hostSelection.hostLink, 1, Integer::sum);
+        }
+        placedPerHost.forEach((hostLink, count) -> inventory.reserve(hostLink,
+                desc.documentSelfLink, compositeComponentLink, count));
+    }
+
+    /**
+     * Gets the placement strategy of the deployment policy of the description or, if not set, of
+     * the selected group resource policy or the one with the highest priority for the resource
+     * pools. Completes with <code>null</code>, for the default placement, if no strategy is set or
+     * it can't be retrieved.
+     */
+    private void getPlacementStrategy(PlacementHostSelectionTaskState state,
+            ContainerDescription desc, Consumer<String> callback) {
+        if (desc.deploymentPolicyId == null || desc.deploymentPolicyId.isEmpty()) {
+            getGroupPolicyPlacementStrategy(state, callback);
+            return;
+        }
+
+        QueryTask q = QueryUtil.buildPropertyQuery(DeploymentPolicy.class,
+                DeploymentPolicy.FIELD_NAME_SELF_LINK, UriUtils.buildUriPath(
+                        DeploymentPolicyService.FACTORY_LINK,
+                        UriUtils.getLastPathSegment(desc.deploymentPolicyId)));
+        QueryUtil.addExpandOption(q);
+        List<String> strategies = new ArrayList<>(1);
+        new ServiceDocumentQuery<>(getHost(), DeploymentPolicy.class).queryCached(q, (r) -> {
+            if (r.hasException()) {
+                logWarning("Error querying for deployment policy %s, using default placement: %s",
+                        desc.deploymentPolicyId, Utils.toString(r.getException()));
+                callback.accept(null);
+            } else if (r.hasResult()) {
+                if (r.getResult().placementStrategy != null
+                        && !r.getResult().placementStrategy.isEmpty()) {
+                    strategies.add(r.getResult().placementStrategy);
+                }
+            } else if (strategies.isEmpty()) {
+                getGroupPolicyPlacementStrategy(state, callback);
+            } else {
+                callback.accept(strategies.get(0));
+            }
+        });
+    }
+
+    private void getGroupPolicyPlacementStrategy(PlacementHostSelectionTaskState state,
+            Consumer<String> callback) {
+        if (state.groupResourcePolicyLink != null) {
+            sendRequest(Operation.createGet(this, state.groupResourcePolicyLink)
+                    .setCompletion((o, e) -> {
+                        if (e != null) {
+                            logWarning("Error retrieving group resource policy %s, using default"
+                                    + " placement: %s", state.groupResourcePolicyLink,
+                                    Utils.toString(e));
+                            callback.accept(null);
+                            return;
+                        }
+                        GroupResourcePolicyState policy = o.getBody(
+                                GroupResourcePolicyState.class);
+                        callback.accept(policy.customProperties == null ? null
+                                : policy.customProperties
+                                        .get(HostScorers.PLACEMENT_STRATEGY_PROP_NAME));
+                    }));
+            return;
         }
+
+        if (state.resourcePoolLinks == null || state.resourcePoolLinks.isEmpty()) {
+            callback.accept(null);
+            return;
+        }
+
+        QueryTask q = QueryUtil.buildQuery(GroupResourcePolicyState.class, false);
+        QueryUtil.addListValueClause(q, GroupResourcePolicyState.FIELD_NAME_RESOURCE_POOL_LINK,
+                state.resourcePoolLinks);
+        QueryUtil.addExpandOption(q);
+        List<GroupResourcePolicyState> policies = new ArrayList<>();
+        ServiceDocumentQuery<GroupResourcePolicyState> query = new ServiceDocumentQuery<>(
+                getHost(), GroupResourcePolicyState.class);
+        // cached, as the policies of the same pools are looked up by every placement
+        query.queryCached(q, (r) -> {
+            if (r.hasException()) {
+                logWarning("Error querying for group resource policies, using default placement:"
+                        + " %s", Utils.toString(r.getException()));
+                callback.accept(null);
+            } else if (r.hasResult()) {
+                GroupResourcePolicyState policy = r.getResult();
+                if (policy.customProperties != null
+                        && policy.customProperties
+                                .get(HostScorers.PLACEMENT_STRATEGY_PROP_NAME) != null
+                        && isSameTenant(state.tenantLinks, policy.tenantLinks)) {
+                    policies.add(policy);
+                }
+            } else {
+                policies.sort((g1, g2) -> g1.priority - g2.priority);
+                callback.accept(policies.isEmpty() ? null
+                        : policies.get(0).customProperties
+                                .get(HostScorers.PLACEMENT_STRATEGY_PROP_NAME));
+            }
+        });
+    }
+
+    private static boolean isSameTenant(List<String> tenantLinks, List<String> policyTenantLinks) {
+        return tenantLinks == null || tenantLinks.isEmpty() || policyTenantLinks == null
+                || policyTenantLinks.isEmpty() || !Collections.disjoint(tenantLinks,
+                        policyTenantLinks);
     }
 
     private void complete(final PlacementHostSelectionTaskState state,
@@ -346,6 +580,11 @@ public class PlacementHostSelectionTaskService
             hostSelections.addAll(hostSelections.subList(0, diff % initialSize));
         }
 
+        completeWithHostSelections(state, hostSelections);
+    }
+
+    private void completeWithHostSelections(final PlacementHostSelectionTaskState state,
+            final Collection<HostSelection> hostSelections) {
         PlacementHostSelectionTaskState newState =
                 createUpdateSubStageTask(state, DefaultSubStage.COMPLETED);
         newState.hostSelections = hostSelections;
@@ -12,6 +12,7 @@
 package com.vmware.admiral.request;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -22,7 +23,9 @@ import java.util.concurrent.TimeUnit;
 import com.vmware.admiral.compute.ResourceType;
 import com.vmware.admiral.request.composition.CompositionGraph.ResourceNode;
 import com.vmware.admiral.request.composition.CompositionSubTaskService;
+import com.vmware.admiral.service.common.AbstractTaskStatefulService.TaskStatusState;
 import com.vmware.admiral.service.common.DefaultSubStage;
+import com.vmware.admiral.service.common.RequestTrackerAggregator;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.ServiceDocument;
@@ -44,8 +47,7 @@ public class RequestStatusService extends StatefulService {
             "com.vmware.admiral.request.status.expiration.mins",
             TimeUnit.DAYS.toMinutes(7)));
 
-    public static class RequestStatus extends
-            com.vmware.admiral.service.common.AbstractTaskStatefulService.TaskStatusState {
+    public static class RequestStatus extends TaskStatusState {
 
         public static final String FIELD_NAME_REQUEST_PROGRESS_BY_COMPONENT =
                 "requestProgressByComponent";
@@ -63,6 +65,12 @@ public class RequestStatusService extends StatefulService {
         public Map<ResourceType, List<String>> trackedExecutionTasksByResourceType;
         public Map<ResourceType, List<String>> trackedAllocationTasksByResourceType;
 
+        /**
+         * Set only in the patches of the {@link RequestTrackerAggregator}, with the latest status
+         * of several tasks applied in order.
+         */
+        public List<TaskStatusState> taskStatusUpdates;
+
         public void addTrackedTasks(String... taskNames) {
             if (requestProgressByComponent == null) {
                 requestProgressByComponent = new HashMap<>();
@@ -73,6 +81,13 @@ public class RequestStatusService extends StatefulService {
         }
     }
 
+    /**
+     * The average progress of the tracked tasks and the progress map it was computed for. A state
+     * loaded or replicated in the meantime comes with another map and so is averaged again.
+     */
+    private Map<String, Map<String, Integer>> averagedProgressByComponent;
+    private int averageProgress;
+
     public RequestStatusService() {
         super(RequestStatus.class);
         super.toggleOption(ServiceOption.PERSISTENCE, true);
@@ -93,6 +108,11 @@ public class RequestStatusService extends StatefulService {
         RequestStatus body = patch.getBody(RequestStatus.class);
         RequestStatus state = getState(patch);
 
+        if (body.taskStatusUpdates != null) {
+            handleTaskStatusUpdates(patch, state, body.taskStatusUpdates);
+            return;
+        }
+
         if (body.components != null) {
             handleUpdateComponents(state, body);
 
@@ -100,6 +120,44 @@ public class RequestStatusService extends StatefulService {
             handleUpdateProgress(state, body);
         }
 
+        updateNameAndResourceLinks(state, body);
+
+        setState(patch, state);
+        patch.complete();
+    }
+
+    /**
+     * Applies the aggregated task status updates as if they were sent one by one, but persists
+     * the request status only if any of them changed it.
+     */
+    private void handleTaskStatusUpdates(Operation patch, RequestStatus state,
+            List<TaskStatusState> updates) {
+        List<Object> before = getTrackedValues(state);
+        boolean progressUpdated = false;
+        for (TaskStatusState update : updates) {
+            progressUpdated |= handleUpdateProgress(state, update);
+            updateNameAndResourceLinks(state, update);
+        }
+
+        if (!progressUpdated && before.equals(getTrackedValues(state))) {
+            patch.setStatusCode(Operation.STATUS_CODE_NOT_MODIFIED);
+            patch.complete();
+            return;
+        }
+
+        setState(patch, state);
+        patch.complete();
+    }
+
+    private static List<Object> getTrackedValues(RequestStatus state) {
+        return Arrays.asList(state.phase, state.component, state.subStage, state.progress,
+                state.eventLogLink, state.name, state.resourceLinks,
+                state.taskInfo != null ? state.taskInfo.stage : null,
+                state.taskInfo != null && state.taskInfo.failure != null
+                        ? state.taskInfo.failure.message : null);
+    }
+
+    private void updateNameAndResourceLinks(RequestStatus state, TaskStatusState body) {
         if (state.name == null && body.name != null) {
             state.name = body.name;
         }
@@ -109,12 +167,12 @@ public class RequestStatusService extends StatefulService {
                 && !body.resourceLinks.isEmpty()) {
             state.resourceLinks = body.resourceLinks;
         }
-
-        setState(patch, state);
-        patch.complete();
     }
 
-    private void handleUpdateProgress(RequestStatus state, RequestStatus body) {
+    /**
+     * Returns whether the progress of any of the tracked tasks was updated.
+     */
+    private boolean handleUpdateProgress(RequestStatus state, TaskStatusState body) {
         state.phase = body.phase;
         String component = DEFAULT_COMPONENT_NAME;
         String requestId = Service.getId(state.documentSelfLink);
@@ -137,7 +195,7 @@ public class RequestStatusService extends StatefulService {
             } else {
                 state.taskInfo = TaskState.createAsFinished();
             }
-            return;
+            return false;
             // if the request is finished the progress should be updated to 100
         } else if (TaskStage.FINISHED.equals(state.taskInfo.stage)) {
             state.progress = 100;
@@ -146,6 +204,7 @@ public class RequestStatusService extends StatefulService {
         state.taskInfo = body.taskInfo;
         state.subStage = body.subStage;
 
+        boolean progressUpdated = false;
         if (body.progress != null) {
             if (state.requestProgressByComponent == null) {
                 state.requestProgressByComponent = new HashMap<>();
@@ -160,19 +219,26 @@ public class RequestStatusService extends StatefulService {
                 Integer existingProgress = requestProgress.get(component);
                 if (existingProgress == null || existingProgress.compareTo(body.progress) < 0) {
                     requestProgress.put(component, body.progress);
+                    averagedProgressByComponent = null;
+                    progressUpdated = true;
                 }
             }
         }
 
-        // average progress of all tasks
-        state.progress = (int) state.requestProgressByComponent.values().stream()
-                .flatMap((m) -> m.values().stream())
-                .mapToDouble(Number::intValue)
-                .average()
-                .orElse(0);
+        // average progress of all tasks, recomputed only when any of them changed
+        if (averagedProgressByComponent != state.requestProgressByComponent) {
+            averagedProgressByComponent = state.requestProgressByComponent;
+            averageProgress = (int) state.requestProgressByComponent.values().stream()
+                    .flatMap((m) -> m.values().stream())
+                    .mapToDouble(Number::intValue)
+                    .average()
+                    .orElse(0);
+        }
+        state.progress = averageProgress;
 
         logFine("Request progress: %d, task progress: %s", state.progress,
                 state.requestProgressByComponent);
+        return progressUpdated;
     }
 
     private String getComponentName(String selfLink, String requestId) {
@@ -226,6 +292,7 @@ public class RequestStatusService extends StatefulService {
         for (Map<String, Integer> progress : state.requestProgressByComponent.values()) {
             progress.remove(DEFAULT_COMPONENT_NAME);
         }
+        averagedProgressByComponent = null;
     }
 
     @Override
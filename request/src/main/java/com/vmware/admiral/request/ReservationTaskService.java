@@ -33,6 +33,7 @@ import com.vmware.admiral.common.util.QueryUtil;
 import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.compute.ResourceType;
 import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.compute.container.GroupResourcePolicyQuotaLeases;
 import com.vmware.admiral.compute.container.GroupResourcePolicyService.GroupResourcePolicyState;
 import com.vmware.admiral.compute.container.GroupResourcePolicyService.ResourcePolicyReservationRequest;
 import com.vmware.admiral.request.PlacementHostSelectionTaskService.PlacementHostSelectionTaskState;
@@ -272,6 +273,14 @@ public class ReservationTaskService
             return;
         }
 
+        GroupResourcePolicyIndex policyIndex = GroupResourcePolicyIndex.getInstance(getHost());
+        if (policyIndex.isReady()) {
+            selectGroupResourcePolicies(state, containerDesc, retriesCount,
+                    policyIndex.getCandidates(state.tenantLinks, state.resourceType,
+                            state.resourceCount, containerDesc.memoryLimit));
+            return;
+        }
+
         // match on group property:
         QueryTask q = QueryUtil.buildQuery(GroupResourcePolicyState.class, false);
         q.documentExpirationTimeMicros = state.documentExpirationTimeMicros;
@@ -309,9 +318,13 @@ public class ReservationTaskService
         numOfInstancesClause.addBooleanClause(unlimitedInstances);
         numOfInstancesClause.occurance = Occurance.MUST_OCCUR;
 
-        q.querySpec.query.addBooleanClause(numOfInstancesClause);
+        // the quota leased to this node is not included in the available instances and memory,
+        // so with leases the capacity is checked on the results
+        if (!GroupResourcePolicyQuotaLeases.ENABLED) {
+            q.querySpec.query.addBooleanClause(numOfInstancesClause);
+        }
 
-        if (containerDesc.memoryLimit != null) {
+        if (containerDesc.memoryLimit != null && !GroupResourcePolicyQuotaLeases.ENABLED) {
             QueryTask.Query memoryLimitClause = new QueryTask.Query();
 
             QueryTask.Query moreAvailableMemoryThanRequired = new QueryTask.Query()
@@ -355,36 +368,49 @@ public class ReservationTaskService
                     if (r.hasException()) {
                         failTask("Exception while quering for policies", r.getException());
                     } else if (r.hasResult()) {
-                        policies.add(r.getResult());
-                    } else {
-                        if (policies.isEmpty()) {
-                            if (retriesCount > 0) {
-                                getHost().schedule(() -> {
-                                    queryGroupResourcePolicies(state,
-                                            this.containerDescription, retriesCount - 1);
-                                }, QueryUtil.QUERY_RETRY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
-                            } else {
-                                if (state.tenantLinks != null && !state.tenantLinks.isEmpty()) {
-                                    sendSelfPatch(createUpdateSubStageTask(state,
-                                            SubStage.QUERYING_GLOBAL));
-                                } else {
-                                    failTask("No available group policies.", null);
-                                }
-                            }
-                            return;
+                        if (!GroupResourcePolicyQuotaLeases.ENABLED
+                                || GroupResourcePolicyQuotaLeases.getInstance(getHost())
+                                        .hasCapacity(r.getResult(), state.resourceCount,
+                                                containerDesc.memoryLimit != null
+                                                        ? containerDesc.memoryLimit : 0)) {
+                            policies.add(r.getResult());
                         }
-
-                        ReservationTaskState body = createUpdateSubStageTask(state,
-                                isGlobal(state) ? SubStage.SELECTED_GLOBAL : SubStage.SELECTED);
-                        /* Use a LinkedHashMap to preserve the order */
-                        body.resourcePoolsPerGroupPolicyLinks = new LinkedHashMap<>();
-                        body.resourcePoolsPerGroupPolicyLinks.putAll(buildResourcePoolsMap(
-                                containerDesc, policies));
-                        sendSelfPatch(body);
+                    } else {
+                        selectGroupResourcePolicies(state, containerDesc, retriesCount,
+                                policies);
                     }
                 });
     }
 
+    private void selectGroupResourcePolicies(ReservationTaskState state,
+            ContainerDescription containerDesc, int retriesCount,
+            List<GroupResourcePolicyState> policies) {
+        if (policies.isEmpty()) {
+            if (retriesCount > 0) {
+                getHost().schedule(() -> {
+                    queryGroupResourcePolicies(state,
+                            this.containerDescription, retriesCount - 1);
+                }, QueryUtil.QUERY_RETRY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } else {
+                if (state.tenantLinks != null && !state.tenantLinks.isEmpty()) {
+                    sendSelfPatch(createUpdateSubStageTask(state,
+                            SubStage.QUERYING_GLOBAL));
+                } else {
+                    failTask("No available group policies.", null);
+                }
+            }
+            return;
+        }
+
+        ReservationTaskState body = createUpdateSubStageTask(state,
+                isGlobal(state) ? SubStage.SELECTED_GLOBAL : SubStage.SELECTED);
+        /* Use a LinkedHashMap to preserve the order */
+        body.resourcePoolsPerGroupPolicyLinks = new LinkedHashMap<>();
+        body.resourcePoolsPerGroupPolicyLinks.putAll(buildResourcePoolsMap(
+                containerDesc, policies));
+        sendSelfPatch(body);
+    }
+
     private LinkedHashMap<String, String> buildResourcePoolsMap(ContainerDescription containerDesc,
             List<GroupResourcePolicyState> policies) {
         LinkedHashMap<String, String> resPools = new LinkedHashMap<String, String>();
@@ -514,31 +540,43 @@ public class ReservationTaskService
                 reservationRequest.resourceCount, reservationRequest.resourceDescriptionLink,
                 Service.getId(policyLink));
 
+        if (GroupResourcePolicyQuotaLeases.ENABLED) {
+            getContainerDescription(state.resourceDescriptionLink, (desc) -> {
+                GroupResourcePolicyQuotaLeases.getInstance(getHost()).reserve(policyLink,
+                        state.resourceDescriptionLink, state.resourceCount,
+                        desc.memoryLimit != null ? desc.memoryLimit : 0,
+                        (policy, e) -> completeReservation(state,
+                                resourcePoolsPerGroupPolicyLinks, policy, e));
+            });
+            return;
+        }
+
         sendRequest(Operation
                 .createPatch(this, policyLink)
                 .setBody(reservationRequest)
-                .setCompletion(
-                        (o, e) -> {
-                            if (e != null) {
-                                logWarning(
-                                        "Failure reserving group policy: %s. Retrying with the next one...",
-                                        e.getMessage());
-                                selectReservation(state, resourcePoolsPerGroupPolicyLinks);
-                                return;
-                            }
+                .setCompletion((o, e) -> completeReservation(state,
+                        resourcePoolsPerGroupPolicyLinks,
+                        e == null ? o.getBody(GroupResourcePolicyState.class) : null, e)));
+    }
 
-                            GroupResourcePolicyState policy = o
-                                    .getBody(GroupResourcePolicyState.class);
-                            ReservationTaskState body = createUpdateSubStageTask(state,
-                                    SubStage.COMPLETED);
-                            body.taskInfo.stage = TaskStage.FINISHED;
-                            body.customProperties = mergeCustomProperties(state.customProperties,
-                                    policy.customProperties);
-                            body.groupResourcePolicyLink = policy.documentSelfLink;
-                            body.resourcePoolsPerGroupPolicyLinks = state.resourcePoolsPerGroupPolicyLinks;
-
-                            sendSelfPatch(body);
-                        }));
+    private void completeReservation(ReservationTaskState state,
+            LinkedHashMap<String, String> resourcePoolsPerGroupPolicyLinks,
+            GroupResourcePolicyState policy, Throwable e) {
+        if (e != null) {
+            logWarning("Failure reserving group policy: %s. Retrying with the next one...",
+                    e.getMessage());
+            selectReservation(state, resourcePoolsPerGroupPolicyLinks);
+            return;
+        }
+
+        ReservationTaskState body = createUpdateSubStageTask(state, SubStage.COMPLETED);
+        body.taskInfo.stage = TaskStage.FINISHED;
+        body.customProperties = mergeCustomProperties(state.customProperties,
+                policy.customProperties);
+        body.groupResourcePolicyLink = policy.documentSelfLink;
+        body.resourcePoolsPerGroupPolicyLinks = state.resourcePoolsPerGroupPolicyLinks;
+
+        sendSelfPatch(body);
     }
 
     private void getContainerDescription(String resourceDescriptionLink,
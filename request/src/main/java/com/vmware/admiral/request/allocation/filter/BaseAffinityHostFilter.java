@@ -13,6 +13,7 @@ package com.vmware.admiral.request.allocation.filter;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 
@@ -22,6 +23,7 @@ import com.vmware.admiral.compute.container.CompositeComponentFactoryService;
 import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState;
 import com.vmware.admiral.request.PlacementHostSelectionTaskService.PlacementHostSelectionTaskState;
+import com.vmware.admiral.request.allocation.filter.PlacementInventory.ContainerView;
 import com.vmware.xenon.common.ServiceHost;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.services.common.QueryTask;
@@ -117,9 +119,25 @@ public abstract class BaseAffinityHostFilter implements HostSelectionFilter {
             final Map<String, HostSelection> initHostSelectionMap,
             final Map<String, DescName> containerDescLinksWithNames,
             final HostSelectionFilterCompletion callback) {
+        final String compositeComponentLink = UriUtils.buildUriPath(
+                CompositeComponentFactoryService.SELF_LINK, state.contextId);
+        final Map<String, HostSelection> filteredHostSelectionMap = new HashMap<>();
+
+        PlacementInventory inventory = PlacementInventory.getInstance(host);
+        if (inventory.isReady()) {
+            for (ContainerView container : inventory.getContainers(initHostSelectionMap.keySet(),
+                    compositeComponentLink, containerDescLinksWithNames.keySet())) {
+                addContainer(initHostSelectionMap, filteredHostSelectionMap,
+                        containerDescLinksWithNames, container.parentLink,
+                        container.descriptionLink, container.names);
+            }
+            completeFindContainers(state, initHostSelectionMap, filteredHostSelectionMap,
+                    callback);
+            return;
+        }
+
         QueryTask q = QueryUtil.buildPropertyQuery(ContainerState.class,
-                ContainerState.FIELD_NAME_COMPOSITE_COMPONENT_LINK, UriUtils.buildUriPath(
-                        CompositeComponentFactoryService.SELF_LINK, state.contextId));
+                ContainerState.FIELD_NAME_COMPOSITE_COMPONENT_LINK, compositeComponentLink);
         q.taskInfo.isDirect = false;
         q.querySpec.resultLimit = ServiceDocumentQuery.DEFAULT_QUERY_RESULT_LIMIT;
         QueryUtil.addExpandOption(q);
@@ -132,8 +150,9 @@ public abstract class BaseAffinityHostFilter implements HostSelectionFilter {
         QueryUtil.addListValueClause(q,
                 ContainerState.FIELD_NAME_PARENT_LINK, initHostSelectionMap.keySet());
 
-        final Map<String, HostSelection> filteredHostSelectionMap = new HashMap<>();
-        new ServiceDocumentQuery<ContainerState>(host, ContainerState.class)
+        ServiceDocumentQuery.projection(host, ContainerState.class,
+                ContainerState.FIELD_NAME_PARENT_LINK, ContainerState.FIELD_NAME_DESCRIPTION_LINK,
+                ContainerState.FIELD_NAME_NAMES)
                 .query(q,
                         (r) -> {
                             if (r.hasException()) {
@@ -143,30 +162,42 @@ public abstract class BaseAffinityHostFilter implements HostSelectionFilter {
                                         state.contextId, r.getException().getMessage());
                                 callback.complete(null, r.getException());
                             } else if (r.hasResult()) {
-                                final HostSelection hostSelection = initHostSelectionMap
-                                        .get(r.getResult().parentLink);
-                                filteredHostSelectionMap.put(r.getResult().parentLink,
-                                        hostSelection);
-                                final DescName descName = containerDescLinksWithNames
-                                        .get(r.getResult().descriptionLink);
-                                hostSelection.addDesc(descName);
-                                descName.addContainerNames(r.getResult().names);
+                                addContainer(initHostSelectionMap, filteredHostSelectionMap,
+                                        containerDescLinksWithNames, r.getResult().parentLink,
+                                        r.getResult().descriptionLink, r.getResult().names);
                             } else {
-                                try {
-                                    final Map<String, HostSelection> hostSelectionMap =
-                                            applyAffinityConstraints(state,
-                                                    initHostSelectionMap, filteredHostSelectionMap);
-                                    host.log(Level.INFO, "Selected host links for %s: %s - %s",
-                                            affinityPropertyName, getAffinity(),
-                                            hostSelectionMap.keySet());
-                                    callback.complete(hostSelectionMap, null);
-                                } catch (Throwable e) {
-                                    callback.complete(null, e);
-                                }
+                                completeFindContainers(state, initHostSelectionMap,
+                                        filteredHostSelectionMap, callback);
                             }
                         });
     }
 
+    private void addContainer(final Map<String, HostSelection> initHostSelectionMap,
+            final Map<String, HostSelection> filteredHostSelectionMap,
+            final Map<String, DescName> containerDescLinksWithNames, String parentLink,
+            String descriptionLink, List<String> names) {
+        final HostSelection hostSelection = initHostSelectionMap.get(parentLink);
+        filteredHostSelectionMap.put(parentLink, hostSelection);
+        final DescName descName = containerDescLinksWithNames.get(descriptionLink);
+        hostSelection.addDesc(descName);
+        descName.addContainerNames(names);
+    }
+
+    private void completeFindContainers(final PlacementHostSelectionTaskState state,
+            final Map<String, HostSelection> initHostSelectionMap,
+            final Map<String, HostSelection> filteredHostSelectionMap,
+            final HostSelectionFilterCompletion callback) {
+        try {
+            final Map<String, HostSelection> hostSelectionMap = applyAffinityConstraints(state,
+                    initHostSelectionMap, filteredHostSelectionMap);
+            host.log(Level.INFO, "Selected host links for %s: %s - %s",
+                    affinityPropertyName, getAffinity(), hostSelectionMap.keySet());
+            callback.complete(hostSelectionMap, null);
+        } catch (Throwable e) {
+            callback.complete(null, e);
+        }
+    }
+
     protected Map<String, HostSelection> applyAffinityConstraints(
             final PlacementHostSelectionTaskState state,
             final Map<String, HostSelection> initHostSelectionMap,
@@ -24,6 +24,7 @@ import com.vmware.admiral.compute.container.CompositeComponentFactoryService;
 import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState;
 import com.vmware.admiral.request.PlacementHostSelectionTaskService.PlacementHostSelectionTaskState;
+import com.vmware.admiral.request.allocation.filter.PlacementInventory.ContainerView;
 import com.vmware.admiral.request.utils.RequestUtils;
 import com.vmware.xenon.common.ServiceHost;
 import com.vmware.xenon.common.UriUtils;
@@ -48,9 +49,7 @@ public class ClusterAntiAffinityHostFilter implements HostSelectionFilter {
             final Map<String, HostSelection> hostSelectionMap,
             final HostSelectionFilterCompletion callback) {
 
-        //In case this is a clustering operation we want to continue even if desc._cluster <= 1
-        if (!isActive() && state.resourceCount <= 1
-                && state.getCustomProperty(RequestUtils.CLUSTERING_OPERATION_CUSTOM_PROP) == null) {
+        if (!isActive(state)) {
             callback.complete(hostSelectionMap, null);
             return;
         }
@@ -63,6 +62,13 @@ public class ClusterAntiAffinityHostFilter implements HostSelectionFilter {
         return (desc._cluster != null) && (desc._cluster > 1);
     }
 
+    @Override
+    public boolean isActive(PlacementHostSelectionTaskState state) {
+        //In case this is a clustering operation we want to continue even if desc._cluster <= 1
+        return isActive() || state.resourceCount > 1
+                || state.getCustomProperty(RequestUtils.CLUSTERING_OPERATION_CUSTOM_PROP) != null;
+    }
+
     @Override
     public Map<String, AffinityConstraint> getAffinityConstraints() {
         if (!isActive()) {
@@ -79,11 +85,29 @@ public class ClusterAntiAffinityHostFilter implements HostSelectionFilter {
     protected void findContainers(final PlacementHostSelectionTaskState state,
             final Map<String, HostSelection> hostSelectionMap,
             final HostSelectionFilterCompletion callback) {
+        final String compositeComponentLink = UriUtils.buildUriPath(
+                CompositeComponentFactoryService.SELF_LINK, state.contextId);
+
+        PlacementInventory inventory = PlacementInventory.getInstance(host);
+        if (inventory.isReady()) {
+            for (ContainerView container : inventory.getContainers(hostSelectionMap.keySet(),
+                    compositeComponentLink, Collections.singleton(desc.documentSelfLink))) {
+                hostSelectionMap.get(container.parentLink).containerCount += 1;
+            }
+            // count the nodes placed by the concurrent placements but not created yet too
+            for (HostSelection hostSelection : hostSelectionMap.values()) {
+                hostSelection.containerCount += inventory.getReserved(hostSelection.hostLink,
+                        desc.documentSelfLink, compositeComponentLink);
+            }
+            completeFilter(state, hostSelectionMap, callback);
+            return;
+        }
+
         final QueryTask q = QueryUtil.buildPropertyQuery(ContainerState.class,
                 ContainerState.FIELD_NAME_DESCRIPTION_LINK,
                 desc.documentSelfLink,
                 ContainerState.FIELD_NAME_COMPOSITE_COMPONENT_LINK,
-                UriUtils.buildUriPath(CompositeComponentFactoryService.SELF_LINK, state.contextId));
+                compositeComponentLink);
         QueryUtil.addListValueClause(q, ContainerState.FIELD_NAME_PARENT_LINK, hostSelectionMap.keySet());
 
         q.querySpec.resultLimit = ServiceDocumentQuery.DEFAULT_QUERY_RESULT_LIMIT;
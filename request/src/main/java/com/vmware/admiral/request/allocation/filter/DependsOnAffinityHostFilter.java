@@ -42,6 +42,15 @@ public class DependsOnAffinityHostFilter implements HostSelectionFilter {
         callback.complete(hostSelectionMap, null);
     }
 
+    /**
+     * Only orders the provisioning of the dependencies, the hosts are never filtered
+     */
+    @Override
+    public boolean isActive(
+            PlacementHostSelectionTaskService.PlacementHostSelectionTaskState state) {
+        return false;
+    }
+
     @Override
     public boolean isActive() {
         return dependsOn != null && dependsOn.length > 0;
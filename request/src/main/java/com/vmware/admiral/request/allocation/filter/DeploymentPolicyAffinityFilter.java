@@ -82,4 +82,14 @@ public class DeploymentPolicyAffinityFilter implements HostSelectionFilter {
 
     }
 
+    @Override
+    public boolean isIndependent() {
+        return true;
+    }
+
+    @Override
+    public boolean isPreference() {
+        return true;
+    }
+
 }
@@ -58,6 +58,15 @@ public class ExposedPortsHostFilter implements HostSelectionFilter {
             return;
         }
 
+        PlacementInventory inventory = PlacementInventory.getInstance(host);
+        if (inventory.isReady()) {
+            Set<String> hostsWithExposedPorts = inventory.getHostsWithExposedPorts(
+                    hostSelectionMap.keySet(), descExposedPorts);
+            hostSelectionMap.keySet().removeAll(hostsWithExposedPorts);
+            complete(hostSelectionMap, callback);
+            return;
+        }
+
         QueryTask q = QueryUtil.buildQuery(ContainerState.class, false);
         QueryUtil.addListValueClause(q, ContainerState.FIELD_NAME_PARENT_LINK,
                 hostSelectionMap.keySet());
@@ -84,24 +93,33 @@ public class ExposedPortsHostFilter implements HostSelectionFilter {
                 for (ContainerState cs : containerStates) {
                     hostSelectionMap.remove(cs.parentLink);
                 }
-
-                if (hostSelectionMap.isEmpty()) {
-                    String errMsg = String.format(
-                            "No container states found with unexposed ports %s.",
-                            descExposedPorts.toString());
-                    callback.complete(null, new HostSelectionFilterException(errMsg));
-                } else {
-                    callback.complete(hostSelectionMap, null);
-                }
+                complete(hostSelectionMap, callback);
             }
         });
     }
 
+    private void complete(Map<String, HostSelection> hostSelectionMap,
+            HostSelectionFilterCompletion callback) {
+        if (hostSelectionMap.isEmpty()) {
+            String errMsg = String.format(
+                    "No container states found with unexposed ports %s.",
+                    descExposedPorts.toString());
+            callback.complete(null, new HostSelectionFilterException(errMsg));
+        } else {
+            callback.complete(hostSelectionMap, null);
+        }
+    }
+
     @Override
     public boolean isActive() {
         return !descExposedPorts.isEmpty();
     }
 
+    @Override
+    public boolean isIndependent() {
+        return true;
+    }
+
     @Override
     public Map<String, AffinityConstraint> getAffinityConstraints() {
         return Collections.emptyMap();
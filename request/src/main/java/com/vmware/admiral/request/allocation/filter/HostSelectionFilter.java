@@ -37,6 +37,39 @@ public interface HostSelectionFilter extends AffinityFilter {
     void filter(PlacementHostSelectionTaskState state, Map<String, HostSelection> hostSelectionMap,
             HostSelectionFilterCompletion callback);
 
+    /**
+     * Indicates if the filter may change the candidate hosts of the given task. The filters not
+     * active for the task are skipped by {@link HostSelectionFilterPlanner}.
+     *
+     * @return {@link #isActive()} by default, can be overridden by filters also evaluated for other
+     *         tasks, e.g. clustering ones
+     */
+    default boolean isActive(PlacementHostSelectionTaskState state) {
+        return isActive();
+    }
+
+    /**
+     * Indicates if the filter decides on each host on its own, regardless of the other candidate
+     * hosts, only removes hosts and does not modify the {@link HostSelection}s. Such filters are
+     * evaluated concurrently against the same candidates by {@link HostSelectionFilterPlanner}.
+     *
+     * @return false by default, can be overridden by filters meeting the conditions above
+     */
+    default boolean isIndependent() {
+        return false;
+    }
+
+    /**
+     * Indicates if the {@link #isIndependent() independent} filter only states a preference, i.e.
+     * keeps all the candidate hosts when none of them matches. Evaluated concurrently, such a
+     * filter narrows the hosts left by the other filters only if some of them match.
+     *
+     * @return false by default
+     */
+    default boolean isPreference() {
+        return false;
+    }
+
     /**
      * Completion callback interface used when the filter is completed.
      */
@@ -52,6 +85,12 @@ public interface HostSelectionFilter extends AffinityFilter {
         public String resourcePoolLink;
         public Map<String, DescName> descNames;
         public Long availableMemory;
+        /** Total memory of the host or <code>null</code> if not known. */
+        public Long totalMemory;
+        /** CPU usage of the host in percents or <code>null</code> if not known. */
+        public Double cpuUsage;
+        /** Number of all containers on the host, unlike {@link #containerCount}. */
+        public long hostContainerCount;
         public String deploymentPolicyLink;
 
         /** Configured location of the key-value store for the overlay networks. */
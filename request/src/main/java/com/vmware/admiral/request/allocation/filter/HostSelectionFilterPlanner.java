@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.allocation.filter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import com.vmware.admiral.request.PlacementHostSelectionTaskService.PlacementHostSelectionTaskState;
+import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelection;
+import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelectionFilterCompletion;
+
+/**
+ * Plans the evaluation of the {@link HostSelectionFilter}s of a task in stages, keeping their
+ * order. The filters not {@link HostSelectionFilter#isActive(PlacementHostSelectionTaskState)
+ * active} for the task are skipped, so they don't separate the filters around them. Consecutive
+ * filters that are {@link HostSelectionFilter#isIndependent() independent} form a single stage and
+ * are evaluated concurrently, each against its own copy of the same candidate hosts, and the
+ * stage result is the intersection of their results, narrowed then by the
+ * {@link HostSelectionFilter#isPreference() preference} ones in order. Every other filter is a
+ * stage on its own and gets the result of the previous stage, as before. The evaluation stops as
+ * soon as a stage fails or leaves no hosts.
+ */
+public class HostSelectionFilterPlanner {
+    private final PlacementHostSelectionTaskState state;
+    private final List<List<HostSelectionFilter>> stages = new ArrayList<>();
+
+    public HostSelectionFilterPlanner(PlacementHostSelectionTaskState state,
+            Collection<HostSelectionFilter> filters) {
+        this.state = state;
+        List<HostSelectionFilter> independent = null;
+        boolean preference = false;
+        for (HostSelectionFilter filter : filters) {
+            if (!filter.isActive(state)) {
+                continue;
+            }
+            if (!filter.isIndependent()) {
+                stages.add(Collections.singletonList(filter));
+                independent = null;
+            } else if (independent == null || (preference && !filter.isPreference())) {
+                // a preference applies to the hosts left by the filters before it only
+                independent = new ArrayList<>();
+                independent.add(filter);
+                stages.add(independent);
+                preference = filter.isPreference();
+            } else {
+                independent.add(filter);
+                preference |= filter.isPreference();
+            }
+        }
+    }
+
+    List<List<HostSelectionFilter>> getStages() {
+        return stages;
+    }
+
+    /**
+     * Evaluates the filters against the given hosts.
+     *
+     * @param latencyListener
+     *            notified with the time in microseconds each filter took to complete
+     * @param callback
+     *            called once with the hosts left after all stages or with the first failure
+     */
+    public void execute(Map<String, HostSelection> hostSelectionMap,
+            BiConsumer<HostSelectionFilter, Long> latencyListener,
+            HostSelectionFilterCompletion callback) {
+        executeStage(stages.iterator(), hostSelectionMap, latencyListener, callback);
+    }
+
+    private void executeStage(Iterator<List<HostSelectionFilter>> it,
+            Map<String, HostSelection> hostSelectionMap,
+            BiConsumer<HostSelectionFilter, Long> latencyListener,
+            HostSelectionFilterCompletion callback) {
+        if (hostSelectionMap == null || hostSelectionMap.isEmpty() || !it.hasNext()) {
+            callback.complete(hostSelectionMap, null);
+            return;
+        }
+
+        List<HostSelectionFilter> stage = it.next();
+        if (stage.size() == 1) {
+            executeFilter(stage.get(0), state, hostSelectionMap, latencyListener, (result, e) -> {
+                if (e != null) {
+                    callback.complete(null, e);
+                    return;
+                }
+                executeStage(it, result, latencyListener, callback);
+            });
+            return;
+        }
+
+        StageResult stageResult = new StageResult(stage.size());
+        for (int i = 0; i < stage.size(); i++) {
+            int index = i;
+            executeFilter(stage.get(i), state, new LinkedHashMap<>(hostSelectionMap),
+                    latencyListener, (result, e) -> {
+                        if (!stageResult.complete(index, result, e)) {
+                            return;
+                        }
+                        if (stageResult.failure != null) {
+                            callback.complete(null, stageResult.failure);
+                            return;
+                        }
+                        executeStage(it, combine(hostSelectionMap, stage, stageResult.results),
+                                latencyListener, callback);
+                    });
+        }
+    }
+
+    private static void executeFilter(HostSelectionFilter filter,
+            PlacementHostSelectionTaskState state, Map<String, HostSelection> hostSelectionMap,
+            BiConsumer<HostSelectionFilter, Long> latencyListener,
+            HostSelectionFilterCompletion callback) {
+        long startNanos = System.nanoTime();
+        filter.filter(state, hostSelectionMap, (result, e) -> {
+            latencyListener.accept(filter,
+                    TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+            callback.complete(result, e);
+        });
+    }
+
+    /**
+     * Returns the hosts left by all the filters of a stage, the preference filters being after the
+     * other ones.
+     */
+    static Map<String, HostSelection> combine(Map<String, HostSelection> hostSelectionMap,
+            List<HostSelectionFilter> stage, List<Map<String, HostSelection>> results) {
+        Map<String, HostSelection> combined = new LinkedHashMap<>(hostSelectionMap);
+        for (int i = 0; i < stage.size(); i++) {
+            Map<String, HostSelection> result = results.get(i);
+            if (result == null) {
+                return Collections.emptyMap();
+            }
+            // a preference narrows the hosts left only if some of them match
+            if (!stage.get(i).isPreference()
+                    || !Collections.disjoint(combined.keySet(), result.keySet())) {
+                combined.keySet().retainAll(result.keySet());
+            }
+        }
+        return combined;
+    }
+
+    /**
+     * Collects the results of the filters of a concurrent stage.
+     */
+    private static class StageResult {
+        /** The results in the order of the filters of the stage */
+        private final List<Map<String, HostSelection>> results;
+        private int pending;
+        private Throwable failure;
+
+        StageResult(int count) {
+            this.results = new ArrayList<>(Collections.nCopies(count, null));
+            this.pending = count;
+        }
+
+        /**
+         * Returns <code>true</code> once all the filters of the stage completed.
+         */
+        synchronized boolean complete(int index, Map<String, HostSelection> result,
+                Throwable e) {
+            if (e != null) {
+                if (failure == null) {
+                    failure = e;
+                }
+            } else {
+                results.set(index, result);
+            }
+            return --pending == 0;
+        }
+    }
+}
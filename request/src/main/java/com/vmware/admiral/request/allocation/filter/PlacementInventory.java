@@ -0,0 +1,432 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.allocation.filter;
+
+import static com.vmware.admiral.common.util.PropertyUtils.getPropertyDouble;
+import static com.vmware.admiral.common.util.PropertyUtils.getPropertyLong;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import com.vmware.admiral.common.util.HostScopedInstances;
+import com.vmware.admiral.common.util.QueryUtil;
+import com.vmware.admiral.common.util.ServiceDocumentQuery;
+import com.vmware.admiral.compute.ContainerHostService;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.PortBinding;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.ComputeService.PowerState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+/**
+ * Host local, in-memory view of the container hosts and their containers used by the placement
+ * host selection and the {@link HostSelectionFilter}s, so the hosts and the containers on them
+ * (exposed host ports, containers per description and context, names) are looked up in process
+ * instead of with a query per placement and filter.
+ *
+ * The view is built with an initial load of all {@link ComputeState}s and {@link ContainerState}s
+ * and kept up to date with a continuous local query per kind, started before the load so no
+ * change is missed. Changes are applied by document version, so a notification and the initial
+ * load can arrive in any order. Until both kinds are loaded {@link #isReady()} returns
+ * <code>false</code> and the callers should use their queries instead.
+ */
+public class PlacementInventory {
+    public static final boolean ENABLED = Boolean.getBoolean(
+            "com.vmware.admiral.request.placement.inventory");
+
+    public static final long RESERVATION_EXPIRATION_MICROS = Long.getLong(
+            "com.vmware.admiral.request.placement.inventory.reservation.expiration.micros",
+            TimeUnit.MINUTES.toMicros(5));
+
+    private static final long CONTINUOUS_QUERY_EXPIRATION_MICROS = TimeUnit.DAYS.toMicros(365);
+    private static final Set<ContainerState.PowerState> EXPOSED_PORTS_POWER_STATES = EnumSet
+            .of(ContainerState.PowerState.RUNNING, ContainerState.PowerState.PROVISIONING);
+
+    private final ServiceHost host;
+    private final Map<String, HostView> hosts = new ConcurrentHashMap<>();
+    private final Map<String, ContainerView> containers = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, ContainerView>> containersByHost =
+            new ConcurrentHashMap<>();
+    /** The versions of the documents deleted while loading, so the load does not resurrect them */
+    private final Map<String, Long> deletedVersions = new HashMap<>();
+    /** Containers placed but not created yet, by host, description and composite component */
+    private final Map<String, Reservation> reservations = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingLoads = new AtomicInteger(2);
+    private volatile boolean ready;
+
+    /**
+     * Snapshot of the placement related state of a container host.
+     */
+    public static class HostView {
+        public final String hostLink;
+        public final long documentVersion;
+        public final String resourcePoolLink;
+        public final String descriptionLink;
+        public final PowerState powerState;
+        public final Long availableMemory;
+        public final String deploymentPolicyLink;
+        public final String clusterStore;
+        public final Long totalMemory;
+        public final Double cpuUsage;
+        public final long hostContainerCount;
+
+        HostView(ComputeState computeState) {
+            this.hostLink = computeState.documentSelfLink;
+            this.documentVersion = computeState.documentVersion;
+            this.resourcePoolLink = computeState.resourcePoolLink;
+            this.descriptionLink = computeState.descriptionLink;
+            this.powerState = computeState.powerState;
+            Map<String, String> customProperties = computeState.customProperties;
+            this.availableMemory = getPropertyLong(customProperties,
+                    ContainerHostService.DOCKER_HOST_AVAILABLE_MEMORY_PROP_NAME)
+                    .orElse(Long.MAX_VALUE);
+            this.deploymentPolicyLink = customProperties != null ? customProperties
+                    .get(ContainerHostService.CUSTOM_PROPERTY_DEPLOYMENT_POLICY) : null;
+            this.clusterStore = customProperties != null ? customProperties
+                    .get(ContainerHostService.DOCKER_HOST_CLUSTER_STORE_PROP_NAME) : null;
+            this.totalMemory = getPropertyLong(customProperties,
+                    ContainerHostService.DOCKER_HOST_TOTAL_MEMORY_PROP_NAME).orElse(null);
+            this.cpuUsage = getPropertyDouble(customProperties,
+                    ContainerHostService.DOCKER_HOST_CPU_USAGE_PCT_PROP_NAME).orElse(null);
+            this.hostContainerCount = getPropertyLong(customProperties,
+                    ContainerHostService.NUMBER_OF_CONTAINERS_PER_HOST_PROP_NAME).orElse(0L);
+        }
+    }
+
+    /**
+     * Snapshot of the placement related state of a container.
+     */
+    public static class ContainerView {
+        public final String documentSelfLink;
+        public final long documentVersion;
+        public final String parentLink;
+        public final String descriptionLink;
+        public final String compositeComponentLink;
+        public final List<String> names;
+        public final ContainerState.PowerState powerState;
+        public final Set<String> hostPorts;
+
+        ContainerView(ContainerState containerState) {
+            this.documentSelfLink = containerState.documentSelfLink;
+            this.documentVersion = containerState.documentVersion;
+            this.parentLink = containerState.parentLink;
+            this.descriptionLink = containerState.descriptionLink;
+            this.compositeComponentLink = containerState.compositeComponentLink;
+            this.names = containerState.names;
+            this.powerState = containerState.powerState;
+            Set<String> ports = new HashSet<>();
+            if (containerState.ports != null) {
+                for (PortBinding port : containerState.ports) {
+                    if (port.hostPort != null) {
+                        ports.add(port.hostPort);
+                    }
+                }
+            }
+            this.hostPorts = ports;
+        }
+    }
+
+    private static class Reservation {
+        final int count;
+        final long expirationMicros;
+
+        Reservation(int count, long expirationMicros) {
+            this.count = count;
+            this.expirationMicros = expirationMicros;
+        }
+
+        boolean isExpired() {
+            return expirationMicros < Utils.getNowMicrosUtc();
+        }
+    }
+
+    PlacementInventory(ServiceHost host) {
+        this.host = host;
+    }
+
+    public static PlacementInventory getInstance(ServiceHost host) {
+        return HostScopedInstances.getInstance(host, PlacementInventory.class, (h) -> {
+            PlacementInventory inventory = new PlacementInventory(h);
+            if (ENABLED) {
+                inventory.start();
+            }
+            return inventory;
+        });
+    }
+
+    /**
+     * Returns whether the inventory is loaded and could be used instead of querying.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Returns the powered on hosts in the given resource pools with one of the given
+     * descriptions.
+     */
+    public List<HostView> getHosts(Collection<String> resourcePoolLinks,
+            Collection<String> descriptionLinks) {
+        List<HostView> result = new ArrayList<>();
+        for (HostView hostView : hosts.values()) {
+            if (hostView.powerState == PowerState.ON
+                    && resourcePoolLinks.contains(hostView.resourcePoolLink)
+                    && descriptionLinks.contains(hostView.descriptionLink)) {
+                result.add(hostView);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ones of the given hosts that have running or provisioning containers exposing
+     * any of the given host ports.
+     */
+    public Set<String> getHostsWithExposedPorts(Collection<String> hostLinks,
+            Collection<String> hostPorts) {
+        Set<String> result = new HashSet<>();
+        for (String hostLink : hostLinks) {
+            Map<String, ContainerView> hostContainers = containersByHost.get(hostLink);
+            if (hostContainers == null) {
+                continue;
+            }
+            for (ContainerView container : hostContainers.values()) {
+                if (EXPOSED_PORTS_POWER_STATES.contains(container.powerState)
+                        && !Collections.disjoint(container.hostPorts, hostPorts)) {
+                    result.add(hostLink);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the containers of the given composite component on the given hosts with one of the
+     * given descriptions.
+     */
+    public List<ContainerView> getContainers(Collection<String> hostLinks,
+            String compositeComponentLink, Collection<String> descriptionLinks) {
+        List<ContainerView> result = new ArrayList<>();
+        for (String hostLink : hostLinks) {
+            Map<String, ContainerView> hostContainers = containersByHost.get(hostLink);
+            if (hostContainers == null) {
+                continue;
+            }
+            for (ContainerView container : hostContainers.values()) {
+                if (compositeComponentLink.equals(container.compositeComponentLink)
+                        && descriptionLinks.contains(container.descriptionLink)) {
+                    result.add(container);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reserves the given number of containers of the given description and composite component
+     * on the given host, until as many such containers appear on the host or the reservation
+     * expires. Used to take the containers being placed into account in the placements running
+     * at the same time.
+     */
+    public void reserve(String hostLink, String descriptionLink, String compositeComponentLink,
+            int count) {
+        reservations.compute(getReservationKey(hostLink, descriptionLink,
+                compositeComponentLink), (k, reservation) -> new Reservation(
+                        reservation == null || reservation.isExpired() ? count
+                                : reservation.count + count,
+                        Utils.getNowMicrosUtc() + RESERVATION_EXPIRATION_MICROS));
+    }
+
+    /**
+     * Returns the number of containers of the given description and composite component reserved
+     * on the given host and not created yet.
+     */
+    public int getReserved(String hostLink, String descriptionLink,
+            String compositeComponentLink) {
+        Reservation reservation = reservations.get(getReservationKey(hostLink, descriptionLink,
+                compositeComponentLink));
+        return reservation == null || reservation.isExpired() ? 0 : reservation.count;
+    }
+
+    private void release(ContainerView container) {
+        reservations.computeIfPresent(getReservationKey(container.parentLink,
+                container.descriptionLink, container.compositeComponentLink),
+                (k, reservation) -> reservation.count > 1 && !reservation.isExpired()
+                        ? new Reservation(reservation.count - 1, reservation.expirationMicros)
+                        : null);
+    }
+
+    private static String getReservationKey(String hostLink, String descriptionLink,
+            String compositeComponentLink) {
+        return hostLink + "|" + descriptionLink + "|" + compositeComponentLink;
+    }
+
+    private void start() {
+        track(ComputeState.class, this::updateHost);
+        track(ContainerState.class, this::updateContainer);
+    }
+
+    private <T extends ServiceDocument> void track(Class<T> type, Consumer<T> updater) {
+        QueryTask q = QueryUtil.buildQuery(type, false);
+        q.querySpec.options = EnumSet.of(QueryOption.CONTINUOUS, QueryOption.EXPAND_CONTENT);
+        q.documentExpirationTimeMicros = Utils.getNowMicrosUtc()
+                + CONTINUOUS_QUERY_EXPIRATION_MICROS;
+
+        host.sendRequest(Operation
+                .createPost(UriUtils.buildUri(host, ServiceUriPaths.CORE_LOCAL_QUERY_TASKS))
+                .setBody(q)
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        host.log(Level.WARNING,
+                                "Failed to start continuous query for %s, placement inventory"
+                                        + " disabled: %s",
+                                type.getSimpleName(), Utils.toString(e));
+                        return;
+                    }
+                    QueryTask task = o.getBody(QueryTask.class);
+                    Operation subscribe = Operation
+                            .createPost(UriUtils.buildUri(host, task.documentSelfLink))
+                            .setReferer(host.getUri())
+                            .setCompletion((so, se) -> {
+                                if (se != null) {
+                                    host.log(Level.WARNING,
+                                            "Failed to subscribe for changes of %s, placement"
+                                                    + " inventory disabled: %s",
+                                            type.getSimpleName(), Utils.toString(se));
+                                    return;
+                                }
+                                load(type, updater);
+                            });
+                    host.startSubscriptionService(subscribe, (notification) -> {
+                        notification.complete();
+                        QueryTask body = notification.getBody(QueryTask.class);
+                        if (body.results == null || body.results.documents == null) {
+                            return;
+                        }
+                        for (Object document : body.results.documents.values()) {
+                            updater.accept(Utils.fromJson(document, type));
+                        }
+                    });
+                }));
+    }
+
+    private <T extends ServiceDocument> void load(Class<T> type, Consumer<T> updater) {
+        QueryTask q = QueryUtil.buildQuery(type, false);
+        QueryUtil.addExpandOption(q);
+        new ServiceDocumentQuery<>(host, type).queryPages(q, (page) -> {
+            if (page.hasException()) {
+                host.log(Level.WARNING, "Failed to load %s, placement inventory disabled: %s",
+                        type.getSimpleName(), Utils.toString(page.getException()));
+                return;
+            }
+            page.getDocuments().forEach(updater);
+            if (!page.isLast()) {
+                page.next();
+                return;
+            }
+            if (pendingLoads.decrementAndGet() == 0) {
+                synchronized (this) {
+                    deletedVersions.clear();
+                    ready = true;
+                }
+                host.log(Level.INFO, "Placement inventory loaded with %d hosts and %d containers",
+                        hosts.size(), containers.size());
+            }
+        });
+    }
+
+    synchronized void updateHost(ComputeState computeState) {
+        String link = computeState.documentSelfLink;
+        HostView current = hosts.get(link);
+        if (!isNewer(link, current != null ? current.documentVersion : null, computeState)) {
+            return;
+        }
+        if (isDeleted(computeState)) {
+            hosts.remove(link);
+            return;
+        }
+        hosts.put(link, new HostView(computeState));
+    }
+
+    synchronized void updateContainer(ContainerState containerState) {
+        String link = containerState.documentSelfLink;
+        ContainerView current = containers.get(link);
+        if (!isNewer(link, current != null ? current.documentVersion : null, containerState)) {
+            return;
+        }
+        if (current != null && current.parentLink != null) {
+            Map<String, ContainerView> hostContainers = containersByHost.get(current.parentLink);
+            if (hostContainers != null) {
+                hostContainers.remove(link);
+                if (hostContainers.isEmpty()) {
+                    containersByHost.remove(current.parentLink);
+                }
+            }
+        }
+        if (isDeleted(containerState)) {
+            containers.remove(link);
+            return;
+        }
+        ContainerView container = new ContainerView(containerState);
+        containers.put(link, container);
+        if (current == null) {
+            // a new container takes the place of one reserved for it
+            release(container);
+        }
+        if (container.parentLink != null) {
+            containersByHost.computeIfAbsent(container.parentLink,
+                    (k) -> new ConcurrentHashMap<>()).put(link, container);
+        }
+    }
+
+    private boolean isNewer(String link, Long currentVersion, ServiceDocument document) {
+        if (currentVersion != null && currentVersion >= document.documentVersion) {
+            return false;
+        }
+        if (!ready) {
+            Long deletedVersion = deletedVersions.get(link);
+            if (deletedVersion != null && deletedVersion >= document.documentVersion) {
+                return false;
+            }
+            if (isDeleted(document)) {
+                deletedVersions.put(link, document.documentVersion);
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDeleted(ServiceDocument document) {
+        return Action.DELETE.toString().equals(document.documentUpdateAction);
+    }
+}
@@ -57,8 +57,7 @@ public class ServiceAffinityHostFilter extends BaseAffinityHostFilter {
     public void filter(PlacementHostSelectionTaskState state,
             Map<String, HostSelection> hostSelectionMap, HostSelectionFilterCompletion callback) {
 
-        if (!isActive()
-                && state.getCustomProperty(RequestUtils.CLUSTERING_OPERATION_CUSTOM_PROP) == null) {
+        if (!isActive(state)) {
             callback.complete(hostSelectionMap, null);
             return;
         }
@@ -158,6 +157,12 @@ public class ServiceAffinityHostFilter extends BaseAffinityHostFilter {
         return !getAffinityConstraints().isEmpty();
     }
 
+    @Override
+    public boolean isActive(PlacementHostSelectionTaskState state) {
+        return isActive()
+                || state.getCustomProperty(RequestUtils.CLUSTERING_OPERATION_CUSTOM_PROP) != null;
+    }
+
     @Override
     public Map<String, AffinityConstraint> getAffinityConstraints() {
         if (affinityConstraints == null) {
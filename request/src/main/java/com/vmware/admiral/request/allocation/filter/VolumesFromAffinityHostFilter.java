@@ -46,8 +46,7 @@ public class VolumesFromAffinityHostFilter extends BaseAffinityHostFilter {
             Map<String, HostSelection> hostSelectionMap,
             HostSelectionFilterCompletion callback) {
 
-        if (!isActive()
-                && state.getCustomProperty(RequestUtils.CLUSTERING_OPERATION_CUSTOM_PROP) == null) {
+        if (!isActive(state)) {
             callback.complete(hostSelectionMap, null);
             return;
         }
@@ -65,6 +64,13 @@ public class VolumesFromAffinityHostFilter extends BaseAffinityHostFilter {
         return hasOutgoingAffinities();
     }
 
+    @Override
+    public boolean isActive(
+            PlacementHostSelectionTaskService.PlacementHostSelectionTaskState state) {
+        return isActive()
+                || state.getCustomProperty(RequestUtils.CLUSTERING_OPERATION_CUSTOM_PROP) != null;
+    }
+
     @Override
     protected QueryTask getDescQuery() {
         //Get all container descriptions whose names are in the volumes from of this one
@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.allocation.score;
+
+/**
+ * Prefers the most loaded hosts the resources still fit on, by memory and CPU usage and then by
+ * number of containers, so the hosts are filled up one by one and the rest are kept free.
+ */
+public class BinPackHostScorer implements HostScorer {
+    public static final String NAME = "binpack";
+
+    @Override
+    public double score(Candidate candidate) {
+        return candidate.getLoad()
+                + SpreadHostScorer.CONTAINER_WEIGHT * candidate.containerCount;
+    }
+}
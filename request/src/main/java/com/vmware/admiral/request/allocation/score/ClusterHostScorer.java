@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.allocation.score;
+
+import com.vmware.admiral.request.allocation.filter.ClusterAntiAffinityHostFilter;
+
+/**
+ * Places the nodes of a cluster on the hosts with the fewest nodes of the same cluster, counting
+ * the ones already there (the <code>containerCount</code> set by the
+ * {@link ClusterAntiAffinityHostFilter}) and the ones placed during the current placement, so all
+ * the requested nodes are spread evenly in a single pass. Hosts with the same number of nodes are
+ * scored as with {@link SpreadHostScorer}.
+ */
+public class ClusterHostScorer implements HostScorer {
+    private final HostScorer spreadScorer = new SpreadHostScorer();
+
+    @Override
+    public double score(Candidate candidate) {
+        long clusterNodes = candidate.hostSelection.containerCount + candidate.placed;
+        // the spread score is well below 1 in absolute value and so only breaks the ties
+        return -clusterNodes + spreadScorer.score(candidate) / 100;
+    }
+}
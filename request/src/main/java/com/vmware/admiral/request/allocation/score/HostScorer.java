@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.allocation.score;
+
+import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelection;
+
+/**
+ * Scores the hosts left after the host selection filters, to decide where the requested resources
+ * are placed. Implementations are registered by strategy name in {@link HostScorers}.
+ */
+public interface HostScorer {
+
+    /**
+     * Returns the score of placing one more resource on the given host, the higher the better.
+     *
+     * @param candidate
+     *            - the host with the resources already placed on it during the current placement
+     *            taken into account.
+     */
+    double score(Candidate candidate);
+
+    /**
+     * A host being scored. The memory and the container count are updated as resources are
+     * placed on the host.
+     */
+    public static class Candidate {
+        public final HostSelection hostSelection;
+        /** Available memory or <code>null</code> if not known. */
+        public Long availableMemory;
+        /** Total memory or <code>null</code> if not known. */
+        public final Long totalMemory;
+        /** CPU usage in percents, <code>0</code> if not known. */
+        public final double cpuUsage;
+        public long containerCount;
+        /** Number of resources placed on the host during the current placement */
+        public int placed;
+
+        public Candidate(HostSelection hostSelection) {
+            this.hostSelection = hostSelection;
+            this.availableMemory = hostSelection.availableMemory != null
+                    && hostSelection.availableMemory != Long.MAX_VALUE
+                            ? hostSelection.availableMemory : null;
+            this.totalMemory = hostSelection.totalMemory;
+            this.cpuUsage = hostSelection.cpuUsage != null ? hostSelection.cpuUsage : 0;
+            this.containerCount = hostSelection.hostContainerCount;
+        }
+
+        /**
+         * Returns the used part of the memory between 0 and 1, or 0 if not known.
+         */
+        public double getMemoryUsage() {
+            if (availableMemory == null || totalMemory == null || totalMemory <= 0) {
+                return 0;
+            }
+            return Math.min(1, Math.max(0, 1 - (double) availableMemory / totalMemory));
+        }
+
+        /**
+         * Returns the combined memory and CPU usage between 0 and 1.
+         */
+        public double getLoad() {
+            return (getMemoryUsage() + Math.min(1, Math.max(0, cpuUsage / 100))) / 2;
+        }
+
+        boolean fits(Long memoryLimit) {
+            return memoryLimit == null || availableMemory == null
+                    || availableMemory >= memoryLimit;
+        }
+
+        void place(Long memoryLimit) {
+            if (memoryLimit != null && availableMemory != null) {
+                availableMemory -= memoryLimit;
+            }
+            containerCount++;
+            placed++;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.allocation.score;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.vmware.admiral.common.util.AssertUtil;
+import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelection;
+import com.vmware.admiral.request.allocation.score.HostScorer.Candidate;
+
+/**
+ * Registry of the {@link HostScorer}s by placement strategy name and the placement of the
+ * requested resources on the hosts based on their scores.
+ */
+public final class HostScorers {
+    /**
+     * Custom property of the group resource policies with the name of the placement strategy to
+     * use for their resource pool.
+     */
+    public static final String PLACEMENT_STRATEGY_PROP_NAME = "__placementStrategy";
+
+    private static final Map<String, HostScorer> SCORERS = new ConcurrentHashMap<>();
+
+    static {
+        register(SpreadHostScorer.NAME, new SpreadHostScorer());
+        register(BinPackHostScorer.NAME, new BinPackHostScorer());
+    }
+
+    private HostScorers() {
+    }
+
+    public static void register(String strategy, HostScorer scorer) {
+        AssertUtil.assertNotEmpty(strategy, "strategy");
+        AssertUtil.assertNotNull(scorer, "scorer");
+        SCORERS.put(strategy.toLowerCase(Locale.ENGLISH), scorer);
+    }
+
+    /**
+     * Returns the scorer of the given strategy or <code>null</code> if there is no such strategy.
+     */
+    public static HostScorer get(String strategy) {
+        if (strategy == null || strategy.isEmpty()) {
+            return null;
+        }
+        return SCORERS.get(strategy.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Places the given number of resources on the hosts one by one, each on the host with the
+     * highest score at that time among the ones it fits on, or among all hosts if it does not fit
+     * on any. The hosts with equal scores are taken in the given order.
+     *
+     * @return a host selection per resource, a host being repeated as many times as the resources
+     *         placed on it, followed by the hosts no resource was placed on, so all the candidate
+     *         hosts are still known to the callers, as with the random placement
+     */
+    public static List<HostSelection> assign(Collection<HostSelection> hostSelections,
+            long resourceCount, Long memoryLimit, HostScorer scorer) {
+        List<Candidate> candidates = new ArrayList<>(hostSelections.size());
+        for (HostSelection hostSelection : hostSelections) {
+            candidates.add(new Candidate(hostSelection));
+        }
+
+        List<HostSelection> result = new ArrayList<>();
+        if (candidates.isEmpty()) {
+            return result;
+        }
+        for (long i = 0; i < resourceCount; i++) {
+            Candidate best = selectBest(candidates, memoryLimit, scorer);
+            if (best == null) {
+                best = selectBest(candidates, null, scorer);
+            }
+            best.place(memoryLimit);
+            result.add(best.hostSelection);
+        }
+        for (Candidate candidate : candidates) {
+            if (candidate.placed == 0) {
+                result.add(candidate.hostSelection);
+            }
+        }
+        return result;
+    }
+
+    private static Candidate selectBest(List<Candidate> candidates, Long memoryLimit,
+            HostScorer scorer) {
+        Candidate best = null;
+        double bestScore = 0;
+        for (Candidate candidate : candidates) {
+            if (!candidate.fits(memoryLimit)) {
+                continue;
+            }
+            double score = scorer.score(candidate);
+            if (best == null || score > bestScore) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+}
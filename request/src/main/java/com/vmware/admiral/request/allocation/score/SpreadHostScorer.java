@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.allocation.score;
+
+/**
+ * Prefers the least loaded hosts, by memory and CPU usage and then by number of containers, so
+ * the resources are spread evenly over the hosts.
+ */
+public class SpreadHostScorer implements HostScorer {
+    public static final String NAME = "spread";
+
+    /** Weight of a container compared to the load which is between 0 and 1 */
+    static final double CONTAINER_WEIGHT = 0.01;
+
+    @Override
+    public double score(Candidate candidate) {
+        return -candidate.getLoad() - CONTAINER_WEIGHT * candidate.containerCount;
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.composition;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.vmware.admiral.request.composition.CompositionGraph.ResourceNode;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * In-memory execution plan of the composition sub tasks, kept by the {@link CompositionTaskService}
+ * for the life of the request. A sub task is started as soon as all the sub tasks it depends on
+ * are finished, instead of being notified by them, and the number of sub tasks executing at the
+ * same time is bounded per resource type. From the ready sub tasks the ones with the longest chain
+ * of dependents are started first.
+ *
+ * Once all the sub tasks complete, the plan gives the critical path, i.e. the chain of dependent
+ * sub tasks with the longest execution time, which is the lower bound of the composition execution
+ * time.
+ */
+public class CompositionExecutionPlan {
+    public static final boolean ENABLED = Boolean.getBoolean(
+            "com.vmware.admiral.request.composition.execution.plan");
+
+    /**
+     * The max number of sub tasks executing at the same time. Could be set per resource type with
+     * the resource type as suffix, e.g. <code>...max.concurrent.App.Container</code>. Not bounded
+     * if not set or not positive.
+     */
+    public static final String MAX_CONCURRENT_PROPERTY =
+            "com.vmware.admiral.request.composition.execution.max.concurrent";
+
+    public enum Status {
+        WAITING, STARTED, FINISHED, FAILED, SKIPPED
+    }
+
+    static class PlannedNode {
+        final String link;
+        final ResourceNode resourceNode;
+        final Set<String> dependsOnLinks = new HashSet<>();
+        final Set<String> remainingDependsOnLinks = new HashSet<>();
+        final Set<String> dependentLinks = new HashSet<>();
+        /** The number of sub tasks in the longest chain of dependents, including this one. */
+        int height;
+        Status status = Status.WAITING;
+        long startTimeMicros;
+        long endTimeMicros;
+
+        PlannedNode(String link, ResourceNode resourceNode) {
+            this.link = link;
+            this.resourceNode = resourceNode;
+        }
+    }
+
+    public static class CriticalPath {
+        /** The names of the components in the chain, in execution order. */
+        public List<String> names;
+        /** The sum of the execution times of the components in the chain. */
+        public long timeMicros;
+    }
+
+    private final Map<String, PlannedNode> nodesByLink = new HashMap<>();
+    private final Map<String, Integer> startedByResourceType = new HashMap<>();
+    private final List<String> toSkip = new ArrayList<>();
+    private final Function<String, Integer> maxConcurrentByResourceType;
+
+    /**
+     * @param resourceNodesByLink
+     *            - the {@link ResourceNode}s of the composition by sub task link
+     */
+    public CompositionExecutionPlan(Map<String, ResourceNode> resourceNodesByLink) {
+        this(resourceNodesByLink, CompositionExecutionPlan::getMaxConcurrent);
+    }
+
+    CompositionExecutionPlan(Map<String, ResourceNode> resourceNodesByLink,
+            Function<String, Integer> maxConcurrentByResourceType) {
+        this.maxConcurrentByResourceType = maxConcurrentByResourceType;
+
+        Map<String, String> linksByName = new HashMap<>();
+        for (Map.Entry<String, ResourceNode> entry : resourceNodesByLink.entrySet()) {
+            nodesByLink.put(entry.getKey(), new PlannedNode(entry.getKey(), entry.getValue()));
+            linksByName.put(entry.getValue().name, entry.getKey());
+        }
+
+        for (PlannedNode node : nodesByLink.values()) {
+            if (node.resourceNode.dependsOn == null) {
+                continue;
+            }
+            for (String dependsOnName : node.resourceNode.dependsOn) {
+                String dependsOnLink = linksByName.get(dependsOnName);
+                node.dependsOnLinks.add(dependsOnLink);
+                nodesByLink.get(dependsOnLink).dependentLinks.add(node.link);
+            }
+            node.remainingDependsOnLinks.addAll(node.dependsOnLinks);
+        }
+
+        for (PlannedNode node : nodesByLink.values()) {
+            calculateHeight(node);
+        }
+    }
+
+    private int calculateHeight(PlannedNode node) {
+        if (node.height == 0) {
+            int height = 0;
+            for (String dependentLink : node.dependentLinks) {
+                height = Math.max(height, calculateHeight(nodesByLink.get(dependentLink)));
+            }
+            node.height = height + 1;
+        }
+        return node.height;
+    }
+
+    /**
+     * Restores the status of a sub task, when the plan is built for sub tasks already executing.
+     */
+    public synchronized void restore(String link, Status status) {
+        PlannedNode node = nodesByLink.get(link);
+        if (node == null || status == Status.WAITING) {
+            return;
+        }
+        node.status = status;
+        // the execution times before the plan was restored are not known
+        node.startTimeMicros = Utils.getNowMicrosUtc();
+        if (status == Status.STARTED) {
+            startedByResourceType.merge(node.resourceNode.resourceType, 1, Integer::sum);
+        } else {
+            node.endTimeMicros = node.startTimeMicros;
+            if (status == Status.FINISHED) {
+                removeFromDependents(node);
+            }
+        }
+    }
+
+    /**
+     * Marks the sub tasks depending on the restored failed sub tasks as not to be started.
+     */
+    public synchronized void skipDependentsOfFailed() {
+        for (PlannedNode node : nodesByLink.values()) {
+            if (node.status == Status.FAILED) {
+                skipDependents(node);
+            }
+        }
+    }
+
+    /**
+     * Returns the links of the sub tasks that will not be started because a sub task they depend
+     * on failed. They are to be completed with an error, so the composition task is notified.
+     */
+    public synchronized List<String> nextToSkip() {
+        List<String> skipped = new ArrayList<>(toSkip);
+        toSkip.clear();
+        return skipped;
+    }
+
+    /**
+     * Returns the links of the sub tasks to be started, the ones not waiting for other sub tasks
+     * anymore, as many as the bound for their resource type allows. They are considered started.
+     */
+    public synchronized List<String> nextToStart() {
+        List<PlannedNode> ready = new ArrayList<>();
+        for (PlannedNode node : nodesByLink.values()) {
+            if (node.status == Status.WAITING && node.remainingDependsOnLinks.isEmpty()) {
+                ready.add(node);
+            }
+        }
+        // the longest chains first, the name for a stable order
+        ready.sort(Comparator.<PlannedNode> comparingInt((n) -> -n.height)
+                .thenComparing((n) -> n.resourceNode.name));
+
+        List<String> toStart = new ArrayList<>();
+        long now = Utils.getNowMicrosUtc();
+        for (PlannedNode node : ready) {
+            String resourceType = node.resourceNode.resourceType;
+            Integer maxConcurrent = maxConcurrentByResourceType.apply(resourceType);
+            int started = startedByResourceType.getOrDefault(resourceType, 0);
+            if (maxConcurrent != null && maxConcurrent > 0 && started >= maxConcurrent) {
+                continue;
+            }
+            startedByResourceType.put(resourceType, started + 1);
+            node.status = Status.STARTED;
+            node.startTimeMicros = now;
+            toStart.add(node.link);
+        }
+        return toStart;
+    }
+
+    /**
+     * Marks the sub task as finished, so the sub tasks depending on it could be started.
+     *
+     * @return <code>false</code> if the sub task is not started
+     */
+    public synchronized boolean finished(String link) {
+        PlannedNode node = complete(link, Status.FINISHED);
+        if (node == null) {
+            return false;
+        }
+        removeFromDependents(node);
+        return true;
+    }
+
+    /**
+     * Marks the sub task as failed, so the sub tasks depending on it, directly or not, are not
+     * started anymore and are given by {@link #nextToSkip()}.
+     *
+     * @return <code>false</code> if the sub task is not started
+     */
+    public synchronized boolean failed(String link) {
+        PlannedNode node = complete(link, Status.FAILED);
+        if (node == null) {
+            return false;
+        }
+        skipDependents(node);
+        return true;
+    }
+
+    private void skipDependents(PlannedNode failed) {
+        LinkedList<PlannedNode> queue = new LinkedList<>();
+        queue.add(failed);
+        while (!queue.isEmpty()) {
+            for (String dependentLink : queue.poll().dependentLinks) {
+                PlannedNode dependent = nodesByLink.get(dependentLink);
+                if (dependent.status == Status.WAITING) {
+                    dependent.status = Status.SKIPPED;
+                    toSkip.add(dependent.link);
+                    queue.add(dependent);
+                }
+            }
+        }
+    }
+
+    private PlannedNode complete(String link, Status status) {
+        PlannedNode node = nodesByLink.get(link);
+        if (node == null || node.status != Status.STARTED) {
+            return null;
+        }
+        node.status = status;
+        node.endTimeMicros = Utils.getNowMicrosUtc();
+        startedByResourceType.merge(node.resourceNode.resourceType, -1, Integer::sum);
+        return node;
+    }
+
+    private void removeFromDependents(PlannedNode node) {
+        for (String dependentLink : node.dependentLinks) {
+            nodesByLink.get(dependentLink).remainingDependsOnLinks.remove(node.link);
+        }
+    }
+
+    /**
+     * Returns the chain of dependent sub tasks with the longest execution time, from the sub tasks
+     * executed so far.
+     */
+    public synchronized CriticalPath getCriticalPath() {
+        Map<String, Long> pathTimes = new HashMap<>();
+        Map<String, PlannedNode> previous = new HashMap<>();
+        PlannedNode last = null;
+        for (PlannedNode node : nodesByLink.values()) {
+            if (calculatePathTime(node, pathTimes, previous) > 0
+                    && (last == null || pathTimes.get(node.link) > pathTimes.get(last.link))) {
+                last = node;
+            }
+        }
+
+        LinkedList<String> names = new LinkedList<>();
+        CriticalPath criticalPath = new CriticalPath();
+        if (last != null) {
+            criticalPath.timeMicros = pathTimes.get(last.link);
+            for (PlannedNode node = last; node != null; node = previous.get(node.link)) {
+                names.addFirst(node.resourceNode.name);
+            }
+        }
+        criticalPath.names = new ArrayList<>(names);
+        return criticalPath;
+    }
+
+    private long calculatePathTime(PlannedNode node, Map<String, Long> pathTimes,
+            Map<String, PlannedNode> previous) {
+        Long pathTime = pathTimes.get(node.link);
+        if (pathTime != null) {
+            return pathTime;
+        }
+
+        pathTime = 0L;
+        if (node.status == Status.FINISHED || node.status == Status.FAILED) {
+            PlannedNode longestDependsOn = null;
+            long longestDependsOnTime = 0;
+            for (String dependsOnLink : node.dependsOnLinks) {
+                PlannedNode dependsOn = nodesByLink.get(dependsOnLink);
+                long dependsOnTime = calculatePathTime(dependsOn, pathTimes, previous);
+                if (longestDependsOn == null || dependsOnTime > longestDependsOnTime) {
+                    longestDependsOn = dependsOn;
+                    longestDependsOnTime = dependsOnTime;
+                }
+            }
+            if (longestDependsOn != null) {
+                previous.put(node.link, longestDependsOn);
+            }
+            pathTime = longestDependsOnTime
+                    + Math.max(1, node.endTimeMicros - node.startTimeMicros);
+        }
+        pathTimes.put(node.link, pathTime);
+        return pathTime;
+    }
+
+    private static Integer getMaxConcurrent(String resourceType) {
+        return Integer.getInteger(MAX_CONCURRENT_PROPERTY + "." + resourceType,
+                Integer.getInteger(MAX_CONCURRENT_PROPERTY, 0));
+    }
+}
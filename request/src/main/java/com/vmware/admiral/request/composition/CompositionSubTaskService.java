@@ -137,6 +137,13 @@ public class CompositionSubTaskService extends
 
         /** Set by Task. Indicating that it is in the second phase after allocation */
         public boolean postAllocation;
+
+        /**
+         * Flag indicating that the composition task starts the execution of the task once the
+         * tasks it depends on complete, with a {@link CompositionExecutionPlan}. The dependent
+         * tasks are not notified on completion then.
+         */
+        public boolean executionPlanned;
     }
 
     public CompositionSubTaskService() {
@@ -295,6 +302,7 @@ public class CompositionSubTaskService extends
 
         if (SubStage.PREPARE_EXECUTE == patchBody.taskSubStage) {
             currentState.postAllocation = true; // second phase of provisioning
+            currentState.executionPlanned = patchBody.executionPlanned;
         }
 
         return false;
@@ -308,6 +316,12 @@ public class CompositionSubTaskService extends
             return;
         }
 
+        if (state.executionPlanned) {
+            logFine("Dependent tasks are started by the composition task.");
+            callback.run();
+            return;
+        }
+
         final AtomicInteger countDown = new AtomicInteger(state.dependentLinks.size());
         final AtomicBoolean error = new AtomicBoolean();
         for (final String dependentTaskLink : state.dependentLinks) {
@@ -19,6 +19,7 @@ import static com.vmware.admiral.request.utils.RequestUtils.FIELD_NAME_CONTEXT_I
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -26,6 +27,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
@@ -39,6 +41,8 @@ import com.vmware.admiral.compute.container.CompositeDescriptionService.Composit
 import com.vmware.admiral.compute.container.CompositeDescriptionService.CompositeDescriptionExpanded;
 import com.vmware.admiral.request.RequestStatusService.RequestStatus;
 import com.vmware.admiral.request.composition.CompositeComponentRemovalTaskService.CompositeComponentRemovalTaskState;
+import com.vmware.admiral.request.composition.CompositionExecutionPlan.CriticalPath;
+import com.vmware.admiral.request.composition.CompositionExecutionPlan.Status;
 import com.vmware.admiral.request.composition.CompositionGraph.ResourceNode;
 import com.vmware.admiral.request.composition.CompositionSubTaskService.CompositionSubTaskState;
 import com.vmware.admiral.request.composition.CompositionTaskService.CompositionTaskState.SubStage;
@@ -48,6 +52,7 @@ import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallback
 import com.vmware.admiral.service.common.TaskServiceDocument;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.Operation.CompletionHandler;
+import com.vmware.xenon.common.OperationJoin;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption;
 import com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption;
@@ -114,8 +119,28 @@ public class CompositionTaskService
         /** (Internal) Set by task with ContainerDescription name. */
         public String descName;
 
+        /**
+         * Set by Task when the execution is planned. The names of the components in the chain of
+         * dependent components with the longest execution time, in execution order.
+         */
+        public List<String> criticalPath;
+
+        /**
+         * Set by Task when the execution is planned. The execution time of the critical path
+         * components in microseconds.
+         */
+        public Long criticalPathTimeMicros;
+
     }
 
+    /**
+     * The execution plan of the sub tasks, when enabled. Kept in memory for the life of the
+     * request and restored from the sub tasks if the task is started again on another node.
+     */
+    private volatile CompositionExecutionPlan executionPlan;
+    private final AtomicBoolean executionPlanRestoring = new AtomicBoolean();
+    private final Map<String, Boolean> failedByCompletedWhileRestoring = new HashMap<>();
+
     public CompositionTaskService() {
         super(CompositionTaskState.class, SubStage.class, DISPLAY_NAME);
         super.toggleOption(ServiceOption.PERSISTENCE, true);
@@ -151,6 +176,9 @@ public class CompositionTaskService
         case DISTRIBUTE_TASKS:
             break;
         case PROVISIONING:
+            if (CompositionExecutionPlan.ENABLED) {
+                continueExecutionPlan(state);
+            }
             counting(state, false);
             break;
         case ERROR_PROVISIONING:
@@ -179,6 +207,10 @@ public class CompositionTaskService
         currentState.resourceNodes = mergeProperty(currentState.resourceNodes,
                 patchBody.resourceNodes);
         currentState.descName = mergeProperty(currentState.descName, patchBody.descName);
+        currentState.criticalPath = mergeProperty(currentState.criticalPath,
+                patchBody.criticalPath);
+        currentState.criticalPathTimeMicros = mergeProperty(currentState.criticalPathTimeMicros,
+                patchBody.criticalPathTimeMicros);
 
         if (currentState.taskInfo != null
                 && TaskStage.STARTED == currentState.taskInfo.stage
@@ -195,6 +227,12 @@ public class CompositionTaskService
             final ResourceNode resourceNode = currentState.resourceNodes.get(patchSelfLink);
             if (resourceNode != null) {
                 currentState.remainingCount--;
+                if (CompositionExecutionPlan.ENABLED
+                        && (SubStage.PROVISIONING == patchBody.taskSubStage
+                                || SubStage.ERROR_PROVISIONING == patchBody.taskSubStage)) {
+                    recordExecution(patchSelfLink,
+                            SubStage.ERROR_PROVISIONING == patchBody.taskSubStage);
+                }
                 logInfo("Remaining count: [%s]. Stage: [%s]. Completion of resource name: [%s] composition sub-task [%s] patched.",
                         currentState.remainingCount, patchBody.taskSubStage, resourceNode.name,
                         patchSelfLink);
@@ -403,7 +441,11 @@ public class CompositionTaskService
                 }
                 // patch all subtasks to execute when all of them are prepared
                 if (countDown.decrementAndGet() == 0 && !error.get()) {
-                    patchSubTaskToExecute(state);
+                    if (CompositionExecutionPlan.ENABLED) {
+                        startExecutionPlan(state);
+                    } else {
+                        patchSubTaskToExecute(state);
+                    }
                 }
             });
         }
@@ -414,7 +456,11 @@ public class CompositionTaskService
             final CompletionHandler completionHandler) {
         final CompositionSubTaskState compositionSubTask = new CompositionSubTaskState();
         compositionSubTask.documentSelfLink = subTaskSelfLink;
-        if (resourceNode.dependsOn != null && !resourceNode.dependsOn.isEmpty()) {
+        if (CompositionExecutionPlan.ENABLED) {
+            // started by the execution plan once the depends on tasks complete
+            compositionSubTask.dependsOnLinks = new HashSet<>();
+            compositionSubTask.executionPlanned = true;
+        } else if (resourceNode.dependsOn != null && !resourceNode.dependsOn.isEmpty()) {
             compositionSubTask.dependsOnLinks = resourceNode.dependsOn
                     .stream().map((r) -> buildCompositionSubTaskLink(r))
                     .collect(Collectors.toSet());
@@ -433,9 +479,15 @@ public class CompositionTaskService
     }
 
     private void patchSubTaskToExecute(CompositionTaskState state) {
-        final AtomicBoolean error = new AtomicBoolean();
         // patch each subtask to EXECUTE
-        for (final String subTaskSelfLink : state.resourceNodes.keySet()) {
+        patchSubTasksToExecute(state.resourceNodes.keySet());
+
+        sendSelfPatch(createUpdateSubStageTask(state, SubStage.DISTRIBUTE_TASKS));
+    }
+
+    private void patchSubTasksToExecute(Collection<String> subTaskSelfLinks) {
+        final AtomicBoolean error = new AtomicBoolean();
+        for (final String subTaskSelfLink : subTaskSelfLinks) {
             patchCompositionSubTaskToExecute(subTaskSelfLink, (o, e) -> {
                 if (e != null) {
                     if (error.compareAndSet(false, true)) {
@@ -453,10 +505,125 @@ public class CompositionTaskService
                 }
             });
         }
+    }
+
+    private void startExecutionPlan(CompositionTaskState state) {
+        executionPlan = new CompositionExecutionPlan(state.resourceNodes);
+        // patch only the subtasks not depending on other subtasks to EXECUTE
+        patchSubTasksToExecute(executionPlan.nextToStart());
 
         sendSelfPatch(createUpdateSubStageTask(state, SubStage.DISTRIBUTE_TASKS));
     }
 
+    private void recordExecution(String subTaskSelfLink, boolean failed) {
+        CompositionExecutionPlan plan;
+        synchronized (failedByCompletedWhileRestoring) {
+            plan = executionPlan;
+            if (plan == null) {
+                // applied once the execution plan is restored
+                failedByCompletedWhileRestoring.put(subTaskSelfLink, failed);
+                return;
+            }
+        }
+
+        if (failed) {
+            plan.failed(subTaskSelfLink);
+        } else {
+            plan.finished(subTaskSelfLink);
+        }
+    }
+
+    private void continueExecutionPlan(CompositionTaskState state) {
+        CompositionExecutionPlan plan = executionPlan;
+        if (plan == null) {
+            restoreExecutionPlan(state);
+            return;
+        }
+
+        for (String subTaskSelfLink : plan.nextToSkip()) {
+            patchCompositionSubTaskToError(subTaskSelfLink);
+        }
+        patchSubTasksToExecute(plan.nextToStart());
+
+        if (state.remainingCount == 0) {
+            CriticalPath criticalPath = plan.getCriticalPath();
+            logInfo("Critical path of [%s]: %s, %d ms", state.resourceDescriptionLink,
+                    criticalPath.names, TimeUnit.MICROSECONDS.toMillis(criticalPath.timeMicros));
+        }
+    }
+
+    private void patchCompositionSubTaskToError(String subTaskSelfLink) {
+        final CompositionSubTaskState compositionSubTask = new CompositionSubTaskState();
+        compositionSubTask.taskInfo = new TaskState();
+        compositionSubTask.taskInfo.stage = TaskStage.STARTED;
+        compositionSubTask.taskSubStage = CompositionSubTaskState.SubStage.ERROR;
+
+        sendRequest(Operation.createPatch(this, subTaskSelfLink)
+                .setBody(compositionSubTask)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        failTask("Failure patching composition subTask: " + subTaskSelfLink, e);
+                    }
+                }));
+    }
+
+    /**
+     * Builds the execution plan again from the stages of the subtasks, when the task is started
+     * on another node during the execution.
+     */
+    private void restoreExecutionPlan(CompositionTaskState state) {
+        if (!executionPlanRestoring.compareAndSet(false, true)) {
+            return;
+        }
+        logInfo("Restoring composition execution plan.");
+
+        List<Operation> gets = state.resourceNodes.keySet().stream()
+                .map((link) -> Operation.createGet(this, link))
+                .collect(Collectors.toList());
+        OperationJoin.create(gets).setCompletion((ops, exs) -> {
+            if (exs != null && !exs.isEmpty()) {
+                executionPlanRestoring.set(false);
+                failTask("Failure restoring composition execution plan",
+                        exs.values().iterator().next());
+                return;
+            }
+
+            CompositionExecutionPlan plan = new CompositionExecutionPlan(state.resourceNodes);
+            for (Operation op : ops.values()) {
+                CompositionSubTaskState subTask = op.getBody(CompositionSubTaskState.class);
+                plan.restore(subTask.documentSelfLink, getExecutionStatus(subTask));
+            }
+            plan.skipDependentsOfFailed();
+
+            synchronized (failedByCompletedWhileRestoring) {
+                failedByCompletedWhileRestoring.forEach((link, failed) -> {
+                    if (failed) {
+                        plan.failed(link);
+                    } else {
+                        plan.finished(link);
+                    }
+                });
+                failedByCompletedWhileRestoring.clear();
+                executionPlan = plan;
+            }
+
+            continueExecutionPlan(state);
+        }).sendWith(this);
+    }
+
+    private static Status getExecutionStatus(CompositionSubTaskState subTask) {
+        switch (subTask.taskInfo.stage) {
+        case FINISHED:
+            return Status.FINISHED;
+        case FAILED:
+        case CANCELLED:
+            return Status.FAILED;
+        default:
+            return subTask.taskSubStage.ordinal() >= CompositionSubTaskState.SubStage.EXECUTE
+                    .ordinal() ? Status.STARTED : Status.WAITING;
+        }
+    }
+
     private void patchCompositionSubTaskToExecute(
             String subTaskSelfLink,
             CompletionHandler completionHandler) {
@@ -484,6 +651,11 @@ public class CompositionTaskService
                 sendSelfPatch(createUpdateSubStageTask(state, SubStage.ERROR));
             } else {
                 CompositionTaskState body = createUpdateSubStageTask(state, SubStage.ALLOCATED);
+                if (!allocate && executionPlan != null) {
+                    CriticalPath criticalPath = executionPlan.getCriticalPath();
+                    body.criticalPath = criticalPath.names;
+                    body.criticalPathTimeMicros = criticalPath.timeMicros;
+                }
                 if (allocate) {
                     body.remainingCount = (long) state.resourceNodes.size();
                 } else {
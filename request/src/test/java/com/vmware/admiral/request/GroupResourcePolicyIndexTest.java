@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.compute.ResourceType;
+import com.vmware.admiral.compute.container.GroupResourcePolicyService.GroupResourcePolicyState;
+import com.vmware.xenon.common.Service.Action;
+
+public class GroupResourcePolicyIndexTest {
+    private static final String TENANT = "/tenants/coke";
+    private static final String CONTAINER = ResourceType.CONTAINER_TYPE.getName();
+
+    private GroupResourcePolicyIndex index;
+
+    @Before
+    public void setUp() {
+        index = new GroupResourcePolicyIndex(null);
+    }
+
+    @Test
+    public void testRanking() {
+        index.update(policy("p1", 1, TENANT, 10, 5, 0, 0));
+        index.update(policy("p2", 1, TENANT, 10, 8, 0, 0));
+        index.update(policy("p3", 0, TENANT, 10, 1, 0, 0));
+        index.update(policy("p4", 1, TENANT, 0, 0, 0, 0));
+
+        // by priority, then the unlimited and the ones with more instances available first
+        assertEquals(Arrays.asList("p3", "p4", "p2", "p1"),
+                links(index.getCandidates(Collections.singletonList(TENANT), CONTAINER, 1, null)));
+        // not enough instances available
+        assertEquals(Arrays.asList("p4", "p2"),
+                links(index.getCandidates(Collections.singletonList(TENANT), CONTAINER, 6, null)));
+    }
+
+    @Test
+    public void testTenantsAndResourceTypes() {
+        index.update(policy("global", 0, null, 10, 10, 0, 0));
+        index.update(policy("tenant", 0, TENANT, 10, 10, 0, 0));
+        GroupResourcePolicyState compute = policy("compute", 0, TENANT, 10, 10, 0, 0);
+        compute.resourceType = ResourceType.COMPUTE_TYPE.getName();
+        index.update(compute);
+
+        assertEquals(Arrays.asList("tenant"),
+                links(index.getCandidates(Collections.singletonList(TENANT), CONTAINER, 1, null)));
+        assertEquals(Arrays.asList("global"), links(index.getCandidates(null, CONTAINER, 1, null)));
+        assertEquals(Arrays.asList("compute"), links(index.getCandidates(
+                Collections.singletonList(TENANT), ResourceType.COMPUTE_TYPE.getName(), 1, null)));
+        assertTrue(index.getCandidates(Collections.singletonList("/tenants/pepsi"), CONTAINER, 1,
+                null).isEmpty());
+    }
+
+    @Test
+    public void testMemory() {
+        index.update(policy("limited", 0, TENANT, 0, 0, 1000, 300));
+        index.update(policy("unlimited", 1, TENANT, 0, 0, 0, 0));
+
+        assertEquals(Arrays.asList("limited", "unlimited"), links(index.getCandidates(
+                Collections.singletonList(TENANT), CONTAINER, 3, 100L)));
+        assertEquals(Arrays.asList("unlimited"), links(index.getCandidates(
+                Collections.singletonList(TENANT), CONTAINER, 4, 100L)));
+    }
+
+    @Test
+    public void testUpdates() {
+        index.update(policy("p1", 0, TENANT, 10, 5, 0, 0));
+
+        // an older version does not override a newer one
+        GroupResourcePolicyState exhausted = policy("p1", 0, TENANT, 10, 0, 0, 0);
+        exhausted.documentVersion = 2;
+        index.update(exhausted);
+        index.update(policy("p1", 0, TENANT, 10, 5, 0, 0));
+        assertTrue(index.getCandidates(Collections.singletonList(TENANT), CONTAINER, 1, null)
+                .isEmpty());
+
+        GroupResourcePolicyState deleted = policy("p1", 0, TENANT, 10, 5, 0, 0);
+        deleted.documentVersion = 3;
+        deleted.documentUpdateAction = Action.DELETE.toString();
+        index.update(deleted);
+        index.update(policy("p2", 0, TENANT, 10, 5, 0, 0));
+        assertEquals(Arrays.asList("p2"),
+                links(index.getCandidates(Collections.singletonList(TENANT), CONTAINER, 1, null)));
+    }
+
+    private static List<String> links(List<GroupResourcePolicyState> policies) {
+        return policies.stream().map((p) -> p.documentSelfLink).collect(Collectors.toList());
+    }
+
+    private static GroupResourcePolicyState policy(String link, int priority, String tenantLink,
+            long maxNumberInstances, long availableInstancesCount, long memoryLimit,
+            long availableMemory) {
+        GroupResourcePolicyState policy = new GroupResourcePolicyState();
+        policy.documentSelfLink = link;
+        policy.documentVersion = 1;
+        policy.priority = priority;
+        policy.resourceType = CONTAINER;
+        policy.tenantLinks = tenantLink != null ? Collections.singletonList(tenantLink) : null;
+        policy.maxNumberInstances = maxNumberInstances;
+        policy.availableInstancesCount = availableInstancesCount;
+        policy.memoryLimit = memoryLimit;
+        policy.availableMemory = availableMemory;
+        return policy;
+    }
+}
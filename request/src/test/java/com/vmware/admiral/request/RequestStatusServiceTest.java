@@ -38,6 +38,7 @@ import com.vmware.admiral.request.RequestStatusService.RequestStatus;
 import com.vmware.admiral.request.composition.CompositionTaskFactoryService;
 import com.vmware.admiral.request.composition.CompositionTaskService.CompositionTaskState;
 import com.vmware.admiral.request.util.TestRequestStateFactory;
+import com.vmware.admiral.service.common.AbstractTaskStatefulService.TaskStatusState;
 import com.vmware.admiral.service.common.DefaultSubStage;
 import com.vmware.admiral.service.test.MockDockerAdapterService;
 import com.vmware.xenon.common.Operation;
@@ -250,6 +251,48 @@ public class RequestStatusServiceTest extends RequestBaseTest {
         });
     }
 
+    @Test
+    public void testTaskStatusUpdates() throws Throwable {
+        RequestStatus requestStatus = new RequestStatus();
+        requestStatus.documentSelfLink = "test-task-status-updates";
+        requestStatus.taskInfo = TaskState.createAsStarted();
+        requestStatus.progress = 0;
+        requestStatus.addTrackedTasks(ContainerAllocationTaskService.DISPLAY_NAME,
+                ReservationTaskService.DISPLAY_NAME);
+        requestStatus = doPost(requestStatus, RequestStatusFactoryService.SELF_LINK);
+        requestId = extractId(requestStatus.documentSelfLink);
+
+        RequestStatus updates = new RequestStatus();
+        updates.taskStatusUpdates = new ArrayList<>();
+        updates.taskStatusUpdates.add(createTaskStatus(ReservationTaskService.DISPLAY_NAME,
+                100, TaskState.createAsFinished()));
+        updates.taskStatusUpdates.add(createTaskStatus(
+                ContainerAllocationTaskService.DISPLAY_NAME, 50, TaskState.createAsStarted()));
+        doOperation(updates, UriUtils.buildUri(host, requestStatus.documentSelfLink), false,
+                Action.PATCH);
+
+        RequestStatus updatedStatus = getRequestStatus(requestId);
+        // the updates are applied in order, the last one is the current phase
+        assertEquals(ContainerAllocationTaskService.DISPLAY_NAME, updatedStatus.phase);
+        assertEquals(Integer.valueOf(75), updatedStatus.progress);
+
+        // the same updates again don't change the request status and are not persisted
+        doOperation(updates, UriUtils.buildUri(host, requestStatus.documentSelfLink), false,
+                Action.PATCH);
+        RequestStatus unchangedStatus = getRequestStatus(requestId);
+        assertEquals(updatedStatus.documentVersion, unchangedStatus.documentVersion);
+        assertEquals(Integer.valueOf(75), unchangedStatus.progress);
+    }
+
+    private TaskStatusState createTaskStatus(String phase, int progress, TaskState taskInfo) {
+        TaskStatusState taskStatus = new TaskStatusState();
+        taskStatus.documentSelfLink = requestId;
+        taskStatus.phase = phase;
+        taskStatus.progress = progress;
+        taskStatus.taskInfo = taskInfo;
+        return taskStatus;
+    }
+
     @After
     public void logRequestHistory() throws Throwable {
         try {
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.allocation.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.compute.container.PortBinding;
+import com.vmware.admiral.request.PlacementHostSelectionTaskService.PlacementHostSelectionTaskState;
+import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelection;
+import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelectionFilterCompletion;
+import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelectionFilterException;
+
+public class HostSelectionFilterPlannerTest {
+
+    @Test
+    public void testStages() {
+        TestFilter f1 = new TestFilter(true, "h1", "h2", "h3");
+        TestFilter f2 = new TestFilter(true, "h1", "h2", "h4");
+        TestFilter f3 = new TestFilter(false, "h1", "h2", "h3", "h4");
+        TestFilter f4 = new TestFilter(true, "h1");
+
+        List<List<HostSelectionFilter>> stages = new HostSelectionFilterPlanner(
+                new PlacementHostSelectionTaskState(), Arrays.asList(f1, f2, f3, f4))
+                        .getStages();
+        assertEquals(3, stages.size());
+        assertEquals(Arrays.asList(f1, f2), stages.get(0));
+        assertEquals(Arrays.asList(f3), stages.get(1));
+        assertEquals(Arrays.asList(f4), stages.get(2));
+    }
+
+    @Test
+    public void testStagesSkipInactiveFilters() {
+        TestFilter f1 = new TestFilter(true, "h1");
+        TestFilter f2 = new TestFilter(false, "h1");
+        f2.active = false;
+        TestFilter f3 = new TestFilter(true, "h1");
+        TestFilter f4 = new TestFilter(true, "h1");
+        f4.preference = true;
+        TestFilter f5 = new TestFilter(true, "h1");
+
+        // the independent filters around an inactive one are evaluated together, but not the
+        // ones after a preference
+        List<List<HostSelectionFilter>> stages = new HostSelectionFilterPlanner(
+                new PlacementHostSelectionTaskState(), Arrays.asList(f1, f2, f3, f4, f5))
+                        .getStages();
+        assertEquals(2, stages.size());
+        assertEquals(Arrays.asList(f1, f3, f4), stages.get(0));
+        assertEquals(Arrays.asList(f5), stages.get(1));
+    }
+
+    @Test
+    public void testStagesOfAffinityFilters() {
+        ContainerDescription desc = new ContainerDescription();
+        desc.name = "test";
+        PortBinding portBinding = new PortBinding();
+        portBinding.containerPort = "80";
+        portBinding.hostPort = "8080";
+        desc.portBindings = new PortBinding[] { portBinding };
+        desc.deploymentPolicyId = "test-policy";
+        desc.dependsOn = new String[] { "other" };
+
+        // the filters are only planned, not evaluated
+        PlacementHostSelectionTaskState state = new PlacementHostSelectionTaskState();
+        state.resourceCount = 1;
+        List<List<HostSelectionFilter>> stages = new HostSelectionFilterPlanner(state,
+                AffinityFilters.build(null, desc).getQueue()).getStages();
+        assertEquals(1, stages.size());
+        assertEquals(2, stages.get(0).size());
+        assertTrue(stages.get(0).get(0) instanceof ExposedPortsHostFilter);
+        assertTrue(stages.get(0).get(1) instanceof DeploymentPolicyAffinityFilter);
+
+        // the filters evaluated for clustering only separate the stages of the ones around them
+        state.resourceCount = 2;
+        desc.affinity = new String[] { "!other" };
+        stages = new HostSelectionFilterPlanner(state,
+                AffinityFilters.build(null, desc).getQueue()).getStages();
+        assertEquals(3, stages.size());
+        assertEquals(2, stages.get(0).size());
+        assertTrue(stages.get(1).get(0) instanceof ServiceAntiAffinityHostFilter);
+        assertTrue(stages.get(2).get(0) instanceof ClusterAntiAffinityHostFilter);
+    }
+
+    @Test
+    public void testIntersectIndependentFilters() {
+        TestFilter f1 = new TestFilter(true, "h1", "h2", "h3");
+        TestFilter f2 = new TestFilter(true, "h1", "h2", "h4");
+        TestFilter f3 = new TestFilter(false, "h2", "h3");
+
+        Map<HostSelectionFilter, Long> latencies = new HashMap<>();
+        Result result = execute(Arrays.asList(f1, f2, f3), latencies, "h1", "h2", "h3", "h4");
+
+        assertNull(result.failure);
+        assertEquals(Collections.singleton("h2"), result.hosts.keySet());
+        // the independent filters see all the hosts, the dependent one only their intersection
+        assertEquals(4, f1.candidates.size());
+        assertEquals(4, f2.candidates.size());
+        assertEquals(Arrays.asList("h1", "h2"), new ArrayList<>(f3.candidates));
+        assertEquals(3, latencies.size());
+    }
+
+    @Test
+    public void testPreferenceFilters() {
+        TestFilter f1 = new TestFilter(true, "h1", "h2", "h3");
+        TestFilter f2 = new TestFilter(true, "h2", "h3", "h4");
+        f2.preference = true;
+        TestFilter f3 = new TestFilter(true, "h4");
+        f3.preference = true;
+
+        // the preferences narrow the hosts left only when some of them match
+        Result result = execute(Arrays.asList(f1, f2, f3), new HashMap<>(), "h1", "h2", "h3",
+                "h4");
+        assertNull(result.failure);
+        assertEquals(new HashSet<>(Arrays.asList("h2", "h3")), result.hosts.keySet());
+        assertEquals(4, f3.candidates.size());
+    }
+
+    @Test
+    public void testFailure() {
+        TestFilter f1 = new TestFilter(true, "h1");
+        TestFilter f2 = new TestFilter(true, (String[]) null);
+        TestFilter f3 = new TestFilter(false, "h1");
+
+        Result result = execute(Arrays.asList(f1, f2, f3), new HashMap<>(), "h1", "h2");
+        assertTrue(result.failure instanceof HostSelectionFilterException);
+        assertNull(f3.candidates);
+    }
+
+    @Test
+    public void testStopWhenNoHostsLeft() {
+        TestFilter f1 = new TestFilter(true, "h1");
+        TestFilter f2 = new TestFilter(true, "h2");
+        TestFilter f3 = new TestFilter(false, "h1", "h2");
+
+        Result result = execute(Arrays.asList(f1, f2, f3), new HashMap<>(), "h1", "h2");
+        assertNull(result.failure);
+        assertTrue(result.hosts.isEmpty());
+        assertNull(f3.candidates);
+    }
+
+    private static Result execute(List<HostSelectionFilter> filters,
+            Map<HostSelectionFilter, Long> latencies, String... hostLinks) {
+        Map<String, HostSelection> hostSelectionMap = new LinkedHashMap<>();
+        for (String hostLink : hostLinks) {
+            HostSelection hostSelection = new HostSelection();
+            hostSelection.hostLink = hostLink;
+            hostSelectionMap.put(hostLink, hostSelection);
+        }
+
+        Result result = new Result();
+        new HostSelectionFilterPlanner(new PlacementHostSelectionTaskState(), filters).execute(
+                hostSelectionMap,
+                (filter, latency) -> latencies.put(filter, latency),
+                (hosts, e) -> {
+                    result.hosts = hosts;
+                    result.failure = e;
+                });
+        return result;
+    }
+
+    private static class Result {
+        Map<String, HostSelection> hosts;
+        Throwable failure;
+    }
+
+    private static class TestFilter implements HostSelectionFilter {
+        private final boolean independent;
+        private final Set<String> accepted;
+        private Set<String> candidates;
+        private boolean active = true;
+        private boolean preference;
+
+        TestFilter(boolean independent, String... accepted) {
+            this.independent = independent;
+            this.accepted = accepted != null ? new HashSet<>(Arrays.asList(accepted))
+                    : null;
+        }
+
+        @Override
+        public void filter(PlacementHostSelectionTaskState state,
+                Map<String, HostSelection> hostSelectionMap,
+                HostSelectionFilterCompletion callback) {
+            candidates = new LinkedHashSet<>(hostSelectionMap.keySet());
+            if (accepted == null) {
+                callback.complete(null, new HostSelectionFilterException("failed"));
+                return;
+            }
+            if (!preference || !Collections.disjoint(hostSelectionMap.keySet(), accepted)) {
+                hostSelectionMap.keySet().retainAll(accepted);
+            }
+            callback.complete(hostSelectionMap, null);
+        }
+
+        @Override
+        public boolean isIndependent() {
+            return independent;
+        }
+
+        @Override
+        public boolean isPreference() {
+            return preference;
+        }
+
+        @Override
+        public boolean isActive() {
+            return active;
+        }
+
+        @Override
+        public Map<String, AffinityConstraint> getAffinityConstraints() {
+            return Collections.emptyMap();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.allocation.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.compute.ContainerHostService;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.PortBinding;
+import com.vmware.admiral.request.allocation.filter.PlacementInventory.ContainerView;
+import com.vmware.admiral.request.allocation.filter.PlacementInventory.HostView;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.photon.controller.model.resources.ComputeService.PowerState;
+import com.vmware.xenon.common.Service.Action;
+
+public class PlacementInventoryTest {
+    private static final String POOL = "/resources/pools/p1";
+    private static final String DESC = "/resources/compute-descriptions/d1";
+    private static final String CONTEXT = "/resources/composite-components/c1";
+    private static final String CONTAINER_DESC = "/resources/container-descriptions/cd1";
+
+    private PlacementInventory inventory;
+
+    @Before
+    public void setUp() {
+        inventory = new PlacementInventory(null);
+    }
+
+    @Test
+    public void testHosts() {
+        inventory.updateHost(host("h1", 1, PowerState.ON, "1000"));
+        inventory.updateHost(host("h2", 1, PowerState.OFF, null));
+
+        List<HostView> hosts = inventory.getHosts(Arrays.asList(POOL), Arrays.asList(DESC));
+        assertEquals(1, hosts.size());
+        assertEquals(1000L, (long) hosts.get(0).availableMemory);
+
+        // an older version does not override a newer one
+        inventory.updateHost(host("h2", 3, PowerState.ON, null));
+        inventory.updateHost(host("h2", 2, PowerState.OFF, null));
+        hosts = inventory.getHosts(Arrays.asList(POOL), Arrays.asList(DESC));
+        assertEquals(2, hosts.size());
+
+        ComputeState deleted = host("h1", 2, PowerState.ON, "1000");
+        deleted.documentUpdateAction = Action.DELETE.toString();
+        inventory.updateHost(deleted);
+        hosts = inventory.getHosts(Arrays.asList(POOL), Arrays.asList(DESC));
+        assertEquals(1, hosts.size());
+        assertEquals("h2", hosts.get(0).hostLink);
+        assertEquals(Long.MAX_VALUE, (long) hosts.get(0).availableMemory);
+    }
+
+    @Test
+    public void testDeletedWhileLoading() {
+        ContainerState deleted = container("c1", "h1", 2, ContainerState.PowerState.RUNNING,
+                "80");
+        deleted.documentUpdateAction = Action.DELETE.toString();
+        inventory.updateContainer(deleted);
+
+        // the load returns the container as it was before the deletion
+        inventory.updateContainer(container("c1", "h1", 1, ContainerState.PowerState.RUNNING,
+                "80"));
+        assertTrue(inventory.getContainers(Arrays.asList("h1"), CONTEXT,
+                Arrays.asList(CONTAINER_DESC)).isEmpty());
+    }
+
+    @Test
+    public void testExposedPorts() {
+        inventory.updateContainer(container("c1", "h1", 1, ContainerState.PowerState.RUNNING,
+                "80"));
+        inventory.updateContainer(container("c2", "h2", 1, ContainerState.PowerState.STOPPED,
+                "80"));
+        inventory.updateContainer(container("c3", "h3", 1, ContainerState.PowerState.RUNNING,
+                "8080"));
+
+        assertEquals(Collections.singleton("h1"), inventory.getHostsWithExposedPorts(
+                Arrays.asList("h1", "h2", "h3"), Arrays.asList("80")));
+
+        // the container moves to another host
+        inventory.updateContainer(container("c1", "h2", 2, ContainerState.PowerState.RUNNING,
+                "80"));
+        assertEquals(Collections.singleton("h2"), inventory.getHostsWithExposedPorts(
+                Arrays.asList("h1", "h2", "h3"), Arrays.asList("80")));
+    }
+
+    @Test
+    public void testContainers() {
+        inventory.updateContainer(container("c1", "h1", 1, ContainerState.PowerState.RUNNING,
+                null));
+        ContainerState otherContext = container("c2", "h1", 1,
+                ContainerState.PowerState.RUNNING, null);
+        otherContext.compositeComponentLink = "/resources/composite-components/c2";
+        inventory.updateContainer(otherContext);
+
+        List<ContainerView> containers = inventory.getContainers(Arrays.asList("h1", "h2"),
+                CONTEXT, Arrays.asList(CONTAINER_DESC));
+        assertEquals(1, containers.size());
+        assertEquals("c1", containers.get(0).documentSelfLink);
+        assertEquals(Arrays.asList("c1-name"), containers.get(0).names);
+    }
+
+    @Test
+    public void testReservations() {
+        inventory.reserve("h1", CONTAINER_DESC, CONTEXT, 2);
+        inventory.reserve("h1", CONTAINER_DESC, CONTEXT, 1);
+        assertEquals(3, inventory.getReserved("h1", CONTAINER_DESC, CONTEXT));
+        assertEquals(0, inventory.getReserved("h2", CONTAINER_DESC, CONTEXT));
+
+        // the reservations are released as the containers are created
+        inventory.updateContainer(container("c1", "h1", 1,
+                ContainerState.PowerState.PROVISIONING, null));
+        inventory.updateContainer(container("c1", "h1", 2, ContainerState.PowerState.RUNNING,
+                null));
+        assertEquals(2, inventory.getReserved("h1", CONTAINER_DESC, CONTEXT));
+        inventory.updateContainer(container("c2", "h1", 1, ContainerState.PowerState.RUNNING,
+                null));
+        inventory.updateContainer(container("c3", "h1", 1, ContainerState.PowerState.RUNNING,
+                null));
+        assertEquals(0, inventory.getReserved("h1", CONTAINER_DESC, CONTEXT));
+    }
+
+    private static ComputeState host(String link, long version, PowerState powerState,
+            String availableMemory) {
+        ComputeState computeState = new ComputeState();
+        computeState.documentSelfLink = link;
+        computeState.documentVersion = version;
+        computeState.resourcePoolLink = POOL;
+        computeState.descriptionLink = DESC;
+        computeState.powerState = powerState;
+        computeState.customProperties = new HashMap<>();
+        if (availableMemory != null) {
+            computeState.customProperties.put(
+                    ContainerHostService.DOCKER_HOST_AVAILABLE_MEMORY_PROP_NAME, availableMemory);
+        }
+        return computeState;
+    }
+
+    private static ContainerState container(String link, String hostLink, long version,
+            ContainerState.PowerState powerState, String hostPort) {
+        ContainerState containerState = new ContainerState();
+        containerState.documentSelfLink = link;
+        containerState.documentVersion = version;
+        containerState.parentLink = hostLink;
+        containerState.descriptionLink = CONTAINER_DESC;
+        containerState.compositeComponentLink = CONTEXT;
+        containerState.names = Arrays.asList(link + "-name");
+        containerState.powerState = powerState;
+        if (hostPort != null) {
+            PortBinding port = new PortBinding();
+            port.hostPort = hostPort;
+            containerState.ports = Arrays.asList(port);
+        }
+        return containerState;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.allocation.score;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.vmware.admiral.request.allocation.filter.HostSelectionFilter.HostSelection;
+
+public class HostScorersTest {
+    private static final long GB = 1024L * 1024 * 1024;
+
+    @Test
+    public void testGetScorer() {
+        assertTrue(HostScorers.get("Spread") instanceof SpreadHostScorer);
+        assertTrue(HostScorers.get(BinPackHostScorer.NAME) instanceof BinPackHostScorer);
+        assertNull(HostScorers.get("unknown"));
+        assertNull(HostScorers.get(null));
+    }
+
+    @Test
+    public void testSpread() {
+        HostSelection h1 = host("h1", 8 * GB, 16 * GB, 10.0, 0);
+        HostSelection h2 = host("h2", 2 * GB, 16 * GB, 10.0, 0);
+        HostSelection h3 = host("h3", 8 * GB, 16 * GB, 30.0, 0);
+
+        List<String> placed = links(HostScorers.assign(Arrays.asList(h1, h2, h3), 4, GB,
+                new SpreadHostScorer()));
+        // the least loaded host first, then the others as the load evens out
+        assertEquals(Arrays.asList("h1", "h1", "h1", "h3"), placed.subList(0, 4));
+        // followed by the host nothing was placed on
+        assertEquals(Arrays.asList("h2"), placed.subList(4, placed.size()));
+    }
+
+    @Test
+    public void testSpreadByContainerCount() {
+        HostSelection h1 = host("h1", null, null, null, 5);
+        HostSelection h2 = host("h2", null, null, null, 3);
+
+        assertEquals(Arrays.asList("h2", "h2", "h1", "h2"), links(HostScorers.assign(
+                Arrays.asList(h1, h2), 4, null, new SpreadHostScorer())));
+    }
+
+    @Test
+    public void testBinPack() {
+        HostSelection h1 = host("h1", 8 * GB, 16 * GB, 10.0, 0);
+        HostSelection h2 = host("h2", 3 * GB, 16 * GB, 10.0, 0);
+        HostSelection h3 = host("h3", 12 * GB, 16 * GB, 10.0, 0);
+
+        List<String> placed = links(HostScorers.assign(Arrays.asList(h1, h2, h3), 4, 2 * GB,
+                new BinPackHostScorer()));
+        // the densest host the resource fits on, then the next one once it is full
+        assertEquals(Arrays.asList("h2", "h1", "h1", "h1", "h3"), placed);
+    }
+
+    @Test
+    public void testCluster() {
+        // the nodes of the cluster already on the hosts, as counted by the cluster filter
+        HostSelection h1 = host("h1", 8 * GB, 16 * GB, 10.0, 0);
+        h1.containerCount = 2;
+        HostSelection h2 = host("h2", 8 * GB, 16 * GB, 50.0, 0);
+        HostSelection h3 = host("h3", 8 * GB, 16 * GB, 10.0, 0);
+
+        List<String> placed = links(HostScorers.assign(Arrays.asList(h1, h2, h3), 5, GB,
+                new ClusterHostScorer()));
+        // the hosts with the fewest nodes first, the less loaded one on a tie, until all are even
+        assertEquals(Arrays.asList("h3", "h2", "h3", "h2", "h1"), placed);
+    }
+
+    @Test
+    public void testNoHostFits() {
+        HostSelection h1 = host("h1", GB, 16 * GB, 10.0, 0);
+
+        assertEquals(Arrays.asList("h1", "h1"), links(HostScorers.assign(Arrays.asList(h1), 2,
+                2 * GB, new BinPackHostScorer())));
+    }
+
+    private static List<String> links(List<HostSelection> hostSelections) {
+        return hostSelections.stream().map((h) -> h.hostLink).collect(Collectors.toList());
+    }
+
+    private static HostSelection host(String hostLink, Long availableMemory, Long totalMemory,
+            Double cpuUsage, long containerCount) {
+        HostSelection hostSelection = new HostSelection();
+        hostSelection.hostLink = hostLink;
+        hostSelection.availableMemory = availableMemory;
+        hostSelection.totalMemory = totalMemory;
+        hostSelection.cpuUsage = cpuUsage;
+        hostSelection.hostContainerCount = containerCount;
+        return hostSelection;
+    }
+}
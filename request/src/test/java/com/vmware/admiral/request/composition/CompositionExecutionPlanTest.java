@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2016 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request.composition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.compute.ResourceType;
+import com.vmware.admiral.request.composition.CompositionExecutionPlan.CriticalPath;
+import com.vmware.admiral.request.composition.CompositionExecutionPlan.Status;
+import com.vmware.admiral.request.composition.CompositionGraph.ResourceNode;
+
+public class CompositionExecutionPlanTest {
+    private static final String CONTAINER_TYPE = ResourceType.CONTAINER_TYPE.getName();
+    private static final String NETWORK_TYPE = ResourceType.NETWORK_TYPE.getName();
+
+    private Map<String, ResourceNode> resourceNodes;
+
+    @Before
+    public void setup() {
+        // net <- db <- app <- web, net <- cache
+        resourceNodes = new HashMap<>();
+        addNode("net", NETWORK_TYPE);
+        addNode("db", CONTAINER_TYPE, "net");
+        addNode("cache", CONTAINER_TYPE, "net");
+        addNode("app", CONTAINER_TYPE, "db");
+        addNode("web", CONTAINER_TYPE, "app");
+    }
+
+    @Test
+    public void testStartOnDependenciesFinished() {
+        CompositionExecutionPlan plan = new CompositionExecutionPlan(resourceNodes);
+
+        assertEquals(Arrays.asList(link("net")), plan.nextToStart());
+        assertTrue(plan.nextToStart().isEmpty());
+
+        assertTrue(plan.finished(link("net")));
+        // the longest chain first
+        assertEquals(Arrays.asList(link("db"), link("cache")), plan.nextToStart());
+
+        // not waiting for the other tasks of the same level
+        assertTrue(plan.finished(link("db")));
+        assertEquals(Arrays.asList(link("app")), plan.nextToStart());
+        assertTrue(plan.finished(link("app")));
+        assertEquals(Arrays.asList(link("web")), plan.nextToStart());
+
+        // completed more than once
+        assertFalse(plan.finished(link("app")));
+    }
+
+    @Test
+    public void testMaxConcurrentPerResourceType() {
+        CompositionExecutionPlan plan = new CompositionExecutionPlan(resourceNodes,
+                (type) -> CONTAINER_TYPE.equals(type) ? 1 : null);
+
+        assertEquals(Arrays.asList(link("net")), plan.nextToStart());
+        plan.finished(link("net"));
+
+        assertEquals(Arrays.asList(link("db")), plan.nextToStart());
+        assertTrue(plan.nextToStart().isEmpty());
+
+        plan.finished(link("db"));
+        assertEquals(Arrays.asList(link("app")), plan.nextToStart());
+    }
+
+    @Test
+    public void testSkipDependentsOfFailed() {
+        CompositionExecutionPlan plan = new CompositionExecutionPlan(resourceNodes);
+
+        plan.nextToStart();
+        plan.finished(link("net"));
+        plan.nextToStart();
+
+        assertTrue(plan.failed(link("db")));
+        assertEquals(new HashSet<>(Arrays.asList(link("app"), link("web"))),
+                new HashSet<>(plan.nextToSkip()));
+        assertTrue(plan.nextToSkip().isEmpty());
+        assertTrue(plan.nextToStart().isEmpty());
+
+        // the skipped tasks complete with an error
+        assertFalse(plan.failed(link("app")));
+        assertTrue(plan.finished(link("cache")));
+    }
+
+    @Test
+    public void testRestore() {
+        CompositionExecutionPlan plan = new CompositionExecutionPlan(resourceNodes);
+        plan.restore(link("net"), Status.FINISHED);
+        plan.restore(link("db"), Status.STARTED);
+        plan.restore(link("cache"), Status.FAILED);
+        plan.skipDependentsOfFailed();
+
+        assertTrue(plan.nextToSkip().isEmpty());
+        assertTrue(plan.nextToStart().isEmpty());
+
+        assertTrue(plan.finished(link("db")));
+        assertEquals(Arrays.asList(link("app")), plan.nextToStart());
+    }
+
+    @Test
+    public void testCriticalPath() throws Throwable {
+        CompositionExecutionPlan plan = new CompositionExecutionPlan(resourceNodes);
+        for (List<String> next = plan.nextToStart(); !next.isEmpty(); next = plan
+                .nextToStart()) {
+            Thread.sleep(1);
+            next.forEach(plan::finished);
+        }
+
+        CriticalPath criticalPath = plan.getCriticalPath();
+        assertEquals(Arrays.asList("net", "db", "app", "web"), criticalPath.names);
+        assertTrue(criticalPath.timeMicros > 0);
+    }
+
+    private void addNode(String name, String resourceType, String... dependsOn) {
+        ResourceNode resourceNode = new ResourceNode();
+        resourceNode.name = name;
+        resourceNode.resourceType = resourceType;
+        resourceNode.resourceDescLink = "/resources/descriptions/" + name;
+        if (dependsOn.length > 0) {
+            resourceNode.dependsOn = new HashSet<>(Arrays.asList(dependsOn));
+        }
+        resourceNodes.put(link(name), resourceNode);
+    }
+
+    private static String link(String name) {
+        return "/request/composition-sub-tasks/test-" + name;
+    }
+}